@@ -20,6 +20,7 @@ import java.io.IOException;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -60,6 +61,7 @@ import org.apache.cxf.binding.soap.model.SoapBindingInfo;
 import org.apache.cxf.binding.soap.model.SoapBodyInfo;
 import org.apache.cxf.bus.spring.SpringBusFactory;
 import org.apache.cxf.catalog.OASISCatalogManager;
+import org.apache.cxf.configuration.Configurer;
 import org.apache.cxf.endpoint.Client;
 import org.apache.cxf.endpoint.ClientImpl;
 import org.apache.cxf.endpoint.Endpoint;
@@ -85,6 +87,7 @@ import org.apache.cxf.service.model.ServiceInfo;
 import org.apache.cxf.transport.Conduit;
 import org.apache.cxf.transport.ConduitInitiator;
 import org.apache.cxf.transport.ConduitInitiatorManager;
+import org.apache.cxf.transport.http.HTTPConduit;
 import org.apache.cxf.wsdl.WSDLManager;
 import org.apache.cxf.wsdl11.ServiceWSDLBuilder;
 import org.apache.cxf.wsdl11.WSDLServiceBuilder;
@@ -126,8 +129,19 @@ public class CxfBcProvider extends ProviderEndpoint implements
     
     private Bus providedBus;
 
+    public static final int DEFAULT_CONDUIT_CACHE_SIZE = 64;
+
     private ConduitInitiator conduitInit;
     private Conduit conduit;
+    private CxfBcProviderMessageObserver messageObserver;
+
+    private int conduitCacheSize = DEFAULT_CONDUIT_CACHE_SIZE;
+
+    /**
+     * Conduits for the dynamic destinations given by the
+     * JbiConstants.HTTP_DESTINATION_URI property, in access order
+     */
+    private Map<String, CachedConduit> conduits;
 
     private URI locationURI;
 
@@ -188,12 +202,24 @@ public class CxfBcProvider extends ProviderEndpoint implements
         NormalizedMessage nm = exchange.getMessage("in");
 
         Object newDestinationURI = nm.getProperty(JbiConstants.HTTP_DESTINATION_URI);
-        
-        
+        if (newDestinationURI == null) {
+            process(exchange, nm, conduit, null);
+            return;
+        }
+        // the conduit can not be closed while the message is being sent
+        CachedConduit cached = acquireConduit((String) newDestinationURI);
+        try {
+            process(exchange, nm, cached.conduit, (String) newDestinationURI);
+        } finally {
+            releaseConduit(cached);
+        }
+    }
+
+    private void process(MessageExchange exchange, NormalizedMessage nm, Conduit conduit, String destinationURI)
+        throws Exception {
         Message message = ep.getBinding().createMessage();
-        if (newDestinationURI != null) {
-            ei.setAddress((String) newDestinationURI);
-            message.put(Message.ENDPOINT_ADDRESS, newDestinationURI);
+        if (destinationURI != null) {
+            message.put(Message.ENDPOINT_ADDRESS, destinationURI);
         }
         message.put(MessageExchange.class, exchange);
         Exchange cxfExchange = new ExchangeImpl();
@@ -264,6 +290,86 @@ public class CxfBcProvider extends ProviderEndpoint implements
         }
     }
 
+    /**
+     * Returns the conduit used to send messages to the given address.
+     * The shared endpoint info is never modified: each destination gets its
+     * own conduit, and thus its own connections, which is kept in a bounded
+     * LRU cache so that busy destinations keep their connections warm.
+     */
+    protected Conduit getConduit(String address) throws IOException {
+        CachedConduit cached = acquireConduit(address);
+        releaseConduit(cached);
+        return cached.conduit;
+    }
+
+    /**
+     * Returns the cached conduit for the given address, creating it if needed,
+     * and marks it as used until {@link #releaseConduit(CachedConduit)} is called.
+     */
+    private CachedConduit acquireConduit(String address) throws IOException {
+        synchronized (conduits) {
+            CachedConduit cached = conduits.get(address);
+            if (cached == null) {
+                EndpointInfo info = new EndpointInfo(ei.getService(), ei.getTransportId());
+                info.setName(ei.getName());
+                info.setBinding(ei.getBinding());
+                info.setAddress(address);
+                if (ei.getExtensors(Object.class) != null) {
+                    for (Object extensor : ei.getExtensors(Object.class)) {
+                        info.addExtensor(extensor);
+                    }
+                }
+                Conduit c = conduitInit.getConduit(info);
+                configureConduit(c);
+                c.setMessageObserver(messageObserver);
+                cached = new CachedConduit(c);
+                conduits.put(address, cached);
+            }
+            cached.users++;
+            return cached;
+        }
+    }
+
+    /**
+     * Releases a conduit obtained from {@link #acquireConduit(String)}, closing
+     * it if it has been evicted or the endpoint stopped in the meantime.
+     */
+    private void releaseConduit(CachedConduit cached) {
+        synchronized (conduits) {
+            cached.users--;
+            closeIfIdle(cached);
+        }
+    }
+
+    private static void closeIfIdle(CachedConduit cached) {
+        if (cached.evicted && cached.users == 0) {
+            cached.conduit.close();
+        }
+    }
+
+    /**
+     * Applies to a per-destination conduit the configuration of the shared one:
+     * the bus configuration for the endpoint, the features, and the HTTP settings
+     * (TLS, client policy, authorization) which may have been set on the shared conduit.
+     */
+    private void configureConduit(Conduit c) {
+        Configurer configurer = getBus().getExtension(Configurer.class);
+        if (configurer != null) {
+            configurer.configureBean(c);
+        }
+        if (conduit instanceof HTTPConduit && c instanceof HTTPConduit) {
+            HTTPConduit shared = (HTTPConduit) conduit;
+            HTTPConduit http = (HTTPConduit) c;
+            http.setTlsClientParameters(shared.getTlsClientParameters());
+            http.setClient(shared.getClient());
+            http.setAuthorization(shared.getAuthorization());
+            http.setProxyAuthorization(shared.getProxyAuthorization());
+            http.setAuthSupplier(shared.getAuthSupplier());
+            http.setTrustDecider(shared.getTrustDecider());
+        }
+        applyFeatures(c);
+    }
+
     private void faultProcess(MessageExchange exchange, Message message, Exception e) throws MessagingException {
         javax.jbi.messaging.Fault fault = exchange.createFault();
         if (e.getCause() != null) {
@@ -545,8 +651,19 @@ public class CxfBcProvider extends ProviderEndpoint implements
                 conduitInit = conduitMgr.getConduitInitiator(ei
                         .getTransportId());
                 conduit = conduitInit.getConduit(ei);
-                CxfBcProviderMessageObserver obs = new CxfBcProviderMessageObserver(this);
-                conduit.setMessageObserver(obs);
+                messageObserver = new CxfBcProviderMessageObserver(this);
+                conduit.setMessageObserver(messageObserver);
+                conduits = new LinkedHashMap<String, CachedConduit>(16, 0.75f, true) {
+                    protected boolean removeEldestEntry(Map.Entry<String, CachedConduit> eldest) {
+                        if (size() > conduitCacheSize) {
+                            // conduits still sending a message are closed when released
+                            eldest.getValue().evicted = true;
+                            closeIfIdle(eldest.getValue());
+                            return true;
+                        }
+                        return false;
+                    }
+                };
                 checkWSRMInterceptors();
                 super.validate();
             }
@@ -629,8 +746,27 @@ public class CxfBcProvider extends ProviderEndpoint implements
 
     }
 
+    @Override
+    public void stop() throws Exception {
+        if (conduits != null) {
+            synchronized (conduits) {
+                // conduits still sending a message are closed when released
+                for (CachedConduit cached : conduits.values()) {
+                    cached.evicted = true;
+                    closeIfIdle(cached);
+                }
+                conduits.clear();
+            }
+        }
+        super.stop();
+    }
+
     private void applyFeatures() {
-        Client client = new ClientImpl(getBus(), ep, conduit);
+        applyFeatures(conduit);
+    }
+
+    private void applyFeatures(Conduit c) {
+        Client client = new ClientImpl(getBus(), ep, c);
         if (getFeatures() != null) {
             for (AbstractFeature feature : getFeatures()) {
                 feature.initialize(client, getBus());
@@ -817,4 +953,34 @@ public class CxfBcProvider extends ProviderEndpoint implements
      public Map<String, Object> getProperties() {
          return this.properties;
      }
+
+     public int getConduitCacheSize() {
+         return conduitCacheSize;
+     }
+
+     /**
+      * Specifies the maximum number of conduits kept for the dynamic destinations
+      * set on exchanges with the <code>JbiConstants.HTTP_DESTINATION_URI</code> property.
+      * The least recently used conduit is closed when the limit is reached.
+      *
+      * @param conduitCacheSize
+      *             the maximum number of cached conduits
+      * @org.apache.xbean.Property description="the maximum number of conduits cached for dynamic destination addresses. Default is <code>64</code>."
+      */
+     public void setConduitCacheSize(int conduitCacheSize) {
+         this.conduitCacheSize = conduitCacheSize;
+     }
+
+     /**
+      * A conduit of the cache, with the number of exchanges using it.
+      */
+     private static final class CachedConduit {
+         private final Conduit conduit;
+         private int users;
+         private boolean evicted;
+
+         private CachedConduit(Conduit conduit) {
+             this.conduit = conduit;
+         }
+     }
 }
@@ -16,23 +16,54 @@
  */
 package org.apache.servicemix.cxfbc.interceptors;
 
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.transform.Source;
 import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
+import javax.xml.validation.ValidatorHandler;
 
 import org.apache.cxf.binding.soap.SoapMessage;
 import org.apache.cxf.binding.soap.interceptor.AbstractSoapInterceptor;
 import org.apache.cxf.interceptor.Fault;
 import org.apache.cxf.service.Service;
+import org.apache.cxf.service.model.ServiceInfo;
 import org.apache.cxf.service.model.ServiceModelUtil;
+import org.apache.cxf.staxutils.StaxUtils;
 import org.apache.cxf.wsdl.EndpointReferenceUtils;
 import org.apache.servicemix.jbi.jaxp.SourceTransformer;
 import org.apache.servicemix.soap.util.DomUtil;
+import org.apache.servicemix.soap.util.stax.StaxSource;
+import org.apache.servicemix.soap.util.stax.StaxUtil;
 import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 
-
+/**
+ * Validates the parts of a message against the schema of the service.
+ * <p>
+ * The content is read as a StAX stream and fed to a SAX {@link ValidatorHandler},
+ * so no DOM is built for the validation.  DOM content is validated in place
+ * and an invalid message is rejected with a {@link Fault}.  Streamed content is
+ * not buffered: it is replaced by a {@link ValidatingStreamReader} which validates
+ * the events as they are read, so that invalid streamed content is reported by
+ * the reader to whoever consumes the message.  The schema and a pool of
+ * validator handlers are kept on the {@link ServiceInfo} so that they are
+ * shared by all the interceptors of an endpoint.
+ */
 public abstract class AbstractSchemaValidationInterceptor extends
         AbstractSoapInterceptor {
+
+    static final String SCHEMA_PROPERTY =
+        AbstractSchemaValidationInterceptor.class.getName() + ".schema";
+    private static final String VALIDATORS_PROPERTY =
+        AbstractSchemaValidationInterceptor.class.getName() + ".validators";
+
+    private static final SourceTransformer TRANSFORMER = new SourceTransformer();
+
     private boolean useJBIWrapper = true;
     private boolean useSOAPEnvelope = true;
     
@@ -45,31 +76,65 @@ public abstract class AbstractSchemaValidationInterceptor extends
     protected void validateMessage(SoapMessage message) throws Fault {
         Service service = ServiceModelUtil.getService(message.getExchange());
         if (service != null) {
-            Schema schema = EndpointReferenceUtils.getSchema(service.getServiceInfos().get(0));
+            ServiceInfo serviceInfo = service.getServiceInfos().get(0);
+            Schema schema = getSchema(serviceInfo);
             if (schema != null) {
-                javax.xml.validation.Validator validator = schema.newValidator();
+                Queue<ValidatorHandler> validators = getValidators(serviceInfo);
+                ValidatorHandler handler = validators.poll();
+                if (handler == null) {
+                    handler = schema.newValidatorHandler();
+                }
+                int validationDepth = !useJBIWrapper && !useSOAPEnvelope ? 1 : 3;
                 try {
-                    Element sourceMessage = new SourceTransformer().toDOMElement(message.getContent(Source.class));
-                    message.setContent(Source.class, new DOMSource(sourceMessage));
-                    if (!useJBIWrapper && !useSOAPEnvelope) {
-                        validator.validate(new DOMSource(sourceMessage));
+                    Source source = message.getContent(Source.class);
+                    if (source instanceof DOMSource) {
+                        // already parsed, validate it in place
+                        Node node = ((DOMSource) source).getNode();
+                        Element element = node instanceof Element
+                            ? (Element) node : DomUtil.getFirstChildElement(node);
+                        XMLStreamReader reader = new ValidatingStreamReader(
+                            StaxUtils.createXMLStreamReader(element), handler, validationDepth, validators);
+                        while (reader.hasNext() && reader.next() != XMLStreamConstants.END_DOCUMENT) {
+                            // the events are validated as they are read
+                        }
                     } else {
-                        Element partWrapper = DomUtil
-                                .getFirstChildElement(sourceMessage);
-                        while (partWrapper != null) {
-                            Element partContent = DomUtil
-                                    .getFirstChildElement(partWrapper);
-                            validator.validate(new DOMSource(partContent));
-                            partWrapper = DomUtil
-                                    .getNextSiblingElement(partWrapper);
+                        if (!(source instanceof StaxSource) && !(source instanceof StreamSource)) {
+                            source = TRANSFORMER.toStreamSource(source);
                         }
+                        XMLStreamReader reader = new ValidatingStreamReader(
+                            StaxUtil.createReader(source), handler, validationDepth, validators);
+                        message.setContent(Source.class, new StaxSource(reader));
                     }
-                    
+                } catch (Fault e) {
+                    throw e;
                 } catch (Exception e) {
                     throw new Fault(e);
                 }
             }
         }
     }
-    
+
+    private Schema getSchema(ServiceInfo serviceInfo) {
+        Schema schema = serviceInfo.getProperty(SCHEMA_PROPERTY, Schema.class);
+        if (schema == null) {
+            schema = EndpointReferenceUtils.getSchema(serviceInfo);
+            if (schema != null) {
+                serviceInfo.setProperty(SCHEMA_PROPERTY, schema);
+            }
+        }
+        return schema;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Queue<ValidatorHandler> getValidators(ServiceInfo serviceInfo) {
+        synchronized (serviceInfo) {
+            Queue<ValidatorHandler> validators = serviceInfo.getProperty(VALIDATORS_PROPERTY, Queue.class);
+            if (validators == null) {
+                validators = new ConcurrentLinkedQueue<ValidatorHandler>();
+                serviceInfo.setProperty(VALIDATORS_PROPERTY, validators);
+            }
+            return validators;
+        }
+    }
+
 }
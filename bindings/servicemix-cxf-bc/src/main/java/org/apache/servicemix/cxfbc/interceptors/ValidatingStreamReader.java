@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.cxfbc.interceptors;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.util.StreamReaderDelegate;
+import javax.xml.validation.ValidatorHandler;
+
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * A stream reader sending the events it reads to a {@link ValidatorHandler}.
+ * <p>
+ * With a validation depth of 1 the root element is validated, with a depth of 3
+ * the first child element of each element found at depth 2 (JBI part or SOAP
+ * body) is.  A validation error is thrown as an {@link XMLStreamException} by the
+ * read which reached the invalid content.  Once the whole content has been read
+ * without error, the handler is given back to the pool it was taken from.
+ */
+class ValidatingStreamReader extends StreamReaderDelegate {
+
+    private final ValidatorHandler handler;
+    private final int validationDepth;
+    private final Queue<ValidatorHandler> pool;
+    // namespaces declared on the ancestors of the current element
+    private final List<String[]> namespaces = new ArrayList<String[]>();
+    private final List<Integer> namespaceMarks = new ArrayList<Integer>();
+    private boolean partValidated;
+    private boolean validating;
+    private boolean done;
+    private int depth;
+
+    ValidatingStreamReader(XMLStreamReader reader, ValidatorHandler handler,
+                           int validationDepth, Queue<ValidatorHandler> pool) throws XMLStreamException {
+        super(reader);
+        this.handler = handler;
+        this.validationDepth = validationDepth;
+        this.pool = pool;
+        handle(reader.getEventType());
+    }
+
+    public int next() throws XMLStreamException {
+        return handle(super.next());
+    }
+
+    public int nextTag() throws XMLStreamException {
+        int event = next();
+        while ((event == XMLStreamConstants.CHARACTERS && isWhiteSpace())
+               || (event == XMLStreamConstants.CDATA && isWhiteSpace())
+               || event == XMLStreamConstants.SPACE
+               || event == XMLStreamConstants.PROCESSING_INSTRUCTION
+               || event == XMLStreamConstants.COMMENT) {
+            event = next();
+        }
+        if (event != XMLStreamConstants.START_ELEMENT && event != XMLStreamConstants.END_ELEMENT) {
+            throw new XMLStreamException("expected start or end tag", getLocation());
+        }
+        return event;
+    }
+
+    public String getElementText() throws XMLStreamException {
+        if (getEventType() != XMLStreamConstants.START_ELEMENT) {
+            throw new XMLStreamException("parser must be on START_ELEMENT to read next text", getLocation());
+        }
+        StringBuffer text = new StringBuffer();
+        int event = next();
+        while (event != XMLStreamConstants.END_ELEMENT) {
+            if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+                || event == XMLStreamConstants.SPACE || event == XMLStreamConstants.ENTITY_REFERENCE) {
+                text.append(getText());
+            } else if (event == XMLStreamConstants.START_ELEMENT) {
+                throw new XMLStreamException("element text content may not contain START_ELEMENT", getLocation());
+            } else if (event == XMLStreamConstants.END_DOCUMENT) {
+                throw new XMLStreamException("unexpected end of document when reading element text content",
+                                             getLocation());
+            }
+            event = next();
+        }
+        return text.toString();
+    }
+
+    private int handle(int event) throws XMLStreamException {
+        if (done) {
+            return event;
+        }
+        try {
+            switch (event) {
+            case XMLStreamConstants.START_ELEMENT:
+                startElement();
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                endElement();
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.SPACE:
+            case XMLStreamConstants.CDATA:
+                if (validating) {
+                    handler.characters(getTextCharacters(), getTextStart(), getTextLength());
+                }
+                break;
+            case XMLStreamConstants.END_DOCUMENT:
+                done = true;
+                break;
+            default:
+                break;
+            }
+        } catch (SAXException e) {
+            done = true;
+            throw new XMLStreamException(e.getMessage(), getLocation(), e);
+        }
+        if (done && !validating) {
+            pool.offer(handler);
+        }
+        return event;
+    }
+
+    private void startElement() throws SAXException {
+        depth++;
+        if (depth == validationDepth - 1) {
+            partValidated = false;
+        }
+        if (depth == validationDepth && !partValidated) {
+            partValidated = true;
+            validating = true;
+            handler.startDocument();
+            for (String[] ns : namespaces) {
+                handler.startPrefixMapping(ns[0], ns[1]);
+            }
+        }
+        namespaceMarks.add(namespaces.size());
+        for (int i = 0; i < getNamespaceCount(); i++) {
+            String prefix = nonNull(getNamespacePrefix(i));
+            String uri = nonNull(getNamespaceURI(i));
+            namespaces.add(new String[] {prefix, uri});
+            if (validating) {
+                handler.startPrefixMapping(prefix, uri);
+            }
+        }
+        if (validating) {
+            handler.startElement(nonNull(getNamespaceURI()), getLocalName(),
+                                 qualify(getPrefix(), getLocalName()), getAttributes());
+        }
+    }
+
+    private void endElement() throws SAXException {
+        if (validating) {
+            handler.endElement(nonNull(getNamespaceURI()), getLocalName(),
+                               qualify(getPrefix(), getLocalName()));
+            for (int i = 0; i < getNamespaceCount(); i++) {
+                handler.endPrefixMapping(nonNull(getNamespacePrefix(i)));
+            }
+            if (depth == validationDepth) {
+                handler.endDocument();
+                validating = false;
+            }
+        }
+        int mark = namespaceMarks.remove(namespaceMarks.size() - 1);
+        while (namespaces.size() > mark) {
+            namespaces.remove(namespaces.size() - 1);
+        }
+        depth--;
+        if (depth == 0) {
+            done = true;
+        }
+    }
+
+    private AttributesImpl getAttributes() {
+        AttributesImpl attributes = new AttributesImpl();
+        for (int i = 0; i < getAttributeCount(); i++) {
+            String localName = getAttributeLocalName(i);
+            attributes.addAttribute(nonNull(getAttributeNamespace(i)), localName,
+                                    qualify(getAttributePrefix(i), localName),
+                                    "CDATA", getAttributeValue(i));
+        }
+        return attributes;
+    }
+
+    private static String qualify(String prefix, String localName) {
+        return prefix == null || prefix.length() == 0 ? localName : prefix + ":" + localName;
+    }
+
+    private static String nonNull(String s) {
+        return s != null ? s : "";
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.cxfbc.interceptors;
+
+import java.io.StringReader;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.SchemaFactory;
+
+import junit.framework.TestCase;
+
+import org.apache.cxf.binding.soap.SoapMessage;
+import org.apache.cxf.interceptor.Fault;
+import org.apache.cxf.message.Exchange;
+import org.apache.cxf.message.ExchangeImpl;
+import org.apache.cxf.message.MessageImpl;
+import org.apache.cxf.service.Service;
+import org.apache.cxf.service.ServiceImpl;
+import org.apache.cxf.service.model.ServiceInfo;
+import org.apache.servicemix.jbi.jaxp.SourceTransformer;
+
+public class SchemaValidationInterceptorTest extends TestCase {
+
+    private static final String SCHEMA =
+        "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema' targetNamespace='urn:test'"
+        + " elementFormDefault='qualified'>"
+        + "  <xs:element name='greetMe'>"
+        + "    <xs:complexType><xs:sequence>"
+        + "      <xs:element name='requestType'>"
+        + "        <xs:simpleType><xs:restriction base='xs:string'>"
+        + "          <xs:maxLength value='30'/>"
+        + "        </xs:restriction></xs:simpleType>"
+        + "      </xs:element>"
+        + "    </xs:sequence></xs:complexType>"
+        + "  </xs:element>"
+        + "</xs:schema>";
+
+    private static final String JBI_NS = "http://java.sun.com/xml/ns/jbi/wsdl-11-wrapper";
+
+    private ServiceInfo serviceInfo;
+
+    protected void setUp() throws Exception {
+        serviceInfo = new ServiceInfo();
+        serviceInfo.setProperty(AbstractSchemaValidationInterceptor.SCHEMA_PROPERTY,
+            SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI)
+                .newSchema(new StreamSource(new StringReader(SCHEMA))));
+    }
+
+    public void testValidStream() throws Exception {
+        SoapMessage message = createMessage(new StreamSource(new StringReader(greetMe("ffang"))));
+        new SchemaValidationInInterceptor(false, false).handleMessage(message);
+        String content = new SourceTransformer().toString(message.getContent(Source.class));
+        assertTrue(content, content.indexOf("ffang") > 0);
+    }
+
+    public void testInvalidStream() throws Exception {
+        SoapMessage message = createMessage(new StreamSource(new StringReader(greetMe(tooLong()))));
+        new SchemaValidationInInterceptor(false, false).handleMessage(message);
+        try {
+            new SourceTransformer().toString(message.getContent(Source.class));
+            fail("Invalid content should not be readable");
+        } catch (Exception e) {
+            assertMaxLengthError(e);
+        }
+    }
+
+    public void testValidDom() throws Exception {
+        SoapMessage message = createMessage(new DOMSource(
+            new SourceTransformer().toDOMDocument(new StreamSource(new StringReader(greetMe("ffang"))))));
+        new SchemaValidationInInterceptor(false, false).handleMessage(message);
+    }
+
+    public void testInvalidDom() throws Exception {
+        SoapMessage message = createMessage(new DOMSource(
+            new SourceTransformer().toDOMDocument(new StreamSource(new StringReader(greetMe(tooLong()))))));
+        try {
+            new SchemaValidationInInterceptor(false, false).handleMessage(message);
+            fail("Invalid content should be rejected");
+        } catch (Fault e) {
+            assertMaxLengthError(e);
+        }
+    }
+
+    public void testJbiWrappedParts() throws Exception {
+        String valid = "<jbi:message xmlns:jbi='" + JBI_NS + "'><jbi:part>" + greetMe("ffang")
+            + "</jbi:part></jbi:message>";
+        SoapMessage message = createMessage(new StreamSource(new StringReader(valid)));
+        new SchemaValidationInInterceptor(true, false).handleMessage(message);
+        new SourceTransformer().toString(message.getContent(Source.class));
+
+        String invalid = "<jbi:message xmlns:jbi='" + JBI_NS + "'><jbi:part>" + greetMe("ffang")
+            + "</jbi:part><jbi:part>" + greetMe(tooLong()) + "</jbi:part></jbi:message>";
+        message = createMessage(new StreamSource(new StringReader(invalid)));
+        new SchemaValidationInInterceptor(true, false).handleMessage(message);
+        try {
+            new SourceTransformer().toString(message.getContent(Source.class));
+            fail("Invalid part should not be readable");
+        } catch (Exception e) {
+            assertMaxLengthError(e);
+        }
+    }
+
+    private SoapMessage createMessage(Source content) {
+        Exchange exchange = new ExchangeImpl();
+        exchange.put(Service.class, new ServiceImpl(serviceInfo));
+        SoapMessage message = new SoapMessage(new MessageImpl());
+        message.setExchange(exchange);
+        message.setContent(Source.class, content);
+        return message;
+    }
+
+    private static String greetMe(String name) {
+        return "<greetMe xmlns='urn:test'><requestType>" + name + "</requestType></greetMe>";
+    }
+
+    private static String tooLong() {
+        return "should catch exception as schemavalidation failed";
+    }
+
+    private static void assertMaxLengthError(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t.getMessage() != null && t.getMessage().indexOf("maxLength") >= 0) {
+                return;
+            }
+        }
+        fail("Expected a maxLength validation error, got " + e);
+    }
+
+}
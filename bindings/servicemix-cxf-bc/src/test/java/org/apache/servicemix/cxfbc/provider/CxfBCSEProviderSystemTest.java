@@ -17,7 +17,10 @@
 package org.apache.servicemix.cxfbc.provider;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
 
@@ -197,6 +200,55 @@ public class CxfBCSEProviderSystemTest extends CxfBcSpringTestSupport {
         greetMeProviderTestBase(true);
     }
     
+    public void testGreetMeProviderWithConduitCacheOverflow() throws Exception {
+        setUpJBI("org/apache/servicemix/cxfbc/provider/xbean_provider_conduit_cache.xml");
+        client = new DefaultServiceMixClient(jbi);
+        // the cache only holds one conduit, so each send evicts the other destination
+        for (int i = 0; i < 6; i++) {
+            assertGreetMe(i % 2 == 0 ? "http://localhost:19000/SoapContext/SoapPort"
+                    : "http://localhost:9002/dynamicuritest", "Edell" + i);
+        }
+        // conduits evicted while in use by another exchange must not be closed under it
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int id = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 5; i++) {
+                            assertGreetMe((id + i) % 2 == 0 ? "http://localhost:19000/SoapContext/SoapPort"
+                                    : "http://localhost:9002/dynamicuritest", "Thread" + id + "-" + i);
+                        }
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join(60000);
+        }
+        assertTrue("Failures: " + errors, errors.isEmpty());
+    }
+
+    private void assertGreetMe(String uri, String name) throws Exception {
+        InOut exchange = client.createInOutExchange();
+        exchange.setService(new QName("http://apache.org/hello_world_soap_http_provider", "SOAPService"));
+        exchange.setInterfaceName(new QName("http://apache.org/hello_world_soap_http_provider", "Greeter"));
+        exchange.getInMessage().setContent(new StringSource(
+              "<greetMe xmlns='http://apache.org/hello_world_soap_http_provider/types'><requestType>"
+              + name
+              + "</requestType></greetMe>"));
+        exchange.getInMessage().setProperty(JbiConstants.HTTP_DESTINATION_URI, uri);
+        client.sendSync(exchange);
+        assertNotNull("No response from " + uri, exchange.getOutMessage());
+        String txt = new SourceTransformer().contentToString(exchange.getOutMessage());
+        client.done(exchange);
+        assertTrue(txt, txt.indexOf("Hello " + name) >= 0);
+    }
+
     private void greetMeProviderTestBase(boolean useDynamicUri) throws Exception {
 
         client = new DefaultServiceMixClient(jbi);
@@ -47,12 +47,16 @@ import javax.xml.namespace.QName;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Plain HTTP consumer endpoint. This endpoint can be used to handle plain HTTP request (without SOAP) or to be able to
@@ -68,6 +72,14 @@ public class HttpConsumerEndpoint extends ConsumerEndpoint implements HttpProces
     private static final String EXCHANGE = MessageExchange.class.getName();
     private static final String MUTEX = MessageExchange.class.getName() + "Mutex";
     private static final String EXCHANGEID = MessageExchange.class.getName() + "Mutex";
+    private static final int MAX_CACHED_STATIC_RESOURCES = 256;
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_VARY = "Vary";
     private String authMethod;
     private SslParameters ssl;
     private String locationURI;
@@ -82,6 +94,9 @@ public class HttpConsumerEndpoint extends ConsumerEndpoint implements HttpProces
     private boolean started = false;
     private LateResponseStrategy lateResponseStrategy = LateResponseStrategy.error;
     private boolean rewriteSoapAddress = false;
+    private boolean gzipStaticResources = false;
+    private Map<String, StaticResource> staticResources = new ConcurrentHashMap<String, StaticResource>();
+    private long staticResourcesLastModified = System.currentTimeMillis();
 
     public HttpConsumerEndpoint() {
         super();
@@ -251,6 +266,28 @@ public class HttpConsumerEndpoint extends ConsumerEndpoint implements HttpProces
         this.rewriteSoapAddress = value;
     }
 
+    public boolean isGzipStaticResources() {
+        return gzipStaticResources;
+    }
+
+    /**
+     * Toggles the compression of the static resources (wsdl and xsd).
+     * <p>
+     * Static resources are serialized once and served from memory with
+     * <code>ETag</code> and <code>Last-Modified</code> headers.  When active,
+     * a gzipped copy is prepared as well and sent to the clients accepting
+     * the gzip content encoding.
+     * </p><p>
+     * By default it is deactivated.
+     * </p>
+     *
+     * @param value
+     */
+    public void setGzipStaticResources(boolean value) {
+        this.gzipStaticResources = value;
+        staticResources.clear();
+    }
+
     public void activate() throws Exception {
         super.activate();
         loadStaticResources();
@@ -534,56 +571,122 @@ public class HttpConsumerEndpoint extends ConsumerEndpoint implements HttpProces
         if (path.indexOf('/') >= 0) {
             path = path.substring(path.indexOf('/') + 1);
         }
-        Object res;
-        if (rewriteSoapAddress && path.equals(MAIN_WSDL) && getResource(path) instanceof Document) {
+        Object res = getResource(path);
+        if (res == null) {
+            return false;
+        }
+        if (!(res instanceof Node)) {
+            // TODO: handle other static resources ...
+            throw new ServletException("Unable to serialize resource");
+        }
+        String key = path;
+        String location = null;
+        if (rewriteSoapAddress && path.equals(MAIN_WSDL) && res instanceof Document) {
             // determine the location based on the request
-            String location = getLocationURI();
             try {
                 URL listUrl = new URL(getLocationURI());
                 URL requestUrl = new URL(request.getRequestURL().toString());
                 URL acceptUri = new URL(requestUrl.getProtocol(), requestUrl.getHost(), requestUrl.getPort(),
                         listUrl.getFile());
                 location = acceptUri.toExternalForm();
-
-                //Update the location for this request
-                Document copy = (Document) ((Document) getResource(path)).cloneNode(true);
-                updateSoapLocations(location, copy.getElementsByTagNameNS("http://schemas.xmlsoap.org/wsdl/soap12/", "address"));
-                updateSoapLocations(location, copy.getElementsByTagNameNS("http://schemas.xmlsoap.org/wsdl/soap/", "address"));
-                res = copy;
+                key = path + "@" + location;
             } catch (Exception e) {
                 logger.warn("Could not update soap location, using default", e);
-                res = getResource(path);
             }
-        } else {
-            res = getResource(path);
         }
-        if (res == null) {
-            return false;
-        }
-        if (res instanceof Node) {
-            response.setStatus(200);
-            response.setContentType("text/xml");
+        // the resources do not change once loaded, so the serialized form is computed
+        // only once for each resource and each location it is requested from
+        StaticResource cached = staticResources.get(key);
+        if (cached == null) {
+            Node node = (Node) res;
+            if (location != null) {
+                try {
+                    //Update the location for this request
+                    Document copy = (Document) node.cloneNode(true);
+                    updateSoapLocations(location, copy.getElementsByTagNameNS("http://schemas.xmlsoap.org/wsdl/soap12/", "address"));
+                    updateSoapLocations(location, copy.getElementsByTagNameNS("http://schemas.xmlsoap.org/wsdl/soap/", "address"));
+                    node = copy;
+                } catch (Exception e) {
+                    logger.warn("Could not update soap location, using default", e);
+                }
+            }
             try {
-                new SourceTransformer().toResult(new DOMSource((Node) res),
-                        new StreamResult(response.getOutputStream()));
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                new SourceTransformer().toResult(new DOMSource(node), new StreamResult(buffer));
+                cached = new StaticResource(buffer.toByteArray(), staticResourcesLastModified, gzipStaticResources);
             } catch (TransformerException e) {
                 throw new ServletException("Error while sending xml resource", e);
             }
-        } else if (res != null) {
-            // TODO: handle other static resources ...
-            throw new ServletException("Unable to serialize resource");
-        } else {
-            return false;
+            // the location depends on the request, so do not let a client fill the cache without limit
+            if (staticResources.size() < MAX_CACHED_STATIC_RESOURCES) {
+                staticResources.put(key, cached);
+            }
         }
+        sendStaticResource(cached, request, response);
         return true;
     }
 
+    /*
+     * Send a serialized static resource, honoring the conditional and gzip request headers
+     */
+    private void sendStaticResource(StaticResource resource, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        // each representation has its own entity tag, so that caches do not mix them up
+        byte[] data = resource.data;
+        String etag = resource.etag;
+        boolean gzip = false;
+        if (resource.gzipped != null) {
+            response.setHeader(HEADER_VARY, HEADER_ACCEPT_ENCODING);
+            String acceptEncoding = request.getHeader(HEADER_ACCEPT_ENCODING);
+            if (acceptEncoding != null && acceptEncoding.toLowerCase().indexOf("gzip") >= 0) {
+                data = resource.gzipped;
+                etag = resource.gzipEtag;
+                gzip = true;
+            }
+        }
+        response.setContentType("text/xml");
+        response.setHeader(HEADER_ETAG, etag);
+        response.setDateHeader(HEADER_LAST_MODIFIED, resource.lastModified);
+        if (isNotModified(resource, etag, request)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        response.setStatus(HttpServletResponse.SC_OK);
+        if (gzip) {
+            response.setHeader(HEADER_CONTENT_ENCODING, "gzip");
+        }
+        response.setContentLength(data.length);
+        response.getOutputStream().write(data);
+    }
+
+    private boolean isNotModified(StaticResource resource, String resourceEtag, HttpServletRequest request) {
+        String ifNoneMatch = request.getHeader(HEADER_IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            for (String etag : ifNoneMatch.split(",")) {
+                etag = etag.trim();
+                if (etag.equals("*") || etag.equals(resourceEtag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        try {
+            long ifModifiedSince = request.getDateHeader(HEADER_IF_MODIFIED_SINCE);
+            // http dates have a one second precision
+            return ifModifiedSince >= 0 && resource.lastModified / 1000 <= ifModifiedSince / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
     protected Object getResource(String path) {
         return resources.get(path);
     }
 
     protected void addResource(String path, Object resource) {
         resources.put(path, resource);
+        staticResources.clear();
+        staticResourcesLastModified = System.currentTimeMillis();
     }
 
     protected ContextManager getServerManager() {
@@ -651,5 +754,46 @@ public class HttpConsumerEndpoint extends ConsumerEndpoint implements HttpProces
             i++;
         }
     }
-}
 
+    /*
+     * A static resource serialized once, along with its validators for conditional requests
+     */
+    private static final class StaticResource {
+        private final byte[] data;
+        private final byte[] gzipped;
+        private final String etag;
+        private final String gzipEtag;
+        private final long lastModified;
+
+        private StaticResource(byte[] data, long lastModified, boolean gzip) throws IOException {
+            this.data = data;
+            this.lastModified = lastModified;
+            String hash = digest(data);
+            this.etag = "\"" + hash + "\"";
+            this.gzipEtag = "\"" + hash + "-gzip\"";
+            if (gzip) {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                GZIPOutputStream out = new GZIPOutputStream(buffer);
+                out.write(data);
+                out.close();
+                this.gzipped = buffer.toByteArray();
+            } else {
+                this.gzipped = null;
+            }
+        }
+
+        private static String digest(byte[] data) {
+            try {
+                byte[] hash = MessageDigest.getInstance("MD5").digest(data);
+                StringBuilder hex = new StringBuilder(hash.length * 2);
+                for (byte b : hash) {
+                    hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+                    hex.append(Character.forDigit(b & 0xF, 16));
+                }
+                return hex.toString();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -19,6 +19,7 @@ package org.apache.servicemix.http;
 import junit.framework.TestCase;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.methods.ByteArrayRequestEntity;
+import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.PostMethod;
 import org.apache.commons.httpclient.methods.StringRequestEntity;
 import org.apache.log4j.Level;
@@ -244,6 +245,10 @@ public class ConsumerEndpointTest extends TestCase {
     }
     
     protected void initSoapEndpoints(boolean useJbiWrapper, boolean dynamic) throws Exception {
+        initSoapEndpoints(useJbiWrapper, dynamic, false);
+    }
+
+    protected void initSoapEndpoints(boolean useJbiWrapper, boolean dynamic, boolean gzip) throws Exception {
         HttpComponent http = new HttpComponent();
         HttpSoapConsumerEndpoint ep1 = new HttpSoapConsumerEndpoint();
         ep1.setService(new QName("uri:HelloWorld", "HelloService"));
@@ -254,6 +259,7 @@ public class ConsumerEndpointTest extends TestCase {
         ep1.setValidateWsdl(false); // TODO: Soap 1.2 not handled yet
         ep1.setUseJbiWrapper(useJbiWrapper);
         ep1.setRewriteSoapAddress(dynamic);
+        ep1.setGzipStaticResources(gzip);
         HttpSoapConsumerEndpoint ep2 = new HttpSoapConsumerEndpoint();
         ep2.setService(new QName("uri:HelloWorld", "HelloService"));
         ep2.setEndpoint("HelloPortSoap12");
@@ -263,6 +269,7 @@ public class ConsumerEndpointTest extends TestCase {
         ep2.setValidateWsdl(false); // TODO: Soap 1.2 not handled yet
         ep2.setUseJbiWrapper(useJbiWrapper);
         ep2.setRewriteSoapAddress(dynamic);
+        ep2.setGzipStaticResources(gzip);
         http.setEndpoints(new HttpEndpointType[] {ep1, ep2});
         container.activateComponent(http, "http");
         container.start();
@@ -744,6 +751,78 @@ public class ConsumerEndpointTest extends TestCase {
         container.deactivateComponent("http");
     }
     
+    public void testProvidedWsdlConditionalGet() throws Exception {
+        initSoapEndpoints(true);
+
+        GetMethod get = new GetMethod("http://127.0.0.1:"+port1+"/ep1/main.wsdl");
+        new HttpClient().executeMethod(get);
+        assertEquals(200, get.getStatusCode());
+        String wsdl = get.getResponseBodyAsString();
+        String etag = get.getResponseHeader("ETag").getValue();
+        assertNotNull(get.getResponseHeader("Last-Modified"));
+        get.releaseConnection();
+
+        // the wsdl is served from the cache, and not sent again if the client already has it
+        get = new GetMethod("http://127.0.0.1:"+port1+"/ep1/main.wsdl");
+        new HttpClient().executeMethod(get);
+        assertEquals(200, get.getStatusCode());
+        assertEquals(wsdl, get.getResponseBodyAsString());
+        assertEquals(etag, get.getResponseHeader("ETag").getValue());
+        get.releaseConnection();
+
+        get = new GetMethod("http://127.0.0.1:"+port1+"/ep1/main.wsdl");
+        get.setRequestHeader("If-None-Match", etag);
+        new HttpClient().executeMethod(get);
+        assertEquals(304, get.getStatusCode());
+        get.releaseConnection();
+
+        // the address is still rewritten for other hosts
+        checkAddress("http://localhost:"+port1+"/ep1/", "http://localhost:"+port1+"/ep1/?wsdl", 11);
+        checkAddress("http://127.0.0.1:"+port1+"/ep1/", "http://127.0.0.1:"+port1+"/ep1/?wsdl", 11);
+
+        container.deactivateComponent("http");
+    }
+    
+    public void testProvidedWsdlGzipConditionalGet() throws Exception {
+        initSoapEndpoints(true, true, true);
+
+        GetMethod get = new GetMethod("http://127.0.0.1:"+port1+"/ep1/main.wsdl");
+        new HttpClient().executeMethod(get);
+        assertEquals(200, get.getStatusCode());
+        assertNull(get.getResponseHeader("Content-Encoding"));
+        assertEquals("Accept-Encoding", get.getResponseHeader("Vary").getValue());
+        String etag = get.getResponseHeader("ETag").getValue();
+        get.releaseConnection();
+
+        get = new GetMethod("http://127.0.0.1:"+port1+"/ep1/main.wsdl");
+        get.setRequestHeader("Accept-Encoding", "gzip");
+        new HttpClient().executeMethod(get);
+        assertEquals(200, get.getStatusCode());
+        assertEquals("gzip", get.getResponseHeader("Content-Encoding").getValue());
+        assertEquals("Accept-Encoding", get.getResponseHeader("Vary").getValue());
+        String gzipEtag = get.getResponseHeader("ETag").getValue();
+        get.releaseConnection();
+
+        // the two representations are not interchangeable for caches
+        assertFalse(etag.equals(gzipEtag));
+
+        get = new GetMethod("http://127.0.0.1:"+port1+"/ep1/main.wsdl");
+        get.setRequestHeader("Accept-Encoding", "gzip");
+        get.setRequestHeader("If-None-Match", etag);
+        new HttpClient().executeMethod(get);
+        assertEquals(200, get.getStatusCode());
+        get.releaseConnection();
+
+        get = new GetMethod("http://127.0.0.1:"+port1+"/ep1/main.wsdl");
+        get.setRequestHeader("Accept-Encoding", "gzip");
+        get.setRequestHeader("If-None-Match", gzipEtag);
+        new HttpClient().executeMethod(get);
+        assertEquals(304, get.getStatusCode());
+        get.releaseConnection();
+
+        container.deactivateComponent("http");
+    }
+    
     public void testProvidedWsdlWithStaticAddress() throws Exception {
     	initSoapEndpoints(true, false);
 
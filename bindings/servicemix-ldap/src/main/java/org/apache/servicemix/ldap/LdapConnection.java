@@ -18,12 +18,23 @@ package org.apache.servicemix.ldap;
 
 import java.net.URL;
 import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.Timer;
+import java.util.TimerTask;
 
+import javax.naming.CommunicationException;
 import javax.naming.Context;
 import javax.naming.NamingEnumeration;
-import javax.naming.directory.DirContext;
-import javax.naming.directory.InitialDirContext;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
 import javax.naming.directory.SearchControls;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.InitialLdapContext;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -32,6 +43,13 @@ import org.apache.commons.logging.LogFactory;
  * <p>
  * LDAP connection container.
  * </p>
+ * <p>
+ * The connection keeps a pool of bound LDAP contexts, to avoid the bind handshake
+ * on each use. A context is borrowed by the current thread on connect and handed back
+ * to the pool on disconnect. Contexts are validated when borrowed, idle contexts are
+ * closed after the idle timeout, and a search failing because the connection has been
+ * lost before its first entry has been read is retried once on a newly bound context.
+ * </p>
  * 
  * @author jbonofre
  */
@@ -40,8 +58,14 @@ public class LdapConnection {
     private final static transient Log LOG = LogFactory.getLog(LdapConnection.class);
     
     private Hashtable<String, String> env = new Hashtable<String, String>();
-    private DirContext context;
     private SearchControls searchControls;
+    private SearchControls validationControls;
+    private final ThreadLocal<LdapContext> current = new ThreadLocal<LdapContext>();
+    private final LinkedList<IdleContext> idle = new LinkedList<IdleContext>();
+    private int poolSize = 1;
+    private long idleTimeout = 0;
+    private boolean validateOnBorrow = true;
+    private Timer evictionTimer;
     
     /**
      * <p>
@@ -75,35 +99,187 @@ public class LdapConnection {
         LOG.debug("Create search controls with subtree scope.");
         searchControls = new SearchControls();
         searchControls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+        
+        // read the root DSE to validate a context
+        validationControls = new SearchControls();
+        validationControls.setSearchScope(SearchControls.OBJECT_SCOPE);
+        validationControls.setReturningAttributes(new String[] { "objectclass" });
     }
     
     /**
      * <p>
-     * Connect to the LDAP directory.
+     * Connect to the LDAP directory. The current thread uses a context of the pool
+     * until it disconnects.
      * </p>
      * 
      * @throws Exception in case of connection failure.
      */
     public void connect() throws Exception {
-        if (context == null) {
-            context = new InitialDirContext(env);
+        if (current.get() == null) {
+            current.set(borrow());
         }
     }
     
     /**
      * <p>
-     * Disconnect from the LDAP directory.
+     * Disconnect from the LDAP directory. The context used by the current thread
+     * is handed back to the pool.
      * </p>
      * 
      * @throws Exception in case of disconnect failure.
      */
     public void disconnect() throws Exception {
+        LdapContext context = current.get();
         if (context != null) {
+            current.remove();
+            release(context);
+        }
+    }
+    
+    /**
+     * <p>
+     * Close all the idle contexts of the pool.
+     * </p>
+     */
+    public void close() {
+        LinkedList<IdleContext> contexts;
+        synchronized (idle) {
+            if (evictionTimer != null) {
+                evictionTimer.cancel();
+                evictionTimer = null;
+            }
+            contexts = new LinkedList<IdleContext>(idle);
+            idle.clear();
+        }
+        for (IdleContext context : contexts) {
+            close(context.context);
+        }
+    }
+    
+    /**
+     * <p>
+     * Get a context from the pool, or bind a new one if there is no valid idle context.
+     * </p>
+     */
+    private LdapContext borrow() throws NamingException {
+        while (true) {
+            IdleContext context;
+            synchronized (idle) {
+                context = idle.poll();
+            }
+            if (context == null) {
+                break;
+            }
+            if (!validateOnBorrow || isValid(context.context)) {
+                return context.context;
+            }
+            LOG.debug("Close the invalid LDAP context.");
+            close(context.context);
+        }
+        LOG.debug("Bind a new LDAP context.");
+        return new InitialLdapContext(env, null);
+    }
+    
+    /**
+     * <p>
+     * Hand back a context to the pool, or close it if the pool is full.
+     * </p>
+     */
+    private void release(LdapContext context) {
+        synchronized (idle) {
+            if (idle.size() < poolSize) {
+                idle.addFirst(new IdleContext(context));
+                startEvictionTimer();
+                return;
+            }
+        }
+        close(context);
+    }
+    
+    /**
+     * <p>
+     * Validate a context by reading the root DSE.
+     * </p>
+     */
+    private boolean isValid(LdapContext context) {
+        try {
+            context.setRequestControls(null);
+            context.search("", "(objectclass=*)", validationControls).close();
+            return true;
+        } catch (NamingException e) {
+            LOG.debug("LDAP context validation failed", e);
+            return false;
+        }
+    }
+    
+    private void close(LdapContext context) {
+        try {
             context.close();
-            context = null;
+        } catch (NamingException e) {
+            LOG.debug("Error while closing the LDAP context", e);
+        }
+    }
+    
+    /**
+     * <p>
+     * Close the contexts idle for more than the idle timeout.
+     * </p>
+     */
+    void evict() {
+        LinkedList<IdleContext> expired = new LinkedList<IdleContext>();
+        long now = System.currentTimeMillis();
+        synchronized (idle) {
+            for (Iterator<IdleContext> it = idle.iterator(); it.hasNext();) {
+                IdleContext context = it.next();
+                if (now - context.since >= idleTimeout) {
+                    it.remove();
+                    expired.add(context);
+                }
+            }
+        }
+        for (IdleContext context : expired) {
+            LOG.debug("Close the idle LDAP context.");
+            close(context.context);
+        }
+    }
+    
+    private void startEvictionTimer() {
+        if (idleTimeout > 0 && evictionTimer == null) {
+            evictionTimer = new Timer("LDAP idle connection evictor", true);
+            long period = Math.max(idleTimeout / 2, 1000);
+            evictionTimer.schedule(new TimerTask() {
+                public void run() {
+                    evict();
+                }
+            }, period, period);
         }
     }
     
+    /**
+     * <p>
+     * Replace the context of the current thread, after the connection has been lost.
+     * </p>
+     */
+    private LdapContext reconnect(NamingException e) throws Exception {
+        LOG.warn("LDAP connection lost, bind a new context: " + e.getMessage());
+        LdapContext context = current.get();
+        current.remove();
+        if (context != null) {
+            close(context);
+        }
+        context = new InitialLdapContext(env, null);
+        current.set(context);
+        return context;
+    }
+    
+    private LdapContext getContext() {
+        LdapContext context = current.get();
+        if (context == null) {
+            throw new IllegalStateException("Not connected to the LDAP directory.");
+        }
+        return context;
+    }
+    
     /**
      * <p>
      * Search entries on the LDAP directory.
@@ -115,7 +291,215 @@ public class LdapConnection {
      * @throws Exception in case of search failure.
      */
     public NamingEnumeration search(String searchBase, String filter) throws Exception {
+        return new RetryingEnumeration(searchBase, filter, 0, null);
+    }
+    
+    /**
+     * <p>
+     * Search a page of entries on the LDAP directory, using the paged results control.
+     * The server returns all the entries at once if it doesn't support paging.
+     * </p>
+     * 
+     * @param searchBase the search base.
+     * @param filter the search filter.
+     * @param pageSize the maximum number of entries of the page.
+     * @param cookie the cookie returned with the previous page, null for the first page.
+     * @return the NamingEnumeration containing the page entries.
+     * @throws Exception in case of search failure.
+     */
+    public NamingEnumeration search(String searchBase, String filter, int pageSize, byte[] cookie) throws Exception {
+        return new RetryingEnumeration(searchBase, filter, pageSize, cookie);
+    }
+    
+    private NamingEnumeration search(LdapContext context, String searchBase, String filter, int pageSize, byte[] cookie) throws Exception {
+        if (pageSize > 0) {
+            context.setRequestControls(new Control[] { new PagedResultsControl(pageSize, cookie, Control.NONCRITICAL) });
+        } else {
+            context.setRequestControls(null);
+        }
         return context.search(searchBase, filter, searchControls);
     }
+    
+    /**
+     * <p>
+     * Get the cookie to request the page following the last searched one. The
+     * entries of the last page have to be read completely before.
+     * </p>
+     * 
+     * @return the cookie, or null if the last page has been read.
+     * @throws Exception in case of failure.
+     */
+    public byte[] getPagedResultsCookie() throws Exception {
+        Control[] controls = getContext().getResponseControls();
+        if (controls != null) {
+            for (Control control : controls) {
+                if (control instanceof PagedResultsResponseControl) {
+                    byte[] cookie = ((PagedResultsResponseControl) control).getCookie();
+                    return cookie == null || cookie.length == 0 ? null : cookie;
+                }
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * <p>
+     * Define the attributes returned by the searches.
+     * </p>
+     * 
+     * @param attributes the attribute names, null to return all the user attributes.
+     */
+    public void setReturningAttributes(String[] attributes) {
+        searchControls.setReturningAttributes(attributes);
+    }
+    
+    /**
+     * <p>
+     * Define the maximum number of idle contexts kept in the pool.
+     * </p>
+     * 
+     * @param poolSize the pool size, 0 to close the contexts on disconnect.
+     */
+    public void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+    
+    /**
+     * <p>
+     * Define the time after which an idle context is closed.
+     * </p>
+     * 
+     * @param idleTimeout the idle timeout in milliseconds, 0 to keep the idle contexts open.
+     */
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+    
+    /**
+     * <p>
+     * Define if an idle context is validated by reading the root DSE before being used.
+     * </p>
+     * 
+     * @param validateOnBorrow true to validate the idle contexts.
+     */
+    public void setValidateOnBorrow(boolean validateOnBorrow) {
+        this.validateOnBorrow = validateOnBorrow;
+    }
+    
+    /**
+     * <p>
+     * The entries of a search. The LDAP provider usually reports a lost connection
+     * while the entries are read rather than when the search is sent, so the search is
+     * sent again on a newly bound context if the connection is lost before the first
+     * entry has been returned. Once entries have been returned, or for a continuation
+     * page whose cookie is only valid on the lost connection, the failure is thrown.
+     * </p>
+     */
+    private class RetryingEnumeration implements NamingEnumeration {
+        
+        private final String searchBase;
+        private final String filter;
+        private final int pageSize;
+        private final byte[] cookie;
+        private NamingEnumeration delegate;
+        private boolean retried;
+        private boolean consumed;
+        
+        public RetryingEnumeration(String searchBase, String filter, int pageSize, byte[] cookie) throws Exception {
+            this.searchBase = searchBase;
+            this.filter = filter;
+            this.pageSize = pageSize;
+            this.cookie = cookie;
+            try {
+                delegate = search(getContext(), searchBase, filter, pageSize, cookie);
+            } catch (NamingException e) {
+                retry(e);
+            }
+        }
+        
+        /**
+         * <p>
+         * Sends the search again on a new context, if the connection has been lost
+         * before any entry has been returned.
+         * </p>
+         */
+        private void retry(NamingException e) throws NamingException {
+            if (retried || consumed || cookie != null
+                    || !(e instanceof CommunicationException || e instanceof ServiceUnavailableException)) {
+                throw e;
+            }
+            retried = true;
+            try {
+                delegate = search(reconnect(e), searchBase, filter, pageSize, cookie);
+            } catch (NamingException namingException) {
+                throw namingException;
+            } catch (Exception exception) {
+                NamingException namingException = new NamingException("Can't bind a new LDAP context");
+                namingException.setRootCause(exception);
+                throw namingException;
+            }
+        }
+        
+        public boolean hasMore() throws NamingException {
+            while (true) {
+                try {
+                    return delegate.hasMore();
+                } catch (NamingException e) {
+                    retry(e);
+                }
+            }
+        }
+        
+        public Object next() throws NamingException {
+            while (true) {
+                try {
+                    Object next = delegate.next();
+                    consumed = true;
+                    return next;
+                } catch (NoSuchElementException e) {
+                    throw e;
+                } catch (NamingException e) {
+                    retry(e);
+                }
+            }
+        }
+        
+        public boolean hasMoreElements() {
+            try {
+                return hasMore();
+            } catch (NamingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        
+        public Object nextElement() {
+            try {
+                return next();
+            } catch (NamingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        
+        public void close() throws NamingException {
+            delegate.close();
+        }
+        
+    }
+    
+    /**
+     * <p>
+     * An idle context of the pool.
+     * </p>
+     */
+    private static class IdleContext {
+        
+        private final LdapContext context;
+        private final long since = System.currentTimeMillis();
+        
+        public IdleContext(LdapContext context) {
+            this.context = context;
+        }
+        
+    }
 
 }
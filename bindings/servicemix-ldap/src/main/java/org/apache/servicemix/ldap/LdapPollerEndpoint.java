@@ -17,7 +17,15 @@
 package org.apache.servicemix.ldap;
 
 import java.net.URL;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 
 import javax.jbi.management.DeploymentException;
 import javax.jbi.messaging.ExchangeStatus;
@@ -26,6 +34,9 @@ import javax.jbi.messaging.MessageExchange;
 import javax.jbi.messaging.MessagingException;
 import javax.jbi.messaging.NormalizedMessage;
 import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.SearchResult;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -40,6 +51,12 @@ import org.apache.servicemix.ldap.marshaler.LdapMarshalerSupport;
  * This poller uses the LDAP marshaler to marshal/unmarshal LDAP request result into a normalized
  * message.
  * </p>
+ * <p>
+ * With newOnly, the poller keeps a digest of each entry it has sent and only sends the entries
+ * that are new or have changed since. A timestamp attribute (like modifyTimestamp) can be used
+ * as well to let the server return only the entries modified since the last poll. Large
+ * directories are read page by page using the LDAP paged results control.
+ * </p>
  * 
  * @author jbonofre
  * @org.apache.xbean.XBean element="poller"
@@ -55,8 +72,17 @@ public class LdapPollerEndpoint extends PollingEndpoint implements LdapEndpointT
     private String searchBase; // use searchBase as the starting point for the search instead of the default
     private String filter = "(objectclass=*)"; // the search filter
     private boolean newOnly = false; // fetch only new entries if true, fetch all entries if false
-    private ArrayList cache = new ArrayList(); // contains the cache of latest LDAP entries
+    private int cacheSize = 100000; // the maximum number of entry digests kept for newOnly
+    private Map<String, byte[]> cache; // contains the digests of the latest LDAP entries, by DN
+    private String timestampAttribute; // the attribute holding the entry modification time
+    private String highWaterMark; // the latest modification time seen
+    private Map<String, byte[]> boundary = Collections.emptyMap(); // the digests of the entries modified at the high-water mark, by DN
+    private int pageSize = 0; // the number of entries per page, 0 to disable paging
+    private boolean exchangePerPage = false; // send an exchange for each page
     private boolean persistent = false; // keep the LDAP connection open
+    private int poolSize = 1; // the maximum number of idle LDAP connections
+    private long idleTimeout = 60000; // close the LDAP connections idle for longer
+    private boolean validateConnection = true; // validate an idle LDAP connection before use
     private LdapMarshalerSupport marshaler = new DefaultLdapMarshaler();
     
     private LdapConnection ldapConnection;
@@ -86,15 +112,48 @@ public class LdapPollerEndpoint extends PollingEndpoint implements LdapEndpointT
      */
     @Override
     public void poll() throws Exception {
-        if (!persistent) {
-            ldapConnection.connect();
-        }
+        ldapConnection.connect();
 
-        LOG.debug("Define the search filter to " + filter + " in " + searchBase);
-        NamingEnumeration namingEnumeration = ldapConnection.search(searchBase, filter);
-        
-        // TODO compare with the cache to send the new entries
-        
+        try {
+            String searchFilter = filter;
+            if (timestampAttribute != null && highWaterMark != null) {
+                searchFilter = "(&" + filter + "(" + timestampAttribute + ">=" + highWaterMark + "))";
+            }
+            LOG.debug("Define the search filter to " + searchFilter + " in " + searchBase);
+            
+            // the entries are read from the directory while they are marshaled
+            PolledEntries entries = new PolledEntries(searchFilter, !exchangePerPage);
+            if (exchangePerPage) {
+                boolean sent = false;
+                do {
+                    if (entries.hasMore()) {
+                        send(entries);
+                        sent = true;
+                    }
+                } while (entries.nextPage());
+                if (!sent && !newOnly) {
+                    send(entries);
+                }
+            } else if (!newOnly || entries.hasMore()) {
+                send(entries);
+            }
+            highWaterMark = entries.getHighWaterMark();
+            boundary = entries.getBoundary();
+        } finally {
+            ldapConnection.disconnect();
+        }
+    }
+    
+    /**
+     * <p>
+     * Sends the LDAP entries in an InOnly exchange. The digests of the sent entries
+     * are stored once the exchange has been sent.
+     * </p>
+     * 
+     * @param entries the LDAP entries.
+     * @throws MessagingException in case of send failure.
+     */
+    private void send(PolledEntries entries) throws MessagingException {
         // create an InOnly exchange
         LOG.debug("Create the InOnly exchange.");
         InOnly exchange = getExchangeFactory().createInOnlyExchange();
@@ -103,18 +162,84 @@ public class LdapPollerEndpoint extends PollingEndpoint implements LdapEndpointT
         NormalizedMessage message = exchange.createMessage();
         exchange.setInMessage(message);
         
-        // marshal the LDAP naming enumeration into the in message
-        marshaler.marshal(message, namingEnumeration);
+        // marshal the LDAP entries into the in message
+        marshaler.marshal(message, entries);
         
         // send the exchange
         LOG.debug("Send the exchange.");
         send(exchange);
         
-        if (!persistent) {
-            ldapConnection.disconnect();
+        if (newOnly) {
+            store(entries.sentDigests());
         }
     }
     
+    /**
+     * <p>
+     * Checks if the entry is new or has changed since it has been sent. The cache is
+     * not updated, the digest has to be stored once the entry has been sent.
+     * </p>
+     * 
+     * @param dn the entry DN.
+     * @param digest the entry digest.
+     * @return true if the entry is new or has changed.
+     */
+    boolean isChanged(String dn, byte[] digest) {
+        synchronized (cache) {
+            byte[] previous = cache.get(dn);
+            return previous == null || !MessageDigest.isEqual(previous, digest);
+        }
+    }
+    
+    /**
+     * <p>
+     * Stores the digests of sent entries.
+     * </p>
+     * 
+     * @param digests the entry digests, by DN.
+     */
+    void store(Map<String, byte[]> digests) {
+        synchronized (cache) {
+            cache.putAll(digests);
+        }
+    }
+    
+    /**
+     * <p>
+     * Computes a digest of the entry attributes, independently of the attributes order.
+     * </p>
+     * 
+     * @param result the LDAP entry.
+     * @return the digest.
+     * @throws Exception in case of failure while reading the entry.
+     */
+    static byte[] digest(SearchResult result) throws Exception {
+        List<String> ids = new ArrayList<String>();
+        NamingEnumeration attributes = result.getAttributes().getIDs();
+        while (attributes.hasMore()) {
+            ids.add((String) attributes.next());
+        }
+        String[] sorted = ids.toArray(new String[ids.size()]);
+        Arrays.sort(sorted);
+        
+        MessageDigest md = MessageDigest.getInstance("MD5");
+        for (String id : sorted) {
+            md.update(id.getBytes("UTF-8"));
+            md.update((byte) 0);
+            NamingEnumeration values = result.getAttributes().get(id).getAll();
+            while (values.hasMore()) {
+                Object value = values.next();
+                if (value instanceof byte[]) {
+                    md.update((byte[]) value);
+                } else if (value != null) {
+                    md.update(value.toString().getBytes("UTF-8"));
+                }
+                md.update((byte) 0);
+            }
+        }
+        return md.digest();
+    }
+    
     /*
      * (non-Javadoc)
      * @see org.apache.servicemix.common.endpoints.ConsumerEndpoint#validate()
@@ -133,8 +258,27 @@ public class LdapPollerEndpoint extends PollingEndpoint implements LdapEndpointT
             throw new DeploymentException("LDAP Context Factory is mandatory.");
         }
         
+        if (newOnly && cacheSize <= 0) {
+            throw new DeploymentException("The cache size has to be greater than 0 to fetch only new entries.");
+        }
+        
         // create the LDAP connection
         ldapConnection = new LdapConnection(url, contextFactory, bindDn, bindPassword);
+        ldapConnection.setPoolSize(poolSize);
+        ldapConnection.setIdleTimeout(persistent ? 0 : idleTimeout);
+        ldapConnection.setValidateOnBorrow(validateConnection);
+        if (timestampAttribute != null) {
+            // operational attributes are only returned on request
+            ldapConnection.setReturningAttributes(new String[] { "*", timestampAttribute });
+        }
+        
+        // the least recently seen entries are forgotten first
+        final int maxEntries = cacheSize;
+        cache = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                return size() > maxEntries;
+            }
+        };
     }
     
     /*
@@ -147,6 +291,7 @@ public class LdapPollerEndpoint extends PollingEndpoint implements LdapEndpointT
         if (persistent) {
             LOG.debug("The LDAP connection is persistent, connect to the LDAP server now");
             ldapConnection.connect();
+            ldapConnection.disconnect();
         }
     }
     
@@ -156,10 +301,8 @@ public class LdapPollerEndpoint extends PollingEndpoint implements LdapEndpointT
      */
     @Override
     public void stop() throws Exception {
-        if (persistent) {
-            LOG.debug("The LDAP connection is persistent, disconnect to the LDAP server now");
-            ldapConnection.disconnect();
-        }
+        LOG.debug("Disconnect the pooled LDAP connections");
+        ldapConnection.close();
         super.stop();
     }
     
@@ -179,6 +322,38 @@ public class LdapPollerEndpoint extends PollingEndpoint implements LdapEndpointT
         this.url = url;
     }
     
+    public String getContextFactory() {
+        return contextFactory;
+    }
+    
+    /**
+     * <p>
+     * This attribute specifies the JNDI initial context factory used to connect to the LDAP directory.<br/>
+     * </p>
+     * <i>&nbsp;&nbsp;&nbsp;The default value is <b>com.sun.jndi.ldap.LdapCtxFactory</b></i>
+     * 
+     * @param contextFactory a <code>String</code> value representing the initial context factory class name
+     */
+    public void setContextFactory(String contextFactory) {
+        this.contextFactory = contextFactory;
+    }
+    
+    public LdapMarshalerSupport getMarshaler() {
+        return marshaler;
+    }
+    
+    /**
+     * <p>
+     * This attribute specifies the marshaler used to convert the LDAP entries into the in message.<br/>
+     * </p>
+     * <i>&nbsp;&nbsp;&nbsp;The default value is <b>DefaultLdapMarshaler</b></i>
+     * 
+     * @param marshaler a <code>LdapMarshalerSupport</code> value representing the marshaler
+     */
+    public void setMarshaler(LdapMarshalerSupport marshaler) {
+        this.marshaler = marshaler;
+    }
+    
     public String getBindDn() {
         return bindDn;
     }
@@ -233,7 +408,8 @@ public class LdapPollerEndpoint extends PollingEndpoint implements LdapEndpointT
     /**
      * <p>
      * This attribute specifies if the search fetch only new entries
-     * or all entries.
+     * or all entries. The entries which have changed since they have been sent
+     * are considered as new entries.
      * </p>
      * <i>&nbsp;&nbsp;&nbsp;The default value is <b>false</b></i>
      * 
@@ -251,8 +427,8 @@ public class LdapPollerEndpoint extends PollingEndpoint implements LdapEndpointT
      * <p>
      * This attribute specifies if the LDAP directory server connection is persistent or not.
      * Persistent means that the LDAP connection is made at the endpoint start (it's the same connection
-     * for all endpoint polls). If persistent is made to false, the LDAP connection is performed at each
-     * poll call.
+     * for all endpoint polls). If persistent is made to false, the LDAP connection is closed once it has
+     * been idle for the idle timeout, and a new one is made by the next poll.
      * </p>
      * <i>&nbsp;&nbsp;&nbsp;The default value is <b>false</b></i>
      * 
@@ -261,5 +437,322 @@ public class LdapPollerEndpoint extends PollingEndpoint implements LdapEndpointT
     public void setPersistent(boolean persistent) {
         this.persistent = persistent;
     }
+    
+    public int getPoolSize() {
+        return poolSize;
+    }
+    
+    /**
+     * <p>
+     * This attribute specifies the maximum number of idle LDAP connections kept open
+     * between the polls. A value of 0 closes the connection after each poll.
+     * </p>
+     * <i>&nbsp;&nbsp;&nbsp;The default value is <b>1</b></i>
+     * 
+     * @param poolSize a <code>int</code> value representing the number of pooled connections
+     */
+    public void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+    
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+    
+    /**
+     * <p>
+     * This attribute specifies the time in milliseconds after which an idle LDAP connection
+     * is closed, when the connection is not persistent.
+     * </p>
+     * <i>&nbsp;&nbsp;&nbsp;The default value is <b>60000</b></i>
+     * 
+     * @param idleTimeout a <code>long</code> value representing the idle timeout
+     */
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+    
+    public boolean isValidateConnection() {
+        return validateConnection;
+    }
+    
+    /**
+     * <p>
+     * This attribute specifies if an idle LDAP connection is validated, by reading the root DSE,
+     * before being used by a poll. An invalid connection is replaced by a new one.
+     * </p>
+     * <i>&nbsp;&nbsp;&nbsp;The default value is <b>true</b></i>
+     * 
+     * @param validateConnection a <code>boolean</code> value representing if the connections are validated
+     */
+    public void setValidateConnection(boolean validateConnection) {
+        this.validateConnection = validateConnection;
+    }
+    
+    public int getCacheSize() {
+        return cacheSize;
+    }
+    
+    /**
+     * <p>
+     * This attribute specifies the maximum number of entries remembered to fetch only
+     * the new entries. An entry forgotten because the cache is full is sent again when
+     * it is found by a poll.
+     * </p>
+     * <i>&nbsp;&nbsp;&nbsp;The default value is <b>100000</b></i>
+     * 
+     * @param cacheSize a <code>int</code> value representing the maximum number of entries in the cache
+     */
+    public void setCacheSize(int cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+    
+    public String getTimestampAttribute() {
+        return timestampAttribute;
+    }
+    
+    /**
+     * <p>
+     * This attribute specifies the entry attribute holding the modification time, like
+     * <code>modifyTimestamp</code>. If defined, each poll only requests the entries modified
+     * since the latest modification time seen by the previous polls.
+     * </p>
+     * <p>
+     * The entries modified at that time are requested again, as other entries may have
+     * been modified in the same second after the previous poll. The entries already sent
+     * by the previous polls are recognized by their DN and digest and are not sent again.
+     * </p>
+     * <p>
+     * The latest modification time is found by comparing the attribute values as strings,
+     * not with the ordering rule of the attribute. This is right for generalized times
+     * written with the same precision and time zone, like the <code>modifyTimestamp</code>
+     * values written by a single server (<code>20101019120000Z</code>), but not for values
+     * mixing fractions of seconds or time zone offsets.
+     * </p>
+     * <i>&nbsp;&nbsp;&nbsp;The default value is <b>null</b></i>
+     * 
+     * @param timestampAttribute a <code>String</code> value representing the modification time attribute name
+     */
+    public void setTimestampAttribute(String timestampAttribute) {
+        this.timestampAttribute = timestampAttribute;
+    }
+    
+    public int getPageSize() {
+        return pageSize;
+    }
+    
+    /**
+     * <p>
+     * This attribute specifies the number of entries requested at once using the LDAP
+     * paged results control. A value of 0 requests all the entries at once.
+     * </p>
+     * <i>&nbsp;&nbsp;&nbsp;The default value is <b>0</b></i>
+     * 
+     * @param pageSize a <code>int</code> value representing the number of entries per page
+     */
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+    
+    public boolean isExchangePerPage() {
+        return exchangePerPage;
+    }
+    
+    /**
+     * <p>
+     * This attribute specifies if the entries of each page are sent in their own exchange,
+     * instead of sending all the entries of a poll in a single exchange.
+     * </p>
+     * <i>&nbsp;&nbsp;&nbsp;The default value is <b>false</b></i>
+     * 
+     * @param exchangePerPage a <code>boolean</code> value representing if an exchange is sent per page
+     */
+    public void setExchangePerPage(boolean exchangePerPage) {
+        this.exchangePerPage = exchangePerPage;
+    }
+    
+    /**
+     * <p>
+     * NamingEnumeration over the entries selected by a poll. The entries are read from
+     * the search result as they are enumerated, one page at a time, so that only the
+     * marshaled message is held in memory. With newOnly, the unchanged entries are skipped.
+     * </p>
+     */
+    private class PolledEntries implements NamingEnumeration {
+        
+        private final String searchFilter;
+        private final boolean allPages;
+        private final Map<String, byte[]> digests = new LinkedHashMap<String, byte[]>();
+        private String highWaterMark = LdapPollerEndpoint.this.highWaterMark;
+        private final Map<String, byte[]> boundary = new HashMap<String, byte[]>(LdapPollerEndpoint.this.boundary);
+        private NamingEnumeration page;
+        private SearchResult next;
+        
+        /**
+         * @param searchFilter the search filter.
+         * @param allPages true to enumerate the entries of all the pages, false to stop
+         *            at the end of each page.
+         */
+        public PolledEntries(String searchFilter, boolean allPages) throws Exception {
+            this.searchFilter = searchFilter;
+            this.allPages = allPages;
+            if (pageSize > 0) {
+                page = ldapConnection.search(searchBase, searchFilter, pageSize, null);
+            } else {
+                page = ldapConnection.search(searchBase, searchFilter);
+            }
+        }
+        
+        /**
+         * <p>
+         * Requests the page following the current one, once the current one has been read.
+         * </p>
+         * 
+         * @return false if the current page is the last one.
+         */
+        public boolean nextPage() throws NamingException {
+            try {
+                byte[] cookie = pageSize > 0 ? ldapConnection.getPagedResultsCookie() : null;
+                if (cookie == null) {
+                    return false;
+                }
+                page = ldapConnection.search(searchBase, searchFilter, pageSize, cookie);
+                return true;
+            } catch (NamingException e) {
+                throw e;
+            } catch (Exception e) {
+                NamingException namingException = new NamingException("Can't request the next page");
+                namingException.setRootCause(e);
+                throw namingException;
+            }
+        }
+        
+        /**
+         * @return the digests of the entries enumerated since the last call.
+         */
+        public Map<String, byte[]> sentDigests() {
+            Map<String, byte[]> sent = new LinkedHashMap<String, byte[]>(digests);
+            digests.clear();
+            return sent;
+        }
+        
+        /**
+         * @return the latest modification time seen.
+         */
+        public String getHighWaterMark() {
+            return highWaterMark;
+        }
+        
+        /**
+         * @return the digests of the entries modified at the latest modification time, by DN.
+         */
+        public Map<String, byte[]> getBoundary() {
+            return boundary;
+        }
+        
+        public boolean hasMore() throws NamingException {
+            while (next == null) {
+                if (page.hasMore()) {
+                    accept((SearchResult) page.next());
+                } else if (!allPages || !nextPage()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        /**
+         * <p>
+         * Selects the entry to enumerate if it is new or has changed.
+         * </p>
+         */
+        private void accept(SearchResult result) throws NamingException {
+            String dn = result.getNameInNamespace();
+            byte[] digest = null;
+            if (timestampAttribute != null) {
+                Attribute timestamp = result.getAttributes().get(timestampAttribute);
+                if (timestamp != null && timestamp.get() != null) {
+                    // generalized times with the same precision and time zone sort as strings
+                    String value = timestamp.get().toString();
+                    if (highWaterMark == null || value.compareTo(highWaterMark) > 0) {
+                        highWaterMark = value;
+                        boundary.clear();
+                    }
+                    if (value.equals(highWaterMark)) {
+                        digest = digest(result, digest);
+                        boundary.put(dn, digest);
+                    }
+                    if (value.equals(LdapPollerEndpoint.this.highWaterMark)) {
+                        // the filter includes the previous high-water mark
+                        digest = digest(result, digest);
+                        byte[] previous = LdapPollerEndpoint.this.boundary.get(dn);
+                        if (previous != null && MessageDigest.isEqual(previous, digest)) {
+                            LOG.debug("Skip the entry " + dn + " already sent by a previous poll");
+                            return;
+                        }
+                    }
+                }
+            }
+            if (!newOnly) {
+                next = result;
+                return;
+            }
+            digest = digest(result, digest);
+            if (isChanged(dn, digest)) {
+                digests.put(dn, digest);
+                next = result;
+            }
+        }
+        
+        /**
+         * <p>
+         * Computes the entry digest, unless it has already been computed.
+         * </p>
+         */
+        private byte[] digest(SearchResult result, byte[] digest) throws NamingException {
+            if (digest != null) {
+                return digest;
+            }
+            try {
+                return LdapPollerEndpoint.digest(result);
+            } catch (NamingException e) {
+                throw e;
+            } catch (Exception e) {
+                NamingException namingException = new NamingException("Can't compute the entry digest");
+                namingException.setRootCause(e);
+                throw namingException;
+            }
+        }
+        
+        public Object next() throws NamingException {
+            if (!hasMore()) {
+                throw new NoSuchElementException();
+            }
+            SearchResult result = next;
+            next = null;
+            return result;
+        }
+        
+        public boolean hasMoreElements() {
+            try {
+                return hasMore();
+            } catch (NamingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        
+        public Object nextElement() {
+            try {
+                return next();
+            } catch (NamingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        
+        public void close() throws NamingException {
+            page.close();
+        }
+        
+    }
 
 }
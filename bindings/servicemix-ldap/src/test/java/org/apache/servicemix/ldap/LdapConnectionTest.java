@@ -0,0 +1,302 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.ldap;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.naming.CommunicationException;
+import javax.naming.Context;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.LdapContext;
+import javax.naming.spi.InitialContextFactory;
+
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * Unit tests on the LDAP connection pool, using a fake LDAP context factory.
+ * </p>
+ */
+public class LdapConnectionTest extends TestCase {
+    
+    private static final List<FakeContext> CONTEXTS = new CopyOnWriteArrayList<FakeContext>();
+    
+    /**
+     * the number of entries read before the connection of the next bound context is lost,
+     * -1 to keep the connection
+     */
+    private static volatile int failAfterEntries = -1;
+    
+    private LdapConnection connection;
+    
+    /*
+     * (non-Javadoc)
+     * @see junit.framework.TestCase#setUp()
+     */
+    public void setUp() throws Exception {
+        CONTEXTS.clear();
+        failAfterEntries = -1;
+        connection = new LdapConnection(new URL("http://localhost:389"), FakeContextFactory.class.getName(), null, null);
+    }
+    
+    /*
+     * (non-Javadoc)
+     * @see junit.framework.TestCase#tearDown()
+     */
+    public void tearDown() throws Exception {
+        connection.close();
+    }
+    
+    /**
+     * <p>
+     * Test that the context is bound once and reused by the next connections.
+     * </p>
+     */
+    public void testContextReused() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            connection.connect();
+            assertEquals(2, count(connection.search("dc=example,dc=com", "(objectclass=*)")));
+            connection.disconnect();
+        }
+        
+        assertEquals(1, CONTEXTS.size());
+        assertFalse(CONTEXTS.get(0).closed);
+    }
+    
+    /**
+     * <p>
+     * Test that the contexts exceeding the pool size are closed on disconnect.
+     * </p>
+     */
+    public void testPoolSizeZeroClosesContexts() throws Exception {
+        connection.setPoolSize(0);
+        for (int i = 0; i < 2; i++) {
+            connection.connect();
+            connection.disconnect();
+        }
+        
+        assertEquals(2, CONTEXTS.size());
+        assertTrue(CONTEXTS.get(0).closed);
+        assertTrue(CONTEXTS.get(1).closed);
+    }
+    
+    /**
+     * <p>
+     * Test that an idle context whose connection has been lost is replaced on connect.
+     * </p>
+     */
+    public void testInvalidContextReplaced() throws Exception {
+        connection.connect();
+        connection.disconnect();
+        CONTEXTS.get(0).lost = true;
+        
+        connection.connect();
+        assertEquals(2, count(connection.search("dc=example,dc=com", "(objectclass=*)")));
+        connection.disconnect();
+        
+        assertEquals(2, CONTEXTS.size());
+        assertTrue(CONTEXTS.get(0).closed);
+        assertFalse(CONTEXTS.get(1).closed);
+    }
+    
+    /**
+     * <p>
+     * Test that the contexts idle for longer than the idle timeout are closed.
+     * </p>
+     */
+    public void testIdleContextEvicted() throws Exception {
+        connection.setIdleTimeout(50);
+        connection.connect();
+        connection.disconnect();
+        
+        connection.evict();
+        assertFalse(CONTEXTS.get(0).closed);
+        
+        Thread.sleep(100);
+        connection.evict();
+        assertTrue(CONTEXTS.get(0).closed);
+        
+        // the next connection binds a new context
+        connection.connect();
+        connection.disconnect();
+        assertEquals(2, CONTEXTS.size());
+    }
+    
+    /**
+     * <p>
+     * Test that a search is sent again when the connection is lost while the first
+     * entry is read.
+     * </p>
+     */
+    public void testSearchRetriedWhenReadFails() throws Exception {
+        failAfterEntries = 0;
+        connection.setValidateOnBorrow(false);
+        connection.connect();
+        
+        assertEquals(2, count(connection.search("dc=example,dc=com", "(objectclass=*)")));
+        connection.disconnect();
+        
+        assertEquals(2, CONTEXTS.size());
+        assertTrue(CONTEXTS.get(0).closed);
+    }
+    
+    /**
+     * <p>
+     * Test that a search isn't sent again once entries have been returned.
+     * </p>
+     */
+    public void testSearchNotRetriedAfterEntries() throws Exception {
+        failAfterEntries = 1;
+        connection.connect();
+        
+        NamingEnumeration entries = connection.search("dc=example,dc=com", "(objectclass=*)");
+        assertTrue(entries.hasMore());
+        entries.next();
+        try {
+            entries.hasMore();
+            fail("The lost connection should be reported");
+        } catch (CommunicationException e) {
+            // expected
+        }
+        connection.disconnect();
+        
+        assertEquals(1, CONTEXTS.size());
+    }
+    
+    private static int count(NamingEnumeration entries) throws NamingException {
+        int count = 0;
+        while (entries.hasMore()) {
+            entries.next();
+            count++;
+        }
+        return count;
+    }
+    
+    /**
+     * <p>
+     * Binds fake LDAP contexts.
+     * </p>
+     */
+    public static class FakeContextFactory implements InitialContextFactory {
+        
+        public Context getInitialContext(Hashtable<?, ?> environment) throws NamingException {
+            FakeContext context = new FakeContext(failAfterEntries);
+            failAfterEntries = -1;
+            CONTEXTS.add(context);
+            return (Context) Proxy.newProxyInstance(LdapContext.class.getClassLoader(),
+                    new Class[] { LdapContext.class }, context);
+        }
+        
+    }
+    
+    /**
+     * <p>
+     * A fake LDAP context returning two entries for each search but the root DSE.
+     * </p>
+     */
+    private static class FakeContext implements InvocationHandler {
+        
+        private final int failAfterEntries;
+        private volatile boolean lost;
+        private volatile boolean closed;
+        
+        public FakeContext(int failAfterEntries) {
+            this.failAfterEntries = failAfterEntries;
+        }
+        
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close")) {
+                closed = true;
+                return null;
+            }
+            if (name.equals("search")) {
+                if (lost || closed) {
+                    throw new CommunicationException("Connection lost");
+                }
+                return new FakeEnumeration("".equals(args[0]) ? 0 : 2, failAfterEntries);
+            }
+            if (name.equals("equals")) {
+                return proxy == args[0];
+            }
+            if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            }
+            if (name.equals("toString")) {
+                return "FakeContext";
+            }
+            return null;
+        }
+        
+    }
+    
+    /**
+     * <p>
+     * The entries of a fake search, losing the connection after some entries.
+     * </p>
+     */
+    private static class FakeEnumeration implements NamingEnumeration {
+        
+        private final int size;
+        private final int failAfterEntries;
+        private int index;
+        
+        public FakeEnumeration(int size, int failAfterEntries) {
+            this.size = size;
+            this.failAfterEntries = failAfterEntries;
+        }
+        
+        public boolean hasMore() throws NamingException {
+            if (index == failAfterEntries) {
+                throw new CommunicationException("Connection lost");
+            }
+            return index < size;
+        }
+        
+        public Object next() throws NamingException {
+            if (!hasMore()) {
+                throw new NoSuchElementException();
+            }
+            index++;
+            return new SearchResult("uid=" + index, null, new BasicAttributes(true));
+        }
+        
+        public boolean hasMoreElements() {
+            return index < size;
+        }
+        
+        public Object nextElement() {
+            index++;
+            return new SearchResult("uid=" + index, null, new BasicAttributes(true));
+        }
+        
+        public void close() throws NamingException {
+        }
+        
+    }
+    
+}
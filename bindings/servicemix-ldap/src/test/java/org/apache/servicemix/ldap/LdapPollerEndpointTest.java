@@ -0,0 +1,475 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.ldap;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.jbi.messaging.MessageExchange;
+import javax.jbi.messaging.MessageExchangeFactory;
+import javax.jbi.messaging.MessagingException;
+import javax.jbi.messaging.NormalizedMessage;
+import javax.naming.Context;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
+import javax.naming.spi.InitialContextFactory;
+import javax.xml.namespace.QName;
+
+import junit.framework.TestCase;
+
+import org.apache.servicemix.ldap.marshaler.LdapMarshalerSupport;
+import org.apache.servicemix.tck.mock.MockExchangeFactory;
+
+/**
+ * <p>
+ * Unit tests on the LDAP poller entry digests, and on the polls of a fake directory.
+ * </p>
+ */
+public class LdapPollerEndpointTest extends TestCase {
+    
+    private static final String DN = "uid=jdoe,ou=people,dc=example,dc=com";
+    
+    private static final List<SearchResult> DIRECTORY = new CopyOnWriteArrayList<SearchResult>();
+    private static final List<String> SEARCHES = new CopyOnWriteArrayList<String>();
+    
+    private LdapPollerEndpoint endpoint;
+    
+    /*
+     * (non-Javadoc)
+     * @see junit.framework.TestCase#setUp()
+     */
+    public void setUp() throws Exception {
+        endpoint = new LdapPollerEndpoint();
+        endpoint.setUrl(new URL("http://localhost:389"));
+        endpoint.setTargetService(new QName("urn:test", "receiver"));
+        endpoint.setNewOnly(true);
+        endpoint.setCacheSize(2);
+        endpoint.validate();
+        DIRECTORY.clear();
+        SEARCHES.clear();
+    }
+    
+    /**
+     * <p>
+     * Test that the digest doesn't depend on the attributes order.
+     * </p>
+     */
+    public void testDigestIgnoresAttributesOrder() throws Exception {
+        SearchResult first = entry(DN, attribute("cn", "John Doe"), attribute("mail", "jdoe@example.com"));
+        SearchResult second = entry(DN, attribute("mail", "jdoe@example.com"), attribute("cn", "John Doe"));
+        
+        assertTrue(Arrays.equals(LdapPollerEndpoint.digest(first), LdapPollerEndpoint.digest(second)));
+    }
+    
+    /**
+     * <p>
+     * Test that the digest changes with the attribute values.
+     * </p>
+     */
+    public void testDigestChangesWithValues() throws Exception {
+        SearchResult first = entry(DN, attribute("cn", "John Doe"));
+        SearchResult second = entry(DN, attribute("cn", "John Doe", "J. Doe"));
+        // the value separator keeps "ab" + "c" apart from "a" + "bc"
+        SearchResult third = entry(DN, attribute("cn", "ab", "c"));
+        SearchResult fourth = entry(DN, attribute("cn", "a", "bc"));
+        
+        assertFalse(Arrays.equals(LdapPollerEndpoint.digest(first), LdapPollerEndpoint.digest(second)));
+        assertFalse(Arrays.equals(LdapPollerEndpoint.digest(third), LdapPollerEndpoint.digest(fourth)));
+    }
+    
+    /**
+     * <p>
+     * Test that an entry stays new until its digest is stored, and is new again
+     * once it has changed.
+     * </p>
+     */
+    public void testIsChangedUntilStored() throws Exception {
+        byte[] digest = LdapPollerEndpoint.digest(entry(DN, attribute("cn", "John Doe")));
+        
+        assertTrue(endpoint.isChanged(DN, digest));
+        // a failed send doesn't store the digest
+        assertTrue(endpoint.isChanged(DN, digest));
+        
+        endpoint.store(Collections.singletonMap(DN, digest));
+        assertFalse(endpoint.isChanged(DN, digest));
+        
+        byte[] changed = LdapPollerEndpoint.digest(entry(DN, attribute("cn", "J. Doe")));
+        assertTrue(endpoint.isChanged(DN, changed));
+    }
+    
+    /**
+     * <p>
+     * Test that the least recently seen entries are forgotten when the cache is full.
+     * </p>
+     */
+    public void testCacheEviction() throws Exception {
+        byte[] digest = LdapPollerEndpoint.digest(entry(DN, attribute("cn", "John Doe")));
+        
+        endpoint.store(Collections.singletonMap("uid=a", digest));
+        endpoint.store(Collections.singletonMap("uid=b", digest));
+        // seeing uid=a makes uid=b the eldest entry
+        assertFalse(endpoint.isChanged("uid=a", digest));
+        endpoint.store(Collections.singletonMap("uid=c", digest));
+        
+        assertFalse(endpoint.isChanged("uid=a", digest));
+        assertTrue(endpoint.isChanged("uid=b", digest));
+        assertFalse(endpoint.isChanged("uid=c", digest));
+    }
+    
+    /**
+     * <p>
+     * Test that the pages of a search are sent in a single exchange.
+     * </p>
+     */
+    public void testPagedPollSendsOneExchange() throws Exception {
+        for (int i = 1; i <= 5; i++) {
+            DIRECTORY.add(entry("uid=" + i, attribute("cn", "User " + i)));
+        }
+        RecordingPoller poller = createPoller();
+        poller.setPageSize(2);
+        poller.validate();
+        
+        poller.poll();
+        
+        assertEquals(1, poller.exchanges.size());
+        assertEquals(Arrays.asList("uid=1", "uid=2", "uid=3", "uid=4", "uid=5"), poller.exchanges.get(0));
+        assertEquals(3, SEARCHES.size());
+    }
+    
+    /**
+     * <p>
+     * Test that the entries of each page are sent in their own exchange with exchangePerPage.
+     * </p>
+     */
+    public void testExchangePerPage() throws Exception {
+        for (int i = 1; i <= 5; i++) {
+            DIRECTORY.add(entry("uid=" + i, attribute("cn", "User " + i)));
+        }
+        RecordingPoller poller = createPoller();
+        poller.setPageSize(2);
+        poller.setExchangePerPage(true);
+        poller.validate();
+        
+        poller.poll();
+        
+        assertEquals(3, poller.exchanges.size());
+        assertEquals(Arrays.asList("uid=1", "uid=2"), poller.exchanges.get(0));
+        assertEquals(Arrays.asList("uid=3", "uid=4"), poller.exchanges.get(1));
+        assertEquals(Arrays.asList("uid=5"), poller.exchanges.get(2));
+    }
+    
+    /**
+     * <p>
+     * Test that with exchangePerPage and newOnly, the pages without new entries are not sent.
+     * </p>
+     */
+    public void testExchangePerPageSkipsUnchangedPages() throws Exception {
+        for (int i = 1; i <= 4; i++) {
+            DIRECTORY.add(entry("uid=" + i, attribute("cn", "User " + i)));
+        }
+        RecordingPoller poller = createPoller();
+        poller.setPageSize(2);
+        poller.setExchangePerPage(true);
+        poller.setNewOnly(true);
+        poller.validate();
+        poller.poll();
+        DIRECTORY.set(3, entry("uid=4", attribute("cn", "Changed")));
+        poller.exchanges.clear();
+        
+        poller.poll();
+        
+        assertEquals(1, poller.exchanges.size());
+        assertEquals(Arrays.asList("uid=4"), poller.exchanges.get(0));
+    }
+    
+    /**
+     * <p>
+     * Test that the entries modified at the high-water mark are sent once, although the
+     * following polls request them again.
+     * </p>
+     */
+    public void testTimestampBoundarySentOnce() throws Exception {
+        DIRECTORY.add(entry("uid=a", attribute("cn", "A"), attribute("modifyTimestamp", "20101019120000Z")));
+        DIRECTORY.add(entry("uid=b", attribute("cn", "B"), attribute("modifyTimestamp", "20101019120500Z")));
+        DIRECTORY.add(entry("uid=c", attribute("cn", "C"), attribute("modifyTimestamp", "20101019120500Z")));
+        RecordingPoller poller = createPoller();
+        poller.setTimestampAttribute("modifyTimestamp");
+        poller.validate();
+        
+        poller.poll();
+        assertEquals(Arrays.asList("uid=a", "uid=b", "uid=c"), poller.exchanges.get(0));
+        
+        // nothing has changed
+        poller.poll();
+        assertEquals("(&(objectclass=*)(modifyTimestamp>=20101019120500Z))", SEARCHES.get(SEARCHES.size() - 1));
+        assertEquals(Collections.emptyList(), poller.exchanges.get(1));
+        
+        // entries modified in the same second after the previous poll
+        DIRECTORY.add(entry("uid=d", attribute("cn", "D"), attribute("modifyTimestamp", "20101019120500Z")));
+        DIRECTORY.set(1, entry("uid=b", attribute("cn", "B2"), attribute("modifyTimestamp", "20101019120500Z")));
+        poller.poll();
+        assertEquals(Arrays.asList("uid=b", "uid=d"), poller.exchanges.get(2));
+        
+        // a later modification moves the high-water mark
+        DIRECTORY.add(entry("uid=e", attribute("cn", "E"), attribute("modifyTimestamp", "20101019121000Z")));
+        poller.poll();
+        assertEquals(Arrays.asList("uid=e"), poller.exchanges.get(3));
+        
+        poller.poll();
+        assertEquals("(&(objectclass=*)(modifyTimestamp>=20101019121000Z))", SEARCHES.get(SEARCHES.size() - 1));
+        assertEquals(Collections.emptyList(), poller.exchanges.get(4));
+    }
+    
+    /**
+     * <p>
+     * Test that the high-water mark isn't moved when the exchange can't be sent.
+     * </p>
+     */
+    public void testTimestampKeptWhenSendFails() throws Exception {
+        DIRECTORY.add(entry("uid=a", attribute("cn", "A"), attribute("modifyTimestamp", "20101019120000Z")));
+        RecordingPoller poller = createPoller();
+        poller.setTimestampAttribute("modifyTimestamp");
+        poller.validate();
+        poller.poll();
+        DIRECTORY.add(entry("uid=b", attribute("cn", "B"), attribute("modifyTimestamp", "20101019120500Z")));
+        
+        poller.failSend = true;
+        try {
+            poller.poll();
+            fail("The send failure should be reported");
+        } catch (MessagingException e) {
+            // expected
+        }
+        poller.failSend = false;
+        poller.poll();
+        
+        assertEquals("(&(objectclass=*)(modifyTimestamp>=20101019120000Z))", SEARCHES.get(SEARCHES.size() - 1));
+        assertEquals(Arrays.asList("uid=b"), poller.exchanges.get(poller.exchanges.size() - 1));
+    }
+    
+    private RecordingPoller createPoller() throws Exception {
+        RecordingPoller poller = new RecordingPoller();
+        poller.setUrl(new URL("http://localhost:389"));
+        poller.setContextFactory(FakeDirectoryFactory.class.getName());
+        poller.setTargetService(new QName("urn:test", "receiver"));
+        poller.setValidateConnection(false);
+        poller.setMarshaler(poller);
+        return poller;
+    }
+    
+    private static SearchResult entry(String dn, Attribute... attributes) {
+        Attributes entryAttributes = new BasicAttributes(true);
+        for (Attribute attribute : attributes) {
+            entryAttributes.put(attribute);
+        }
+        SearchResult result = new SearchResult(dn, null, entryAttributes);
+        result.setNameInNamespace(dn);
+        return result;
+    }
+    
+    private static Attribute attribute(String id, String... values) {
+        Attribute attribute = new BasicAttribute(id);
+        for (String value : values) {
+            attribute.add(value);
+        }
+        return attribute;
+    }
+    
+    /**
+     * <p>
+     * A poller recording the DNs of the entries of each exchange instead of sending it.
+     * </p>
+     */
+    private static class RecordingPoller extends LdapPollerEndpoint implements LdapMarshalerSupport {
+        
+        private final List<List<String>> exchanges = new ArrayList<List<String>>();
+        private List<String> current;
+        private boolean failSend;
+        
+        public MessageExchangeFactory getExchangeFactory() {
+            return new MockExchangeFactory();
+        }
+        
+        public void marshal(NormalizedMessage message, NamingEnumeration namingEnumeration) throws MessagingException {
+            current = new ArrayList<String>();
+            try {
+                while (namingEnumeration.hasMore()) {
+                    current.add(((SearchResult) namingEnumeration.next()).getName());
+                }
+            } catch (NamingException e) {
+                throw new MessagingException(e);
+            }
+        }
+        
+        protected void send(MessageExchange exchange) throws MessagingException {
+            if (failSend) {
+                throw new MessagingException("Send failed");
+            }
+            exchanges.add(current);
+        }
+        
+    }
+    
+    /**
+     * <p>
+     * Binds contexts searching the fake directory.
+     * </p>
+     */
+    public static class FakeDirectoryFactory implements InitialContextFactory {
+        
+        public Context getInitialContext(Hashtable<?, ?> environment) throws NamingException {
+            return (Context) Proxy.newProxyInstance(LdapContext.class.getClassLoader(),
+                    new Class[] { LdapContext.class }, new FakeDirectoryContext());
+        }
+        
+    }
+    
+    /**
+     * <p>
+     * A fake LDAP context returning the directory entries matching the modifyTimestamp
+     * clause of the filter, page by page when the paged results control is requested.
+     * </p>
+     */
+    private static class FakeDirectoryContext implements InvocationHandler {
+        
+        private static final Pattern TIMESTAMP = Pattern.compile("\\(modifyTimestamp>=([^)]*)\\)");
+        
+        private Control[] requestControls;
+        private Control[] responseControls;
+        
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("setRequestControls")) {
+                requestControls = (Control[]) args[0];
+                return null;
+            }
+            if (name.equals("getResponseControls")) {
+                return responseControls;
+            }
+            if (name.equals("search")) {
+                return search((String) args[1]);
+            }
+            if (name.equals("equals")) {
+                return proxy == args[0];
+            }
+            if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            }
+            if (name.equals("toString")) {
+                return "FakeDirectoryContext";
+            }
+            return null;
+        }
+        
+        private NamingEnumeration search(String filter) throws Exception {
+            SEARCHES.add(filter);
+            List<SearchResult> results = new ArrayList<SearchResult>();
+            Matcher matcher = TIMESTAMP.matcher(filter);
+            String since = matcher.find() ? matcher.group(1) : null;
+            for (SearchResult entry : DIRECTORY) {
+                Attribute timestamp = entry.getAttributes().get("modifyTimestamp");
+                if (since == null || (timestamp != null && timestamp.get().toString().compareTo(since) >= 0)) {
+                    results.add(entry);
+                }
+            }
+            responseControls = null;
+            if (requestControls != null && requestControls[0] instanceof PagedResultsControl) {
+                // SEQUENCE { INTEGER size, OCTET STRING cookie }, with short lengths
+                byte[] value = requestControls[0].getEncodedValue();
+                int sizeLength = value[3];
+                int size = 0;
+                for (int i = 0; i < sizeLength; i++) {
+                    size = (size << 8) | (value[4 + i] & 0xff);
+                }
+                int cookieLength = value[5 + sizeLength];
+                int offset = cookieLength == 0 ? 0 : value[6 + sizeLength] & 0xff;
+                int end = Math.min(offset + size, results.size());
+                byte[] cookie = end < results.size() ? new byte[] { (byte) end } : new byte[0];
+                byte[] response = new byte[7 + cookie.length];
+                response[0] = 0x30;
+                response[1] = (byte) (5 + cookie.length);
+                response[2] = 0x02;
+                response[3] = 0x01;
+                response[4] = (byte) results.size();
+                response[5] = 0x04;
+                response[6] = (byte) cookie.length;
+                System.arraycopy(cookie, 0, response, 7, cookie.length);
+                responseControls = new Control[] {
+                    new PagedResultsResponseControl(PagedResultsResponseControl.OID, false, response)
+                };
+                results = results.subList(offset, end);
+            }
+            return new ListEnumeration(results);
+        }
+        
+    }
+    
+    /**
+     * <p>
+     * The entries of a fake search.
+     * </p>
+     */
+    private static class ListEnumeration implements NamingEnumeration {
+        
+        private final List<SearchResult> results;
+        private int index;
+        
+        public ListEnumeration(List<SearchResult> results) {
+            this.results = new ArrayList<SearchResult>(results);
+        }
+        
+        public boolean hasMore() {
+            return index < results.size();
+        }
+        
+        public Object next() {
+            return results.get(index++);
+        }
+        
+        public boolean hasMoreElements() {
+            return hasMore();
+        }
+        
+        public Object nextElement() {
+            return next();
+        }
+        
+        public void close() {
+        }
+        
+    }
+    
+}
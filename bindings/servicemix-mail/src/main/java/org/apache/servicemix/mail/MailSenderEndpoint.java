@@ -23,6 +23,7 @@ import org.apache.servicemix.mail.marshaler.DefaultMailMarshaler;
 import org.apache.servicemix.mail.utils.IgnoreList;
 import org.apache.servicemix.mail.utils.MailConnectionConfiguration;
 import org.apache.servicemix.mail.utils.MailUtils;
+import org.apache.servicemix.mail.utils.TransportPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -32,7 +33,6 @@ import javax.jbi.messaging.MessageExchange;
 import javax.jbi.messaging.NormalizedMessage;
 import javax.mail.MessagingException;
 import javax.mail.Session;
-import javax.mail.Transport;
 import javax.mail.internet.MimeMessage;
 import javax.mail.internet.ParseException;
 import java.util.HashMap;
@@ -58,6 +58,11 @@ public class MailSenderEndpoint extends ProviderEndpoint implements MailEndpoint
     private boolean debugMode;
     private Map<String, String> customProperties = new HashMap<String, String>();
     private IgnoreList ignoreMessageProperties = new IgnoreList();
+    private int maxIdleConnections = 4;
+    private long idleTimeout = 60000;
+    private long connectionCheckInterval = 5000;
+    private boolean batchSending;
+    private TransportPool transportPool;
 
     /*
      * (non-Javadoc)
@@ -71,6 +76,29 @@ public class MailSenderEndpoint extends ProviderEndpoint implements MailEndpoint
         }
     }
 
+    /*
+     * (non-Javadoc)
+     * @see org.apache.servicemix.common.endpoints.SimpleEndpoint#start()
+     */
+    @Override
+    public synchronized void start() throws Exception {
+        this.transportPool = new TransportPool(this.maxIdleConnections, this.idleTimeout,
+                                               this.connectionCheckInterval);
+        super.start();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.servicemix.common.endpoints.SimpleEndpoint#stop()
+     */
+    @Override
+    public synchronized void stop() throws Exception {
+        super.stop();
+        if (this.transportPool != null) {
+            this.transportPool.close();
+        }
+    }
+
     /*
      * (non-Javadoc)
      * @see
@@ -180,32 +208,22 @@ public class MailSenderEndpoint extends ProviderEndpoint implements MailEndpoint
     }
 
     private void sendMail(MessageExchange exchange, NormalizedMessage in) throws Exception {
-        Session session;
-        Properties props = MailUtils.getPropertiesForProtocol(this.config, this.customTrustManagers);
-        props.put("mail.debug", isDebugMode() ? "true" : "false");
-
         String user = getUsername(in);
         String passwd = getPassword(in);
         String protocol = getProtocol(in);
         String host = getHost(in);
         int port = getPort(in);
+        String key = TransportPool.getKey(protocol, host, port, user, passwd);
+
+        Properties props = MailUtils.getPropertiesForProtocol(this.config, this.customTrustManagers);
+        props.put("mail.debug", isDebugMode() ? "true" : "false");
 
         // apply the custom properties
         applyCustomProperties(props);
 
-        // Get session
-        session = Session.getInstance(props, config.getAuthenticator(user, passwd));
-
-        // debug the session
-        session.setDebug(this.debugMode);
-
-        // get the transport from session
-        Transport transport = session.getTransport(protocol);
-
-        // Connect only once here
-        // Transport.send() disconnects after each send
-        // Usually, no username and password is required for SMTP
-        transport.connect(host, port, user, passwd);
+        // Get the session shared by all the connections to this server
+        Session session = this.transportPool.getSession(key, props,
+                                                        config.getAuthenticator(user, passwd), this.debugMode);
 
         // Define message
         MimeMessage msg = new MimeMessage(session);
@@ -217,10 +235,11 @@ public class MailSenderEndpoint extends ProviderEndpoint implements MailEndpoint
         this.marshaler.convertJBIToMail(msg, exchange, in, this.sender, this.receiver);
 
         // Send message
-        transport.sendMessage(msg, msg.getAllRecipients());
-
-        // close transport
-        transport.close();
+        if (this.batchSending) {
+            this.transportPool.sendBatched(key, protocol, host, port, user, passwd, msg);
+        } else {
+            this.transportPool.send(key, protocol, host, port, user, passwd, msg);
+        }
     }
 
     /**
@@ -446,4 +465,80 @@ public class MailSenderEndpoint extends ProviderEndpoint implements MailEndpoint
 	public void setIgnoreMessageProperties(IgnoreList ignoreMessageProperties) {
 		this.ignoreMessageProperties = ignoreMessageProperties;
 	}
+
+    public int getMaxIdleConnections() {
+        return this.maxIdleConnections;
+    }
+
+    /**
+     * <p>Specifies the maximum number of idle connections kept open per mail
+     * server and user. Mails are sent over an idle connection when there is
+     * one, which saves connecting and authenticating for every mail.
+     * A value of <b>0</b> closes the connection after each mail.</p>
+     * <i>&nbsp;&nbsp;&nbsp;The default value is <b>4</b></i><br/><br/>
+     *
+     * @param maxIdleConnections
+     * 				an <code>int</code> value for the maximum number of idle connections
+     */
+    public void setMaxIdleConnections(int maxIdleConnections) {
+        this.maxIdleConnections = maxIdleConnections;
+    }
+
+    public long getIdleTimeout() {
+        return this.idleTimeout;
+    }
+
+    /**
+     * <p>Specifies the time (in milliseconds) after which an idle connection
+     * is closed. Idle connections are checked in the background, at half
+     * this interval.</p>
+     * <i>&nbsp;&nbsp;&nbsp;The default value is <b>60000</b></i><br/><br/>
+     *
+     * @param idleTimeout
+     * 				a <code>long</code> value for the idle timeout
+     */
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    public long getConnectionCheckInterval() {
+        return this.connectionCheckInterval;
+    }
+
+    /**
+     * <p>Specifies the time (in milliseconds) a connection may stay idle before
+     * it is checked (with a <code>NOOP</code> command for SMTP) when it is
+     * used again. A connection found closed is replaced before the mail is
+     * sent. A mail failing on a connection is not sent again, as the server
+     * may already have accepted it, so this value should stay below the idle
+     * timeout of the mail server.</p>
+     * <i>&nbsp;&nbsp;&nbsp;The default value is <b>5000</b></i><br/><br/>
+     *
+     * @param connectionCheckInterval
+     * 				a <code>long</code> value for the check interval
+     */
+    public void setConnectionCheckInterval(long connectionCheckInterval) {
+        this.connectionCheckInterval = connectionCheckInterval;
+    }
+
+    public boolean isBatchSending() {
+        return this.batchSending;
+    }
+
+    /**
+     * <p>Specifies if mails sent concurrently to the same server are queued and
+     * sent one after the other over a single connection, instead of over one
+     * connection each.
+     * <br /><br />
+     * &nbsp;&nbsp;&nbsp;<b>true</b> - <i>queued mails are sent in <b>batches</b></i>
+     * <br />
+     * &nbsp;&nbsp;&nbsp;<b>false</b> - <i>each mail is sent on its own connection</i></p>
+     * <i>&nbsp;&nbsp;&nbsp;The default value is <b>false</b></i><br/><br/>
+     *
+     * @param batchSending
+     * 				a <code>boolean</code> value for batch sending
+     */
+    public void setBatchSending(boolean batchSending) {
+        this.batchSending = batchSending;
+    }
 }
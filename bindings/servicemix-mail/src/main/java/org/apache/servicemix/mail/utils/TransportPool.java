@@ -0,0 +1,395 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.mail.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.mail.Authenticator;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * a pool of connected mail transports, keyed by the connection details
+ * (protocol, host, port and credentials) they have been opened with.
+ * <p>
+ * Idle transports are closed by a background task once they have not been used
+ * for the idle timeout, and a transport which has been idle for more than the
+ * check interval is checked with {@link Transport#isConnected()} (which sends a
+ * <code>NOOP</code> command for SMTP) before being handed out again, so that a
+ * closed connection is replaced before anything is sent over it.  A mail which
+ * fails to be sent is never sent again, as the server may have accepted it
+ * before the connection broke.
+ */
+public class TransportPool {
+
+    private final Logger logger = LoggerFactory.getLogger(TransportPool.class);
+
+    private final Map<String, PoolEntry> entries = new HashMap<String, PoolEntry>();
+    private final ConcurrentHashMap<String, MailBatch> batches = new ConcurrentHashMap<String, MailBatch>();
+
+    private int maxIdle;
+    private long idleTimeout;
+    private long checkInterval;
+    private ScheduledExecutorService evictor;
+
+    /**
+     * creates a new pool
+     *
+     * @param maxIdle        the maximum number of idle transports kept per key
+     * @param idleTimeout    the time (in ms) after which an idle transport is closed
+     * @param checkInterval  the idle time (in ms) after which a transport is checked before use
+     */
+    public TransportPool(int maxIdle, long idleTimeout, long checkInterval) {
+        this.maxIdle = maxIdle;
+        this.idleTimeout = idleTimeout;
+        this.checkInterval = checkInterval;
+        if (maxIdle > 0 && idleTimeout > 0) {
+            this.evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "servicemix-mail transport evictor");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            long period = Math.max(1, idleTimeout / 2);
+            this.evictor.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    evictIdle();
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * builds the pool key for the given connection details
+     */
+    public static String getKey(String protocol, String host, int port, String user, String password) {
+        return protocol + "://" + user + ":" + (password != null ? password.hashCode() : 0) + "@" + host + ":" + port;
+    }
+
+    /**
+     * returns the mail session used by all the transports of the given key,
+     * creating it if needed
+     */
+    public Session getSession(String key, Properties props, Authenticator authenticator, boolean debug) {
+        synchronized (this.entries) {
+            return getEntry(key, props, authenticator, debug).session;
+        }
+    }
+
+    /**
+     * returns a connected transport for the given key, either an idle one or a
+     * newly connected one
+     */
+    public Transport borrow(String key, String protocol, String host, int port, String user, String password)
+        throws MessagingException {
+        while (true) {
+            IdleTransport idle;
+            Session session;
+            synchronized (this.entries) {
+                PoolEntry entry = this.entries.get(key);
+                if (entry == null) {
+                    throw new IllegalStateException("No session for " + host + ":" + port);
+                }
+                session = entry.session;
+                // the most recently used transport is the most likely to be still connected
+                idle = entry.idle.isEmpty() ? null : entry.idle.removeLast();
+            }
+            if (idle == null) {
+                return connect(session, protocol, host, port, user, password);
+            }
+            long idleTime = System.currentTimeMillis() - idle.since;
+            if (idleTime > this.idleTimeout) {
+                close(idle.transport);
+            } else if (idleTime > this.checkInterval && !idle.transport.isConnected()) {
+                logger.debug("Discarding disconnected transport to {}:{}", host, port);
+                close(idle.transport);
+            } else {
+                return idle.transport;
+            }
+        }
+    }
+
+    /**
+     * gives a transport back to the pool once a mail has been sent successfully
+     */
+    public void release(String key, Transport transport) {
+        boolean keep = false;
+        synchronized (this.entries) {
+            PoolEntry entry = this.entries.get(key);
+            if (entry != null && entry.idle.size() < this.maxIdle) {
+                entry.idle.addLast(new IdleTransport(transport, System.currentTimeMillis()));
+                keep = true;
+            }
+        }
+        if (!keep) {
+            close(transport);
+        }
+    }
+
+    /**
+     * closes a transport which failed and must not be reused
+     */
+    public void invalidate(Transport transport) {
+        close(transport);
+    }
+
+    /**
+     * sends a mail over a pooled transport
+     */
+    public void send(String key, String protocol, String host, int port, String user, String password,
+                     Message msg) throws MessagingException {
+        Transport transport = borrow(key, protocol, host, port, user, password);
+        try {
+            transport.sendMessage(msg, msg.getAllRecipients());
+        } catch (SendFailedException ex) {
+            // the server rejected some addresses, the connection can still be used
+            release(key, transport);
+            throw ex;
+        } catch (MessagingException ex) {
+            invalidate(transport);
+            throw ex;
+        } catch (RuntimeException ex) {
+            invalidate(transport);
+            throw ex;
+        }
+        release(key, transport);
+    }
+
+    /**
+     * queues the mail and waits for it to be sent. The first thread finding no
+     * other thread sending mails to the same server sends all the queued mails
+     * over a single connection.
+     */
+    public void sendBatched(String key, String protocol, String host, int port, String user, String password,
+                            Message msg) throws MessagingException, InterruptedException {
+        MailBatch batch = this.batches.get(key);
+        if (batch == null) {
+            batch = new MailBatch();
+            MailBatch existing = this.batches.putIfAbsent(key, batch);
+            if (existing != null) {
+                batch = existing;
+            }
+        }
+        PendingMail mail = new PendingMail(msg);
+        batch.mails.add(mail);
+        while (!mail.isDone()) {
+            if (batch.lock.tryLock()) {
+                try {
+                    sendQueuedMails(key, protocol, host, port, user, password, batch);
+                } finally {
+                    batch.lock.unlock();
+                }
+            } else {
+                mail.await(100);
+            }
+        }
+        if (mail.error != null) {
+            throw mail.error;
+        }
+    }
+
+    private void sendQueuedMails(String key, String protocol, String host, int port, String user, String password,
+                                 MailBatch batch) {
+        Transport transport = null;
+        PendingMail mail;
+        while ((mail = batch.mails.poll()) != null) {
+            try {
+                if (transport == null) {
+                    transport = borrow(key, protocol, host, port, user, password);
+                }
+                transport.sendMessage(mail.message, mail.message.getAllRecipients());
+                mail.complete(null);
+            } catch (SendFailedException ex) {
+                // the server rejected some addresses, the connection can still be used
+                mail.complete(ex);
+            } catch (MessagingException ex) {
+                // the server can not be reached, leave the remaining mails to the next sender
+                if (transport != null) {
+                    invalidate(transport);
+                }
+                mail.complete(ex);
+                return;
+            } catch (RuntimeException ex) {
+                if (transport != null) {
+                    invalidate(transport);
+                }
+                mail.complete(new MessagingException("Error sending mail", ex));
+                return;
+            }
+        }
+        if (transport != null) {
+            release(key, transport);
+        }
+    }
+
+    /**
+     * closes the transports which have been idle for more than the idle timeout
+     */
+    public void evictIdle() {
+        List<Transport> expired = new ArrayList<Transport>();
+        synchronized (this.entries) {
+            long now = System.currentTimeMillis();
+            for (PoolEntry entry : this.entries.values()) {
+                for (Iterator<IdleTransport> it = entry.idle.iterator(); it.hasNext();) {
+                    IdleTransport idle = it.next();
+                    if (now - idle.since > this.idleTimeout) {
+                        it.remove();
+                        expired.add(idle.transport);
+                    }
+                }
+            }
+        }
+        for (Transport t : expired) {
+            logger.debug("Closing idle transport");
+            close(t);
+        }
+    }
+
+    /**
+     * returns the number of idle transports kept for the given key
+     */
+    public int getIdleCount(String key) {
+        synchronized (this.entries) {
+            PoolEntry entry = this.entries.get(key);
+            return entry != null ? entry.idle.size() : 0;
+        }
+    }
+
+    /**
+     * closes all the idle transports and stops the idle transports eviction
+     */
+    public void close() {
+        if (this.evictor != null) {
+            this.evictor.shutdownNow();
+        }
+        List<Transport> transports = new ArrayList<Transport>();
+        synchronized (this.entries) {
+            for (PoolEntry entry : this.entries.values()) {
+                for (IdleTransport idle : entry.idle) {
+                    transports.add(idle.transport);
+                }
+            }
+            this.entries.clear();
+        }
+        for (Transport t : transports) {
+            close(t);
+        }
+    }
+
+    private PoolEntry getEntry(String key, Properties props, Authenticator authenticator, boolean debug) {
+        PoolEntry entry = this.entries.get(key);
+        if (entry == null) {
+            Session session = Session.getInstance(props, authenticator);
+            session.setDebug(debug);
+            entry = new PoolEntry(session);
+            this.entries.put(key, entry);
+        }
+        return entry;
+    }
+
+    private Transport connect(Session session, String protocol, String host, int port, String user, String password)
+        throws MessagingException {
+        logger.debug("Connecting new transport to {}:{}", host, port);
+        Transport transport = session.getTransport(protocol);
+        transport.connect(host, port, user, password);
+        return transport;
+    }
+
+    private void close(Transport transport) {
+        try {
+            transport.close();
+        } catch (MessagingException ex) {
+            logger.debug("Error closing transport", ex);
+        }
+    }
+
+    private static class PoolEntry {
+        private final Session session;
+        private final LinkedList<IdleTransport> idle = new LinkedList<IdleTransport>();
+
+        PoolEntry(Session session) {
+            this.session = session;
+        }
+    }
+
+    private static class IdleTransport {
+        private final Transport transport;
+        private final long since;
+
+        IdleTransport(Transport transport, long since) {
+            this.transport = transport;
+            this.since = since;
+        }
+    }
+
+    /**
+     * the mails waiting to be sent to a mail server
+     */
+    private static class MailBatch {
+        private final Queue<PendingMail> mails = new ConcurrentLinkedQueue<PendingMail>();
+        private final Lock lock = new ReentrantLock();
+    }
+
+    /**
+     * a mail waiting in a batch
+     */
+    private static class PendingMail {
+        private final Message message;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile MessagingException error;
+
+        PendingMail(Message message) {
+            this.message = message;
+        }
+
+        void complete(MessagingException ex) {
+            this.error = ex;
+            this.done.countDown();
+        }
+
+        boolean isDone() {
+            return this.done.getCount() == 0;
+        }
+
+        void await(long millis) throws InterruptedException {
+            this.done.await(millis, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.mail.utils;
+
+import junit.framework.TestCase;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Provider;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.URLName;
+import javax.mail.internet.MimeMessage;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * tests the pooling, eviction and batching of mail transports, using a fake
+ * transport registered for the <code>fake</code> protocol
+ */
+public class TransportPoolTest extends TestCase {
+    private static final String PROTOCOL = "fake";
+    private static final String HOST = "localhost";
+    private static final int PORT = 25;
+    private static final String KEY = TransportPool.getKey(PROTOCOL, HOST, PORT, null, null);
+
+    private TransportPool pool;
+
+    protected void setUp() throws Exception {
+        FakeTransport.reset();
+    }
+
+    protected void tearDown() throws Exception {
+        if (this.pool != null) {
+            this.pool.close();
+        }
+    }
+
+    public void testTransportReused() throws Exception {
+        Session session = createPool(4, 60000, 5000);
+        this.pool.send(KEY, PROTOCOL, HOST, PORT, null, null, createMessage(session));
+        this.pool.send(KEY, PROTOCOL, HOST, PORT, null, null, createMessage(session));
+        assertEquals(1, FakeTransport.INSTANCES.size());
+        assertEquals(2, FakeTransport.INSTANCES.get(0).sent);
+        assertEquals(1, this.pool.getIdleCount(KEY));
+    }
+
+    public void testMaxIdle() throws Exception {
+        createPool(2, 60000, 5000);
+        Transport t1 = this.pool.borrow(KEY, PROTOCOL, HOST, PORT, null, null);
+        Transport t2 = this.pool.borrow(KEY, PROTOCOL, HOST, PORT, null, null);
+        Transport t3 = this.pool.borrow(KEY, PROTOCOL, HOST, PORT, null, null);
+        this.pool.release(KEY, t1);
+        this.pool.release(KEY, t2);
+        this.pool.release(KEY, t3);
+        assertEquals(2, this.pool.getIdleCount(KEY));
+        assertFalse(t3.isConnected());
+    }
+
+    public void testNoPooling() throws Exception {
+        Session session = createPool(0, 60000, 5000);
+        this.pool.send(KEY, PROTOCOL, HOST, PORT, null, null, createMessage(session));
+        assertEquals(0, this.pool.getIdleCount(KEY));
+        assertFalse(FakeTransport.INSTANCES.get(0).isConnected());
+    }
+
+    public void testIdleTransportEvicted() throws Exception {
+        Session session = createPool(4, 100, 5000);
+        this.pool.send(KEY, PROTOCOL, HOST, PORT, null, null, createMessage(session));
+        assertEquals(1, this.pool.getIdleCount(KEY));
+        // closed in the background, without borrowing
+        for (int i = 0; i < 50 && this.pool.getIdleCount(KEY) > 0; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(0, this.pool.getIdleCount(KEY));
+        assertFalse(FakeTransport.INSTANCES.get(0).isConnected());
+    }
+
+    public void testStaleTransportReplacedBeforeSending() throws Exception {
+        Session session = createPool(4, 60000, 0);
+        this.pool.send(KEY, PROTOCOL, HOST, PORT, null, null, createMessage(session));
+        FakeTransport.INSTANCES.get(0).alive = false;
+        Thread.sleep(10);
+        this.pool.send(KEY, PROTOCOL, HOST, PORT, null, null, createMessage(session));
+        assertEquals(2, FakeTransport.INSTANCES.size());
+        assertEquals(1, FakeTransport.INSTANCES.get(0).sent);
+        assertEquals(1, FakeTransport.INSTANCES.get(1).sent);
+    }
+
+    public void testFailedMailNotSentAgain() throws Exception {
+        Session session = createPool(4, 60000, 5000);
+        FakeTransport.failures.set(1);
+        try {
+            this.pool.send(KEY, PROTOCOL, HOST, PORT, null, null, createMessage(session));
+            fail("the failure should be reported");
+        } catch (MessagingException e) {
+            // expected
+        }
+        assertEquals(1, FakeTransport.attempts.get());
+        assertEquals(1, FakeTransport.INSTANCES.size());
+        assertFalse(FakeTransport.INSTANCES.get(0).isConnected());
+        assertEquals(0, this.pool.getIdleCount(KEY));
+    }
+
+    public void testRejectedAddressesKeepTransport() throws Exception {
+        Session session = createPool(4, 60000, 5000);
+        FakeTransport.rejections.set(1);
+        try {
+            this.pool.send(KEY, PROTOCOL, HOST, PORT, null, null, createMessage(session));
+            fail("the rejection should be reported");
+        } catch (SendFailedException e) {
+            // expected
+        }
+        assertEquals(1, this.pool.getIdleCount(KEY));
+    }
+
+    public void testBatchSending() throws Exception {
+        final Session session = createPool(4, 60000, 5000);
+        FakeTransport.delay = 50;
+        final List<Throwable> errors = new CopyOnWriteArrayList<Throwable>();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        pool.sendBatched(KEY, PROTOCOL, HOST, PORT, null, null, createMessage(session));
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join(10000);
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+        // all the mails go one after the other over a single connection
+        assertEquals(1, FakeTransport.INSTANCES.size());
+        assertEquals(threads.length, FakeTransport.INSTANCES.get(0).sent);
+        assertEquals(1, FakeTransport.maxConcurrentSends.get());
+    }
+
+    public void testBatchSendingReportsFailureToItsSender() throws Exception {
+        Session session = createPool(4, 60000, 5000);
+        this.pool.sendBatched(KEY, PROTOCOL, HOST, PORT, null, null, createMessage(session));
+        FakeTransport.rejections.set(1);
+        try {
+            this.pool.sendBatched(KEY, PROTOCOL, HOST, PORT, null, null, createMessage(session));
+            fail("the rejection should be reported");
+        } catch (SendFailedException e) {
+            // expected
+        }
+        this.pool.sendBatched(KEY, PROTOCOL, HOST, PORT, null, null, createMessage(session));
+        assertEquals(1, FakeTransport.INSTANCES.size());
+        assertEquals(2, FakeTransport.INSTANCES.get(0).sent);
+    }
+
+    private Session createPool(int maxIdle, long idleTimeout, long checkInterval) {
+        this.pool = new TransportPool(maxIdle, idleTimeout, checkInterval);
+        Session session = this.pool.getSession(KEY, new Properties(), null, false);
+        session.setProvider(new Provider(Provider.Type.TRANSPORT, PROTOCOL, FakeTransport.class.getName(),
+                                         "Apache ServiceMix", "test"));
+        return session;
+    }
+
+    private static MimeMessage createMessage(Session session) throws MessagingException {
+        MimeMessage msg = new MimeMessage(session);
+        msg.setFrom();
+        msg.setRecipients(Message.RecipientType.TO, "user@localhost.lan");
+        msg.setText("test");
+        return msg;
+    }
+
+    /**
+     * a transport which only counts the mails sent over it
+     */
+    public static class FakeTransport extends Transport {
+        static final List<FakeTransport> INSTANCES = new CopyOnWriteArrayList<FakeTransport>();
+        static final AtomicInteger attempts = new AtomicInteger();
+        static final AtomicInteger failures = new AtomicInteger();
+        static final AtomicInteger rejections = new AtomicInteger();
+        static final AtomicInteger concurrentSends = new AtomicInteger();
+        static final AtomicInteger maxConcurrentSends = new AtomicInteger();
+        static volatile long delay;
+
+        volatile boolean alive = true;
+        volatile int sent;
+
+        public FakeTransport(Session session, URLName urlname) {
+            super(session, urlname);
+            INSTANCES.add(this);
+        }
+
+        static void reset() {
+            INSTANCES.clear();
+            attempts.set(0);
+            failures.set(0);
+            rejections.set(0);
+            concurrentSends.set(0);
+            maxConcurrentSends.set(0);
+            delay = 0;
+        }
+
+        protected boolean protocolConnect(String host, int port, String user, String password) {
+            return true;
+        }
+
+        public boolean isConnected() {
+            return this.alive && super.isConnected();
+        }
+
+        public void sendMessage(Message msg, Address[] addresses) throws MessagingException {
+            attempts.incrementAndGet();
+            int concurrent = concurrentSends.incrementAndGet();
+            try {
+                if (concurrent > maxConcurrentSends.get()) {
+                    maxConcurrentSends.set(concurrent);
+                }
+                if (delay > 0) {
+                    Thread.sleep(delay);
+                }
+                if (failures.getAndDecrement() > 0) {
+                    throw new MessagingException("connection reset");
+                }
+                if (rejections.getAndDecrement() > 0) {
+                    throw new SendFailedException("invalid address");
+                }
+                this.sent++;
+            } catch (InterruptedException e) {
+                throw new MessagingException("interrupted", e);
+            } finally {
+                concurrentSends.decrementAndGet();
+            }
+        }
+    }
+}
@@ -16,6 +16,7 @@
  */
 package org.apache.servicemix.smpp;
 
+import org.apache.servicemix.common.JbiConstants;
 import org.apache.servicemix.common.endpoints.ProviderEndpoint;
 import org.apache.servicemix.jbi.helper.MessageUtil;
 import org.apache.servicemix.smpp.marshaler.DefaultSmppMarshaler;
@@ -33,16 +34,30 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.jbi.management.DeploymentException;
+import javax.jbi.messaging.ExchangeStatus;
+import javax.jbi.messaging.InOnly;
 import javax.jbi.messaging.MessageExchange;
-import javax.jbi.messaging.MessagingException;
 import javax.jbi.messaging.NormalizedMessage;
-import javax.xml.transform.TransformerException;
+import javax.jbi.messaging.RobustInOnly;
 import java.io.IOException;
 import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A provider component receives XML message from the NMR and converts into SMPP
  * packet and sends it to SMS.
+ * <p/>
+ * The endpoint opens <code>binds</code> sessions to the SMSC and keeps up to
+ * <code>windowSize</code> submit_sm requests outstanding on each of them. Exchanges
+ * are handed to the session with the least outstanding requests and are completed
+ * asynchronously once the submit_sm_resp has been received, so the JBI threads are
+ * only blocked when all the windows are full. Transacted exchanges sent
+ * synchronously are submitted and completed on the caller's thread, so that the
+ * transaction is still associated with the thread.
  *
  * @author jbonofre
  * @author lhein
@@ -58,7 +73,10 @@ public class SmppProviderEndpoint extends ProviderEndpoint implements SmppEndpoi
     // SMPP system type
     private final static String DEFAULT_SYSTEM_TYPE = "cp";
 
-    private SMPPSession session;
+    private SmppBind[] sessions;
+    private final AtomicInteger nextSession = new AtomicInteger();
+    private ExecutorService submitter;
+    private SubmitThrottle throttle;
     private static TimeFormatter timeFormatter = new AbsoluteTimeFormatter();
 
     private String host;
@@ -68,6 +86,9 @@ public class SmppProviderEndpoint extends ProviderEndpoint implements SmppEndpoi
     private String systemType=DEFAULT_SYSTEM_TYPE;
     private int enquireLinkTimer = 50000;
     private int transactionTimer = 100000;
+    private int binds = 1;
+    private int windowSize = 1;
+    private int maxSubmitRate;
 
     private SmppMarshalerSupport marshaler;
 
@@ -79,8 +100,15 @@ public class SmppProviderEndpoint extends ProviderEndpoint implements SmppEndpoi
     @Override
     public synchronized void start() throws Exception {
         super.start();
+        // one thread per outstanding request as the jsmpp submit is blocking
+        this.submitter = Executors.newFixedThreadPool(this.binds * this.windowSize);
+        this.throttle = this.maxSubmitRate > 0 ? new SubmitThrottle(this.maxSubmitRate) : null;
         // connect to the SMPP server
-        this.connect();
+        this.sessions = new SmppBind[this.binds];
+        for (int i = 0; i < this.binds; i++) {
+            this.sessions[i] = new SmppBind(this.windowSize);
+            this.connect(this.sessions[i]);
+        }
     }
 
     /*
@@ -91,8 +119,19 @@ public class SmppProviderEndpoint extends ProviderEndpoint implements SmppEndpoi
     @Override
     public synchronized void stop() throws Exception {
         super.stop();
+        // wait for the outstanding requests
+        if (this.submitter != null) {
+            this.submitter.shutdown();
+            this.submitter.awaitTermination(this.transactionTimer, TimeUnit.MILLISECONDS);
+            this.submitter = null;
+        }
         // disconnect from the SMPP server
-        this.disconnect();
+        if (this.sessions != null) {
+            for (SmppBind bind : this.sessions) {
+                this.disconnect(bind);
+            }
+            this.sessions = null;
+        }
     }
 
     /*
@@ -129,14 +168,23 @@ public class SmppProviderEndpoint extends ProviderEndpoint implements SmppEndpoi
         if (this.transactionTimer <= 0) {
             throw new IllegalArgumentException("The transactionTimer value must be greater than 0.");
         }
+        // check the binds
+        if (this.binds <= 0) {
+            throw new IllegalArgumentException("The binds value must be greater than 0.");
+        }
+        // check the window size
+        if (this.windowSize <= 0) {
+            throw new IllegalArgumentException("The windowSize value must be greater than 0.");
+        }
     }
 
     /**
      * Connect to the SMPP server and bind the SMPP session
      */
-    private void connect() {
+    private void connect(SmppBind bind) {
         // create the SMPPSession
-        session = new SMPPSession();
+        SMPPSession session = createSession();
+        bind.session = session;
         // define the enquireLinkTimer
         session.setEnquireLinkTimer(this.enquireLinkTimer);
         // define the transationTimer
@@ -154,66 +202,138 @@ public class SmppProviderEndpoint extends ProviderEndpoint implements SmppEndpoi
         }
     }
 
+    /**
+     * Creates a new, not yet bound, SMPP session
+     */
+    protected SMPPSession createSession() {
+        return new SMPPSession();
+    }
+
     /**
      * Unbind the SMPP session and close the connection to the SMPP server
      */
-    private void disconnect() {
-        if (this.session == null) {
+    private void disconnect(SmppBind bind) {
+        if (bind.session == null) {
             // seems to not be opened at all
             return;
         }
-        this.session.unbindAndClose();
+        bind.session.unbindAndClose();
     }
 
     /*
      * (non-Javadoc)
      * @see
-     * org.apache.servicemix.common.endpoints.ProviderEndpoint#processInOnly
-     * (javax.jbi.messaging.MessageExchange,
-     * javax.jbi.messaging.NormalizedMessage)
+     * org.apache.servicemix.common.endpoints.ProviderEndpoint#process(javax
+     * .jbi.messaging.MessageExchange)
      */
 
     @Override
-    protected void processInOnly(MessageExchange exchange, NormalizedMessage inMsg) throws Exception {
-        process(exchange, inMsg);
-    }
+    public void process(MessageExchange exchange) throws Exception {
+        NormalizedMessage in = exchange.getMessage("in");
+        if (exchange.getRole() != MessageExchange.Role.PROVIDER || exchange.getStatus() != ExchangeStatus.ACTIVE
+                || exchange.getFault() != null || in == null) {
+            super.process(exchange);
+            return;
+        }
+        if (!(exchange instanceof InOnly) && !(exchange instanceof RobustInOnly)) {
+            // we are reading the source of the NormalizedMessage multiple times
+            // (else we receive a IOException: Stream closed)
+            MessageUtil.enableContentRereadability(in);
+        }
+        // let the marshaler create a SM content
+        MessageRequest sm = marshaler.fromNMS(exchange, in);
 
-    /*
-     * (non-Javadoc)
-     * @see
-     * org.apache.servicemix.common.endpoints.ProviderEndpoint#processInOut(
-     * javax.jbi.messaging.MessageExchange,
-     * javax.jbi.messaging.NormalizedMessage,
-     * javax.jbi.messaging.NormalizedMessage)
-     */
+        // wait for a free slot in the window of one of the sessions
+        SmppBind bind = selectSession();
+        bind.window.acquire();
+        bind.outstanding.incrementAndGet();
+        if (isTxSync(exchange)) {
+            // the transaction is bound to this thread, the exchange must be completed on it
+            submit(bind, exchange, sm);
+            return;
+        }
+        try {
+            this.submitter.execute(new SubmitTask(bind, exchange, sm));
+        } catch (RuntimeException e) {
+            bind.outstanding.decrementAndGet();
+            bind.window.release();
+            throw e;
+        }
+    }
 
-    @Override
-    protected void processInOut(MessageExchange exchange, NormalizedMessage in, NormalizedMessage out)
-            throws Exception {
-        // we are reading the source of the NormalizedMessage multiple times
-        // (else we receive a IOException: Stream closed)
-        MessageUtil.enableContentRereadability(in);
+    private static boolean isTxSync(MessageExchange exchange) {
+        return exchange.isTransacted() && Boolean.TRUE.equals(exchange.getProperty(JbiConstants.SEND_SYNC));
+    }
 
-        process(exchange, in);
+    /**
+     * Selects the bound session with the least outstanding requests, starting
+     * from the next session in round robin order.
+     */
+    private SmppBind selectSession() {
+        SmppBind[] binds = this.sessions;
+        int start = (this.nextSession.getAndIncrement() & Integer.MAX_VALUE) % binds.length;
+        SmppBind selected = null;
+        for (int i = 0; i < binds.length; i++) {
+            SmppBind bind = binds[(start + i) % binds.length];
+            if (!bind.isBound()) {
+                continue;
+            }
+            if (selected == null || bind.outstanding.get() < selected.outstanding.get()) {
+                selected = bind;
+            }
+        }
+        // none of the sessions is bound: the submit will report the error
+        return selected != null ? selected : binds[start];
+    }
 
-        // message was delivered, simply copy the in message with properties and
-        // attachements to out
-        MessageUtil.transfer(in, out);
+    /**
+     * Submits the short message and completes the exchange with the result
+     */
+    private void submit(SmppBind bind, MessageExchange exchange, MessageRequest sm) {
+        try {
+            try {
+                if (this.throttle != null) {
+                    this.throttle.acquire();
+                }
+                submit(bind.session, sm);
+            } finally {
+                bind.outstanding.decrementAndGet();
+                bind.window.release();
+            }
+            if (exchange instanceof InOnly || exchange instanceof RobustInOnly) {
+                done(exchange);
+            } else {
+                NormalizedMessage out = exchange.getMessage("out");
+                if (out == null) {
+                    out = exchange.createMessage();
+                    exchange.setMessage(out, "out");
+                }
+                // message was delivered, simply copy the in message with properties and
+                // attachements to out
+                MessageUtil.transfer(exchange.getMessage("in"), out);
+                if (isTxSync(exchange)) {
+                    sendSync(exchange);
+                } else {
+                    send(exchange);
+                }
+            }
+        } catch (Exception e) {
+            try {
+                fail(exchange, e);
+            } catch (Exception ex) {
+                logger.error("Unable to send error for exchange " + exchange.getExchangeId(), ex);
+            }
+        }
     }
 
     /**
-     * process the incoming exchange
+     * send the short message on the session
      *
-     * @param exchange the message exchange
-     * @param in       the in message
-     * @throws TransformerException on transformation errors
-     * @throws MessagingException   on messaging errors
+     * @param session the bound session
+     * @param sm      the short message
+     * @throws Exception on submit errors
      */
-    private void process(MessageExchange exchange, NormalizedMessage in) throws TransformerException,
-            MessagingException {
-        // let the marshaler create a SM content
-        MessageRequest sm = marshaler.fromNMS(exchange, in);
-
+    private void submit(SMPPSession session, MessageRequest sm) throws Exception {
         try {
             logger.debug("Submiting request: {}", sm);
             String messageId = session
@@ -230,19 +350,19 @@ public class SmppProviderEndpoint extends ProviderEndpoint implements SmppEndpoi
             logger.debug("Message sent with ID {}", messageId);
         } catch (PDUException pduException) {
             logger.error("Invalid PDU parameter", pduException);
-            fail(exchange, new Exception("Invalid PDU parameter", pduException));
+            throw new Exception("Invalid PDU parameter", pduException);
         } catch (ResponseTimeoutException responseTimeoutException) {
             logger.error("Response timeout");
-            fail(exchange, new Exception("Response timeout", responseTimeoutException));
+            throw new Exception("Response timeout", responseTimeoutException);
         } catch (InvalidResponseException invalidResponseException) {
             logger.error("Invalid response");
-            fail(exchange, new Exception("Invalid response", invalidResponseException));
+            throw new Exception("Invalid response", invalidResponseException);
         } catch (NegativeResponseException negativeResponseException) {
             logger.error("Negative response");
-            fail(exchange, new Exception("Negative response", negativeResponseException));
+            throw new Exception("Negative response", negativeResponseException);
         } catch (IOException ioException) {
             logger.error("IO error during message send");
-            fail(exchange, new Exception("IO error during message send", ioException));
+            throw new Exception("IO error during message send", ioException);
         }
     }
 
@@ -374,4 +494,125 @@ public class SmppProviderEndpoint extends ProviderEndpoint implements SmppEndpoi
     public void setTransactionTimer(int transactionTimer) {
         this.transactionTimer = transactionTimer;
     }
+
+    public int getBinds() {
+        return binds;
+    }
+
+    /**
+     * <p>
+     * This attribute specifies the number of sessions bound in parallel to the
+     * server. The messages are sent on the session having the least outstanding
+     * requests.<br/>
+     * </p>
+     * <i>&nbsp;&nbsp;&nbsp;The default value is <b>1</b></i>
+     *
+     * @param binds a <code>int</code> value representing the number of binds
+     */
+    public void setBinds(int binds) {
+        this.binds = binds;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * <p>
+     * This attribute specifies the maximum number of submit_sm requests waiting
+     * for their response on each session. Additional messages wait until a
+     * response has been received.<br/>
+     * </p>
+     * <i>&nbsp;&nbsp;&nbsp;The default value is <b>1</b></i>
+     *
+     * @param windowSize a <code>int</code> value representing the window size
+     */
+    public void setWindowSize(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    public int getMaxSubmitRate() {
+        return maxSubmitRate;
+    }
+
+    /**
+     * <p>
+     * This attribute specifies the maximum number of messages submitted per
+     * second over all the sessions, as allowed by the SMSC. A value lower or equal
+     * to 0 disables the throttling.<br/>
+     * </p>
+     * <i>&nbsp;&nbsp;&nbsp;The default value is <b>0</b></i>
+     *
+     * @param maxSubmitRate a <code>int</code> value representing the maximum
+     *                      number of messages per second
+     */
+    public void setMaxSubmitRate(int maxSubmitRate) {
+        this.maxSubmitRate = maxSubmitRate;
+    }
+
+    /**
+     * A session bound to the SMPP server with its window of outstanding requests
+     */
+    private static class SmppBind {
+
+        private volatile SMPPSession session;
+        private final Semaphore window;
+        private final AtomicInteger outstanding = new AtomicInteger();
+
+        SmppBind(int windowSize) {
+            this.window = new Semaphore(windowSize, true);
+        }
+
+        boolean isBound() {
+            SMPPSession s = this.session;
+            return s != null && s.getSessionState().isTransmittable();
+        }
+    }
+
+    /**
+     * Submits a short message in the background
+     */
+    private class SubmitTask implements Runnable {
+
+        private final SmppBind bind;
+        private final MessageExchange exchange;
+        private final MessageRequest sm;
+
+        SubmitTask(SmppBind bind, MessageExchange exchange, MessageRequest sm) {
+            this.bind = bind;
+            this.exchange = exchange;
+            this.sm = sm;
+        }
+
+        public void run() {
+            submit(bind, exchange, sm);
+        }
+    }
+
+    /**
+     * Spaces the submits evenly to stay below a number of messages per second
+     */
+    private static class SubmitThrottle {
+
+        private final long interval;
+        private long next;
+
+        SubmitThrottle(int rate) {
+            this.interval = TimeUnit.SECONDS.toNanos(1) / rate;
+            this.next = System.nanoTime();
+        }
+
+        void acquire() throws InterruptedException {
+            long wait;
+            synchronized (this) {
+                long now = System.nanoTime();
+                long slot = Math.max(now, this.next);
+                this.next = slot + this.interval;
+                wait = slot - now;
+            }
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        }
+    }
 }
@@ -17,10 +17,30 @@
 package org.apache.servicemix.smpp;
 
 import junit.framework.TestCase;
+import org.apache.servicemix.common.JbiConstants;
+import org.apache.servicemix.jbi.jaxp.StringSource;
 import org.apache.servicemix.smpp.marshaler.DefaultSmppMarshaler;
 import org.apache.servicemix.smpp.marshaler.SmppMarshalerSupport;
+import org.apache.servicemix.tck.mock.MockMessageExchange;
+import org.apache.servicemix.tck.mock.MockNormalizedMessage;
+import org.jsmpp.bean.DataCoding;
+import org.jsmpp.bean.ESMClass;
+import org.jsmpp.bean.NumberingPlanIndicator;
+import org.jsmpp.bean.OptionalParameter;
+import org.jsmpp.bean.RegisteredDelivery;
+import org.jsmpp.bean.TypeOfNumber;
+import org.jsmpp.session.SMPPSession;
 
 import javax.jbi.management.DeploymentException;
+import javax.jbi.messaging.ExchangeStatus;
+import javax.jbi.messaging.InOnly;
+import javax.jbi.messaging.MessageExchange;
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * JUnit test class for <code>org.apache.servicemix.smpp.SmppProviderEndpoint</code>
@@ -29,6 +49,11 @@ import javax.jbi.management.DeploymentException;
  */
 public class SmppProviderEndpointTest extends TestCase {
 
+    private static final String MESSAGE = "<message>" + "<source>0123456789</source>"
+            + "<destination>9876543210</destination>"
+            + "<text>SMPP Component Test</text>" + "<ton>NATIONAL</ton>"
+            + "<npi>NATIONAL</npi>" + "</message>";
+
     private SmppProviderEndpoint endpoint;
 
     protected void setUp() throws Exception {
@@ -117,4 +142,163 @@ public class SmppProviderEndpointTest extends TestCase {
             // expected
         }
     }
+
+    public void testValidateInvalidBinds() throws DeploymentException {
+        this.endpoint.setHost("localhost");
+        this.endpoint.setSystemId("test");
+        this.endpoint.setBinds(0);
+
+        try {
+            this.endpoint.validate();
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testValidateInvalidWindowSize() throws DeploymentException {
+        this.endpoint.setHost("localhost");
+        this.endpoint.setSystemId("test");
+        this.endpoint.setWindowSize(0);
+
+        try {
+            this.endpoint.validate();
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testAsyncSubmit() throws Exception {
+        SubmitRecordingEndpoint endpoint = startRecordingEndpoint();
+        try {
+            for (int i = 0; i < 4; i++) {
+                endpoint.process(createExchange("id" + i));
+            }
+            // the exchanges are submitted in the background, with 2 binds of 2 outstanding requests
+            assertTrue(endpoint.awaitOutstanding(4));
+            assertTrue(endpoint.completed.isEmpty());
+            endpoint.submitted.countDown();
+            for (int i = 0; i < 4; i++) {
+                MessageExchange exchange = endpoint.completed.poll(10, TimeUnit.SECONDS);
+                assertNotNull(exchange);
+                assertEquals(ExchangeStatus.DONE, exchange.getStatus());
+            }
+            assertFalse(endpoint.submitThreads.contains(Thread.currentThread()));
+            assertEquals(0, endpoint.syncSends.get());
+        } finally {
+            endpoint.stop();
+        }
+    }
+
+    public void testTransactedSyncSubmitOnCallerThread() throws Exception {
+        SubmitRecordingEndpoint endpoint = startRecordingEndpoint();
+        try {
+            endpoint.submitted.countDown();
+            MessageExchange exchange = createExchange("tx");
+            exchange.setProperty(MessageExchange.JTA_TRANSACTION_PROPERTY_NAME, new Object());
+            exchange.setProperty(JbiConstants.SEND_SYNC, Boolean.TRUE);
+            endpoint.process(exchange);
+            // completed before process returns, on the thread holding the transaction
+            assertSame(exchange, endpoint.completed.poll());
+            assertEquals(ExchangeStatus.DONE, exchange.getStatus());
+            assertEquals(1, endpoint.submitThreads.size());
+            assertTrue(endpoint.submitThreads.contains(Thread.currentThread()));
+        } finally {
+            endpoint.stop();
+        }
+    }
+
+    private SubmitRecordingEndpoint startRecordingEndpoint() throws Exception {
+        SubmitRecordingEndpoint endpoint = new SubmitRecordingEndpoint();
+        endpoint.setHost("localhost");
+        // nothing listens there, the sessions are never bound
+        endpoint.setPort(1);
+        endpoint.setSystemId("test");
+        endpoint.setBinds(2);
+        endpoint.setWindowSize(2);
+        endpoint.validate();
+        endpoint.start();
+        return endpoint;
+    }
+
+    private static MessageExchange createExchange(String id) throws Exception {
+        TransactionalInOnly exchange = new TransactionalInOnly();
+        exchange.setExchangeId(id);
+        exchange.setRole(MessageExchange.Role.PROVIDER);
+        exchange.setStatus(ExchangeStatus.ACTIVE);
+        MockNormalizedMessage in = new MockNormalizedMessage();
+        in.setContent(new StringSource(MESSAGE));
+        exchange.setInMessage(in);
+        return exchange;
+    }
+
+    /**
+     * An InOnly exchange which is transacted when it holds a transaction
+     */
+    private static class TransactionalInOnly extends MockMessageExchange implements InOnly {
+        public boolean isTransacted() {
+            return getProperty(JTA_TRANSACTION_PROPERTY_NAME) != null;
+        }
+    }
+
+    /**
+     * A provider endpoint recording the submits and the exchanges it sends back,
+     * whose submits wait until {@link #submitted} is counted down
+     */
+    private static class SubmitRecordingEndpoint extends SmppProviderEndpoint {
+
+        private final BlockingQueue<MessageExchange> completed = new LinkedBlockingQueue<MessageExchange>();
+        private final BlockingQueue<Thread> submitThreads = new LinkedBlockingQueue<Thread>();
+        private final CountDownLatch submitted = new CountDownLatch(1);
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger syncSends = new AtomicInteger();
+
+        protected SMPPSession createSession() {
+            return new SMPPSession() {
+                public String submitShortMessage(String serviceType, TypeOfNumber sourceAddrTon,
+                                                 NumberingPlanIndicator sourceAddrNpi, String sourceAddr,
+                                                 TypeOfNumber destAddrTon, NumberingPlanIndicator destAddrNpi,
+                                                 String destinationAddr, ESMClass esmClass, byte protocolId,
+                                                 byte priorityFlag, String scheduleDeliveryTime,
+                                                 String validityPeriod, RegisteredDelivery registeredDelivery,
+                                                 byte replaceIfPresentFlag, DataCoding dataCoding,
+                                                 byte smDefaultMsgId, byte[] shortMessage,
+                                                 OptionalParameter... optionalParameters) throws IOException {
+                    submitThreads.add(Thread.currentThread());
+                    synchronized (outstanding) {
+                        outstanding.incrementAndGet();
+                        outstanding.notifyAll();
+                    }
+                    try {
+                        if (!submitted.await(10, TimeUnit.SECONDS)) {
+                            throw new IOException("Submit not released");
+                        }
+                    } catch (InterruptedException e) {
+                        throw new IOException("Interrupted");
+                    }
+                    return "message-id";
+                }
+            };
+        }
+
+        boolean awaitOutstanding(int count) throws InterruptedException {
+            long end = System.currentTimeMillis() + 10000;
+            synchronized (outstanding) {
+                while (outstanding.get() < count && System.currentTimeMillis() < end) {
+                    outstanding.wait(100);
+                }
+                return outstanding.get() >= count;
+            }
+        }
+
+        protected void send(MessageExchange me) {
+            completed.add(me);
+        }
+
+        protected void sendSync(MessageExchange me) {
+            syncSends.incrementAndGet();
+            completed.add(me);
+        }
+    }
 }
@@ -16,6 +16,13 @@
  */
 package org.apache.servicemix.snmp;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import javax.jbi.management.DeploymentException;
 import javax.jbi.messaging.InOnly;
 import javax.jbi.messaging.MessageExchange;
@@ -24,6 +31,7 @@ import javax.jbi.messaging.NormalizedMessage;
 
 import org.apache.servicemix.common.endpoints.PollingEndpoint;
 import org.apache.servicemix.snmp.marshaler.DefaultSnmpMarshaler;
+import org.apache.servicemix.snmp.marshaler.SnmpBatchMarshalerSupport;
 import org.apache.servicemix.snmp.marshaler.SnmpMarshalerSupport;
 import org.apache.servicemix.snmp.util.OIDList;
 import org.slf4j.Logger;
@@ -39,7 +47,6 @@ import org.snmp4j.mp.SnmpConstants;
 import org.snmp4j.security.SecurityModels;
 import org.snmp4j.security.SecurityProtocols;
 import org.snmp4j.security.USM;
-import org.snmp4j.smi.Address;
 import org.snmp4j.smi.GenericAddress;
 import org.snmp4j.smi.OID;
 import org.snmp4j.smi.OctetString;
@@ -48,6 +55,13 @@ import org.snmp4j.transport.DefaultUdpTransportMapping;
 
 /**
  * This is the polling endpoint for the snmp component.
+ * <p>
+ * On each poll, the endpoint queries all its agents concurrently over a single
+ * snmp session. The <code>oids</code> are read with a GET request, and the
+ * subtrees of the <code>walkOids</code> are walked with GETBULK requests (GETNEXT
+ * for snmp version 1). When several <code>addresses</code> are configured, the
+ * results of all agents are sent in one message once every agent has answered
+ * or timed out.
  * 
  * @org.apache.xbean.XBean element="poller"
  * @author lhein
@@ -60,16 +74,18 @@ public class SnmpPollingEndpoint extends PollingEndpoint implements SnmpEndpoint
     public static final int DEFAULT_SNMP_VERSION = SnmpConstants.version1;
     public static final int DEFAULT_SNMP_RETRIES = 2;
     public static final int DEFAULT_SNMP_TIMEOUT = 1500;
+    public static final int DEFAULT_MAX_REPETITIONS = 10;
 
-    private Address targetAddress;
     private TransportMapping transport;
     private Snmp snmp;
     private USM usm;
-    private CommunityTarget target;
-    private PDU pdu;
+    private Map<String, CommunityTarget> targets;
 
     private OIDList oids = new OIDList();
+    private OIDList walkOids = new OIDList();
     private String address;
+    private List<String> addresses;
+    private int maxRepetitions = DEFAULT_MAX_REPETITIONS;
     private int retries = DEFAULT_SNMP_RETRIES;
     private int timeout = DEFAULT_SNMP_TIMEOUT;
     private int snmpVersion = DEFAULT_SNMP_VERSION;
@@ -85,22 +101,22 @@ public class SnmpPollingEndpoint extends PollingEndpoint implements SnmpEndpoint
     public synchronized void activate() throws Exception {
         super.activate();
 
-        this.targetAddress = GenericAddress.parse(this.address);
         this.transport = new DefaultUdpTransportMapping();
         this.snmp = new Snmp(transport);
         this.usm = new USM(SecurityProtocols.getInstance(), new OctetString(MPv3.createLocalEngineID()), 0);
         SecurityModels.getInstance().addSecurityModel(usm);
 
-        // setting up target
-        target = new CommunityTarget();
-        target.setCommunity(new OctetString(this.snmpCommunity));
-        target.setAddress(targetAddress);
-        target.setRetries(this.retries);
-        target.setTimeout(this.timeout);
-        target.setVersion(this.snmpVersion);
-
-        // creating PDU
-        this.pdu = new PDU();
+        // setting up the targets, the retries and time out apply to each agent
+        this.targets = new LinkedHashMap<String, CommunityTarget>();
+        for (String agent : getAgents()) {
+            CommunityTarget target = new CommunityTarget();
+            target.setCommunity(new OctetString(this.snmpCommunity));
+            target.setAddress(GenericAddress.parse(agent));
+            target.setRetries(this.retries);
+            target.setTimeout(this.timeout);
+            target.setVersion(this.snmpVersion);
+            this.targets.put(agent, target);
+        }
     }
 
     /*
@@ -138,24 +154,45 @@ public class SnmpPollingEndpoint extends PollingEndpoint implements SnmpEndpoint
         super.validate();
 
         // check address not null
-        if (this.address == null) {
-            throw new DeploymentException("The address attribute has to be specified!");
+        if (this.address == null && (this.addresses == null || this.addresses.isEmpty())) {
+            throw new DeploymentException("The address or addresses attribute has to be specified!");
         }
 
-        // check if address is valid
-        try {
-            if (GenericAddress.parse(this.address) == null) {
-                throw new DeploymentException("The specified address " + address + " is not valid!");
+        // check if addresses are valid
+        for (String agent : getAgents()) {
+            try {
+                if (GenericAddress.parse(agent) == null) {
+                    throw new DeploymentException("The specified address " + agent + " is not valid!");
+                }
+            } catch (IllegalArgumentException ex) {
+                throw new DeploymentException("The specified address " + agent + " is not valid!");
             }
-        } catch (IllegalArgumentException ex) {
-            throw new DeploymentException("The specified address " + address + " is not valid!");
         }
         
-        // finally check if the oid vector contains values
-        if (this.oids == null || this.oids.size()<=0) {
+        // finally check if the oid vectors contain values
+        if ((this.oids == null || this.oids.size()<=0) && (this.walkOids == null || this.walkOids.size()<=0)) {
             // the poller would be unemployed
             throw new DeploymentException("There are no OIDs defined to be polled. Check your oids attribute.");
         }
+
+        // check the bulk size
+        if (this.maxRepetitions <= 0) {
+            throw new DeploymentException("The maxRepetitions attribute has to be greater than 0.");
+        }
+    }
+
+    /**
+     * returns the addresses of the agents to poll
+     */
+    private List<String> getAgents() {
+        List<String> agents = new ArrayList<String>();
+        if (this.address != null) {
+            agents.add(this.address);
+        }
+        if (this.addresses != null) {
+            agents.addAll(this.addresses);
+        }
+        return agents;
     }
 
     /*
@@ -164,16 +201,10 @@ public class SnmpPollingEndpoint extends PollingEndpoint implements SnmpEndpoint
      */
     @Override
     public void poll() throws Exception {
-        this.pdu.clear();
-        this.pdu.setType(PDU.GET);
-
-        // prepare the request items
-        for (OID oid : oids) {
-            this.pdu.add(new VariableBinding(oid));
+        PollCycle cycle = new PollCycle(this.targets.keySet());
+        for (Map.Entry<String, CommunityTarget> target : this.targets.entrySet()) {
+            new AgentPoll(cycle, target.getKey(), target.getValue()).start();
         }
-
-        // send the request
-        snmp.send(pdu, target, null, this);
     }
 
     /*
@@ -188,12 +219,16 @@ public class SnmpPollingEndpoint extends PollingEndpoint implements SnmpEndpoint
         // endpoint is not interested in such messages at all
     }
 
-    /*
-     * (non-Javadoc)
-     * @see
-     * org.snmp4j.event.ResponseListener#onResponse(org.snmp4j.event.ResponseEvent
-     * )
+    /**
+     * Sends the response of a single request to the bus. The requests of a 
+     * poll are answered by per-agent listeners, so this method is only called 
+     * for requests sent with this endpoint as listener.
+     * 
+     * @deprecated the endpoint polls its agents with its own listeners, this 
+     *             method is kept for callers using the endpoint as listener
+     * @see org.snmp4j.event.ResponseListener#onResponse(org.snmp4j.event.ResponseEvent)
      */
+    @Deprecated
     public void onResponse(ResponseEvent event) {
         // Always cancel async request when response has been received
         // otherwise a memory leak is created! Not canceling a request
@@ -213,6 +248,49 @@ public class SnmpPollingEndpoint extends PollingEndpoint implements SnmpEndpoint
         sendSnmpDataMessage(event.getRequest(), event.getResponse());
     }
 
+    /**
+     * sends the results of a poll cycle to the bus
+     * 
+     * @param cycle the completed poll cycle
+     */
+    private void sendSnmpDataMessage(PollCycle cycle) {
+        if (this.addresses == null || this.addresses.isEmpty()
+            || !(this.marshaler instanceof SnmpBatchMarshalerSupport)) {
+            // one message per agent
+            for (Map.Entry<String, PDU> response : cycle.responses.entrySet()) {
+                if (response.getValue() == null) {
+                    logger.debug("No response received from {}", response.getKey());
+                    continue;
+                }
+                sendSnmpDataMessage(cycle.requests.get(response.getKey()), response.getValue());
+            }
+            return;
+        }
+
+        try {
+            // create a inOnly exchange
+            InOnly io = getExchangeFactory().createInOnlyExchange();
+
+            // configure the exchange target
+            configureExchangeTarget(io);
+
+            // create the in message
+            NormalizedMessage inMsg = io.createMessage();
+
+            // now let the marshaller convert the responses of all agents into a
+            // single normalized message to send to jbi bus
+            ((SnmpBatchMarshalerSupport) this.marshaler).convertToJBI(io, inMsg, cycle.responses);
+
+            // then put the in message into the inOnly exchange
+            io.setInMessage(inMsg);
+
+            // and use send to deliver it
+            getChannel().send(io);
+        } catch (MessagingException ex) {
+            logger.error("Error while trying to send the snmp poll results to the jbi bus", ex);
+        }
+    }
+
     /**
      * sends the message to the bus
      * 
@@ -285,6 +363,25 @@ public class SnmpPollingEndpoint extends PollingEndpoint implements SnmpEndpoint
         this.address = address;
     }
 
+    public List<String> getAddresses() {
+        return this.addresses;
+    }
+
+    /**
+     * <p>Specifies a list of connection URIs of additional snmp capable devices 
+     * to poll. The URIs use the same template as the <code>address</code>
+     * attribute. All the devices are polled concurrently and the results of a 
+     * poll are sent in a single message when the marshaler implements 
+     * <code>SnmpBatchMarshalerSupport</code>.</p>
+     * <i>&nbsp;&nbsp;&nbsp;The default value is <b>null</b></i><br/><br/>
+     * 
+     * @param addresses 
+     * 				a <code>List</code> of connection URIs
+     */
+    public void setAddresses(List<String> addresses) {
+        this.addresses = addresses;
+    }
+
     public int getRetries() {
         return this.retries;
     }
@@ -387,4 +484,208 @@ public class SnmpPollingEndpoint extends PollingEndpoint implements SnmpEndpoint
     public void setOids(OIDList oids) {
         this.oids = oids;
     }
+
+    public OIDList getWalkOids() {
+        return this.walkOids;
+    }
+
+    /**
+     * <p>Specifies a list of OID values whose whole subtree (for instance a 
+     * table) is read on each poll. The subtrees are walked with GETBULK requests, 
+     * or GETNEXT requests for snmp version 1. The value is specified like the 
+     * <code>oids</code> attribute.</p>
+     * <i>&nbsp;&nbsp;&nbsp;The default value is <b>null</b></i><br/><br/>
+     * 
+     * @param walkOids 
+     * 				a <code>OIDList</code> containing the root OID values of the subtrees
+     */
+    public void setWalkOids(OIDList walkOids) {
+        this.walkOids = walkOids;
+    }
+
+    public int getMaxRepetitions() {
+        return this.maxRepetitions;
+    }
+
+    /**
+     * <p>Specifies the number of variables per subtree requested by each GETBULK
+     * request while walking the <code>walkOids</code>.</p>
+     * <i>&nbsp;&nbsp;&nbsp;The default value is <b>10</b></i><br/><br/>
+     * 
+     * @param maxRepetitions 
+     * 				a <code>int</code> value containing the bulk size
+     */
+    public void setMaxRepetitions(int maxRepetitions) {
+        this.maxRepetitions = maxRepetitions;
+    }
+
+    /**
+     * the responses of all agents of one poll
+     */
+    private class PollCycle {
+
+        private final Map<String, PDU> requests = Collections.synchronizedMap(new LinkedHashMap<String, PDU>());
+        private final Map<String, PDU> responses = Collections.synchronizedMap(new LinkedHashMap<String, PDU>());
+        private final AtomicInteger pending;
+
+        PollCycle(Iterable<String> agents) {
+            int count = 0;
+            for (String agent : agents) {
+                // keep the agents in polling order
+                this.responses.put(agent, null);
+                count++;
+            }
+            this.pending = new AtomicInteger(count);
+        }
+
+        void complete(String agent, PDU request, PDU response) {
+            this.requests.put(agent, request);
+            this.responses.put(agent, response);
+            if (this.pending.decrementAndGet() == 0) {
+                sendSnmpDataMessage(this);
+            }
+        }
+    }
+
+    /**
+     * the requests of one poll sent to one agent
+     */
+    private class AgentPoll implements ResponseListener {
+
+        private final PollCycle cycle;
+        private final String agent;
+        private final CommunityTarget target;
+        private final PDU result = new PDU();
+        private final OID[] columns;
+        private PDU request;
+        private boolean walking;
+
+        AgentPoll(PollCycle cycle, String agent, CommunityTarget target) {
+            this.cycle = cycle;
+            this.agent = agent;
+            this.target = target;
+            this.result.setType(PDU.RESPONSE);
+            this.columns = walkOids == null ? new OID[0] : walkOids.toArray(new OID[walkOids.size()]);
+        }
+
+        void start() {
+            if (oids != null && oids.size() > 0) {
+                // prepare the request items
+                PDU pdu = new PDU();
+                pdu.setType(PDU.GET);
+                for (OID oid : oids) {
+                    pdu.add(new VariableBinding(oid));
+                }
+                this.request = pdu;
+                send(pdu);
+            } else {
+                walk(null);
+            }
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see
+         * org.snmp4j.event.ResponseListener#onResponse(org.snmp4j.event.ResponseEvent
+         * )
+         */
+        public void onResponse(ResponseEvent event) {
+            // Always cancel async request when response has been received
+            // otherwise a memory leak is created!
+            ((Snmp)event.getSource()).cancel(event.getRequest(), this);
+
+            // check for valid response
+            PDU response = event.getResponse();
+            if (event.getRequest() == null || response == null) {
+                // the agent didn't answer within the retries
+                logger.debug("No valid snmp response from {}. Request: {}", this.agent, event.getRequest());
+                this.cycle.complete(this.agent, this.request, null);
+                return;
+            }
+
+            if (!this.walking) {
+                for (int i = 0; i < response.size(); i++) {
+                    this.result.add(response.get(i));
+                }
+            }
+            walk(this.walking ? response : null);
+        }
+
+        /**
+         * processes the last response of the walk and requests the next
+         * variables of the subtrees which have not been read completely
+         */
+        private void walk(PDU response) {
+            int active = 0;
+            for (OID column : this.columns) {
+                if (column != null) {
+                    active++;
+                }
+            }
+            if (response != null && active > 0 && response.getErrorStatus() == PDU.noError
+                && response.size() > 0) {
+                // the variables are returned row by row for the requested columns
+                int[] indexes = new int[active];
+                for (int i = 0, j = 0; i < this.columns.length; i++) {
+                    if (this.columns[i] != null) {
+                        indexes[j++] = i;
+                    }
+                }
+                for (int i = 0; i < response.size(); i++) {
+                    int column = indexes[i % active];
+                    OID current = this.columns[column];
+                    if (current == null) {
+                        continue;
+                    }
+                    VariableBinding vb = response.get(i);
+                    if (vb.isException() || !vb.getOid().startsWith(walkOids.get(column))
+                        || vb.getOid().compareTo(current) <= 0) {
+                        // end of the subtree
+                        this.columns[column] = null;
+                        continue;
+                    }
+                    this.result.add(vb);
+                    this.columns[column] = vb.getOid();
+                }
+            } else if (response != null) {
+                // error, empty response or end of mib view (snmp version 1)
+                for (int i = 0; i < this.columns.length; i++) {
+                    this.columns[i] = null;
+                }
+            }
+            
+            PDU pdu = new PDU();
+            for (OID column : this.columns) {
+                if (column != null) {
+                    pdu.add(new VariableBinding(column));
+                }
+            }
+            if (pdu.size() == 0) {
+                // the agent has been completely polled
+                this.cycle.complete(this.agent, this.request != null ? this.request : pdu, this.result);
+                return;
+            }
+            if (this.target.getVersion() == SnmpConstants.version1) {
+                pdu.setType(PDU.GETNEXT);
+            } else {
+                pdu.setType(PDU.GETBULK);
+                pdu.setNonRepeaters(0);
+                pdu.setMaxRepetitions(maxRepetitions);
+            }
+            if (this.request == null) {
+                this.request = pdu;
+            }
+            this.walking = true;
+            send(pdu);
+        }
+
+        private void send(PDU pdu) {
+            try {
+                snmp.send(pdu, this.target, null, this);
+            } catch (Exception ex) {
+                logger.error("Error while sending the snmp request to " + this.agent, ex);
+                this.cycle.complete(this.agent, this.request, null);
+            }
+        }
+    }
 }
@@ -16,6 +16,8 @@
  */
 package org.apache.servicemix.snmp.marshaler;
 
+import java.util.Map;
+
 import javax.jbi.messaging.MessageExchange;
 import javax.jbi.messaging.MessagingException;
 import javax.jbi.messaging.NormalizedMessage;
@@ -29,12 +31,15 @@ import org.snmp4j.smi.VariableBinding;
  * 
  * @author lhein
  */
-public class DefaultSnmpMarshaler implements SnmpMarshalerSupport {
+public class DefaultSnmpMarshaler implements SnmpBatchMarshalerSupport {
 
     public static final String SNMP_TAG = "snmp";
     public static final String ENTRY_TAG = "entry";
     public static final String OID_TAG = "oid";
     public static final String VALUE_TAG = "value";
+    public static final String AGENT_TAG = "agent";
+    public static final String ADDRESS_ATTRIBUTE = "address";
+    public static final String ERROR_ATTRIBUTE = "error";
     
     private static final String SNMP_TAG_OPEN  = '<' + SNMP_TAG + '>';
     private static final String SNMP_TAG_CLOSE = "</" + SNMP_TAG + '>';
@@ -57,6 +62,50 @@ public class DefaultSnmpMarshaler implements SnmpMarshalerSupport {
         sb.append(SNMP_TAG_OPEN);
                 
         // now loop all variables of the response
+        appendEntries(sb, response);
+        
+        // prepare the footer
+        sb.append(SNMP_TAG_CLOSE);
+        
+        // now put the buffer to the message content
+        inMsg.setContent(new StringSource(sb.toString()));
+    }
+
+    /* (non-Javadoc)
+     * @see org.apache.servicemix.snmp.marshaler.SnmpBatchMarshalerSupport#convertToJBI(javax.jbi.messaging.MessageExchange, javax.jbi.messaging.NormalizedMessage, java.util.Map)
+     */
+    public void convertToJBI(MessageExchange exchange, NormalizedMessage inMsg, Map<String, PDU> responses)
+        throws MessagingException {
+        // the output buffer
+        StringBuffer sb = new StringBuffer();
+        
+        // prepare the header
+        sb.append(SNMP_TAG_OPEN);
+        
+        // one element per agent
+        for (Map.Entry<String, PDU> agent : responses.entrySet()) {
+            sb.append('<').append(AGENT_TAG).append(' ').append(ADDRESS_ATTRIBUTE).append("=\"");
+            sb.append(agent.getKey()).append('"');
+            if (agent.getValue() == null) {
+                sb.append(' ').append(ERROR_ATTRIBUTE).append("=\"timeout\"/>");
+                continue;
+            }
+            sb.append('>');
+            appendEntries(sb, agent.getValue());
+            sb.append("</").append(AGENT_TAG).append('>');
+        }
+        
+        // prepare the footer
+        sb.append(SNMP_TAG_CLOSE);
+        
+        // now put the buffer to the message content
+        inMsg.setContent(new StringSource(sb.toString()));
+    }
+    
+    /**
+     * appends an entry for each variable of the response
+     */
+    private void appendEntries(StringBuffer sb, PDU response) {
         for (Object o : response.getVariableBindings()) {
             VariableBinding b = (VariableBinding)o;
 
@@ -69,11 +118,5 @@ public class DefaultSnmpMarshaler implements SnmpMarshalerSupport {
             sb.append(VALUE_TAG_CLOSE);
             sb.append(ENTRY_TAG_CLOSE);
         }
-        
-        // prepare the footer
-        sb.append(SNMP_TAG_CLOSE);
-        
-        // now put the buffer to the message content
-        inMsg.setContent(new StringSource(sb.toString()));
     }
 }
@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.snmp;
+
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.jbi.messaging.NormalizedMessage;
+
+import org.apache.servicemix.jbi.jaxp.SourceTransformer;
+import org.apache.servicemix.snmp.marshaler.DefaultSnmpMarshaler;
+import org.apache.servicemix.tck.Receiver;
+import org.apache.servicemix.tck.SpringTestSupport;
+import org.apache.xbean.spring.context.ClassPathXmlApplicationContext;
+import org.snmp4j.CommandResponder;
+import org.snmp4j.CommandResponderEvent;
+import org.snmp4j.PDU;
+import org.snmp4j.Snmp;
+import org.snmp4j.mp.StatusInformation;
+import org.snmp4j.smi.Null;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.UdpAddress;
+import org.snmp4j.smi.Variable;
+import org.snmp4j.smi.VariableBinding;
+import org.snmp4j.transport.DefaultUdpTransportMapping;
+import org.springframework.context.support.AbstractXmlApplicationContext;
+import org.w3c.dom.Document;
+
+/**
+ * Walks a table of an in-process agent with GETBULK requests.
+ */
+public class SnmpPollingWalkTest extends SpringTestSupport {
+
+    private static final long TIMEOUT = 15000;
+    private static final String AGENT_ADDRESS = "127.0.0.1/1663";
+    private static final String IF_DESCR = "1.3.6.1.2.1.2.2.1.2";
+    private static final String IF_TYPE = "1.3.6.1.2.1.2.2.1.3";
+    private static final int ROWS = 25;
+    private static final int MAX_REPETITIONS = 10;
+
+    private final SortedMap<OID, Variable> mib = new TreeMap<OID, Variable>();
+    private final List<PDU> requests = new CopyOnWriteArrayList<PDU>();
+    private Snmp agent;
+
+    @Override
+    protected void setUp() throws Exception {
+        for (int i = 1; i <= ROWS; i++) {
+            mib.put(new OID(IF_DESCR + "." + i), new OctetString("eth" + i));
+        }
+        // the next column must not be part of the walk
+        for (int i = 1; i <= 5; i++) {
+            mib.put(new OID(IF_TYPE + "." + i), new OctetString("6"));
+        }
+        startAgent();
+        super.setUp();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        agent.close();
+    }
+
+    public void testGetBulkWalk() throws Exception {
+        Receiver receiver = (Receiver) getBean("receiver");
+        receiver.getMessageList().waitForMessagesToArrive(1, TIMEOUT);
+        assertEquals("The poll result was not received", 1, receiver.getMessageList().getMessageCount());
+
+        NormalizedMessage msg = (NormalizedMessage) receiver.getMessageList().getMessages().get(0);
+        Document doc = new SourceTransformer().toDOMDocument(msg);
+        assertEquals(ROWS, doc.getElementsByTagName(DefaultSnmpMarshaler.ENTRY_TAG).getLength());
+        for (int i = 0; i < ROWS; i++) {
+            assertEquals(IF_DESCR + "." + (i + 1),
+                         doc.getElementsByTagName(DefaultSnmpMarshaler.OID_TAG).item(i).getTextContent());
+        }
+
+        // 25 rows read 10 at a time, the last response leaves the subtree
+        assertEquals(3, requests.size());
+        for (PDU request : requests) {
+            assertEquals(PDU.GETBULK, request.getType());
+            assertEquals(MAX_REPETITIONS, request.getMaxRepetitions());
+        }
+        assertEquals(new OID(IF_DESCR), requests.get(0).get(0).getOid());
+        assertEquals(new OID(IF_DESCR + ".10"), requests.get(1).get(0).getOid());
+        assertEquals(new OID(IF_DESCR + ".20"), requests.get(2).get(0).getOid());
+    }
+
+    /**
+     * starts an agent answering GETBULK requests from the mib
+     */
+    private void startAgent() throws Exception {
+        agent = new Snmp(new DefaultUdpTransportMapping(new UdpAddress(AGENT_ADDRESS)));
+        agent.addCommandResponder(new CommandResponder() {
+            public void processPdu(CommandResponderEvent event) {
+                PDU request = event.getPDU();
+                if (request == null || request.getType() == PDU.RESPONSE) {
+                    return;
+                }
+                requests.add((PDU) request.clone());
+
+                PDU response = (PDU) request.clone();
+                response.setType(PDU.RESPONSE);
+                response.clear();
+                OID[] current = new OID[request.size()];
+                for (int i = 0; i < current.length; i++) {
+                    current[i] = request.get(i).getOid();
+                }
+                int repetitions = request.getType() == PDU.GETBULK ? request.getMaxRepetitions() : 1;
+                for (int r = 0; r < repetitions; r++) {
+                    for (int i = 0; i < current.length; i++) {
+                        SortedMap<OID, Variable> tail = mib.tailMap(successor(current[i]));
+                        if (tail.isEmpty()) {
+                            response.add(new VariableBinding(current[i], Null.endOfMibView));
+                            continue;
+                        }
+                        Map.Entry<OID, Variable> next = tail.entrySet().iterator().next();
+                        current[i] = next.getKey();
+                        response.add(new VariableBinding(next.getKey(), next.getValue()));
+                    }
+                }
+                try {
+                    event.getMessageDispatcher().returnResponsePdu(event.getMessageProcessingModel(),
+                        event.getSecurityModel(), event.getSecurityName(), event.getSecurityLevel(), response,
+                        event.getMaxSizeResponsePDU(), event.getStateReference(), new StatusInformation());
+                } catch (Exception ex) {
+                    throw new IllegalStateException("Unable to answer the request", ex);
+                }
+                event.setProcessed(true);
+            }
+        });
+        agent.listen();
+    }
+
+    /**
+     * the smallest oid greater than the given one
+     */
+    private static OID successor(OID oid) {
+        OID next = new OID(oid);
+        next.append(0);
+        return next;
+    }
+
+    @Override
+    protected AbstractXmlApplicationContext createBeanFactory() {
+        ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext(new String[] { "spring-polling-walk.xml" }, false);
+        context.setValidating(false);
+        context.refresh();
+        return context;
+    }
+}
@@ -20,6 +20,12 @@ import java.io.BufferedInputStream;
 import java.io.FileFilter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 
 import javax.jbi.management.DeploymentException;
@@ -65,6 +71,8 @@ public class TrueZipPollerEndpoint extends PollingEndpoint implements TrueZipEnd
 
     private LockManager lockManager;
 
+    private final Set<String> pendingArchives = Collections.synchronizedSet(new HashSet<String>());
+
     public TrueZipPollerEndpoint() {
     }
 
@@ -183,6 +191,8 @@ public class TrueZipPollerEndpoint extends PollingEndpoint implements TrueZipEnd
     protected void pollFileOrDirectory(File fileOrDirectory, boolean processDir) {
         if (!fileOrDirectory.isDirectory()) {
             pollFile(fileOrDirectory); // process the file
+        } else if (processDir && fileOrDirectory.isArchive() && fileOrDirectory.getEnclArchive() == null) {
+            pollArchive(fileOrDirectory);
         } else if (processDir) {
             logger.debug("Polling directory {}", fileOrDirectory);
             File[] files = (File[]) fileOrDirectory.listFiles(getFilter());
@@ -194,30 +204,129 @@ public class TrueZipPollerEndpoint extends PollingEndpoint implements TrueZipEnd
         }
     }
 
+    /**
+     * Processes all the entries of a top level archive in parallel, and only
+     * unmounts the archive once they have all been processed, so that the
+     * archive is rewritten once for all the deleted entries.  The poller does
+     * not wait for the entries, as it may itself run on the executor they are
+     * scheduled on: the last entry to complete unmounts the archive.  An archive
+     * is skipped while the entries of its previous poll are still pending.
+     */
+    protected void pollArchive(final File archive) {
+        final String path = archive.getPath();
+        if (!pendingArchives.add(path)) {
+            logger.debug("Skipping archive {} still being processed", archive);
+            return;
+        }
+        logger.debug("Polling archive {}", archive);
+        List<File> entries = new ArrayList<File>();
+        try {
+            collectFiles(archive, entries);
+        } catch (RuntimeException e) {
+            pendingArchives.remove(path);
+            throw e;
+        }
+        if (entries.isEmpty()) {
+            pendingArchives.remove(path);
+            return;
+        }
+        final AtomicInteger remaining = new AtomicInteger(entries.size());
+        final AtomicInteger locked = new AtomicInteger();
+        EntryCompletion completion = new EntryCompletion() {
+            public void completed(boolean processed) {
+                if (processed) {
+                    locked.incrementAndGet();
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    archiveCompleted(archive, locked.get() > 0);
+                }
+            }
+        };
+        for (int i = 0; i < entries.size(); i++) {
+            try {
+                pollFile(entries.get(i), completion);
+            } catch (RuntimeException e) {
+                // the remaining entries will not be processed
+                if (remaining.addAndGet(i - entries.size()) == 0) {
+                    archiveCompleted(archive, locked.get() > 0);
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Ends the poll of an archive, unmounting it if any of its entries has been processed.
+     */
+    private void archiveCompleted(File archive, boolean processed) {
+        try {
+            if (processed) {
+                // wait for the streams opened by other threads instead of closing them
+                File.umount(archive, true, false, true, false);
+            }
+        } catch (IOException e) {
+            logger.error("Failed to unmount archive: {}.", archive, e);
+        } finally {
+            pendingArchives.remove(archive.getPath());
+        }
+    }
+
+    private void collectFiles(File directory, List<File> files) {
+        File[] children = (File[]) directory.listFiles(getFilter());
+        for (int i = 0; i < children.length; i++) {
+            if (!children[i].isDirectory()) {
+                files.add(children[i]);
+            } else if (isRecursive()) {
+                collectFiles(children[i], files);
+            }
+        }
+    }
+
     protected void pollFile(final File aFile) {
+        pollFile(aFile, null);
+    }
+
+    private void pollFile(final File aFile, final EntryCompletion completion) {
         logger.debug("Scheduling file {} for processing", aFile);
-        getExecutor().execute(new Runnable() {
+        Runnable task = new Runnable() {
             public void run() {
-                String uri = file.toURI().relativize(aFile.toURI()).toString();
-                Lock lock = lockManager.getLock(uri);
-                if (lock.tryLock()) {
-                    try {
-                        processFileAndDelete(aFile);
-                    } finally {
-                        try {
-							lock.unlock();
-                        } catch (Exception ex) {
-                            // can't release the lock
-                            logger.error("Unable to release lock on {}", uri,  ex);
-                        } 
-                        lockManager.removeLock(uri);
+                boolean processed = false;
+                try {
+                    processed = processLocked(aFile);
+                } finally {
+                    if (completion != null) {
+                        completion.completed(processed);
                     }
-                } else {
-                    logger.debug("Unable to acquire lock on {}", aFile);
-                    lockManager.removeLock(uri);
                 }
             }
-        });
+        };
+        getExecutor().execute(task);
+    }
+
+    /**
+     * @return <code>true</code> if the lock on the file has been acquired
+     */
+    private boolean processLocked(File aFile) {
+        String uri = file.toURI().relativize(aFile.toURI()).toString();
+        Lock lock = lockManager.getLock(uri);
+        if (lock.tryLock()) {
+            try {
+                processFileAndDelete(aFile);
+            } finally {
+                try {
+                    lock.unlock();
+                } catch (Exception ex) {
+                    // can't release the lock
+                    logger.error("Unable to release lock on {}", uri,  ex);
+                } 
+                lockManager.removeLock(uri);
+            }
+            return true;
+        } else {
+            logger.debug("Unable to acquire lock on {}", aFile);
+            lockManager.removeLock(uri);
+            return false;
+        }
     }
 
     protected void processFileAndDelete(File aFile) {
@@ -237,13 +346,17 @@ public class TrueZipPollerEndpoint extends PollingEndpoint implements TrueZipEnd
     protected void processFile(File aFile) throws Exception {
         String name = aFile.getCanonicalPath();
         InputStream in = new BufferedInputStream(new FileInputStream(aFile));
-        InOnly exchange = getExchangeFactory().createInOnlyExchange();
-        configureExchangeTarget(exchange);
-        NormalizedMessage message = exchange.createMessage();
-        exchange.setInMessage(message);
-        marshaler.readMessage(exchange, message, in, name);
-        sendSync(exchange);
-        in.close();
+        try {
+            InOnly exchange = getExchangeFactory().createInOnlyExchange();
+            configureExchangeTarget(exchange);
+            NormalizedMessage message = exchange.createMessage();
+            exchange.setInMessage(message);
+            marshaler.readMessage(exchange, message, in, name);
+            sendSync(exchange);
+        } finally {
+            // an entry stream left open would keep its archive from being unmounted
+            in.close();
+        }
     }
 
     public String getLocationURI() {
@@ -254,4 +367,15 @@ public class TrueZipPollerEndpoint extends PollingEndpoint implements TrueZipEnd
         // Do nothing. In our case, this method should never be called
         // as we only send synchronous InOnly exchange
     }
+
+    /**
+     * Notified when the task processing an archive entry completes.
+     */
+    private interface EntryCompletion {
+
+        /**
+         * @param processed whether the lock on the entry was acquired and the entry processed
+         */
+        void completed(boolean processed);
+    }
 }
@@ -19,6 +19,13 @@ package org.apache.servicemix.truezip;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.jbi.management.DeploymentException;
 import javax.jbi.messaging.MessageExchange;
@@ -35,6 +42,18 @@ import org.apache.servicemix.id.IdGenerator;
 
 /**
  * An endpoint which receives a message and writes the content to a file.
+ * <p>
+ * Entries written into an archive are only stored in the archive file itself
+ * when TrueZIP unmounts the archive.  By default, this is left to TrueZIP
+ * (i.e. it happens when the JVM exits) and an exchange is acknowledged as soon
+ * as its entry has been written.  Setting <code>batchSize</code> and / or
+ * <code>batchTimeout</code> makes the endpoint unmount the archive itself after
+ * the given number of entries or at the latest after the given delay, so
+ * that the archive is rewritten once per batch rather than once per entry.
+ * With a batch size of 1, every exchange is acknowledged only once its entry
+ * is stored in the archive file; with larger batches, up to
+ * <code>batchSize - 1</code> acknowledged entries, or those written during the
+ * last <code>batchTimeout</code> milliseconds, can be lost on a crash.
  * 
  * @org.apache.xbean.XBean element="sender"
  * 
@@ -54,6 +73,22 @@ public class TrueZipSenderEndpoint extends ProviderEndpoint implements TrueZipEn
 
     private IdGenerator idGenerator;
 
+    private int batchSize;
+
+    private long batchTimeout;
+
+    /**
+     * Entries written into each archive since it was last unmounted
+     */
+    private final Map<File, Integer> pendingEntries = new HashMap<File, Integer>();
+
+    /**
+     * Entries are written under the read lock, archives are unmounted under the write lock
+     */
+    private final ReadWriteLock commitLock = new ReentrantReadWriteLock();
+
+    private ScheduledExecutorService committer;
+
     public TrueZipSenderEndpoint() {
     }
 
@@ -74,7 +109,92 @@ public class TrueZipSenderEndpoint extends ProviderEndpoint implements TrueZipEn
         }
     }
 
+    public synchronized void start() throws Exception {
+        super.start();
+        if (batchTimeout > 0) {
+            committer = Executors.newSingleThreadScheduledExecutor();
+            committer.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        commit();
+                    } catch (Exception e) {
+                        logger.error("Unable to commit archive entries", e);
+                    }
+                }
+            }, batchTimeout, batchTimeout, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public synchronized void stop() throws Exception {
+        if (committer != null) {
+            committer.shutdown();
+            committer = null;
+        }
+        commit();
+        super.stop();
+    }
+
     protected void processInOnly(MessageExchange exchange, NormalizedMessage in) throws Exception {
+        File archive = null;
+        boolean commit = false;
+        commitLock.readLock().lock();
+        try {
+            archive = writeFile(exchange, in);
+            if (archive != null && (batchSize > 0 || batchTimeout > 0)) {
+                synchronized (pendingEntries) {
+                    Integer count = pendingEntries.get(archive);
+                    count = count == null ? 1 : count + 1;
+                    pendingEntries.put(archive, count);
+                    commit = batchSize > 0 && count >= batchSize;
+                }
+            }
+        } finally {
+            commitLock.readLock().unlock();
+        }
+        if (commit) {
+            commit(archive);
+        }
+    }
+
+    /**
+     * Unmounts all the archives which have entries waiting to be stored.
+     */
+    protected void commit() throws IOException {
+        File[] archives;
+        synchronized (pendingEntries) {
+            archives = pendingEntries.keySet().toArray(new File[pendingEntries.size()]);
+        }
+        for (File archive : archives) {
+            commit(archive);
+        }
+    }
+
+    /**
+     * Unmounts the given archive, so that TrueZIP stores its pending entries in the
+     * archive file.  Writers are held off while the archive is rewritten.
+     */
+    protected void commit(File archive) throws IOException {
+        commitLock.writeLock().lock();
+        try {
+            synchronized (pendingEntries) {
+                if (pendingEntries.remove(archive) == null) {
+                    // already committed by another thread
+                    return;
+                }
+            }
+            logger.debug("Committing archive {}", archive);
+            File.umount(archive);
+        } finally {
+            commitLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the message to a new file.
+     *
+     * @return the top level archive the file has been written into, or <code>null</code>
+     */
+    private File writeFile(MessageExchange exchange, NormalizedMessage in) throws Exception {
         OutputStream out = null;
         try {
             String name = marshaler.getOutputName(exchange, in);
@@ -87,6 +207,9 @@ public class TrueZipSenderEndpoint extends ProviderEndpoint implements TrueZipEn
             logger.debug("Writing to file: {}", newFile.getCanonicalPath());
             out = new BufferedOutputStream(new FileOutputStream(newFile));
             marshaler.writeMessage(exchange, in, out, name);
+            out.close();
+            out = null;
+            return newFile.getTopLevelArchive();
         } finally {
             if (out != null) {
                 try {
@@ -152,4 +275,30 @@ public class TrueZipSenderEndpoint extends ProviderEndpoint implements TrueZipEn
         this.autoCreateDirectory = autoCreateDirectory;
     }
 
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the number of entries written into an archive before it is unmounted,
+     * storing them in the archive file.  Defaults to <code>0</code>, which
+     * leaves unmounting the archive to TrueZIP.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public long getBatchTimeout() {
+        return batchTimeout;
+    }
+
+    /**
+     * Sets the maximum delay (in milliseconds) before entries written into an
+     * archive are stored in the archive file.  Defaults to <code>0</code>,
+     * which disables the time based commit.
+     */
+    public void setBatchTimeout(long batchTimeout) {
+        this.batchTimeout = batchTimeout;
+    }
+
 }
@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.truezip;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import junit.framework.TestCase;
+
+import org.apache.servicemix.common.locks.impl.SimpleLockManager;
+import org.apache.servicemix.jbi.util.FileUtil;
+
+import de.schlichtherle.io.File;
+import de.schlichtherle.io.FileOutputStream;
+
+public class PollArchiveTest extends TestCase {
+
+    private static final int NUMBER = 5;
+
+    private java.io.File archive = new java.io.File("target/pollArchive.zip");
+    private ExecutorService executor;
+
+    protected void setUp() throws Exception {
+        FileUtil.deleteFile(archive);
+        for (int i = 0; i < NUMBER; i++) {
+            OutputStream out = new FileOutputStream(new File(archive, "test" + i + ".xml"));
+            out.write("<hello>world</hello>".getBytes());
+            out.close();
+        }
+        File.umount();
+        // a single thread, which the poll itself runs on
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    protected void tearDown() throws Exception {
+        executor.shutdownNow();
+        File.umount();
+        FileUtil.deleteFile(archive);
+    }
+
+    public void testPollArchiveOnEntriesExecutor() throws Exception {
+        final RecordingPollerEndpoint endpoint = new RecordingPollerEndpoint(executor);
+        endpoint.setFile(archive);
+        endpoint.setLockManager(new SimpleLockManager());
+        Future<?> poll = executor.submit(new Runnable() {
+            public void run() {
+                endpoint.pollFileOrDirectory(new File(archive));
+            }
+        });
+        // the poll must not wait for the entries queued behind it
+        poll.get(10, TimeUnit.SECONDS);
+
+        // once the last entry is processed, the archive is unmounted with the entries deleted
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(NUMBER, endpoint.processed.size());
+        String[] remaining = new File(archive).list();
+        assertNotNull(remaining);
+        assertEquals(0, remaining.length);
+    }
+
+    public void testPollEmptyArchive() throws Exception {
+        for (String name : new File(archive).list()) {
+            assertTrue(new File(archive, name).delete());
+        }
+        File.umount();
+        RecordingPollerEndpoint endpoint = new RecordingPollerEndpoint(executor);
+        endpoint.setFile(archive);
+        endpoint.setLockManager(new SimpleLockManager());
+        endpoint.pollFileOrDirectory(new File(archive));
+        assertEquals(0, endpoint.processed.size());
+    }
+
+    public void testArchiveSkippedWhilePreviousPollPending() throws Exception {
+        DeferredExecutor deferred = new DeferredExecutor();
+        RecordingPollerEndpoint endpoint = new RecordingPollerEndpoint(deferred);
+        endpoint.setFile(archive);
+        endpoint.setLockManager(new SimpleLockManager());
+
+        endpoint.pollFileOrDirectory(new File(archive));
+        assertEquals(NUMBER, deferred.tasks.size());
+        // the entries of the first poll have not been processed yet
+        endpoint.pollFileOrDirectory(new File(archive));
+        assertEquals(NUMBER, deferred.tasks.size());
+
+        deferred.runAll();
+        assertEquals(NUMBER, endpoint.processed.size());
+        assertEquals(0, new File(archive).list().length);
+
+        // the archive is polled again once the previous poll has completed
+        endpoint.pollFileOrDirectory(new File(archive));
+        assertEquals(0, deferred.tasks.size());
+    }
+
+    public void testArchivePolledAgainWhenEntriesLockedElsewhere() throws Exception {
+        DeferredExecutor deferred = new DeferredExecutor();
+        RecordingPollerEndpoint endpoint = new RecordingPollerEndpoint(deferred);
+        endpoint.setFile(archive);
+        final SimpleLockManager lockManager = new SimpleLockManager();
+        endpoint.setLockManager(lockManager);
+        final File root = new File(archive);
+
+        // another thread holds the locks on all the entries
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread() {
+            public void run() {
+                List<Lock> locks = new ArrayList<Lock>();
+                for (int i = 0; i < NUMBER; i++) {
+                    Lock lock = lockManager.getLock(
+                            root.toURI().relativize(new File(root, "test" + i + ".xml").toURI()).toString());
+                    lock.lock();
+                    locks.add(lock);
+                }
+                locked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    // release the locks
+                }
+                for (Lock lock : locks) {
+                    lock.unlock();
+                }
+            }
+        };
+        holder.start();
+        try {
+            assertTrue(locked.await(10, TimeUnit.SECONDS));
+            endpoint.pollFileOrDirectory(root);
+            deferred.runAll();
+            assertEquals(0, endpoint.processed.size());
+            assertEquals(NUMBER, root.list().length);
+        } finally {
+            release.countDown();
+            holder.join(10000);
+        }
+
+        // no entry of the archive is pending anymore
+        endpoint.pollFileOrDirectory(root);
+        assertEquals(NUMBER, deferred.tasks.size());
+        deferred.runAll();
+        assertEquals(NUMBER, endpoint.processed.size());
+    }
+
+    /**
+     * An executor keeping the tasks until they are explicitly run.
+     */
+    private static class DeferredExecutor implements Executor {
+
+        private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        void runAll() {
+            List<Runnable> pending = new ArrayList<Runnable>(tasks);
+            tasks.clear();
+            for (Runnable task : pending) {
+                task.run();
+            }
+        }
+    }
+
+    private static class RecordingPollerEndpoint extends TrueZipPollerEndpoint {
+
+        private final Executor executor;
+        private final List<String> processed = new CopyOnWriteArrayList<String>();
+
+        RecordingPollerEndpoint(Executor executor) {
+            this.executor = executor;
+        }
+
+        public Executor getExecutor() {
+            return executor;
+        }
+
+        protected void processFile(File aFile) throws Exception {
+            processed.add(aFile.getName());
+        }
+    }
+
+}
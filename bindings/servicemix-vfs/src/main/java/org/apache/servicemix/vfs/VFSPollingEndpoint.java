@@ -19,10 +19,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.locks.Lock;
 
 import javax.jbi.JBIException;
@@ -36,6 +38,7 @@ import javax.xml.namespace.QName;
 import org.apache.commons.vfs.FileContent;
 import org.apache.commons.vfs.FileObject;
 import org.apache.commons.vfs.FileSelector;
+import org.apache.commons.vfs.FileSystemException;
 import org.apache.commons.vfs.FileSystemManager;
 import org.apache.commons.vfs.FileType;
 import org.apache.servicemix.common.DefaultComponent;
@@ -57,6 +60,12 @@ import org.slf4j.LoggerFactory;
  * payload. For non-XML payload, e.g. plain-text or binary files, use an
  * alternative marshaler such as the 
  * <code>org.apache.servicemix.components.util.BinaryFileMarshaler</code>
+ * <p>
+ * The endpoint keeps an index of the polled files by URI with their size and
+ * last modification time. Files already in process are skipped without being
+ * looked at again, and a file whose size and modification time didn't change
+ * since the previous poll is considered complete without waiting for it.
+ * </p>
  * 
  * @org.apache.xbean.XBean element="poller"
  * 
@@ -69,7 +78,9 @@ public class VFSPollingEndpoint extends PollingEndpoint implements VFSEndpointTy
     private FileMarshaler marshaler = new DefaultFileMarshaler();
     private FileObject file;
     private FileSelector selector;
-    private Set<FileObject> workingSet = new CopyOnWriteArraySet<FileObject>();
+    private ConcurrentMap<String, FileObject> workingSet = new ConcurrentHashMap<String, FileObject>();
+    private ConcurrentMap<String, FileState> fileIndex = new ConcurrentHashMap<String, FileState>();
+    private ConcurrentMap<String, DirectoryListing> directoryIndex = new ConcurrentHashMap<String, DirectoryListing>();
     private boolean deleteFile =true;
     private boolean recursive = true;
     private String path;
@@ -78,6 +89,11 @@ public class VFSPollingEndpoint extends PollingEndpoint implements VFSEndpointTy
     private LockManager lockManager;
     private ConcurrentMap<String, InputStream> openExchanges = new ConcurrentHashMap<String, InputStream>();
     private boolean concurrentExchange = true;
+    private boolean skipUnchangedDirectories;
+    private int maxConcurrentFiles;
+    private int workers;
+    private ExecutorService workerPool;
+
     /**
      * default constructor
      */
@@ -114,6 +130,13 @@ public class VFSPollingEndpoint extends PollingEndpoint implements VFSEndpointTy
 
         // clear the set of already processed files
         this.workingSet.clear();
+        this.fileIndex.clear();
+        this.directoryIndex.clear();
+        
+        // create the dedicated workers
+        if (this.workers > 0) {
+            this.workerPool = Executors.newFixedThreadPool(this.workers);
+        }
         
         // re-create the openExchanges map
         this.openExchanges = new ConcurrentHashMap<String, InputStream>();
@@ -124,6 +147,19 @@ public class VFSPollingEndpoint extends PollingEndpoint implements VFSEndpointTy
         }
     }
     
+    /* (non-Javadoc)
+     * @see org.apache.servicemix.common.endpoints.PollingEndpoint#stop()
+     */
+    @Override
+    public synchronized void stop() throws Exception {
+        super.stop();
+        
+        if (this.workerPool != null) {
+            this.workerPool.shutdown();
+            this.workerPool = null;
+        }
+    }
+    
     /**
      * returns the lock manager
      * 
@@ -189,7 +225,9 @@ public class VFSPollingEndpoint extends PollingEndpoint implements VFSEndpointTy
                 }
             } finally {
                 // remove file from set of already processed files
-                workingSet.remove(aFile);
+                String uri = aFile.getName().getURI();
+                workingSet.remove(uri);
+                fileIndex.remove(uri);
                 // remove the open exchange
                 openExchanges.remove(exchange.getExchangeId());
                 // unlock the file
@@ -269,12 +307,7 @@ public class VFSPollingEndpoint extends PollingEndpoint implements VFSEndpointTy
             // process the folder
             logger.debug("Polling directory {}", fileOrDirectory.getName().getPathDecoded());
             
-            FileObject[] files = null;
-            if (selector != null) {
-                files = sortPolledFiles(fileOrDirectory.findFiles(selector));
-            } else {
-                files = sortPolledFiles(fileOrDirectory.getChildren());
-            }
+            FileObject[] files = listFiles(fileOrDirectory);
             // process each file inside folder
             for (FileObject f : files) {
                 // self-recursion
@@ -285,6 +318,41 @@ public class VFSPollingEndpoint extends PollingEndpoint implements VFSEndpointTy
         }
     }
     
+    /**
+     * lists the files of a folder. If enabled, the previous listing of the folder
+     * is reused when the folder modification time didn't change.
+     * 
+     * @param directory         the folder object
+     * @return                  the sorted files of the folder
+     * @throws Exception        on IO errors
+     */
+    private FileObject[] listFiles(FileObject directory) throws Exception {
+        if (selector != null) {
+            return sortPolledFiles(directory.findFiles(selector));
+        }
+        if (!skipUnchangedDirectories) {
+            return sortPolledFiles(directory.getChildren());
+        }
+        String uri = directory.getName().getURI();
+        long lastModified;
+        try {
+            // clear the cached informations to read the current modification time
+            directory.close();
+            lastModified = directory.getContent().getLastModifiedTime();
+        } catch (FileSystemException e) {
+            logger.debug("Unable to get the modification time of directory {}", uri, e);
+            return sortPolledFiles(directory.getChildren());
+        }
+        DirectoryListing listing = directoryIndex.get(uri);
+        if (listing != null && listing.lastModified == lastModified) {
+            logger.debug("Directory {} didn't change since the last poll", uri);
+            return listing.files;
+        }
+        FileObject[] files = sortPolledFiles(directory.getChildren());
+        directoryIndex.put(uri, new DirectoryListing(lastModified, files));
+        return files;
+    }
+    
     /**
      * sorts polled file using the given comparator. If the comparator is null, no change are applied on polled files order.
      * 
@@ -306,30 +374,46 @@ public class VFSPollingEndpoint extends PollingEndpoint implements VFSEndpointTy
      * @throws Exception        on IO errors
      */
     protected void pollFile(final FileObject aFile) throws Exception {
+        final String uri = aFile.getName().getURI();
+        // skip the files already in process
+        if (workingSet.containsKey(uri)) {
+            return;
+        }
+        // leave the file to a next poll if enough files are in process
+        if (maxConcurrentFiles > 0 && workingSet.size() >= maxConcurrentFiles) {
+            logger.debug("Too many files in process, {} will be processed later.", uri);
+            return;
+        }
         // check if file is fully available
         if (!isFullyAvailable(aFile)) {
             return;
         }
         // try to add to set of processed files
-        if (workingSet.add(aFile)) {
+        if (workingSet.putIfAbsent(uri, aFile) == null) {
             logger.debug("Scheduling file {} for processing.", aFile.getName().getPathDecoded());
             
             // execute processing in another thread
-            getExecutor().execute(new ExecutorAwareRunnable() {
+            ExecutorAwareRunnable task = new ExecutorAwareRunnable() {
                 public void run() {
-                    String uri = aFile.getName().getURI().toString();
                     Lock lock = lockManager.getLock(uri);
                     if (lock.tryLock()) {
                         processFileNow(aFile);
                     } else {
-                    	workingSet.remove(aFile);
+                    	workingSet.remove(uri);
                         logger.debug("Unable to acquire lock on {}", aFile.getName().getURI());
                     }
                 }
                 public boolean shouldRunSynchronously(){
                 	return !isConcurrentExchange();
                 }
-            });
+            };
+            if (workerPool == null) {
+                getExecutor().execute(task);
+            } else if (task.shouldRunSynchronously()) {
+                task.run();
+            } else {
+                workerPool.execute(task);
+            }
         }
     }
 
@@ -346,7 +430,7 @@ public class VFSPollingEndpoint extends PollingEndpoint implements VFSEndpointTy
                 processFile(aFile);
             }
         } catch (Exception e) {
-        	workingSet.remove(aFile);
+        	workingSet.remove(aFile.getName().getURI());
         	unlockAsyncFile(aFile);
         	logger.error("Failed to process file: {}", aFile.getName().getURI(), e);
         }
@@ -400,6 +484,12 @@ public class VFSPollingEndpoint extends PollingEndpoint implements VFSEndpointTy
         try {
             if (aFile.getContent() != null) {
                 long size_old = aFile.getContent().getSize();
+                long lastModified = aFile.getContent().getLastModifiedTime();
+                FileState previous = fileIndex.put(aFile.getName().getURI(), new FileState(size_old, lastModified));
+                if (previous != null && previous.size == size_old && previous.lastModified == lastModified) {
+                    // unchanged since the previous poll
+                    return true;
+                }
                 try {
                     Thread.sleep(100);
                 } catch (InterruptedException e) {
@@ -544,7 +634,7 @@ public class VFSPollingEndpoint extends PollingEndpoint implements VFSEndpointTy
      * @return  a set of in-process file objects
      */
     public Set<FileObject> getWorkingSet() {
-        return workingSet;
+        return new HashSet<FileObject>(workingSet.values());
     }
     
     /** 
@@ -575,4 +665,85 @@ public class VFSPollingEndpoint extends PollingEndpoint implements VFSEndpointTy
 		this.concurrentExchange = concurrentExchange;
 	}
 
+    /**
+     * @return the skipUnchangedDirectories
+     */
+    public boolean isSkipUnchangedDirectories() {
+        return skipUnchangedDirectories;
+    }
+
+    /**
+     * Specifies if the listing of a folder is reused as long as the folder
+     * modification time doesn't change, to save the listing round trips on
+     * remote file systems. Only applies when no selector is set. Files added
+     * within the time resolution of the file system may be found only once
+     * the folder changes again. Default value is <code>false</code>.
+     * 
+     * @param skipUnchangedDirectories a boolean specifying if unchanged folders are not listed again
+     */
+    public void setSkipUnchangedDirectories(boolean skipUnchangedDirectories) {
+        this.skipUnchangedDirectories = skipUnchangedDirectories;
+    }
+
+    /**
+     * @return the maxConcurrentFiles
+     */
+    public int getMaxConcurrentFiles() {
+        return maxConcurrentFiles;
+    }
+
+    /**
+     * Specifies the maximum number of files in process at the same time. The
+     * files found when the limit is reached are processed by a later poll.
+     * Default value is <code>0</code> (no limit).
+     * 
+     * @param maxConcurrentFiles the maximum number of files in process
+     */
+    public void setMaxConcurrentFiles(int maxConcurrentFiles) {
+        this.maxConcurrentFiles = maxConcurrentFiles;
+    }
+
+    /**
+     * @return the workers
+     */
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * Specifies the number of threads dedicated to process the files of this
+     * endpoint. Default value is <code>0</code>, the files are processed by the
+     * component executor.
+     * 
+     * @param workers the number of threads processing the files
+     */
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
+    /**
+     * the size and modification time of a file when it has been polled
+     */
+    private static class FileState {
+        private final long size;
+        private final long lastModified;
+
+        FileState(long size, long lastModified) {
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * the files of a folder when it has been listed
+     */
+    private static class DirectoryListing {
+        private final long lastModified;
+        private final FileObject[] files;
+
+        DirectoryListing(long lastModified, FileObject[] files) {
+            this.lastModified = lastModified;
+            this.files = files;
+        }
+    }
 }
@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.vfs;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jbi.messaging.ExchangeStatus;
+import javax.xml.namespace.QName;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.vfs.AllFileSelector;
+import org.apache.commons.vfs.FileObject;
+import org.apache.commons.vfs.VFS;
+import org.apache.servicemix.jbi.container.JBIContainer;
+import org.apache.servicemix.jbi.event.ExchangeEvent;
+import org.apache.servicemix.jbi.event.ExchangeListener;
+import org.apache.servicemix.tck.ReceiverComponent;
+import org.apache.servicemix.util.FileUtil;
+
+/**
+ * Polls local and in-memory virtual file systems.
+ */
+public class VFSPollingEndpointTest extends TestCase {
+
+    private static final int NUMBER = 10;
+    private static final long TIMEOUT = 10000;
+    private static final QName RECEIVER = new QName("urn:test", "receiver");
+    private static final String CONTENT = "<hello>world</hello>";
+
+    private JBIContainer container;
+    private ReceiverComponent receiver;
+    private VFSPollingEndpoint endpoint;
+
+    protected void setUp() throws Exception {
+        container = new JBIContainer();
+        container.setUseMBeanServer(false);
+        container.setCreateMBeanServer(false);
+        container.setEmbedded(true);
+        container.init();
+
+        receiver = new ReceiverComponent();
+        receiver.setService(RECEIVER);
+        receiver.setEndpoint("receiver");
+        container.activateComponent(receiver, "receiver");
+
+        endpoint = new VFSPollingEndpoint();
+        endpoint.setService(new QName("urn:test", "poller"));
+        endpoint.setEndpoint("poller");
+        endpoint.setTargetService(RECEIVER);
+        endpoint.setPeriod(100);
+    }
+
+    protected void tearDown() throws Exception {
+        if (container != null) {
+            container.shutDown();
+        }
+    }
+
+    /**
+     * polls a folder of the local file system and deletes the sent files
+     */
+    public void testPollLocalFileSystem() throws Exception {
+        File dir = new File("target/vfs-poll");
+        FileUtil.deleteFile(dir);
+        dir.mkdirs();
+        for (int i = 0; i < NUMBER; i++) {
+            writeFile(new File(dir, "test" + i + ".xml"));
+        }
+
+        endpoint.setPath(dir.toURI().toString());
+        activate();
+
+        receiver.getMessageList().waitForMessagesToArrive(NUMBER, TIMEOUT);
+        receiver.getMessageList().assertMessagesReceived(NUMBER);
+        waitForEmptyWorkingSet();
+        assertEquals("The polled files should have been deleted", 0, dir.listFiles().length);
+    }
+
+    /**
+     * polls an in-memory folder, reusing the listing of the unchanged sub folder
+     */
+    public void testPollRamFileSystem() throws Exception {
+        FileObject dir = VFS.getManager().resolveFile("ram:///vfs-poll");
+        dir.delete(new AllFileSelector());
+        for (int i = 0; i < NUMBER; i++) {
+            writeFile(dir.resolveFile("sub/test" + i + ".xml"));
+        }
+
+        endpoint.setPath("ram:///vfs-poll");
+        endpoint.setSkipUnchangedDirectories(true);
+        activate();
+
+        receiver.getMessageList().waitForMessagesToArrive(NUMBER, TIMEOUT);
+        receiver.getMessageList().assertMessagesReceived(NUMBER);
+
+        // the next polls don't send the processed files again
+        Thread.sleep(500);
+        receiver.getMessageList().assertMessagesReceived(NUMBER);
+    }
+
+    /**
+     * processes the files one at a time with the maxConcurrentFiles limit
+     */
+    public void testMaxConcurrentFiles() throws Exception {
+        FileObject dir = VFS.getManager().resolveFile("ram:///vfs-limit");
+        dir.delete(new AllFileSelector());
+        for (int i = 0; i < NUMBER; i++) {
+            writeFile(dir.resolveFile("test" + i + ".xml"));
+        }
+
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger maxActive = new AtomicInteger();
+        container.addListener(new ExchangeListener() {
+            public void exchangeSent(ExchangeEvent event) {
+                if (!RECEIVER.equals(event.getExchange().getService())) {
+                    return;
+                }
+                if (event.getExchange().getStatus() == ExchangeStatus.ACTIVE) {
+                    int current = active.incrementAndGet();
+                    if (current > maxActive.get()) {
+                        maxActive.set(current);
+                    }
+                } else {
+                    active.decrementAndGet();
+                }
+            }
+            public void exchangeAccepted(ExchangeEvent event) {
+            }
+        });
+
+        endpoint.setPath("ram:///vfs-limit");
+        endpoint.setMaxConcurrentFiles(1);
+        endpoint.setWorkers(4);
+        activate();
+
+        receiver.getMessageList().waitForMessagesToArrive(NUMBER, TIMEOUT);
+        receiver.getMessageList().assertMessagesReceived(NUMBER);
+        assertEquals("Only one file should be in process at a time", 1, maxActive.get());
+    }
+
+    private void activate() throws Exception {
+        VFSComponent component = new VFSComponent();
+        component.setEndpoints(new VFSEndpointType[] {endpoint});
+        container.activateComponent(component, "vfs");
+        container.start();
+    }
+
+    private void waitForEmptyWorkingSet() throws InterruptedException {
+        long start = System.currentTimeMillis();
+        while (!endpoint.getWorkingSet().isEmpty() && System.currentTimeMillis() - start < TIMEOUT) {
+            Thread.sleep(50);
+        }
+        assertTrue("The working set should be empty", endpoint.getWorkingSet().isEmpty());
+    }
+
+    private static void writeFile(File file) throws Exception {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(CONTENT.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeFile(FileObject file) throws Exception {
+        OutputStream out = file.getContent().getOutputStream();
+        try {
+            out.write(CONTENT.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+}
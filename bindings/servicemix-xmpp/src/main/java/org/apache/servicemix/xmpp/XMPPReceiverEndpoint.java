@@ -28,6 +28,7 @@ import org.jivesoftware.smack.packet.Message;
 import org.jivesoftware.smack.packet.Packet;
 import org.jivesoftware.smack.packet.Presence;
 import org.jivesoftware.smack.proxy.ProxyInfo;
+import org.jivesoftware.smack.util.StringUtils;
 import org.jivesoftware.smackx.muc.MultiUserChat;
 
 import javax.jbi.management.DeploymentException;
@@ -35,10 +36,22 @@ import javax.jbi.messaging.InOnly;
 import javax.jbi.messaging.MessageExchange;
 import javax.jbi.messaging.MessagingException;
 import javax.jbi.messaging.NormalizedMessage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This endpoint receives XMPP messages and events and sends them as xml message into
  * the NMR to the defined target
+ * <p/>
+ * The packets are handed over from the Smack reader thread to the endpoint workers, so
+ * that a slow marshaler or NMR doesn't block the connection. The packets of a same sender
+ * or room are kept in order when <code>orderedDispatch</code> is set. When
+ * <code>maxPendingPackets</code> packets are waiting, the reader thread waits too, which
+ * stops reading from the connection, or the packet is dropped if <code>dropWhenFull</code>
+ * is set.
  *
  * @org.apache.xbean.XBean element="receiver"
  *
@@ -64,6 +77,14 @@ public class XMPPReceiverEndpoint extends ConsumerEndpoint implements XMPPEndpoi
     private boolean createAccount;
     private ConnectionConfiguration connectionConfig;
     private ProxyInfo proxyInfo;
+    private int workers = 1;
+    private int maxPendingPackets = 1000;
+    private boolean orderedDispatch = true;
+    private boolean dropWhenFull;
+    private ExecutorService[] lanes;
+    private Semaphore pending;
+    private final AtomicLong queuedPackets = new AtomicLong();
+    private final AtomicLong droppedPackets = new AtomicLong();
 
     @Override
     public void validate() throws DeploymentException {
@@ -76,12 +97,30 @@ public class XMPPReceiverEndpoint extends ConsumerEndpoint implements XMPPEndpoi
         if (this.port < 0) {
             this.port = XMPPConstants.DEFAULT_XMPP_PORT;
         }
+        if (this.workers < 1) {
+            throw new DeploymentException("The number of workers has to be at least 1!");
+        }
+        if (this.maxPendingPackets < 1) {
+            throw new DeploymentException("The maximum number of pending packets has to be at least 1!");
+        }
     }
 
     @Override
     public void start() throws Exception {
         super.start();
 
+        // create the workers dispatching the packets
+        this.pending = new Semaphore(this.maxPendingPackets);
+        if (this.orderedDispatch) {
+            // one thread per lane keeps the packets of a lane in order
+            this.lanes = new ExecutorService[this.workers];
+            for (int i = 0; i < this.workers; i++) {
+                this.lanes[i] = Executors.newSingleThreadExecutor();
+            }
+        } else {
+            this.lanes = new ExecutorService[] {Executors.newFixedThreadPool(this.workers)};
+        }
+
         // create a proxy info object if needed
         if (this.proxyInfo == null && XMPPConstants.isSet(this.proxyHost)) {
             ProxyInfo.ProxyType pType = null;
@@ -109,7 +148,7 @@ public class XMPPReceiverEndpoint extends ConsumerEndpoint implements XMPPEndpoi
         }
 
         if (this.connection == null) {
-            this.connection = new XMPPConnection(this.connectionConfig);
+            this.connection = createConnection(this.connectionConfig);
             this.logger.debug("Connecting to server {}", this.host);
             this.connection.connect();
         }
@@ -149,6 +188,16 @@ public class XMPPReceiverEndpoint extends ConsumerEndpoint implements XMPPEndpoi
         }
     }
 
+    /**
+     * creates the connection to the XMPP server
+     *
+     * @param config    the connection configuration
+     * @return the connection, not connected yet
+     */
+    protected XMPPConnection createConnection(ConnectionConfiguration config) {
+        return new XMPPConnection(config);
+    }
+
     @Override
     public void stop() throws Exception {
         if (this.connection != null && this.connection.isConnected()) {
@@ -156,6 +205,16 @@ public class XMPPReceiverEndpoint extends ConsumerEndpoint implements XMPPEndpoi
             this.connection.disconnect();
             this.connection = null;
         }
+        // let the workers dispatch the received packets
+        if (this.lanes != null) {
+            for (ExecutorService lane : this.lanes) {
+                lane.shutdown();
+            }
+            for (ExecutorService lane : this.lanes) {
+                lane.awaitTermination(30, TimeUnit.SECONDS);
+            }
+            this.lanes = null;
+        }
         super.stop();
     }
 
@@ -165,13 +224,61 @@ public class XMPPReceiverEndpoint extends ConsumerEndpoint implements XMPPEndpoi
         // endpoint is not interested in such messages at all
     }
 
-    public void processPacket(Packet packet) {
+    public void processPacket(final Packet packet) {
         if (packet instanceof Message == false ||
             ((Message)packet).getBody() == null) {
             // we do only process messages for now, so skip it
             return;
         }
 
+        ExecutorService[] dispatchers = this.lanes;
+        if (dispatchers == null) {
+            // the endpoint is stopping
+            return;
+        }
+        if (this.dropWhenFull) {
+            if (!this.pending.tryAcquire()) {
+                this.droppedPackets.incrementAndGet();
+                this.logger.warn("Too many pending packets, dropping packet {}", packet.getPacketID());
+                return;
+            }
+        } else {
+            // blocking the reader thread stops reading from the connection
+            this.pending.acquireUninterruptibly();
+        }
+        this.queuedPackets.incrementAndGet();
+
+        // packets from a same sender or room go through the same lane
+        ExecutorService lane = dispatchers[0];
+        if (dispatchers.length > 1 && packet.getFrom() != null) {
+            int hash = StringUtils.parseBareAddress(packet.getFrom()).hashCode();
+            lane = dispatchers[(hash & Integer.MAX_VALUE) % dispatchers.length];
+        }
+        try {
+            lane.execute(new Runnable() {
+                public void run() {
+                    try {
+                        dispatch(packet);
+                    } finally {
+                        queuedPackets.decrementAndGet();
+                        pending.release();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            this.queuedPackets.decrementAndGet();
+            this.pending.release();
+            this.droppedPackets.incrementAndGet();
+            this.logger.error("Unable to dispatch packet {}", packet.toXML(), e);
+        }
+    }
+
+    /**
+     * sends the packet into the NMR
+     *
+     * @param packet    the received message
+     */
+    protected void dispatch(Packet packet) {
         try {
             InOnly exchange = getExchangeFactory().createInOnlyExchange();
             NormalizedMessage in = exchange.createMessage();
@@ -397,4 +504,78 @@ public class XMPPReceiverEndpoint extends ConsumerEndpoint implements XMPPEndpoi
     public void setRoom(String room) {
         this.room = room;
     }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * <p>Specify here the number of threads sending the received packets into the NMR.
+     * The default is one thread.</p>
+     *
+     * @param workers   the number of threads dispatching the received packets
+     */
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
+    public int getMaxPendingPackets() {
+        return maxPendingPackets;
+    }
+
+    /**
+     * <p>Specify here the maximum number of received packets waiting to be sent into the NMR.
+     * When this limit is reached, the endpoint stops reading from the connection until
+     * a packet has been sent, or drops the packets if <code>dropWhenFull</code> is set.
+     * The default is 1000 packets.</p>
+     *
+     * @param maxPendingPackets     the maximum number of pending packets
+     */
+    public void setMaxPendingPackets(int maxPendingPackets) {
+        this.maxPendingPackets = maxPendingPackets;
+    }
+
+    public boolean isOrderedDispatch() {
+        return orderedDispatch;
+    }
+
+    /**
+     * <p>Specify here if the packets of a same sender or room have to be sent into the NMR
+     * in the order they have been received. Otherwise the packets are sent by the first
+     * available worker. The default is true.</p>
+     *
+     * @param orderedDispatch   flag if the order of the packets of a sender is kept (true / false)
+     */
+    public void setOrderedDispatch(boolean orderedDispatch) {
+        this.orderedDispatch = orderedDispatch;
+    }
+
+    public boolean isDropWhenFull() {
+        return dropWhenFull;
+    }
+
+    /**
+     * <p>Specify here if the received packets are dropped when <code>maxPendingPackets</code>
+     * packets are already waiting, instead of suspending the reading from the connection.
+     * The default is false.</p>
+     *
+     * @param dropWhenFull  flag if packets are dropped when too many packets are pending (true / false)
+     */
+    public void setDropWhenFull(boolean dropWhenFull) {
+        this.dropWhenFull = dropWhenFull;
+    }
+
+    /**
+     * @return the number of received packets waiting to be sent into the NMR
+     */
+    public long getQueuedPackets() {
+        return queuedPackets.get();
+    }
+
+    /**
+     * @return the number of received packets dropped since the endpoint has been created
+     */
+    public long getDroppedPackets() {
+        return droppedPackets.get();
+    }
 }
@@ -24,6 +24,7 @@ import org.jivesoftware.smack.AccountManager;
 import org.jivesoftware.smack.Chat;
 import org.jivesoftware.smack.ConnectionConfiguration;
 import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.XMPPException;
 import org.jivesoftware.smack.packet.Message;
 import org.jivesoftware.smack.packet.Presence;
 import org.jivesoftware.smack.proxy.ProxyInfo;
@@ -33,10 +34,19 @@ import javax.jbi.management.DeploymentException;
 import javax.jbi.messaging.ExchangeStatus;
 import javax.jbi.messaging.MessageExchange;
 import javax.jbi.messaging.NormalizedMessage;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This endpoint sends XMPP messages from the NMR to a specified
  * target (user or room)
+ * <p/>
+ * The messages are sent over a pool of <code>connections</code> logged in with the same
+ * user and distinct resources. A connection which has been lost is opened again on the
+ * next send, waiting longer after each failed attempt. Several InOnly messages sent to a
+ * same recipient within the <code>coalesceWindow</code> can be sent as a single message.
  *
  * @org.apache.xbean.XBean element="sender"
  *
@@ -44,8 +54,11 @@ import javax.jbi.messaging.NormalizedMessage;
  */
 public class XMPPSenderEndpoint extends ProviderEndpoint implements XMPPEndpointType{
 
+    private static final String ROUND_ROBIN = "roundRobin";
+    private static final String HASH = "hash";
+    private static final String DEFAULT_RESOURCE = "Smack";
+
     private XMPPMarshalerSupport marshaler = new DefaultXMPPMarshaler();
-    private XMPPConnection connection;
     private String host;
     private int port = -1;
     private String user;
@@ -62,8 +75,14 @@ public class XMPPSenderEndpoint extends ProviderEndpoint implements XMPPEndpoint
     private boolean createAccount;
     private ConnectionConfiguration connectionConfig;
     private ProxyInfo proxyInfo;
-    private Chat userChat;
-    private MultiUserChat chatRoom;
+    private int connections = 1;
+    private String connectionSelection = ROUND_ROBIN;
+    private long reconnectDelay = 1000;
+    private long maxReconnectDelay = 60000;
+    private long coalesceWindow;
+    private SenderSession[] sessions;
+    private final AtomicInteger nextSession = new AtomicInteger();
+    private final Map<String, CoalescedMessage> batches = new HashMap<String, CoalescedMessage>();
 
     @Override
     public void validate() throws DeploymentException {
@@ -80,6 +99,12 @@ public class XMPPSenderEndpoint extends ProviderEndpoint implements XMPPEndpoint
             (this.participant != null && this.room != null)) {
             throw new DeploymentException("You have to define exactly one of the attributes 'room' and 'participant'!");
         }
+        if (this.connections < 1) {
+            throw new DeploymentException("The number of connections has to be at least 1!");
+        }
+        if (!ROUND_ROBIN.equals(this.connectionSelection) && !HASH.equals(this.connectionSelection)) {
+            throw new DeploymentException("The connection selection has to be '" + ROUND_ROBIN + "' or '" + HASH + "'!");
+        }
     }
 
     @Override
@@ -112,54 +137,33 @@ public class XMPPSenderEndpoint extends ProviderEndpoint implements XMPPEndpoint
             this.connectionConfig.setSASLAuthenticationEnabled(true);
         }
 
-        if (this.connection == null) {
-            this.connection = new XMPPConnection(this.connectionConfig);
-            this.logger.debug("Connecting to server {}", this.host);
-            this.connection.connect();
-        }
-
-        if (this.login && !this.connection.isAuthenticated()) {
-            if (this.user != null) {
-                this.logger.debug("Logging into Jabber as user: {} on connection: {}", this.user, this.connection);
-                if (this.password == null) {
-                    this.logger.warn("No password configured for user: {}", this.user);
-                }
-
-                if (this.createAccount) {
-                    AccountManager accountManager = new AccountManager(this.connection);
-                    accountManager.createAccount(this.user, this.password);
-                }
-                if (this.resource != null) {
-                    this.connection.login(this.user, this.password, this.resource);
-                } else {
-                    this.connection.login(this.user, this.password);
-                }
-            } else {
-                this.logger.debug("Logging in anonymously to Jabber on connection: {}", this.connection);
-                this.connection.loginAnonymously();
-            }
-            // now lets send a presence we are available
-            this.connection.sendPacket(new Presence(Presence.Type.available));
+        // open the pooled connections
+        SenderSession[] pool = new SenderSession[this.connections];
+        for (int i = 0; i < this.connections; i++) {
+            pool[i] = new SenderSession(i);
+            pool[i].open();
         }
+        this.sessions = pool;
+    }
 
-        // now register listener for new packets
-        if (this.connection != null && this.connection.isConnected()) {
-            // if the user specified a chat room to join we do this here
-            if (this.room != null) {
-                this.chatRoom = new MultiUserChat(this.connection, this.room);
-                this.chatRoom.join(this.user);
-            } else if (this.participant != null) {
-                this.userChat = this.connection.getChatManager().createChat(this.participant, null);
-            }
-        }
+    /**
+     * creates a pooled connection to the XMPP server
+     *
+     * @param config    the connection configuration
+     * @return the connection, not connected yet
+     */
+    protected XMPPConnection createConnection(ConnectionConfiguration config) {
+        return new XMPPConnection(config);
     }
 
     @Override
     public void stop() throws Exception {
-        if (this.connection != null && this.connection.isConnected()) {
+        if (this.sessions != null) {
             this.logger.debug("Disconnecting from server {}", this.host);
-            this.connection.disconnect();
-            this.connection = null;
+            for (SenderSession session : this.sessions) {
+                session.close();
+            }
+            this.sessions = null;
         }
         super.stop();
     }
@@ -178,7 +182,12 @@ public class XMPPSenderEndpoint extends ProviderEndpoint implements XMPPEndpoint
             getChannel().send(exchange);
         } else {
             // send the message to XMPP server
-            sendMessage(exchange, in);
+            Message message = createMessage(exchange, in);
+            if (this.coalesceWindow > 0) {
+                sendCoalesced(message);
+            } else {
+                sendMessage(message);
+            }
         }
     }
 
@@ -196,7 +205,7 @@ public class XMPPSenderEndpoint extends ProviderEndpoint implements XMPPEndpoint
             getChannel().send(exchange);
         } else {
             // send the message to XMPP server
-            sendMessage(exchange, in);
+            sendMessage(createMessage(exchange, in));
             // and copy the input message to the output
             MessageUtil.transferInToOut(exchange, exchange);
             // to finally send it back to the sender on success
@@ -205,21 +214,21 @@ public class XMPPSenderEndpoint extends ProviderEndpoint implements XMPPEndpoint
     }
 
     /**
-     * retrieves the message from the exchange and sends it to the defined target
+     * retrieves the message from the exchange
      *
      * @param exchange  the message exchange received through NMR
      * @param inMsg     the normalized inMessage from the exchange
+     * @return the message to send to the defined target
      * @throws Exception    on errors
      */
-    private void sendMessage(MessageExchange exchange, NormalizedMessage inMsg) throws Exception {
+    private Message createMessage(MessageExchange exchange, NormalizedMessage inMsg) throws Exception {
         // first we create a new dummy message
         Message message = null;
 
         if (this.participant != null) {
             message = new Message(this.participant, Message.Type.normal);
         } else {
-            message = this.chatRoom.createMessage();
-            message.setTo(this.room);
+            message = new Message(this.room, Message.Type.groupchat);
         }
 
         // that message gets filled through the marshaler
@@ -227,15 +236,99 @@ public class XMPPSenderEndpoint extends ProviderEndpoint implements XMPPEndpoint
 
         // initialize some more fields of the message
         message.setFrom(this.user);
+        return message;
+    }
 
-        // distinguish between single and multi user chat
-        if (this.participant != null) {
-            // single chat message
-            this.userChat.sendMessage(message);
+    /**
+     * sends the message to the defined target over one of the pooled connections. If
+     * the connection turns out to be lost, the message is sent again over another one.
+     *
+     * @param message   the message to send
+     * @throws Exception    on errors
+     */
+    private void sendMessage(Message message) throws Exception {
+        SenderSession session = selectSession(message.getTo());
+        try {
+            session.send(message);
+        } catch (Exception e) {
+            if (session.isConnected()) {
+                throw e;
+            }
+            this.logger.debug("Connection {} lost, sending the message over another connection", session.index);
+            selectSession(message.getTo()).send(message);
+        }
+    }
+
+    /**
+     * sends the message together with the messages sent to the same recipient
+     * within the coalesce window. The first message of a batch waits for the
+     * window to elapse and sends the batch.
+     *
+     * @param message   the message to send
+     * @throws Exception    on errors
+     */
+    private void sendCoalesced(Message message) throws Exception {
+        String recipient = message.getTo();
+        CoalescedMessage batch;
+        boolean first = false;
+        synchronized (this.batches) {
+            batch = this.batches.get(recipient);
+            if (batch == null) {
+                batch = new CoalescedMessage(message);
+                this.batches.put(recipient, batch);
+                first = true;
+            } else {
+                batch.append(message);
+            }
+        }
+        if (first) {
+            try {
+                Thread.sleep(this.coalesceWindow);
+            } finally {
+                synchronized (this.batches) {
+                    this.batches.remove(recipient);
+                }
+                try {
+                    sendMessage(batch.message);
+                } catch (Exception e) {
+                    batch.error = e;
+                } finally {
+                    batch.sent.countDown();
+                }
+            }
+        } else {
+            batch.sent.await();
+        }
+        if (batch.error != null) {
+            throw batch.error;
+        }
+    }
+
+    /**
+     * selects a connected session, either the next one or the one of the recipient
+     *
+     * @param recipient     the recipient of the message
+     * @return the session to use
+     * @throws XMPPException    if no session is connected
+     */
+    private SenderSession selectSession(String recipient) throws XMPPException {
+        SenderSession[] pool = this.sessions;
+        if (pool == null) {
+            throw new XMPPException("The endpoint is not started");
+        }
+        int start;
+        if (HASH.equals(this.connectionSelection) && recipient != null) {
+            start = (recipient.hashCode() & Integer.MAX_VALUE) % pool.length;
         } else {
-            // chat room message
-            this.chatRoom.sendMessage(message);
+            start = (this.nextSession.getAndIncrement() & Integer.MAX_VALUE) % pool.length;
+        }
+        for (int i = 0; i < pool.length; i++) {
+            SenderSession session = pool[(start + i) % pool.length];
+            if (session.ensureConnected()) {
+                return session;
+            }
         }
+        throw new XMPPException("No connection to the XMPP server " + this.host + " available");
     }
 
     public XMPPMarshalerSupport getMarshaler() {
@@ -453,4 +546,220 @@ public class XMPPSenderEndpoint extends ProviderEndpoint implements XMPPEndpoint
     public void setParticipant(String participant) {
         this.participant = participant;
     }
+
+    public int getConnections() {
+        return connections;
+    }
+
+    /**
+     * <p>Specify here the number of connections opened to the XMPP server. Each connection
+     * logs in with the same user and its own resource (the resource followed by the index
+     * of the connection). The default is one connection.</p>
+     *
+     * @param connections   the number of connections to open
+     */
+    public void setConnections(int connections) {
+        this.connections = connections;
+    }
+
+    public String getConnectionSelection() {
+        return connectionSelection;
+    }
+
+    /**
+     * <p>Specify here how the connection used to send a message is selected. Possible values are:
+     *   <code>roundRobin</code> (each message uses the next connection) or <code>hash</code>
+     *   (the messages of a recipient always use the same connection, and keep their order).
+     *   The default is <code>roundRobin</code>.</p>
+     *
+     * @param connectionSelection   the selection strategy (<code>roundRobin</code>, <code>hash</code>)
+     */
+    public void setConnectionSelection(String connectionSelection) {
+        this.connectionSelection = connectionSelection;
+    }
+
+    public long getReconnectDelay() {
+        return reconnectDelay;
+    }
+
+    /**
+     * <p>Specify here the time in milliseconds to wait before opening again a lost connection
+     * after a failed attempt. The delay doubles after each failed attempt, up to
+     * <code>maxReconnectDelay</code>. The default is 1000 milliseconds.</p>
+     *
+     * @param reconnectDelay    the initial reconnect delay in milliseconds
+     */
+    public void setReconnectDelay(long reconnectDelay) {
+        this.reconnectDelay = reconnectDelay;
+    }
+
+    public long getMaxReconnectDelay() {
+        return maxReconnectDelay;
+    }
+
+    /**
+     * <p>Specify here the maximum time in milliseconds to wait before opening again a lost
+     * connection. The default is 60000 milliseconds.</p>
+     *
+     * @param maxReconnectDelay     the maximum reconnect delay in milliseconds
+     */
+    public void setMaxReconnectDelay(long maxReconnectDelay) {
+        this.maxReconnectDelay = maxReconnectDelay;
+    }
+
+    public long getCoalesceWindow() {
+        return coalesceWindow;
+    }
+
+    /**
+     * <p>Specify here a time in milliseconds during which the InOnly messages sent to a same
+     * recipient are collected and sent as a single message, their bodies being separated by
+     * a line feed. The other fields of the sent message are the ones of the first message.
+     * The default is 0, each message is sent on its own.</p>
+     *
+     * @param coalesceWindow    the coalesce window in milliseconds
+     */
+    public void setCoalesceWindow(long coalesceWindow) {
+        this.coalesceWindow = coalesceWindow;
+    }
+
+    /**
+     * a pooled connection with its chat to the participant or the room
+     */
+    private class SenderSession {
+
+        private final int index;
+        private XMPPConnection connection;
+        private Chat userChat;
+        private MultiUserChat chatRoom;
+        private long delay = reconnectDelay;
+        private long nextAttempt;
+
+        SenderSession(int index) {
+            this.index = index;
+        }
+
+        synchronized void open() throws XMPPException {
+            XMPPConnection conn = createConnection(connectionConfig);
+            this.connection = conn;
+            logger.debug("Connecting to server {}", host);
+            conn.connect();
+
+            if (login && !conn.isAuthenticated()) {
+                if (user != null) {
+                    logger.debug("Logging into Jabber as user: {} on connection: {}", user, conn);
+                    if (password == null) {
+                        logger.warn("No password configured for user: {}", user);
+                    }
+
+                    if (createAccount && this.index == 0) {
+                        AccountManager accountManager = new AccountManager(conn);
+                        accountManager.createAccount(user, password);
+                    }
+                    if (this.index > 0) {
+                        // each pooled connection needs its own resource
+                        conn.login(user, password, (resource != null ? resource : DEFAULT_RESOURCE) + "-" + this.index);
+                    } else if (resource != null) {
+                        conn.login(user, password, resource);
+                    } else {
+                        conn.login(user, password);
+                    }
+                } else {
+                    logger.debug("Logging in anonymously to Jabber on connection: {}", conn);
+                    conn.loginAnonymously();
+                }
+                // now lets send a presence we are available
+                conn.sendPacket(new Presence(Presence.Type.available));
+            }
+
+            if (conn.isConnected()) {
+                // if the user specified a chat room to join we do this here
+                if (room != null) {
+                    this.chatRoom = new MultiUserChat(conn, room);
+                    this.chatRoom.join(this.index > 0 ? user + "-" + this.index : user);
+                } else if (participant != null) {
+                    this.userChat = conn.getChatManager().createChat(participant, null);
+                }
+            }
+        }
+
+        synchronized void close() {
+            if (this.connection != null && this.connection.isConnected()) {
+                this.connection.disconnect();
+            }
+            this.connection = null;
+            this.userChat = null;
+            this.chatRoom = null;
+        }
+
+        synchronized boolean isConnected() {
+            return this.connection != null && this.connection.isConnected()
+                && (!login || this.connection.isAuthenticated());
+        }
+
+        /**
+         * opens the connection again if it has been lost and the reconnect delay
+         * has elapsed since the last failed attempt
+         *
+         * @return true if the session is connected
+         */
+        synchronized boolean ensureConnected() {
+            if (isConnected()) {
+                return true;
+            }
+            long now = System.currentTimeMillis();
+            if (now < this.nextAttempt) {
+                return false;
+            }
+            try {
+                close();
+                open();
+                this.delay = reconnectDelay;
+                return true;
+            } catch (Exception e) {
+                logger.warn("Unable to reconnect to server {}, next attempt in {} ms", host, this.delay);
+                close();
+                this.nextAttempt = now + this.delay;
+                this.delay = Math.min(this.delay * 2, maxReconnectDelay);
+                return false;
+            }
+        }
+
+        void send(Message message) throws XMPPException {
+            Chat chat;
+            MultiUserChat muc;
+            synchronized (this) {
+                chat = this.userChat;
+                muc = this.chatRoom;
+            }
+            // distinguish between single and multi user chat
+            if (chat != null) {
+                // single chat message
+                chat.sendMessage(message);
+            } else if (muc != null) {
+                // chat room message
+                muc.sendMessage(message);
+            } else {
+                throw new XMPPException("Not connected to server " + host);
+            }
+        }
+    }
+
+    /**
+     * the messages sent to a recipient within the coalesce window
+     */
+    private static class CoalescedMessage {
+
+        private final Message message;
+        private final CountDownLatch sent = new CountDownLatch(1);
+        private volatile Exception error;
+
+        CoalescedMessage(Message message) {
+            this.message = message;
+        }
+
+        void append(Message next) {
+            this.message.setBody(this.message.getBody() + "\n" + next.getBody());
+        }
+    }
 }
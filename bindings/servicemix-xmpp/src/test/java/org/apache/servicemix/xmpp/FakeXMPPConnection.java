@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.xmpp;
+
+import org.jivesoftware.smack.ConnectionConfiguration;
+import org.jivesoftware.smack.PacketListener;
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.XMPPException;
+import org.jivesoftware.smack.filter.PacketFilter;
+import org.jivesoftware.smack.packet.Packet;
+import org.jivesoftware.smack.packet.Presence;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * An XMPP connection which doesn't talk to a server: the sent packets are recorded
+ * and the received packets are handed to the listeners by the test.
+ */
+public class FakeXMPPConnection extends XMPPConnection {
+
+    private final List<Packet> sentPackets = new CopyOnWriteArrayList<Packet>();
+    private final List<PacketListener> listeners = new CopyOnWriteArrayList<PacketListener>();
+    private final List<PacketFilter> filters = new CopyOnWriteArrayList<PacketFilter>();
+    private volatile boolean refused;
+    private volatile boolean dropOnSend;
+    private volatile boolean connected;
+    private volatile boolean authenticated;
+    private volatile String loginResource;
+
+    public FakeXMPPConnection(ConnectionConfiguration config) {
+        super(config);
+    }
+
+    public void connect() throws XMPPException {
+        if (this.refused) {
+            throw new XMPPException("Connection refused");
+        }
+        this.connected = true;
+    }
+
+    public boolean isConnected() {
+        return this.connected;
+    }
+
+    public boolean isAuthenticated() {
+        return this.authenticated;
+    }
+
+    public void login(String username, String password) throws XMPPException {
+        login(username, password, "Smack");
+    }
+
+    public synchronized void login(String username, String password, String resource) throws XMPPException {
+        this.authenticated = true;
+        this.loginResource = resource;
+    }
+
+    public synchronized void loginAnonymously() throws XMPPException {
+        this.authenticated = true;
+    }
+
+    public void sendPacket(Packet packet) {
+        if (this.dropOnSend) {
+            this.connected = false;
+        }
+        if (!this.connected) {
+            throw new IllegalStateException("Not connected to server.");
+        }
+        this.sentPackets.add(packet);
+    }
+
+    public void addPacketListener(PacketListener packetListener, PacketFilter packetFilter) {
+        this.listeners.add(packetListener);
+        this.filters.add(packetFilter);
+    }
+
+    public void removePacketListener(PacketListener packetListener) {
+        int index = this.listeners.indexOf(packetListener);
+        if (index >= 0) {
+            this.listeners.remove(index);
+            this.filters.remove(index);
+        }
+    }
+
+    public void disconnect() {
+        this.connected = false;
+        this.authenticated = false;
+    }
+
+    public void disconnect(Presence unavailablePresence) {
+        disconnect();
+    }
+
+    /**
+     * hands a packet to the listeners, as the Smack reader thread does
+     *
+     * @param packet    the received packet
+     */
+    public void receive(Packet packet) {
+        for (int i = 0; i < this.listeners.size(); i++) {
+            PacketFilter filter = this.filters.get(i);
+            if (filter == null || filter.accept(packet)) {
+                this.listeners.get(i).processPacket(packet);
+            }
+        }
+    }
+
+    /**
+     * simulates a connection lost without notice
+     */
+    public void drop() {
+        this.connected = false;
+    }
+
+    /**
+     * @param dropOnSend    true to lose the connection when the next packet is sent
+     */
+    public void setDropOnSend(boolean dropOnSend) {
+        this.dropOnSend = dropOnSend;
+    }
+
+    /**
+     * @param refused   true to make the next connection attempts fail
+     */
+    public void setRefused(boolean refused) {
+        this.refused = refused;
+    }
+
+    public List<Packet> getSentPackets() {
+        return this.sentPackets;
+    }
+
+    public int getListenerCount() {
+        return this.listeners.size();
+    }
+
+    public String getLoginResource() {
+        return this.loginResource;
+    }
+}
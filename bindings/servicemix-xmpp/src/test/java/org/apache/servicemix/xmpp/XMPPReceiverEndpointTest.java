@@ -0,0 +1,219 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.xmpp;
+
+import junit.framework.TestCase;
+import org.jivesoftware.smack.ConnectionConfiguration;
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Packet;
+import org.jivesoftware.smack.packet.Presence;
+
+import javax.xml.namespace.QName;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JUnit test class for <code>org.apache.servicemix.xmpp.XMPPReceiverEndpoint</code>
+ * using a fake connection.
+ */
+public class XMPPReceiverEndpointTest extends TestCase {
+
+    private RecordingReceiverEndpoint endpoint;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.endpoint = new RecordingReceiverEndpoint();
+        this.endpoint.setHost("localhost");
+        this.endpoint.setUser("servicemix");
+        this.endpoint.setPassword("secret");
+    }
+
+    protected void tearDown() throws Exception {
+        this.endpoint.gate.countDown();
+        this.endpoint.stop();
+        super.tearDown();
+    }
+
+    public void testStartLogsInAndListens() throws Exception {
+        this.endpoint.setResource("receiver");
+        this.endpoint.gate.countDown();
+        start();
+
+        FakeXMPPConnection connection = this.endpoint.connection;
+        assertTrue(connection.isAuthenticated());
+        assertEquals("receiver", connection.getLoginResource());
+        assertTrue(connection.getSentPackets().get(0) instanceof Presence);
+        assertEquals(1, connection.getListenerCount());
+
+        connection.receive(message("alice@localhost/home", "hello"));
+        Packet packet = this.endpoint.dispatched.poll(5, TimeUnit.SECONDS);
+        assertNotNull("The packet should have been dispatched", packet);
+        assertEquals("hello", ((Message) packet).getBody());
+    }
+
+    public void testDispatchOffReaderThread() throws Exception {
+        this.endpoint.gate.countDown();
+        start();
+
+        this.endpoint.connection.receive(message("alice@localhost/home", "hello"));
+        assertNotNull(this.endpoint.dispatched.poll(5, TimeUnit.SECONDS));
+        assertFalse("The packet should be dispatched by a worker",
+                    this.endpoint.threads.contains(Thread.currentThread()));
+    }
+
+    public void testNonMessagePacketsIgnored() throws Exception {
+        this.endpoint.gate.countDown();
+        start();
+
+        this.endpoint.connection.receive(new Presence(Presence.Type.available));
+        this.endpoint.connection.receive(new Message("servicemix@localhost"));
+        assertEquals(0, this.endpoint.getQueuedPackets());
+        assertNull(this.endpoint.dispatched.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    public void testOrderedDispatchPerSender() throws Exception {
+        this.endpoint.setWorkers(4);
+        this.endpoint.delay = true;
+        this.endpoint.gate.countDown();
+        start();
+
+        String[] senders = {"alice@localhost/home", "bob@localhost/work", "room@conference.localhost/carol"};
+        int count = 50;
+        for (int i = 0; i < count; i++) {
+            for (String sender : senders) {
+                this.endpoint.connection.receive(message(sender, String.valueOf(i)));
+            }
+        }
+
+        Map<String, List<Integer>> received = new HashMap<String, List<Integer>>();
+        for (int i = 0; i < count * senders.length; i++) {
+            Packet packet = this.endpoint.dispatched.poll(5, TimeUnit.SECONDS);
+            assertNotNull("Only " + i + " packets have been dispatched", packet);
+            List<Integer> bodies = received.get(packet.getFrom());
+            if (bodies == null) {
+                bodies = new ArrayList<Integer>();
+                received.put(packet.getFrom(), bodies);
+            }
+            bodies.add(Integer.valueOf(((Message) packet).getBody()));
+        }
+        for (String sender : senders) {
+            List<Integer> bodies = received.get(sender);
+            assertEquals(count, bodies.size());
+            for (int i = 0; i < count; i++) {
+                assertEquals("Packets of " + sender + " out of order: " + bodies, i, bodies.get(i).intValue());
+            }
+        }
+    }
+
+    public void testDropWhenFull() throws Exception {
+        this.endpoint.setMaxPendingPackets(2);
+        this.endpoint.setDropWhenFull(true);
+        start();
+
+        for (int i = 0; i < 5; i++) {
+            this.endpoint.connection.receive(message("alice@localhost/home", String.valueOf(i)));
+        }
+        assertEquals(2, this.endpoint.getQueuedPackets());
+        assertEquals(3, this.endpoint.getDroppedPackets());
+
+        this.endpoint.gate.countDown();
+        assertEquals("0", ((Message) this.endpoint.dispatched.poll(5, TimeUnit.SECONDS)).getBody());
+        assertEquals("1", ((Message) this.endpoint.dispatched.poll(5, TimeUnit.SECONDS)).getBody());
+        assertNull(this.endpoint.dispatched.poll(200, TimeUnit.MILLISECONDS));
+        assertEquals(0, this.endpoint.getQueuedPackets());
+    }
+
+    public void testReaderBlocksWhenFull() throws Exception {
+        this.endpoint.setMaxPendingPackets(1);
+        start();
+
+        this.endpoint.connection.receive(message("alice@localhost/home", "0"));
+        Thread reader = new Thread() {
+            public void run() {
+                endpoint.connection.receive(message("alice@localhost/home", "1"));
+            }
+        };
+        reader.start();
+        reader.join(300);
+        assertTrue("The reader thread should wait for a pending packet to be dispatched", reader.isAlive());
+        assertEquals(0, this.endpoint.getDroppedPackets());
+
+        this.endpoint.gate.countDown();
+        reader.join(5000);
+        assertFalse(reader.isAlive());
+        assertEquals("0", ((Message) this.endpoint.dispatched.poll(5, TimeUnit.SECONDS)).getBody());
+        assertEquals("1", ((Message) this.endpoint.dispatched.poll(5, TimeUnit.SECONDS)).getBody());
+    }
+
+    private void start() throws Exception {
+        this.endpoint.validate();
+        this.endpoint.start();
+    }
+
+    private static Message message(String from, String body) {
+        Message message = new Message("servicemix@localhost", Message.Type.chat);
+        message.setFrom(from);
+        message.setBody(body);
+        return message;
+    }
+
+    /**
+     * a receiver using a fake connection and recording the dispatched packets
+     * instead of sending them into the NMR
+     */
+    private static class RecordingReceiverEndpoint extends XMPPReceiverEndpoint {
+
+        private final BlockingQueue<Packet> dispatched = new LinkedBlockingQueue<Packet>();
+        private final List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+        private final CountDownLatch gate = new CountDownLatch(1);
+        private volatile FakeXMPPConnection connection;
+        private volatile boolean delay;
+
+        RecordingReceiverEndpoint() {
+            setService(new QName("urn:test", "xmpp"));
+            setEndpoint("receiver");
+            setTargetService(new QName("urn:test", "target"));
+        }
+
+        protected XMPPConnection createConnection(ConnectionConfiguration config) {
+            this.connection = new FakeXMPPConnection(config);
+            return this.connection;
+        }
+
+        protected void dispatch(Packet packet) {
+            this.threads.add(Thread.currentThread());
+            try {
+                this.gate.await();
+                if (this.delay) {
+                    // let the lanes interleave
+                    Thread.sleep((packet.getFrom().hashCode() & 1));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            this.dispatched.add(packet);
+        }
+    }
+}
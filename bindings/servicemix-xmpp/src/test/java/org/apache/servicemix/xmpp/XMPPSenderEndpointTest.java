@@ -0,0 +1,245 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.xmpp;
+
+import junit.framework.TestCase;
+import org.apache.servicemix.tck.mock.MockMessageExchange;
+import org.apache.servicemix.tck.mock.MockNormalizedMessage;
+import org.apache.servicemix.xmpp.marshaler.XMPPMarshalerSupport;
+import org.jivesoftware.smack.ConnectionConfiguration;
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.XMPPException;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Packet;
+
+import javax.jbi.messaging.ExchangeStatus;
+import javax.jbi.messaging.MessageExchange;
+import javax.jbi.messaging.NormalizedMessage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * JUnit test class for <code>org.apache.servicemix.xmpp.XMPPSenderEndpoint</code>
+ * using fake connections.
+ */
+public class XMPPSenderEndpointTest extends TestCase {
+
+    private static final String TEXT_PROPERTY = "text";
+
+    private FakeSenderEndpoint endpoint;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.endpoint = new FakeSenderEndpoint();
+        this.endpoint.setHost("localhost");
+        this.endpoint.setUser("servicemix");
+        this.endpoint.setPassword("secret");
+        this.endpoint.setResource("sender");
+        this.endpoint.setParticipant("alice@localhost");
+        this.endpoint.setMarshaler(new TextMarshaler());
+    }
+
+    protected void tearDown() throws Exception {
+        this.endpoint.stop();
+        super.tearDown();
+    }
+
+    public void testRoundRobinOverPooledConnections() throws Exception {
+        this.endpoint.setConnections(3);
+        start();
+
+        for (int i = 0; i < 6; i++) {
+            send("message " + i);
+        }
+
+        assertEquals(3, this.endpoint.connections.size());
+        assertEquals("sender", this.endpoint.connections.get(0).getLoginResource());
+        assertEquals("sender-1", this.endpoint.connections.get(1).getLoginResource());
+        assertEquals("sender-2", this.endpoint.connections.get(2).getLoginResource());
+        for (FakeXMPPConnection connection : this.endpoint.connections) {
+            assertEquals(2, messages(connection).size());
+        }
+    }
+
+    public void testHashSelectionUsesOneConnectionPerRecipient() throws Exception {
+        this.endpoint.setConnections(3);
+        this.endpoint.setConnectionSelection("hash");
+        start();
+
+        for (int i = 0; i < 6; i++) {
+            send("message " + i);
+        }
+
+        int used = 0;
+        for (FakeXMPPConnection connection : this.endpoint.connections) {
+            List<Message> messages = messages(connection);
+            if (!messages.isEmpty()) {
+                used++;
+                for (int i = 0; i < messages.size(); i++) {
+                    assertEquals("message " + i, messages.get(i).getBody());
+                }
+            }
+        }
+        assertEquals(1, used);
+    }
+
+    public void testMessageSentAgainWhenConnectionLost() throws Exception {
+        this.endpoint.setConnections(2);
+        start();
+
+        FakeXMPPConnection lost = this.endpoint.connections.get(0);
+        lost.setDropOnSend(true);
+        send("hello");
+
+        assertTrue(messages(lost).isEmpty());
+        int sent = 0;
+        for (FakeXMPPConnection connection : this.endpoint.connections) {
+            sent += messages(connection).size();
+        }
+        assertEquals("The message should have been sent once", 1, sent);
+    }
+
+    public void testReconnectBackoff() throws Exception {
+        this.endpoint.setReconnectDelay(300);
+        this.endpoint.setMaxReconnectDelay(600);
+        start();
+
+        this.endpoint.connections.get(0).drop();
+        this.endpoint.refused = true;
+        assertSendFails();
+        assertEquals("The connection should have been opened again", 2, this.endpoint.connections.size());
+
+        // no attempt before the delay
+        assertSendFails();
+        assertEquals(2, this.endpoint.connections.size());
+
+        Thread.sleep(400);
+        assertSendFails();
+        assertEquals(3, this.endpoint.connections.size());
+
+        // the delay has doubled
+        Thread.sleep(300);
+        assertSendFails();
+        assertEquals(3, this.endpoint.connections.size());
+
+        this.endpoint.refused = false;
+        Thread.sleep(400);
+        send("hello");
+        assertEquals(4, this.endpoint.connections.size());
+        assertEquals(1, messages(this.endpoint.connections.get(3)).size());
+    }
+
+    public void testCoalesceWindow() throws Exception {
+        this.endpoint.setCoalesceWindow(500);
+        start();
+
+        final CountDownLatch ready = new CountDownLatch(1);
+        final List<Exception> errors = new CopyOnWriteArrayList<Exception>();
+        List<Thread> senders = new ArrayList<Thread>();
+        for (final String text : new String[] {"a", "b", "c"}) {
+            Thread sender = new Thread() {
+                public void run() {
+                    try {
+                        ready.await();
+                        send(text);
+                    } catch (Exception e) {
+                        errors.add(e);
+                    }
+                }
+            };
+            sender.start();
+            senders.add(sender);
+        }
+        ready.countDown();
+        for (Thread sender : senders) {
+            sender.join(5000);
+        }
+
+        assertTrue("Unexpected errors: " + errors, errors.isEmpty());
+        List<Message> messages = messages(this.endpoint.connections.get(0));
+        assertEquals(1, messages.size());
+        assertEquals(new HashSet<String>(Arrays.asList("a", "b", "c")),
+                     new HashSet<String>(Arrays.asList(messages.get(0).getBody().split("\n"))));
+    }
+
+    private void start() throws Exception {
+        this.endpoint.validate();
+        this.endpoint.start();
+    }
+
+    private void send(String text) throws Exception {
+        MessageExchange exchange = new MockMessageExchange();
+        exchange.setStatus(ExchangeStatus.ACTIVE);
+        NormalizedMessage in = new MockNormalizedMessage();
+        in.setProperty(TEXT_PROPERTY, text);
+        exchange.setMessage(in, "in");
+        this.endpoint.processInOnly(exchange, in);
+    }
+
+    private void assertSendFails() throws Exception {
+        try {
+            send("hello");
+            fail("No connection should be available");
+        } catch (XMPPException e) {
+            // expected
+        }
+    }
+
+    private static List<Message> messages(FakeXMPPConnection connection) {
+        List<Message> messages = new ArrayList<Message>();
+        for (Packet packet : connection.getSentPackets()) {
+            if (packet instanceof Message) {
+                messages.add((Message) packet);
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * a sender opening fake connections
+     */
+    private static class FakeSenderEndpoint extends XMPPSenderEndpoint {
+
+        private final List<FakeXMPPConnection> connections = new CopyOnWriteArrayList<FakeXMPPConnection>();
+        private volatile boolean refused;
+
+        protected XMPPConnection createConnection(ConnectionConfiguration config) {
+            FakeXMPPConnection connection = new FakeXMPPConnection(config);
+            connection.setRefused(this.refused);
+            this.connections.add(connection);
+            return connection;
+        }
+    }
+
+    /**
+     * uses a message property as body
+     */
+    private static class TextMarshaler implements XMPPMarshalerSupport {
+
+        public void toJBI(NormalizedMessage normalizedMessage, Packet packet) {
+            normalizedMessage.setProperty(TEXT_PROPERTY, ((Message) packet).getBody());
+        }
+
+        public void fromJBI(Message message, MessageExchange exchange, NormalizedMessage normalizedMessage) {
+            message.setBody((String) normalizedMessage.getProperty(TEXT_PROPERTY));
+        }
+    }
+}
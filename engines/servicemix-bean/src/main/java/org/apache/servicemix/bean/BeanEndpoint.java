@@ -38,6 +38,7 @@ import javax.management.MBeanServer;
 import javax.naming.InitialContext;
 import javax.xml.namespace.QName;
 
+import org.aopalliance.intercept.MethodInterceptor;
 import org.aopalliance.intercept.MethodInvocation;
 import org.apache.commons.jexl2.Expression;
 import org.apache.commons.jexl2.JexlContext;
@@ -47,6 +48,7 @@ import org.apache.servicemix.bean.support.BeanInfo;
 import org.apache.servicemix.bean.support.DefaultMethodInvocationStrategy;
 import org.apache.servicemix.bean.support.DestinationImpl;
 import org.apache.servicemix.bean.support.Holder;
+import org.apache.servicemix.bean.support.MethodInfo;
 import org.apache.servicemix.bean.support.MethodInvocationStrategy;
 import org.apache.servicemix.bean.support.ReflectionUtils;
 import org.apache.servicemix.bean.support.Request;
@@ -83,6 +85,7 @@ public class BeanEndpoint extends ProviderEndpoint implements ApplicationContext
     private Class<?> beanType;
     private String beanClassName;
     private MethodInvocationStrategy methodInvocationStrategy;
+    private MethodInterceptor interceptor;
     private org.apache.servicemix.expression.Expression correlationExpression;
 
     private Map<String, Holder> exchanges = new ConcurrentHashMap<String, Holder>();
@@ -115,6 +118,10 @@ public class BeanEndpoint extends ProviderEndpoint implements ApplicationContext
         if (getMethodInvocationStrategy() == null) {
             throw new IllegalArgumentException("No 'methodInvocationStrategy' property set");
         }
+        // introspect the bean up front rather than on the first exchange
+        if (!MessageExchangeListener.class.isAssignableFrom(beanType)) {
+            getBeanInfo();
+        }
     }
 
 
@@ -232,6 +239,20 @@ public class BeanEndpoint extends ProviderEndpoint implements ApplicationContext
         this.methodInvocationStrategy = methodInvocationStrategy;
     }
 
+    public MethodInterceptor getInterceptor() {
+        return interceptor;
+    }
+
+    /**
+     * Set an interceptor to wrap the invocations of the bean methods.  When no interceptor is set and
+     * the default invocation strategy is used, the bean methods are invoked directly.
+     *
+     * @param interceptor the interceptor
+     */
+    public void setInterceptor(MethodInterceptor interceptor) {
+        this.interceptor = interceptor;
+    }
+
 
     @Override
     public void process(MessageExchange exchange) throws Exception {
@@ -264,19 +285,10 @@ public class BeanEndpoint extends ProviderEndpoint implements ApplicationContext
                         // TODO: find a way to send it back to the bean before setting the DONE status
                         done(exchange);
                     } else {
-                        MethodInvocation invocation = getMethodInvocationStrategy().createInvocation(
-                                req.getBean(), getBeanInfo(), exchange, this);
-                        if (invocation == null) {
-                            throw new UnknownMessageExchangeTypeException(exchange, this);
-                        }
-                        try {
-                            invocation.proceed();
-                        } catch (InvocationTargetException e) {
-                            throw new MethodInvocationFailedException(req.getBean(), invocation, exchange, this, e.getCause());
-                        } catch (Exception e) {
-                            throw e;
-                        } catch (Throwable throwable) {
-                            throw new MethodInvocationFailedException(req.getBean(), invocation, exchange, this, throwable);
+                        if (isDirectInvocation()) {
+                            invokeDirectly(req.getBean(), exchange);
+                        } else {
+                            invoke(req.getBean(), exchange);
                         }
                         if (exchange.getStatus() == ExchangeStatus.ERROR) {
                             send(exchange);
@@ -295,6 +307,60 @@ public class BeanEndpoint extends ProviderEndpoint implements ApplicationContext
         }
     }
 
+    /*
+     * The default strategy without an interceptor does not need the MethodInvocation wrapper
+     */
+    private boolean isDirectInvocation() {
+        return interceptor == null
+            && getMethodInvocationStrategy().getClass() == DefaultMethodInvocationStrategy.class;
+    }
+
+    /*
+     * Invokes the bean method through the precompiled MethodInfo, without allocating a MethodInvocation
+     */
+    private void invokeDirectly(Object pojo, MessageExchange exchange) throws Exception {
+        MethodInfo methodInfo = getBeanInfo().getMethodInfo(exchange);
+        if (methodInfo == null) {
+            throw new UnknownMessageExchangeTypeException(exchange, this);
+        }
+        Object[] arguments = methodInfo.createArguments(exchange);
+        try {
+            methodInfo.invoke(pojo, arguments, exchange);
+        } catch (InvocationTargetException e) {
+            MethodInvocation invocation = methodInfo.createMethodInvocation(pojo, exchange, arguments);
+            throw new MethodInvocationFailedException(pojo, invocation, exchange, this, e.getCause());
+        } catch (Exception e) {
+            throw e;
+        } catch (Throwable throwable) {
+            MethodInvocation invocation = methodInfo.createMethodInvocation(pojo, exchange, arguments);
+            throw new MethodInvocationFailedException(pojo, invocation, exchange, this, throwable);
+        }
+    }
+
+    /*
+     * Invokes the bean method through the MethodInvocation created by the strategy and the interceptor, if any
+     */
+    private void invoke(Object pojo, MessageExchange exchange) throws Exception {
+        MethodInvocation invocation = getMethodInvocationStrategy().createInvocation(
+                pojo, getBeanInfo(), exchange, this);
+        if (invocation == null) {
+            throw new UnknownMessageExchangeTypeException(exchange, this);
+        }
+        try {
+            if (interceptor != null) {
+                interceptor.invoke(invocation);
+            } else {
+                invocation.proceed();
+            }
+        } catch (InvocationTargetException e) {
+            throw new MethodInvocationFailedException(pojo, invocation, exchange, this, e.getCause());
+        } catch (Exception e) {
+            throw e;
+        } catch (Throwable throwable) {
+            throw new MethodInvocationFailedException(pojo, invocation, exchange, this, throwable);
+        }
+    }
+
     /*
      * Check if the incoming provider exchange should be marked DONE 
      */
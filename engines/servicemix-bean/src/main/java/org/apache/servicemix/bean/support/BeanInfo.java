@@ -33,13 +33,12 @@ import org.apache.servicemix.bean.Operation;
 import org.apache.servicemix.bean.Property;
 import org.apache.servicemix.bean.XPath;
 import org.apache.servicemix.expression.Expression;
-import org.apache.servicemix.expression.JAXPStringXPathExpression;
 import org.apache.servicemix.expression.PropertyExpression;
 import org.apache.servicemix.jbi.helper.MessageHelper;
-import org.apache.servicemix.jbi.jaxp.DefaultNamespaceContext;
 import org.apache.servicemix.jbi.marshaler.PojoMarshaler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.w3c.dom.Node;
 
 /**
  * Represents the metadata about a bean type created via a combination of
@@ -77,19 +76,25 @@ public class BeanInfo {
     }
 
     public MethodInvocation createInvocation(Object pojo, MessageExchange messageExchange) throws MessagingException {
-        QName operation = messageExchange.getOperation();
-        MethodInfo methodInfo = null;
-        if (operation == null) {
-            methodInfo = defaultExpression;
-        } else {
-            methodInfo = operations.get(operation.getLocalPart());
-        }
+        MethodInfo methodInfo = getMethodInfo(messageExchange);
         if (methodInfo != null) {
             return methodInfo.createMethodInvocation(pojo, messageExchange);
         }
         return null;
     }
 
+    /**
+     * Retrieves the method to be invoked for the given exchange, based on its operation
+     */
+    public MethodInfo getMethodInfo(MessageExchange messageExchange) {
+        QName operation = messageExchange.getOperation();
+        if (operation == null) {
+            return defaultExpression;
+        } else {
+            return operations.get(operation.getLocalPart());
+        }
+    }
+
     protected void introspect(Class clazz) {
         Method[] methods = clazz.getDeclaredMethods();
         for (Method method : methods) {
@@ -129,14 +134,29 @@ public class BeanInfo {
     }
 
     protected Expression createMethodParametersExpression(final Expression[] parameterExpressions) {
+        boolean hasXPath = false;
+        for (Expression parameterExpression : parameterExpressions) {
+            hasXPath |= parameterExpression instanceof XPathParameterExpression;
+        }
+        final boolean parseContent = hasXPath;
         return new Expression() {
 
             public Object evaluate(MessageExchange messageExchange, 
                                    NormalizedMessage normalizedMessage) throws MessagingException {
+                // parse the content only once for all the XPath parameters
+                Node content = null;
+                if (parseContent) {
+                    content = XPathParameterExpression.getContentNode(normalizedMessage);
+                }
                 Object[] answer = new Object[parameterExpressions.length];
                 for (int i = 0; i < parameterExpressions.length; i++) {
                     Expression parameterExpression = parameterExpressions[i];
-                    answer[i] = parameterExpression.evaluate(messageExchange, normalizedMessage);
+                    if (parameterExpression instanceof XPathParameterExpression) {
+                        answer[i] = ((XPathParameterExpression) parameterExpression)
+                            .evaluate(messageExchange, normalizedMessage, content);
+                    } else {
+                        answer[i] = parameterExpression.evaluate(messageExchange, normalizedMessage);
+                    }
                 }
                 return answer;
             }
@@ -171,14 +191,7 @@ public class BeanInfo {
             final PojoMarshaler marshaller = newInstance(content);
             return createContentExpression(marshaller);
         } else if (annotation instanceof XPath) {
-            XPath xpathAnnotation = (XPath) annotation;
-            JAXPStringXPathExpression expr = new JAXPStringXPathExpression(xpathAnnotation.xpath());
-            if (!xpathAnnotation.prefix().equals("") && !xpathAnnotation.uri().equals("")) {
-                DefaultNamespaceContext ctx = new DefaultNamespaceContext();
-                ctx.add(xpathAnnotation.prefix(), xpathAnnotation.uri());
-                expr.setNamespaceContext(ctx);
-            }
-            return expr; 
+            return new XPathParameterExpression((XPath) annotation);
         }
         return null;
     }
@@ -19,6 +19,7 @@ package org.apache.servicemix.bean.support;
 import java.lang.reflect.AccessibleObject;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 
 import javax.jbi.messaging.MessageExchange;
 import javax.jbi.messaging.MessagingException;
@@ -37,13 +38,35 @@ public class MethodInfo {
     public MethodInfo(Method method, Expression parametersExpression) {
         this.method = method;
         this.parametersExpression = parametersExpression;
+        // public methods can always be invoked, so skip the access checks
+        // that would otherwise be performed on every invocation
+        if (Modifier.isPublic(method.getModifiers())) {
+            try {
+                method.setAccessible(true);
+            } catch (SecurityException e) {
+                // keep the default checks if we are not allowed to bypass them
+            }
+        }
     }
 
+    public Method getMethod() {
+        return method;
+    }
+
+    /**
+     * Evaluates the method arguments from the in message of the given exchange
+     */
+    public Object[] createArguments(MessageExchange messageExchange) throws MessagingException {
+        return (Object[]) parametersExpression.evaluate(messageExchange, messageExchange.getMessage("in"));
+    }
 
     public MethodInvocation createMethodInvocation(final Object pojo, 
             final MessageExchange messageExchange) throws MessagingException {
-        final Object[] arguments = (Object[]) parametersExpression.evaluate(
-                messageExchange, messageExchange.getMessage("in"));
+        return createMethodInvocation(pojo, messageExchange, createArguments(messageExchange));
+    }
+
+    public MethodInvocation createMethodInvocation(final Object pojo, 
+            final MessageExchange messageExchange, final Object[] arguments) {
         return new MethodInvocation() {
             public Method getMethod() {
                 return method;
@@ -64,6 +87,14 @@ public class MethodInfo {
 
     }
 
+    /**
+     * Invokes the method directly, without going through a {@link MethodInvocation}
+     */
+    public Object invoke(Object pojo, Object[] arguments, 
+            MessageExchange exchange) throws IllegalAccessException, InvocationTargetException {
+        return invoke(method, pojo, arguments, exchange);
+    }
+
     protected Object invoke(Method mth, Object pojo, Object[] arguments, 
             MessageExchange exchange) throws IllegalAccessException, InvocationTargetException {
         return mth.invoke(pojo, arguments);
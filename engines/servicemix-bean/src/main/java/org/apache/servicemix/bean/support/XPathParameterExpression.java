@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.bean.support;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.jbi.messaging.MessageExchange;
+import javax.jbi.messaging.MessagingException;
+import javax.jbi.messaging.NormalizedMessage;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+import org.apache.servicemix.bean.XPath;
+import org.apache.servicemix.expression.Expression;
+import org.apache.servicemix.expression.MessageVariableResolver;
+import org.apache.servicemix.jbi.jaxp.DefaultNamespaceContext;
+import org.apache.servicemix.jbi.jaxp.SourceTransformer;
+import org.w3c.dom.Node;
+
+/**
+ * An {@link Expression} for a method parameter annotated with {@link XPath}.
+ * The XPath can be evaluated against a message content that has already been
+ * parsed, so that all the XPath parameters of a method share a single DOM per
+ * invocation.  As with {@link org.apache.servicemix.expression.JAXPStringXPathExpression},
+ * <code>$variables</code> are resolved from the message and exchange properties.
+ *
+ * @version $Revision: $
+ */
+public class XPathParameterExpression implements Expression {
+
+    private static final SourceTransformer TRANSFORMER = new SourceTransformer();
+
+    private final String prefix;
+    private final String uri;
+    private final String xpath;
+
+    /**
+     * Compiled expressions are not thread-safe and are bound to their variable
+     * resolver, so each concurrent invocation borrows its own one.
+     */
+    private final Queue<CompiledXPath> pool = new ConcurrentLinkedQueue<CompiledXPath>();
+
+    public XPathParameterExpression(XPath annotation) {
+        this.prefix = annotation.prefix();
+        this.uri = annotation.uri();
+        this.xpath = annotation.xpath();
+        // compile once to report invalid expressions when the bean is introspected
+        pool.offer(compile());
+    }
+
+    public String getXPath() {
+        return xpath;
+    }
+
+    public Object evaluate(MessageExchange exchange, NormalizedMessage message) throws MessagingException {
+        return evaluate(exchange, message, getContentNode(message));
+    }
+
+    /**
+     * Evaluates the XPath against an already parsed message content
+     */
+    public Object evaluate(MessageExchange exchange, NormalizedMessage message, Node node) throws MessagingException {
+        CompiledXPath compiled = pool.poll();
+        if (compiled == null) {
+            compiled = compile();
+        }
+        try {
+            compiled.variableResolver.setExchange(exchange);
+            compiled.variableResolver.setMessage(message);
+            return compiled.expression.evaluate(node, XPathConstants.STRING);
+        } catch (XPathExpressionException e) {
+            throw new MessagingException("Unable to evaluate XPath expression " + xpath, e);
+        } finally {
+            compiled.variableResolver.setExchange(null);
+            compiled.variableResolver.setMessage(null);
+            pool.offer(compiled);
+        }
+    }
+
+    private CompiledXPath compile() {
+        javax.xml.xpath.XPath compiler = XPathFactory.newInstance().newXPath();
+        if (!prefix.equals("") && !uri.equals("")) {
+            DefaultNamespaceContext ctx = new DefaultNamespaceContext();
+            ctx.add(prefix, uri);
+            compiler.setNamespaceContext(ctx);
+        }
+        MessageVariableResolver variableResolver = new MessageVariableResolver();
+        compiler.setXPathVariableResolver(variableResolver);
+        try {
+            return new CompiledXPath(compiler.compile(xpath), variableResolver);
+        } catch (XPathExpressionException e) {
+            throw new RuntimeException("Invalid XPath expression: " + xpath, e);
+        }
+    }
+
+    /**
+     * Parses the message content into a DOM node.  The message content is replaced
+     * by the parsed DOM so that it can still be read afterwards.
+     */
+    public static Node getContentNode(NormalizedMessage message) throws MessagingException {
+        try {
+            return TRANSFORMER.toDOMNode(message);
+        } catch (MessagingException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new MessagingException("Unable to parse message content", e);
+        }
+    }
+
+    private static final class CompiledXPath {
+
+        private final XPathExpression expression;
+        private final MessageVariableResolver variableResolver;
+
+        private CompiledXPath(XPathExpression expression, MessageVariableResolver variableResolver) {
+            this.expression = expression;
+            this.variableResolver = variableResolver;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.bean;
+
+import javax.jbi.messaging.ExchangeStatus;
+import javax.jbi.messaging.InOnly;
+import javax.xml.namespace.QName;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.apache.servicemix.jbi.jaxp.StringSource;
+
+/**
+ * Test cases for invoking bean methods with and without a {@link MethodInterceptor}
+ */
+public class BeanEndpointInterceptorTest extends AbstractBeanComponentTest {
+
+    private static final QName SERVICE = new QName("urn:test", "service");
+    private static final QName INTERCEPTED = new QName("urn:test", "intercepted");
+
+    private Pojo pojo;
+    private CountingInterceptor interceptor;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        pojo = new Pojo();
+        BeanEndpoint endpoint = new BeanEndpoint();
+        endpoint.setBean(pojo);
+        endpoint.setService(SERVICE);
+        endpoint.setEndpoint("endpoint");
+        component.addEndpoint(endpoint);
+
+        interceptor = new CountingInterceptor();
+        endpoint = new BeanEndpoint();
+        endpoint.setBean(pojo);
+        endpoint.setService(INTERCEPTED);
+        endpoint.setEndpoint("endpoint");
+        endpoint.setInterceptor(interceptor);
+        component.addEndpoint(endpoint);
+    }
+
+    public void testDirectInvocation() throws Exception {
+        send(SERVICE, "important!");
+        assertEquals("important!", pojo.property);
+        assertEquals(0, interceptor.count);
+    }
+
+    public void testInterceptedInvocation() throws Exception {
+        send(INTERCEPTED, "intercepted!");
+        assertEquals("intercepted!", pojo.property);
+        assertEquals(1, interceptor.count);
+    }
+
+    public void testFailingInvocation() throws Exception {
+        assertFailure(SERVICE, "fail");
+    }
+
+    public void testFailingInterceptedInvocation() throws Exception {
+        assertFailure(INTERCEPTED, "fail");
+    }
+
+    public void testErrorInvocation() throws Exception {
+        assertFailure(SERVICE, "error");
+        assertFailure(INTERCEPTED, "error");
+    }
+
+    private void assertFailure(QName service, String operation) throws Exception {
+        InOnly exchange = client.createInOnlyExchange();
+        exchange.setService(service);
+        exchange.setOperation(new QName(operation));
+        exchange.getInMessage().setContent(new StringSource("<hello>world</hello>"));
+        client.sendSync(exchange);
+        assertEquals(ExchangeStatus.ERROR, exchange.getStatus());
+        assertTrue(exchange.getError() instanceof MethodInvocationFailedException);
+    }
+
+    private void send(QName service, String value) throws Exception {
+        InOnly exchange = client.createInOnlyExchange();
+        exchange.setService(service);
+        exchange.setOperation(new QName("handle"));
+        exchange.getInMessage().setProperty("key", value);
+        exchange.getInMessage().setContent(new StringSource("<hello>world</hello>"));
+        client.sendSync(exchange);
+        assertEquals(ExchangeStatus.DONE, exchange.getStatus());
+    }
+
+    public static final class Pojo {
+
+        private Object property;
+
+        public void handle(@Property(name = "key") Object value) {
+            property = value;
+        }
+
+        public void fail(@Property(name = "key") Object value) {
+            throw new IllegalStateException("Failing on purpose");
+        }
+
+        public void error(@Property(name = "key") Object value) {
+            throw new AssertionError("Error on purpose");
+        }
+    }
+
+    private static final class CountingInterceptor implements MethodInterceptor {
+
+        private int count;
+
+        public Object invoke(MethodInvocation invocation) throws Throwable {
+            count++;
+            return invocation.proceed();
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.bean.support;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jbi.messaging.MessageExchange;
+import javax.jbi.messaging.NormalizedMessage;
+import javax.xml.namespace.QName;
+import javax.xml.transform.stream.StreamSource;
+
+import junit.framework.TestCase;
+
+import org.aopalliance.intercept.MethodInvocation;
+import org.apache.servicemix.bean.XPath;
+import org.apache.servicemix.common.util.MessageUtil;
+import org.apache.servicemix.expression.JAXPStringXPathExpression;
+import org.apache.servicemix.jbi.jaxp.DefaultNamespaceContext;
+import org.apache.servicemix.jbi.jaxp.StringSource;
+import org.apache.servicemix.tck.mock.MockMessageExchange;
+
+/**
+ * Test cases for {@link XPathParameterExpression}
+ */
+public class XPathParameterExpressionTest extends TestCase {
+
+    private static final int PAYLOAD_SIZE = 100 * 1024;
+    private static final int THREADS = 4;
+    private static final int ITERATIONS = 20;
+
+    private static final String[] XPATHS = {
+        "/t:order/t:id", "/t:order/t:customer", "/t:order/t:priority", "/t:order/t:currency", "count(/t:order/t:line)"
+    };
+
+    private String payload;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        StringBuilder builder = new StringBuilder();
+        builder.append("<t:order xmlns:t='urn:test'><t:id>42</t:id><t:customer>acme</t:customer>");
+        builder.append("<t:priority>high</t:priority><t:currency>EUR</t:currency>");
+        int lines = 0;
+        while (builder.length() < PAYLOAD_SIZE) {
+            builder.append("<t:line><t:sku>sku-").append(lines++).append("</t:sku><t:qty>1</t:qty></t:line>");
+        }
+        builder.append("</t:order>");
+        payload = builder.toString();
+    }
+
+    public void testSharedParse() throws Exception {
+        BeanInfo info = new BeanInfo(Pojo.class, new DefaultMethodInvocationStrategy());
+        info.introspect();
+
+        MethodInvocation invocation = info.createInvocation(new Pojo(), createExchange());
+        Object[] arguments = invocation.getArguments();
+        assertEquals(5, arguments.length);
+        assertEquals("42", arguments[0]);
+        assertEquals("acme", arguments[1]);
+        assertEquals("high", arguments[2]);
+        assertEquals("EUR", arguments[3]);
+        assertTrue(Integer.parseInt((String) arguments[4]) > 1000);
+    }
+
+    public void testContentParsedOncePerInvocation() throws Exception {
+        BeanInfo info = new BeanInfo(Pojo.class, new DefaultMethodInvocationStrategy());
+        info.introspect();
+        AtomicInteger parses = new AtomicInteger();
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            MessageExchange exchange = createExchange();
+            exchange.getMessage("in").setContent(new CountingSource(payload, parses));
+            info.createInvocation(new Pojo(), exchange);
+            assertEquals(i + 1, parses.get());
+        }
+    }
+
+    public void testSharedParseComparedToIndependentExpressions() throws Exception {
+        assertTrue(payload.length() >= PAYLOAD_SIZE);
+        BeanInfo info = new BeanInfo(Pojo.class, new DefaultMethodInvocationStrategy());
+        info.introspect();
+        JAXPStringXPathExpression[] independent = new JAXPStringXPathExpression[XPATHS.length];
+        for (int i = 0; i < XPATHS.length; i++) {
+            independent[i] = new JAXPStringXPathExpression(XPATHS[i]);
+            DefaultNamespaceContext ctx = new DefaultNamespaceContext();
+            ctx.add("t", "urn:test");
+            independent[i].setNamespaceContext(ctx);
+        }
+        AtomicInteger sharedParses = new AtomicInteger();
+        AtomicInteger independentParses = new AtomicInteger();
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            MessageExchange exchange = createExchange();
+            exchange.getMessage("in").setContent(new CountingSource(payload, sharedParses));
+            Object[] shared = info.createInvocation(new Pojo(), exchange).getArguments();
+
+            // each expression is handed a freshly received message, as if it were evaluated on its own
+            Object[] separate = new Object[XPATHS.length];
+            for (int j = 0; j < XPATHS.length; j++) {
+                NormalizedMessage message = new MessageUtil.NormalizedMessageImpl();
+                message.setContent(new CountingSource(payload, independentParses));
+                separate[j] = independent[j].evaluate(exchange, message);
+            }
+
+            assertEquals(Arrays.asList(separate), Arrays.asList(shared));
+        }
+
+        assertEquals(ITERATIONS, sharedParses.get());
+        assertEquals(ITERATIONS * XPATHS.length, independentParses.get());
+    }
+
+    public void testVariables() throws Exception {
+        BeanInfo info = new BeanInfo(VariablePojo.class, new DefaultMethodInvocationStrategy());
+        info.introspect();
+
+        MessageExchange exchange = createExchange();
+        exchange.setOperation(new QName("lookup"));
+        exchange.getMessage("in").setProperty("field", "customer");
+        exchange.setProperty("expected", "42");
+
+        Object[] arguments = info.createInvocation(new VariablePojo(), exchange).getArguments();
+        assertEquals("acme", arguments[0]);
+        assertEquals("true", arguments[1]);
+    }
+
+    public void testConcurrentInvocations() throws Exception {
+        final BeanInfo info = new BeanInfo(Pojo.class, new DefaultMethodInvocationStrategy());
+        info.introspect();
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Object[]>> results = new ArrayList<Future<Object[]>>();
+            for (int i = 0; i < THREADS * ITERATIONS; i++) {
+                results.add(executor.submit(new Callable<Object[]>() {
+                    public Object[] call() throws Exception {
+                        return info.createInvocation(new Pojo(), createExchange()).getArguments();
+                    }
+                }));
+            }
+            for (Future<Object[]> result : results) {
+                Object[] arguments = result.get();
+                assertEquals("42", arguments[0]);
+                assertEquals("acme", arguments[1]);
+                assertEquals("high", arguments[2]);
+                assertEquals("EUR", arguments[3]);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private MessageExchange createExchange() throws Exception {
+        MessageExchange exchange = new MockMessageExchange();
+        exchange.setOperation(new QName("process"));
+        MessageUtil.NormalizedMessageImpl message = new MessageUtil.NormalizedMessageImpl();
+        message.setContent(new StringSource(payload));
+        exchange.setMessage(message, "in");
+        return exchange;
+    }
+
+    /**
+     * A message content counting how many times it is read.  Unlike a plain
+     * {@link StreamSource}, it can be read any number of times.
+     */
+    private static final class CountingSource extends StreamSource {
+
+        private final byte[] data;
+        private final AtomicInteger reads;
+
+        private CountingSource(String content, AtomicInteger reads) throws Exception {
+            this.data = content.getBytes("UTF-8");
+            this.reads = reads;
+        }
+
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(data) {
+                private boolean read;
+
+                public synchronized int read() {
+                    count();
+                    return super.read();
+                }
+
+                public synchronized int read(byte[] b, int off, int len) {
+                    count();
+                    return super.read(b, off, len);
+                }
+
+                private void count() {
+                    if (!read) {
+                        read = true;
+                        reads.incrementAndGet();
+                    }
+                }
+            };
+        }
+
+        public Reader getReader() {
+            return null;
+        }
+    }
+
+    public static final class Pojo {
+        public void process(@XPath(prefix = "t", uri = "urn:test", xpath = "/t:order/t:id") String id,
+                            @XPath(prefix = "t", uri = "urn:test", xpath = "/t:order/t:customer") String customer,
+                            @XPath(prefix = "t", uri = "urn:test", xpath = "/t:order/t:priority") String priority,
+                            @XPath(prefix = "t", uri = "urn:test", xpath = "/t:order/t:currency") String currency,
+                            @XPath(prefix = "t", uri = "urn:test", xpath = "count(/t:order/t:line)") String lines) {
+            // only used for introspection
+        }
+    }
+
+    public static final class VariablePojo {
+        public void lookup(@XPath(prefix = "t", uri = "urn:test",
+                                  xpath = "/t:order/*[local-name() = $field]") String value,
+                           @XPath(prefix = "t", uri = "urn:test",
+                                  xpath = "/t:order/t:id = $expected") String matches) {
+            // only used for introspection
+        }
+    }
+}
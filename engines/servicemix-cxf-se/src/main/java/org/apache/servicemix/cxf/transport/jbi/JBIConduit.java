@@ -41,6 +41,7 @@ public class JBIConduit extends AbstractConduit {
 
     private DeliveryChannel channel;
     private Bus bus;
+    private JBITransportFactory transportFactory;
            
     public JBIConduit(EndpointReferenceType target, DeliveryChannel dc) {           
         this(null, target, dc);
@@ -55,6 +56,25 @@ public class JBIConduit extends AbstractConduit {
     public Bus getBus() {
         return bus;
     }
+
+    /**
+     * Sets the transport factory this conduit has been created by
+     */
+    public void setTransportFactory(JBITransportFactory transportFactory) {
+        this.transportFactory = transportFactory;
+    }
+
+    public JBITransportFactory getTransportFactory() {
+        return transportFactory;
+    }
+
+    /**
+     * Returns the key of the endpoint the responses to asynchronous invocations
+     * are routed to, or <code>null</code> if they must be waited for with sendSync
+     */
+    public String getAsyncResponseEndpoint() {
+        return transportFactory != null ? transportFactory.getAsyncResponseEndpoint() : null;
+    }
     
     protected Logger getLogger() {
         return LOG;
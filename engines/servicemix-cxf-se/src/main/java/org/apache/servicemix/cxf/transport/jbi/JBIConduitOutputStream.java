@@ -25,13 +25,15 @@ import java.io.Serializable;
 import java.lang.reflect.Member;
 import java.lang.reflect.Method;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.jbi.messaging.DeliveryChannel;
 import javax.jbi.messaging.ExchangeStatus;
-import javax.jbi.messaging.InOut;
 import javax.jbi.messaging.MessageExchange;
 import javax.jbi.messaging.MessageExchangeFactory;
 import javax.jbi.messaging.NormalizedMessage;
@@ -42,6 +44,7 @@ import javax.xml.transform.stream.StreamSource;
 
 import org.apache.cxf.Bus;
 import org.apache.cxf.common.logging.LogUtils;
+import org.apache.cxf.endpoint.ClientCallback;
 import org.apache.cxf.helpers.CastUtils;
 import org.apache.cxf.io.CachedOutputStream;
 import org.apache.cxf.message.Exchange;
@@ -50,11 +53,18 @@ import org.apache.cxf.message.MessageImpl;
 import org.apache.cxf.service.model.BindingOperationInfo;
 import org.apache.cxf.ws.addressing.EndpointReferenceType;
 import org.apache.cxf.wsdl.EndpointReferenceUtils;
+import org.apache.servicemix.common.JbiConstants;
 
 public class JBIConduitOutputStream extends CachedOutputStream {
 
     private static final Logger LOG = LogUtils.getL7dLogger(JBIConduitOutputStream.class);
 
+    /**
+     * The interface name derived from the @WebService annotation of each service class
+     */
+    private static final Map<Class<?>, QName> INTERFACE_NAMES =
+        Collections.synchronizedMap(new WeakHashMap<Class<?>, QName>());
+
     private Message message;
     private boolean isOneWay;
     private DeliveryChannel channel;
@@ -91,11 +101,11 @@ public class JBIConduitOutputStream extends CachedOutputStream {
             Exchange exchange = message.getExchange();
             BindingOperationInfo bop = exchange.get(BindingOperationInfo.class);
 
-            LOG.info(new org.apache.cxf.common.i18n.Message("INVOKE.SERVICE", LOG).toString() + clz);
+            if (LOG.isLoggable(Level.FINE)) {
+                LOG.fine(new org.apache.cxf.common.i18n.Message("INVOKE.SERVICE", LOG).toString() + clz);
+            }
 
-            WebService ws = clz.getAnnotation(WebService.class);
-            assert ws != null;
-            QName interfaceName = new QName(ws.targetNamespace(), ws.name());
+            QName interfaceName = getInterfaceName(clz);
             QName serviceName = null;
             if (target != null) {
                 serviceName = EndpointReferenceUtils.getServiceName(target,
@@ -105,8 +115,10 @@ public class JBIConduitOutputStream extends CachedOutputStream {
             }
           
             MessageExchangeFactory factory = channel.createExchangeFactoryForService(serviceName);
-            LOG.info(new org.apache.cxf.common.i18n.Message("CREATE.MESSAGE.EXCHANGE", LOG).toString()
-                     + serviceName);
+            if (LOG.isLoggable(Level.FINE)) {
+                LOG.fine(new org.apache.cxf.common.i18n.Message("CREATE.MESSAGE.EXCHANGE", LOG).toString()
+                         + serviceName);
+            }
             MessageExchange xchng = null;
             if (isOneWay) {
                 xchng = factory.createInOnlyExchange();
@@ -117,14 +129,9 @@ public class JBIConduitOutputStream extends CachedOutputStream {
             }
 
             NormalizedMessage inMsg = xchng.createMessage();
-            LOG.info(new org.apache.cxf.common.i18n.Message("EXCHANGE.ENDPOINT", LOG).toString()
-                     + xchng.getEndpoint());
             if (inMsg != null) {
-                LOG.info("setup message contents on " + inMsg);
                 inMsg.setContent(getMessageContent(message));
                 xchng.setService(serviceName);
-                LOG.info("service for exchange " + serviceName);
-
                 xchng.setInterfaceName(interfaceName);
 
                 xchng.setOperation(bop.getName());
@@ -147,51 +154,34 @@ public class JBIConduitOutputStream extends CachedOutputStream {
                     }
                 }
                 xchng.setMessage(inMsg, "in");
-                LOG.info("sending message");
-                if (!isOneWay) {
-                    channel.sendSync(xchng);
-                    NormalizedMessage outMsg = ((InOut)xchng).getOutMessage();
-                    Source content = null;
-                    Set normalizedMessageProps = null;
-                    if (outMsg != null) {
-                        content = outMsg.getContent();
-                        normalizedMessageProps = outMsg.getPropertyNames();
-                    } else {
-                        if (((InOut)xchng).getFault() == null) {
-                            throw xchng.getError();
-                        }
-                        content = ((InOut)xchng).getFault().getContent();
-                        normalizedMessageProps = ((InOut)xchng).getFault().getPropertyNames();
-                    }
-                    Message inMessage = new MessageImpl();
-                    message.getExchange().setInMessage(inMessage);
-                    InputStream ins = JBIMessageHelper.convertMessageToInputStream(content);
-                    if (ins == null) {
-                        throw new IOException(new org.apache.cxf.common.i18n.Message(
-                            "UNABLE.RETRIEVE.MESSAGE", LOG).toString());
-                    }
-                    inMessage.setContent(InputStream.class, ins);
-                    inMessage.put(MessageExchange.class, xchng);
-                    
-                    
-                    if (normalizedMessageProps != null) {
-                  
-                        for (Object name : normalizedMessageProps) {
-                            inMessage.put((String) name, outMsg
-                                    .getProperty((String) name));
-
-                        }
+                if (LOG.isLoggable(Level.FINE)) {
+                    LOG.fine("sending exchange " + xchng.getExchangeId() + " to service " + serviceName);
+                }
+                JBITransportFactory transportFactory = conduit.getTransportFactory();
+                String responseEndpoint = conduit.getAsyncResponseEndpoint();
+                if (isOneWay) {
+                    channel.send(xchng);
+                } else if (!exchange.isSynchronous() && bop.getOutput() != null && responseEndpoint != null) {
+                    // the client uses the asynchronous API: do not block this thread,
+                    // the response will be routed to the given endpoint and correlated
+                    // back by its exchange id
+                    xchng.setProperty(JbiConstants.SENDER_ENDPOINT, responseEndpoint);
+                    transportFactory.addPendingExchange(xchng.getExchangeId(), this, responseEndpoint);
+                    try {
+                        channel.send(xchng);
+                    } catch (Exception e) {
+                        transportFactory.removePendingExchange(xchng.getExchangeId());
+                        throw e;
                     }
-                    conduit.getMessageObserver().onMessage(inMessage);
-
-                    xchng.setStatus(ExchangeStatus.DONE);
-                    channel.send(xchng);                    
                 } else {
-                    channel.send(xchng);
+                    // nothing would route the response back to this conduit,
+                    // for instance with proxies using another component's channel
+                    channel.sendSync(xchng);
+                    handleResponse(xchng);
                 }
 
             } else {
-                LOG.info(new org.apache.cxf.common.i18n.Message("NO.MESSAGE", LOG).toString());
+                LOG.fine(new org.apache.cxf.common.i18n.Message("NO.MESSAGE", LOG).toString());
             }
 
             
@@ -203,6 +193,70 @@ public class JBIConduitOutputStream extends CachedOutputStream {
         }
     }
 
+    void handleAsyncResponse(MessageExchange xchng) {
+        try {
+            handleResponse(xchng);
+        } catch (Exception e) {
+            LOG.log(Level.FINE, "error processing response of exchange " + xchng.getExchangeId(), e);
+            handleAsyncFailure(e);
+        }
+    }
+
+    /**
+     * Fails an asynchronous invocation which will not receive its response
+     */
+    void handleAsyncFailure(Exception e) {
+        ClientCallback callback = message.getExchange().get(ClientCallback.class);
+        if (callback != null) {
+            callback.handleException(null, e);
+        }
+    }
+
+    private void handleResponse(MessageExchange xchng) throws Exception {
+        if (xchng.getStatus() == ExchangeStatus.DONE) {
+            return;
+        }
+        NormalizedMessage outMsg = xchng.getMessage("out");
+        if (outMsg == null) {
+            outMsg = xchng.getFault();
+            if (outMsg == null) {
+                throw xchng.getError();
+            }
+        }
+        Source content = outMsg.getContent();
+        Set normalizedMessageProps = outMsg.getPropertyNames();
+        Message inMessage = new MessageImpl();
+        message.getExchange().setInMessage(inMessage);
+        InputStream ins = JBIMessageHelper.convertMessageToInputStream(content);
+        if (ins == null) {
+            throw new IOException(new org.apache.cxf.common.i18n.Message(
+                "UNABLE.RETRIEVE.MESSAGE", LOG).toString());
+        }
+        inMessage.setContent(InputStream.class, ins);
+        inMessage.put(MessageExchange.class, xchng);
+
+        if (normalizedMessageProps != null) {
+            for (Object name : normalizedMessageProps) {
+                inMessage.put((String) name, outMsg.getProperty((String) name));
+            }
+        }
+        conduit.getMessageObserver().onMessage(inMessage);
+
+        xchng.setStatus(ExchangeStatus.DONE);
+        channel.send(xchng);
+    }
+
+    private static QName getInterfaceName(Class<?> clz) {
+        QName interfaceName = INTERFACE_NAMES.get(clz);
+        if (interfaceName == null) {
+            WebService ws = clz.getAnnotation(WebService.class);
+            assert ws != null;
+            interfaceName = new QName(ws.targetNamespace(), ws.name());
+            INTERFACE_NAMES.put(clz, interfaceName);
+        }
+        return interfaceName;
+    }
+
     private Source getMessageContent(Message message2) throws IOException {
         return new StreamSource(this.getInputStream());
         
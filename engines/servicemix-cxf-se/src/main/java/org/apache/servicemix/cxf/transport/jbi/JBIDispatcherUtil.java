@@ -22,6 +22,7 @@ package org.apache.servicemix.cxf.transport.jbi;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -40,7 +41,8 @@ public final class JBIDispatcherUtil {
     private static JBIDispatcherUtil dispatchUtil;
     private final DeliveryChannel channel;
     private ConduitInitiator conduitInitiator;
-    private int activeEndpoints;
+    private volatile Executor executor;
+    private volatile int activeEndpoints;
     private boolean running;
     
     private JBIDispatcherUtil(ConduitInitiator ci,
@@ -63,7 +65,7 @@ public final class JBIDispatcherUtil {
         dispatchUtil = null;
     }
     
-    public void activateDispatch() {
+    public synchronized void activateDispatch() {
         activeEndpoints++;
         if (!running && channel != null) {
             new Thread(new JBIDispatcher()).start();
@@ -74,9 +76,22 @@ public final class JBIDispatcherUtil {
         
     }
     
-    public void deactivateDispatch() {
+    public synchronized void deactivateDispatch() {
         activeEndpoints--;
     }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the executor accepted exchanges are handed to, so that the
+     * accepting thread never processes an exchange itself.  When no
+     * executor is set, exchanges are dispatched on the accepting thread.
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
     
     protected Logger getLogger() {
         return LOG;
@@ -94,24 +109,20 @@ public final class JBIDispatcherUtil {
                     "RECEIVE.THREAD.START", getLogger()).toString());
                 do {
                     MessageExchange exchange = null;
-                    synchronized (channel) {
-                        try {
-                            exchange = channel.accept();
-                        } catch (Exception e) {
-                            // ignore
-                        }
+                    try {
+                        exchange = channel.accept();
+                    } catch (Exception e) {
+                        // ignore
                     }
 
-                    if (exchange != null 
-                        && exchange.getStatus() == ExchangeStatus.ACTIVE) {
-                        
-                        try {
-                            getLogger().fine(new org.apache.cxf.common.i18n.Message(
-                                    "DISPATCH.TO.SU", getLogger()).toString());
-                            dispatch(exchange);
-                            
-                        } finally {
-                            //
+                    if (exchange != null) {
+                        getLogger().fine(new org.apache.cxf.common.i18n.Message(
+                                "DISPATCH.TO.SU", getLogger()).toString());
+                        Executor exec = executor;
+                        if (exec != null) {
+                            exec.execute(new DispatchTask(exchange));
+                        } else {
+                            new DispatchTask(exchange).run();
                         }
                     }
                 } while(activeEndpoints > 0);
@@ -127,6 +138,29 @@ public final class JBIDispatcherUtil {
         }
     }
     
+    private class DispatchTask implements Runnable {
+
+        private final MessageExchange exchange;
+
+        DispatchTask(MessageExchange exchange) {
+            this.exchange = exchange;
+        }
+
+        public void run() {
+            try {
+                if (exchange.getRole() == MessageExchange.Role.CONSUMER) {
+                    // response to an asynchronous invocation sent by a JBIConduit
+                    ((JBITransportFactory) conduitInitiator).processResponse(exchange);
+                } else if (exchange.getStatus() == ExchangeStatus.ACTIVE) {
+                    dispatch(exchange);
+                }
+            } catch (Exception ex) {
+                getLogger().log(Level.SEVERE, new org.apache.cxf.common.i18n.Message(
+                    "ERROR.DISPATCH.THREAD", getLogger()).toString(), ex);
+            }
+        }
+    }
+
     public void dispatch(MessageExchange exchange) throws IOException {
         
         QName opName = exchange.getOperation(); 
@@ -150,13 +184,11 @@ public final class JBIDispatcherUtil {
             inMessage.setContent(InputStream.class, in);
                                            
             //dispatch to correct destination in case of multiple endpoint
-            inMessage.setDestination(((JBITransportFactory)conduitInitiator).
-                                     getDestination(exchange.getService().toString()
-                                     + exchange.getInterfaceName().toString()));
-            ((JBITransportFactory)conduitInitiator).
-            getDestination(exchange.getService().toString()
-                           + exchange.getInterfaceName().toString()).
-                getMessageObserver().onMessage(inMessage);
+            JBIDestination destination = ((JBITransportFactory)conduitInitiator).
+                getDestination(exchange.getService().toString()
+                               + exchange.getInterfaceName().toString());
+            inMessage.setDestination(destination);
+            destination.getMessageObserver().onMessage(inMessage);
             
         } catch (Exception ex) {
             getLogger().log(Level.SEVERE, new org.apache.cxf.common.i18n.Message(
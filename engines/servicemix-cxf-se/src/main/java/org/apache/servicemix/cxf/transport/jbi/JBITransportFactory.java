@@ -26,12 +26,19 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import javax.jbi.JBIException;
 import javax.jbi.messaging.DeliveryChannel;
+import javax.jbi.messaging.MessageExchange;
 
 import org.apache.cxf.Bus;
 import org.apache.cxf.common.logging.LogUtils;
@@ -54,13 +61,27 @@ public class JBITransportFactory extends AbstractTransportFactory implements Con
         = Arrays.asList(TRANSPORT_ID,
                         "http://cxf.apache.org/transports/jbi/configuration");
 
+    /**
+     * The default time to wait for the response of an asynchronous invocation, in milliseconds
+     */
+    public static final long DEFAULT_ASYNC_RESPONSE_TIMEOUT = 60000;
+
     private static final Logger LOG = LogUtils.getL7dLogger(JBITransportFactory.class);
 
 
     private DeliveryChannel deliveryChannel;
+    private volatile String asyncResponseEndpoint;
     private Bus bus;
     private final Map<String, JBIDestination> destinationMap =  new HashMap<String, JBIDestination>();
 
+    /**
+     * Asynchronous invocations waiting for their response, keyed by JBI exchange id
+     */
+    private final ConcurrentMap<String, PendingExchange> pendingExchanges =
+        new ConcurrentHashMap<String, PendingExchange>();
+    private volatile long asyncResponseTimeout = DEFAULT_ASYNC_RESPONSE_TIMEOUT;
+    private Timer timeoutTimer;
+
 
     private Collection<String> activationNamespaces = DEFAULT_NAMESPACES;
     
@@ -119,12 +140,121 @@ public class JBITransportFactory extends AbstractTransportFactory implements Con
         deliveryChannel = newDeliverychannel;
     }
 
+    public String getAsyncResponseEndpoint() {
+        return asyncResponseEndpoint;
+    }
+
+    /**
+     * Sets the key of the endpoint which receives the responses of the exchanges
+     * sent on the delivery channel and hands them to {@link #processResponse(MessageExchange)}.
+     * Asynchronous client invocations are only sent without blocking when it is set.
+     */
+    public void setAsyncResponseEndpoint(String asyncResponseEndpoint) {
+        this.asyncResponseEndpoint = asyncResponseEndpoint;
+    }
+
+    public long getAsyncResponseTimeout() {
+        return asyncResponseTimeout;
+    }
+
+    /**
+     * Sets the time to wait for the response of an asynchronous invocation, in milliseconds.
+     * When it elapses, the invocation is failed with a {@link TimeoutException} and a late
+     * response is ignored.  A value of 0 or less waits forever.
+     */
+    public void setAsyncResponseTimeout(long asyncResponseTimeout) {
+        this.asyncResponseTimeout = asyncResponseTimeout;
+    }
+
+    /**
+     * Registers an asynchronous invocation whose response will be routed to the given endpoint.
+     *
+     * @param exchangeId the id of the exchange sent
+     * @param out the stream which sent the exchange and handles its response
+     * @param responseEndpoint the key of the endpoint the response is routed to
+     */
+    void addPendingExchange(String exchangeId, JBIConduitOutputStream out, String responseEndpoint) {
+        PendingExchange pending = new PendingExchange(exchangeId, out, responseEndpoint);
+        pendingExchanges.put(exchangeId, pending);
+        long timeout = asyncResponseTimeout;
+        if (timeout > 0) {
+            synchronized (this) {
+                if (timeoutTimer == null) {
+                    timeoutTimer = new Timer("JBI async response timeout", true);
+                }
+                try {
+                    timeoutTimer.schedule(pending, timeout);
+                } catch (IllegalStateException e) {
+                    // the invocation has already been failed
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets an asynchronous invocation which could not be sent.
+     */
+    void removePendingExchange(String exchangeId) {
+        PendingExchange pending = pendingExchanges.remove(exchangeId);
+        if (pending != null) {
+            pending.cancel();
+        }
+    }
+
+    /**
+     * Completes an asynchronous invocation previously sent by a conduit of this factory.
+     *
+     * @param exchange the exchange received in the consumer role
+     * @return <code>true</code> if the exchange belonged to a pending asynchronous invocation
+     */
+    public boolean processResponse(MessageExchange exchange) {
+        PendingExchange pending = pendingExchanges.remove(exchange.getExchangeId());
+        if (pending == null) {
+            LOG.fine("no pending invocation for exchange " + exchange.getExchangeId());
+            return false;
+        }
+        pending.cancel();
+        pending.out.handleAsyncResponse(exchange);
+        return true;
+    }
+
+    /**
+     * Fails the asynchronous invocations whose response would be routed to the given endpoint,
+     * typically because it is being stopped.
+     *
+     * @param responseEndpoint the key of the endpoint
+     * @param cause the exception to hand to the client callbacks
+     */
+    public void failPendingExchanges(String responseEndpoint, Exception cause) {
+        for (PendingExchange pending : pendingExchanges.values()) {
+            if (pending.responseEndpoint.equals(responseEndpoint)
+                && pendingExchanges.remove(pending.exchangeId, pending)) {
+                pending.cancel();
+                pending.out.handleAsyncFailure(cause);
+            }
+        }
+        synchronized (this) {
+            if (timeoutTimer != null && pendingExchanges.isEmpty()) {
+                timeoutTimer.cancel();
+                timeoutTimer = null;
+            }
+        }
+    }
+
+    /**
+     * @return the number of asynchronous invocations waiting for their response
+     */
+    public int getPendingExchangeCount() {
+        return pendingExchanges.size();
+    }
+
     public Conduit getConduit(EndpointInfo targetInfo) throws IOException {
         return getConduit(targetInfo, null);
     }
 
     public Conduit getConduit(EndpointInfo endpointInfo, EndpointReferenceType target) throws IOException {
-        Conduit conduit = new JBIConduit(target, getDeliveryChannel());
+        JBIConduit conduit = new JBIConduit(target, getDeliveryChannel());
+        conduit.setTransportFactory(this);
         Configurer configurer = bus.getExtension(Configurer.class);
         if (null != configurer) {
             configurer.configureBean(conduit);
@@ -166,4 +296,28 @@ public class JBITransportFactory extends AbstractTransportFactory implements Con
         destinationMap.remove(epName);
     }
 
+    /**
+     * An asynchronous invocation waiting for its response, failed when the timeout elapses
+     */
+    private class PendingExchange extends TimerTask {
+
+        private final String exchangeId;
+        private final JBIConduitOutputStream out;
+        private final String responseEndpoint;
+
+        PendingExchange(String exchangeId, JBIConduitOutputStream out, String responseEndpoint) {
+            this.exchangeId = exchangeId;
+            this.out = out;
+            this.responseEndpoint = responseEndpoint;
+        }
+
+        public void run() {
+            if (pendingExchanges.remove(exchangeId, this)) {
+                LOG.log(Level.FINE, "no response received for exchange " + exchangeId);
+                out.handleAsyncFailure(new TimeoutException("No response received for exchange "
+                    + exchangeId + " within " + asyncResponseTimeout + " ms"));
+            }
+        }
+    }
+
 }
@@ -24,9 +24,11 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import javax.jbi.JBIException;
 import javax.jbi.component.ComponentContext;
 import javax.jbi.management.DeploymentException;
 import javax.jbi.messaging.DeliveryChannel;
@@ -466,6 +468,11 @@ public class CxfSeEndpoint extends ProviderEndpoint implements InterceptorProvid
      */
     @Override
     public void process(MessageExchange exchange) throws Exception {
+        if (exchange.getRole() == MessageExchange.Role.CONSUMER) {
+            // response to an asynchronous invocation made by a client proxy
+            getJBITransportFactory().processResponse(exchange);
+            return;
+        }
         if (exchange.getStatus() != ExchangeStatus.ACTIVE) {
             return;
         }
@@ -535,6 +542,22 @@ public class CxfSeEndpoint extends ProviderEndpoint implements InterceptorProvid
     @Override
     public void start() throws Exception {
         super.start();
+
+        // hand exchanges accepted by the JBI transport to the component threads
+        final org.apache.servicemix.executors.Executor executor =
+            getServiceUnit().getComponent().getExecutor(MessageExchange.Role.PROVIDER);
+        JBITransportFactory jbiTransportFactory = (JBITransportFactory)getBus()
+            .getExtension(ConduitInitiatorManager.class).getConduitInitiator(CxfSeComponent.JBI_TRANSPORT_ID);
+        JBIDispatcherUtil.getInstance(jbiTransportFactory, getContext().getDeliveryChannel())
+            .setExecutor(new Executor() {
+                public void execute(Runnable command) {
+                    executor.execute(command);
+                }
+            });
+        // responses to asynchronous invocations made on the component bus come back
+        // to the component channel and are completed by process()
+        jbiTransportFactory.setDeliveryChannel(getContext().getDeliveryChannel());
+        jbiTransportFactory.setAsyncResponseEndpoint(getKey());
         
         if (isUseAegis()) {
             // if aegis databinding is used, start the server
@@ -574,6 +597,13 @@ public class CxfSeEndpoint extends ProviderEndpoint implements InterceptorProvid
         JBITransportFactory jbiTransportFactory = (JBITransportFactory)getBus()
             .getExtension(ConduitInitiatorManager.class).getConduitInitiator(CxfSeComponent.JBI_TRANSPORT_ID);
         jbiTransportFactory.setDeliveryChannel(null);
+        if (getKey().equals(jbiTransportFactory.getAsyncResponseEndpoint())) {
+            // other endpoints fall back to blocking invocations until one is started again
+            jbiTransportFactory.setAsyncResponseEndpoint(null);
+        }
+        // the responses routed to this endpoint would never be received
+        jbiTransportFactory.failPendingExchanges(getKey(),
+            new JBIException("Endpoint " + getKey() + " stopped before the response was received"));
         jbiTransportFactory.removeDestination(getPojoService().toString() + getPojoInterfaceName().toString());
         super.stop();
     }
@@ -581,6 +611,11 @@ public class CxfSeEndpoint extends ProviderEndpoint implements InterceptorProvid
     protected Bus getBus() {
         return ((CxfSeComponent)getServiceUnit().getComponent()).getBus();
     }
+
+    private JBITransportFactory getJBITransportFactory() throws BusException {
+        return (JBITransportFactory)getBus()
+            .getExtension(ConduitInitiatorManager.class).getConduitInitiator(CxfSeComponent.JBI_TRANSPORT_ID);
+    }
     
     private void cleanUpDeadDestination() throws DeploymentException {
         JBITransportFactory jbiTransportFactory;
@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.cxf.transport.jbi;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.jbi.messaging.DeliveryChannel;
+import javax.jbi.messaging.MessageExchange;
+
+import junit.framework.TestCase;
+
+/**
+ * Test cases for the dispatch of accepted exchanges on the executor of {@link JBIDispatcherUtil}
+ */
+public class JBIDispatcherUtilTest extends TestCase {
+
+    private BlockingQueue<MessageExchange> accepted;
+    private ExecutorService executor;
+    private Thread executorThread;
+    private JBITransportFactory transportFactory;
+    private JBIDispatcherUtil dispatcher;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        JBIDispatcherUtil.clean();
+        accepted = new LinkedBlockingQueue<MessageExchange>();
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                executorThread = new Thread(r, "dispatch");
+                return executorThread;
+            }
+        });
+        transportFactory = new JBITransportFactory();
+        dispatcher = JBIDispatcherUtil.getInstance(transportFactory, createChannel());
+    }
+
+    protected void tearDown() throws Exception {
+        dispatcher.deactivateDispatch();
+        JBIDispatcherUtil.clean();
+        executor.shutdownNow();
+        super.tearDown();
+    }
+
+    public void testDispatchOnExecutor() throws Exception {
+        final List<Runnable> tasks = Collections.synchronizedList(new ArrayList<Runnable>());
+        dispatcher.setExecutor(new Executor() {
+            public void execute(Runnable command) {
+                tasks.add(command);
+                executor.execute(command);
+            }
+        });
+        dispatcher.activateDispatch();
+
+        List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+        CountDownLatch latch = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            accepted.put(createResponse("unknown-" + i, threads, latch));
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+        // the accepting thread only hands the exchanges over
+        assertEquals(3, tasks.size());
+        for (Thread thread : threads) {
+            assertSame(executorThread, thread);
+        }
+    }
+
+    public void testDispatchWithoutExecutor() throws Exception {
+        dispatcher.activateDispatch();
+
+        List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+        CountDownLatch latch = new CountDownLatch(1);
+        accepted.put(createResponse("unknown", threads, latch));
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+        assertNotSame(Thread.currentThread(), threads.get(0));
+        assertNotSame(executorThread, threads.get(0));
+    }
+
+    public void testUnknownResponse() throws Exception {
+        List<Thread> threads = new ArrayList<Thread>();
+        assertFalse(transportFactory.processResponse(
+                createResponse("unknown", threads, new CountDownLatch(1))));
+    }
+
+    private DeliveryChannel createChannel() {
+        return (DeliveryChannel) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class[] {DeliveryChannel.class}, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if (method.getName().equals("accept")) {
+                        return accepted.poll(100, TimeUnit.MILLISECONDS);
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            });
+    }
+
+    /*
+     * A response to an invocation which is not pending, recording the thread it is dispatched on
+     */
+    private MessageExchange createResponse(final String id, final List<Thread> threads, final CountDownLatch latch) {
+        return (MessageExchange) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class[] {MessageExchange.class}, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if (method.getName().equals("getRole")) {
+                        threads.add(Thread.currentThread());
+                        return MessageExchange.Role.CONSUMER;
+                    } else if (method.getName().equals("getExchangeId")) {
+                        latch.countDown();
+                        return id;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            });
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.cxf.transport.jbi;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.jbi.JBIException;
+import javax.jbi.messaging.ExchangeStatus;
+import javax.jbi.messaging.MessageExchange;
+
+import junit.framework.TestCase;
+
+import org.apache.cxf.endpoint.ClientCallback;
+import org.apache.cxf.message.Exchange;
+import org.apache.cxf.message.ExchangeImpl;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.message.MessageImpl;
+
+/**
+ * Test cases for the asynchronous invocations pending in a {@link JBITransportFactory}
+ */
+public class JBITransportFactoryTest extends TestCase {
+
+    private JBITransportFactory factory;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        factory = new JBITransportFactory();
+    }
+
+    protected void tearDown() throws Exception {
+        factory.failPendingExchanges("endpoint", new JBIException("test ended"));
+        factory.failPendingExchanges("other", new JBIException("test ended"));
+        super.tearDown();
+    }
+
+    public void testResponseCompletesPendingExchange() throws Exception {
+        factory.setAsyncResponseTimeout(100);
+        RecordingCallback callback = new RecordingCallback();
+        factory.addPendingExchange("1", createStream(callback), "endpoint");
+        assertEquals(1, factory.getPendingExchangeCount());
+
+        assertTrue(factory.processResponse(createResponse("1")));
+
+        assertEquals(0, factory.getPendingExchangeCount());
+        assertFalse(factory.processResponse(createResponse("1")));
+        // the timeout has been cancelled
+        assertFalse(callback.latch.await(300, TimeUnit.MILLISECONDS));
+    }
+
+    public void testStopFailsPendingExchanges() throws Exception {
+        RecordingCallback callback = new RecordingCallback();
+        RecordingCallback otherCallback = new RecordingCallback();
+        factory.addPendingExchange("1", createStream(callback), "endpoint");
+        factory.addPendingExchange("2", createStream(otherCallback), "other");
+        JBIException cause = new JBIException("stopped");
+
+        factory.failPendingExchanges("endpoint", cause);
+
+        assertSame(cause, callback.exception);
+        assertNull(otherCallback.exception);
+        assertEquals(1, factory.getPendingExchangeCount());
+        assertFalse(factory.processResponse(createResponse("1")));
+    }
+
+    public void testTimeoutFailsStaleExchanges() throws Exception {
+        factory.setAsyncResponseTimeout(50);
+        RecordingCallback callback = new RecordingCallback();
+        factory.addPendingExchange("1", createStream(callback), "endpoint");
+
+        assertTrue(callback.latch.await(10, TimeUnit.SECONDS));
+
+        assertTrue(callback.exception instanceof TimeoutException);
+        assertEquals(0, factory.getPendingExchangeCount());
+        // a late response is ignored
+        assertFalse(factory.processResponse(createResponse("1")));
+    }
+
+    public void testNoTimeout() throws Exception {
+        factory.setAsyncResponseTimeout(0);
+        RecordingCallback callback = new RecordingCallback();
+        factory.addPendingExchange("1", createStream(callback), "endpoint");
+
+        assertFalse(callback.latch.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(1, factory.getPendingExchangeCount());
+    }
+
+    private static JBIConduitOutputStream createStream(ClientCallback callback) {
+        Exchange exchange = new ExchangeImpl();
+        exchange.put(ClientCallback.class, callback);
+        Message message = new MessageImpl();
+        message.setExchange(exchange);
+        return new JBIConduitOutputStream(message, null, null, null);
+    }
+
+    /*
+     * A response to an invocation which has already been completed by the provider
+     */
+    private MessageExchange createResponse(final String id) {
+        return (MessageExchange) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class[] {MessageExchange.class}, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if (method.getName().equals("getExchangeId")) {
+                        return id;
+                    } else if (method.getName().equals("getStatus")) {
+                        return ExchangeStatus.DONE;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            });
+    }
+
+    private static class RecordingCallback extends ClientCallback {
+
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile Throwable exception;
+
+        public void handleException(Map<String, Object> ctx, Throwable ex) {
+            exception = ex;
+            latch.countDown();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.cxfse;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.InitialContext;
+import javax.xml.namespace.QName;
+import javax.xml.ws.Response;
+
+import junit.framework.TestCase;
+
+import org.apache.cxf.jaxws.JaxWsProxyFactoryBean;
+import org.apache.hello_world_soap_http.Greeter;
+import org.apache.hello_world_soap_http.types.SayHiResponse;
+import org.apache.servicemix.cxf.binding.jbi.JBIConstants;
+import org.apache.servicemix.id.IdGenerator;
+import org.apache.servicemix.jbi.container.JBIContainer;
+
+/**
+ * Test cases for asynchronous client invocations over the JBI transport
+ */
+public class CxfSeAsyncClientTest extends TestCase {
+
+    private static final QName SERVICE = new QName("http://apache.org/hello_world_soap_http", "SOAPService");
+
+    private JBIContainer container;
+    private CxfSeComponent component;
+
+    protected void setUp() throws Exception {
+        container = new JBIContainer();
+        container.setUseMBeanServer(false);
+        container.setCreateMBeanServer(false);
+        container.setMonitorInstallationDirectory(false);
+        container.setNamingContext(new InitialContext());
+        container.setEmbedded(true);
+        container.init();
+
+        component = new CxfSeComponent();
+        container.activateComponent(component, "CxfSeComponent");
+        container.start();
+
+        component.getServiceUnitManager().deploy("async", getServiceUnitPath("async"));
+        component.getServiceUnitManager().init("async", getServiceUnitPath("async"));
+        component.getServiceUnitManager().start("async");
+    }
+
+    protected void tearDown() throws Exception {
+        if (container != null) {
+            container.shutDown();
+        }
+    }
+
+    public void testAsyncInvocationOnComponentBus() throws Exception {
+        // a client on the component bus sends without blocking and
+        // gets its response back through the endpoint
+        JaxWsProxyFactoryBean cf = new JaxWsProxyFactoryBean();
+        cf.setBus(component.getBus());
+        cf.setServiceClass(Greeter.class);
+        cf.setServiceName(SERVICE);
+        cf.setAddress("jbi://" + new IdGenerator().generateSanitizedId());
+        cf.setBindingId(JBIConstants.NS_JBI_BINDING);
+        Greeter greeter = (Greeter) cf.create();
+
+        assertAsyncInvocations(greeter);
+    }
+
+    public void testAsyncInvocationOnProxy() throws Exception {
+        // a proxy uses its own channel, so its invocations block until the response comes
+        CxfSeProxyFactoryBean pfb = new CxfSeProxyFactoryBean();
+        pfb.setContainer(container);
+        pfb.setType(Greeter.class);
+        pfb.setService(SERVICE);
+        pfb.afterPropertiesSet();
+        try {
+            assertAsyncInvocations((Greeter) pfb.getObject());
+        } finally {
+            pfb.destroy();
+        }
+    }
+
+    private void assertAsyncInvocations(Greeter greeter) throws Exception {
+        List<Response<SayHiResponse>> responses = new ArrayList<Response<SayHiResponse>>();
+        for (int i = 0; i < 5; i++) {
+            responses.add(greeter.sayHiAsync());
+        }
+        for (Response<SayHiResponse> response : responses) {
+            assertEquals("Bonjour", response.get(10, TimeUnit.SECONDS).getResponseType());
+        }
+    }
+
+    protected String getServiceUnitPath(String name) {
+        URL url = getClass().getClassLoader().getResource("org/apache/servicemix/cxfse/" + name + "/xbean.xml");
+        File path = new File(url.getFile());
+        path = path.getParentFile();
+        return path.getAbsolutePath();
+    }
+
+}
@@ -19,10 +19,15 @@ package org.apache.servicemix.drools;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.jbi.JBIException;
 import javax.jbi.management.DeploymentException;
@@ -45,7 +50,9 @@ import org.apache.servicemix.common.ServiceUnit;
 import org.apache.servicemix.common.endpoints.ProviderEndpoint;
 import org.apache.servicemix.common.util.MessageUtil;
 import org.apache.servicemix.drools.model.Exchange;
+import org.drools.FactHandle;
 import org.drools.RuleBase;
+import org.drools.StatefulSession;
 import org.drools.compiler.RuleBaseLoader;
 import org.springframework.core.io.Resource;
 
@@ -66,6 +73,10 @@ public class DroolsEndpoint extends ProviderEndpoint {
     private Map<String, Object> globals;
     private List<Object> assertedObjects;
     private boolean autoReply;
+    private int sessionPoolSize;
+    private final Queue<StatefulSession> sessions = new ConcurrentLinkedQueue<StatefulSession>();
+    private final AtomicInteger pooledSessions = new AtomicInteger();
+    private volatile boolean started;
     
     @SuppressWarnings("serial")
     private ConcurrentMap<String, DroolsExecutionContext> pending = new ConcurrentHashMap<String, DroolsExecutionContext>() {
@@ -223,6 +234,68 @@ public class DroolsEndpoint extends ProviderEndpoint {
                 }
             }
         }
+        started = true;
+    }
+
+    public void stop() throws Exception {
+        started = false;
+        super.stop();
+        // dispose of the idle sessions, the ones in use are disposed when released
+        StatefulSession session = sessions.poll();
+        while (session != null) {
+            pooledSessions.decrementAndGet();
+            session.dispose();
+            session = sessions.poll();
+        }
+    }
+
+    /**
+     * Get a session to evaluate the rules on an exchange, reusing an idle session if one is available.
+     * The session must be given back using {@link #releaseSession(StatefulSession)}.
+     */
+    public StatefulSession borrowSession() {
+        StatefulSession session = sessions.poll();
+        if (session != null) {
+            pooledSessions.decrementAndGet();
+            return session;
+        }
+        return getRuleBase().newStatefulSession();
+    }
+
+    /**
+     * Give back a session obtained through {@link #borrowSession()}.  The session is emptied and kept for
+     * later exchanges if the pool is not full, otherwise it is disposed of.
+     */
+    public void releaseSession(StatefulSession session) {
+        if (sessionPoolSize > 0 && started) {
+            if (pooledSessions.incrementAndGet() <= sessionPoolSize) {
+                try {
+                    resetSession(session);
+                    sessions.offer(session);
+                    return;
+                } catch (RuntimeException e) {
+                    logger.debug("Unable to reset drools session, disposing of it", e);
+                }
+            }
+            pooledSessions.decrementAndGet();
+        }
+        session.dispose();
+    }
+
+    /*
+     * Retract all facts and cancel the pending activations so that the session can be reused.
+     * See setSessionPoolSize() for the state which is not reset.
+     */
+    private void resetSession(StatefulSession session) {
+        session.clearAgenda();
+        List<FactHandle> handles = new ArrayList<FactHandle>();
+        for (Iterator it = session.iterateFactHandles(); it.hasNext();) {
+            handles.add((FactHandle) it.next());
+        }
+        for (FactHandle handle : handles) {
+            session.retract(handle);
+        }
+        session.clearAgenda();
     }
 
     /* (non-Javadoc)
@@ -359,6 +432,26 @@ public class DroolsEndpoint extends ProviderEndpoint {
         this.defaultTargetURI = defaultTargetURI;
     }
 
+    public int getSessionPoolSize() {
+        return sessionPoolSize;
+    }
+
+    /**
+     * The maximum number of idle drools sessions kept for reuse.  Building a session can be more expensive
+     * than firing the rules for large rule bases, so sessions can be emptied and reused for later exchanges
+     * instead of being disposed of.  Defaults to <code>0</code>, creating a new session for every exchange.
+     * <p>
+     * A reused session is not equivalent to a new one: its facts are retracted and its agenda is cleared,
+     * but the agenda group having the focus, the state of the activation groups and of the
+     * <code>lock-on-active</code> rules, and the globals set by the rules of a previous exchange are kept.
+     * Only enable the pool for rule bases which do not rely on these.
+     *
+     * @param sessionPoolSize
+     */
+    public void setSessionPoolSize(int sessionPoolSize) {
+        this.sessionPoolSize = sessionPoolSize;
+    }
+
     public List<Object> getAssertedObjects() {
         return assertedObjects;
     }
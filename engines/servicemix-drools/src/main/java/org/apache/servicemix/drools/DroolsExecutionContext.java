@@ -31,6 +31,7 @@ import org.drools.event.DefaultAgendaEventListener;
  */
 public class DroolsExecutionContext extends DefaultAgendaEventListener {
     
+    private final DroolsEndpoint endpoint;
     private final StatefulSession memory;
     private final JbiHelper helper;
     private int rulesFired;
@@ -41,14 +42,15 @@ public class DroolsExecutionContext extends DefaultAgendaEventListener {
     /**
      * Start a new execution context for the specified exchange.
      * 
-     * This will create and fill {@link WorkingMemory} and register listeners on it to keep track of things.
+     * This will obtain and fill {@link WorkingMemory} and register listeners on it to keep track of things.
      * 
      * @param endpoint
      * @param exchange
      */
     public DroolsExecutionContext(DroolsEndpoint endpoint, MessageExchange exchange) {
         super();
-        this.memory = endpoint.getRuleBase().newStatefulSession();
+        this.endpoint = endpoint;
+        this.memory = endpoint.borrowSession();
         this.memory.addEventListener(this);
         this.exchange = exchange;
         this.helper = new JbiHelper(endpoint, exchange, memory);
@@ -89,7 +91,7 @@ public class DroolsExecutionContext extends DefaultAgendaEventListener {
      */
     public void stop() {
         memory.removeEventListener(this);
-        memory.dispose();
+        endpoint.releaseSession(memory);
     }
     
     /**
@@ -16,7 +16,15 @@
  */
 package org.apache.servicemix.drools;
 
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
 import javax.jbi.messaging.ExchangeStatus;
+import javax.jbi.messaging.InOnly;
 import javax.jbi.messaging.InOut;
 import javax.xml.namespace.QName;
 
@@ -29,6 +37,7 @@ import org.apache.servicemix.jbi.container.JBIContainer;
 import org.apache.servicemix.jbi.jaxp.SourceTransformer;
 import org.apache.servicemix.jbi.jaxp.StringSource;
 import org.apache.servicemix.tck.ReceiverComponent;
+import org.drools.StatefulSession;
 import org.springframework.core.io.ClassPathResource;
 
 import junit.framework.TestCase;
@@ -85,6 +94,61 @@ public class DroolsAutoReplyEndpointTest extends TestCase {
         Thread.sleep(50);
     }
 
+    public void testSessionReusedWithPoolSizeOne() throws Exception {
+        final List<StatefulSession> borrowed = new CopyOnWriteArrayList<StatefulSession>();
+        final List<Integer> factsWhenBorrowed = new CopyOnWriteArrayList<Integer>();
+        final List<Integer> factsWhenReleased = new CopyOnWriteArrayList<Integer>();
+        final Semaphore released = new Semaphore(0);
+        DroolsEndpoint endpoint = new DroolsEndpoint(drools.getServiceUnit(),
+                                                                new QName("smx", "drools"), "endpoint") {
+            public StatefulSession borrowSession() {
+                StatefulSession session = super.borrowSession();
+                borrowed.add(session);
+                factsWhenBorrowed.add(countFacts(session));
+                return session;
+            }
+            public void releaseSession(StatefulSession session) {
+                factsWhenReleased.add(countFacts(session));
+                super.releaseSession(session);
+                released.release();
+            }
+        };
+        endpoint.setRuleBaseResource(new ClassPathResource("AutoReply.drl"));
+        endpoint.setAutoReply(true);
+        endpoint.setSessionPoolSize(1);
+        endpoint.setAssertedObjects(Arrays.<Object>asList("asserted"));
+
+        drools.setEndpoints(new DroolsEndpoint[] {endpoint});
+        jbi.activateComponent(drools, "servicemix-drools");
+
+        jbi.start();
+
+        for (int i = 0; i < 2; i++) {
+            InOnly me = client.createInOnlyExchange();
+            me.setService(new QName("smx", "drools"));
+            me.setOperation(new QName("smx", "process"));
+            me.getInMessage().setContent(new StringSource("<test/>"));
+            assertTrue(client.sendSync(me, 10000));
+            assertEquals(ExchangeStatus.DONE, me.getStatus());
+            assertTrue(released.tryAcquire(10, TimeUnit.SECONDS));
+        }
+
+        assertEquals(2, borrowed.size());
+        assertSame(borrowed.get(0), borrowed.get(1));
+        // the asserted object and the exchange
+        assertEquals(Arrays.asList(2, 2), factsWhenReleased);
+        assertEquals(Arrays.asList(0, 0), factsWhenBorrowed);
+    }
+
+    private static int countFacts(StatefulSession session) {
+        int count = 0;
+        for (Iterator it = session.iterateObjects(); it.hasNext();) {
+            it.next();
+            count++;
+        }
+        return count;
+    }
+
     public void testModifyXMLWithAValue() throws Exception {
         DroolsEndpoint endpoint = new DroolsEndpoint(drools.getServiceUnit(),
                                                                 new QName("smx", "drools"), "endpoint");
@@ -79,4 +79,34 @@ public class DroolsDefaultEndpointRoutingTest extends TestCase {
 
         Thread.sleep(50);
     }
+
+    public void testRouteToDefaultServiceWithSessionPool() throws Exception {
+        DroolsEndpoint endpoint = new DroolsEndpoint(drools.getServiceUnit(), new QName("smx", "drools"), "endpoint");
+        endpoint.setRuleBaseResource(new ClassPathResource("router.drl"));
+        endpoint.setDefaultTargetService(new QName("smx", "default-service"));
+        endpoint.setSessionPoolSize(2);
+
+        drools.setEndpoints(new DroolsEndpoint[] {endpoint});
+        jbi.activateComponent(drools, "servicemix-drools");
+        
+        ReceiverComponent target = new ReceiverComponent();
+        target.setService(new QName("smx", "default-service"));
+        target.setEndpoint("endpoint");
+        
+        jbi.activateComponent(target, "target");
+
+        jbi.start();
+
+        // the same sessions are reused for the following exchanges
+        for (int i = 1; i <= 5; i++) {
+            InOnly me = client.createInOnlyExchange();
+            me.setService(new QName("smx", "drools"));
+            me.getInMessage().setContent(new StringSource("<?xml version=\"1.0\" encoding=\"UTF-8\"?><test/>"));
+            if (!client.sendSync(me, 10000)) {
+                fail("No response from drools in time...");
+            }
+            target.getMessageList().waitForMessagesToArrive(i);
+            assertEquals(i, target.getMessageList().getMessageCount());
+        }
+    }
 }
@@ -16,8 +16,14 @@
  */
 package org.apache.servicemix.eip;
 
+import java.io.IOException;
 import java.net.URL;
+import java.util.Date;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeoutException;
 
 import javax.activation.DataHandler;
 import javax.jbi.JBIException;
@@ -41,6 +47,8 @@ import org.apache.servicemix.jbi.marshaler.PojoMarshaler;
 import org.apache.servicemix.store.Store;
 import org.apache.servicemix.store.StoreFactory;
 import org.apache.servicemix.store.memory.MemoryStoreFactory;
+import org.apache.servicemix.timers.Timer;
+import org.apache.servicemix.timers.TimerListener;
 import org.apache.servicemix.timers.TimerManager;
 import org.apache.servicemix.timers.impl.TimerManagerImpl;
 import org.springframework.core.io.Resource;
@@ -76,10 +84,23 @@ public abstract class EIPEndpoint extends ProviderEndpoint {
      */
     protected TimerManager timerManager;
     
+    /**
+     * The timeout after which the pending exchanges of the correlation table are discarded
+     */
+    protected long correlationTimeout;
+    
     /**
      * The ExchangeTarget to use to get the WSDL
      */
     protected ExchangeTarget wsdlExchangeTarget;
+
+    /**
+     * The in-memory correlation table, used instead of the default store
+     * created by this endpoint
+     */
+    private final ConcurrentMap<String, PendingExchange> correlations = new ConcurrentHashMap<String, PendingExchange>();
+    private volatile boolean useCorrelationTable;
+    private volatile Timer correlationSweeper;
     
     /**
      * @return Returns the store.
@@ -149,12 +170,32 @@ public abstract class EIPEndpoint extends ProviderEndpoint {
     public void setTimerManager(TimerManager timerManager) {
         this.timerManager = timerManager;
     }
+    /**
+     * @return the correlationTimeout
+     */
+    public long getCorrelationTimeout() {
+        return correlationTimeout;
+    }
+    /**
+     * When neither a store nor a store factory is configured, the pending exchanges
+     * are kept in an in-memory correlation table instead of a store.  This timeout,
+     * in milliseconds, allows failing the exchanges which have been pending for too
+     * long with a TimeoutException.  Defaults to 0, meaning the exchanges never expire.
+     *
+     * @param correlationTimeout the correlationTimeout to set
+     */
+    public void setCorrelationTimeout(long correlationTimeout) {
+        this.correlationTimeout = correlationTimeout;
+    }
 
     public void start() throws Exception {
         super.start();
         if (store == null) {
             if (storeFactory == null) {
                 storeFactory = new MemoryStoreFactory();
+                // a configured store may be clustered, persistent or expire its
+                // entries, so only the default one is replaced by the table
+                useCorrelationTable = true;
             }
             store = storeFactory.open(getService().toString() + getEndpoint());
         }
@@ -165,15 +206,107 @@ public abstract class EIPEndpoint extends ProviderEndpoint {
             timerManager = new TimerManagerImpl();
         }
         timerManager.start();
+        if (useCorrelationTable && correlationTimeout > 0) {
+            scheduleCorrelationSweeper();
+        }
     }
     
     public void stop() throws Exception {
+        if (correlationSweeper != null) {
+            correlationSweeper.cancel();
+            correlationSweeper = null;
+        }
         if (timerManager != null) {
             timerManager.stop();
         }
         super.stop();
     }
 
+    /**
+     * Keeps a pending exchange until {@link #loadExchange(String)} is called
+     * with the same id.  The exchange is put in the in-memory correlation table,
+     * or in the store if one has been configured.
+     *
+     * @param id the correlation id
+     * @param exchange the exchange to keep
+     */
+    protected void storeExchange(String id, MessageExchange exchange) throws IOException {
+        if (useCorrelationTable) {
+            correlations.put(id, new PendingExchange(exchange));
+        } else {
+            store.store(id, exchange);
+        }
+    }
+
+    /**
+     * Retrieves and removes a pending exchange kept with {@link #storeExchange(String, MessageExchange)}.
+     *
+     * @param id the correlation id
+     * @return the exchange or <code>null</code> if none is pending for this id
+     */
+    protected MessageExchange loadExchange(String id) throws IOException {
+        if (useCorrelationTable) {
+            PendingExchange pending = correlations.remove(id);
+            return pending != null ? pending.exchange : null;
+        } else {
+            return (MessageExchange) store.load(id);
+        }
+    }
+
+    private void scheduleCorrelationSweeper() {
+        correlationSweeper = timerManager.schedule(new TimerListener() {
+            public void timerExpired(Timer timer) {
+                sweepCorrelations();
+                if (correlationSweeper == timer) {
+                    scheduleCorrelationSweeper();
+                }
+            }
+        }, new Date(System.currentTimeMillis() + correlationTimeout));
+    }
+
+    /**
+     * Removes the exchanges which have been pending for longer than the correlation timeout.
+     * The exchanges this endpoint has to answer are failed with a TimeoutException and the
+     * responses it has received are done.
+     */
+    protected void sweepCorrelations() {
+        long limit = System.currentTimeMillis() - correlationTimeout;
+        for (Map.Entry<String, PendingExchange> entry : correlations.entrySet()) {
+            PendingExchange pending = entry.getValue();
+            // the exchange may have been loaded in the meantime
+            if (pending.timestamp < limit && correlations.remove(entry.getKey(), pending)) {
+                MessageExchange exchange = pending.exchange;
+                logger.debug("Exchange {} pending for correlation id {} has timed out",
+                             exchange.getExchangeId(), entry.getKey());
+                if (exchange.getStatus() == ExchangeStatus.ACTIVE) {
+                    try {
+                        if (exchange.getRole() == Role.PROVIDER) {
+                            fail(exchange, new TimeoutException());
+                        } else {
+                            done(exchange);
+                        }
+                    } catch (MessagingException e) {
+                        logger.warn("Unable to close exchange " + exchange.getExchangeId() + " after its timeout", e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * An exchange pending in the correlation table.
+     */
+    private static final class PendingExchange {
+
+        private final MessageExchange exchange;
+        private final long timestamp;
+
+        private PendingExchange(MessageExchange exchange) {
+            this.exchange = exchange;
+            this.timestamp = System.currentTimeMillis();
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.apache.servicemix.common.ExchangeProcessor#process(javax.jbi.messaging.MessageExchange)
      */
@@ -236,7 +236,7 @@ public class AsyncBridge extends EIPEndpoint {
                 if (correlationId == null || correlationId.length() == 0) {
                     throw new IllegalArgumentException("Could not retrieve correlation id for incoming exchange");
                 }
-                store.store(correlationId + ".t0", t0);
+                storeExchange(Leg.REQUEST.key(correlationId), t0);
                 t1 = useRobustInOnly ? getExchangeFactory().createRobustInOnlyExchange()
                                      : getExchangeFactory().createInOnlyExchange();
                 target.configureTarget(t1, getContext());
@@ -250,8 +250,8 @@ public class AsyncBridge extends EIPEndpoint {
                 MessageExchange t1;
                 MessageExchange t2;
                 final String correlationId = (String) requestCorrId.evaluate(t0, t0.getMessage("in"));
-                t1 = (MessageExchange) store.load(correlationId + ".t1");
-                t2 = (MessageExchange) store.load(correlationId + ".t2");
+                t1 = loadExchange(Leg.FAULT.key(correlationId));
+                t2 = loadExchange(Leg.RESPONSE.key(correlationId));
                 if (t1 != null) {
                     done(t1);
                 }
@@ -266,10 +266,10 @@ public class AsyncBridge extends EIPEndpoint {
                 if (correlationId == null || correlationId.length() == 0) {
                     throw new IllegalArgumentException("Could not retrieve correlation id for incoming exchange");
                 }
-                t0 = (MessageExchange) store.load(correlationId + ".t0");
+                t0 = loadExchange(Leg.REQUEST.key(correlationId));
                 // The request is found and has not timed out
                 if (t0 != null) {
-                    store.store(correlationId + ".t2", t2);
+                    storeExchange(Leg.RESPONSE.key(correlationId), t2);
                     MessageUtil.transferInToOut(t2, t0);
                     send(t0);
                 } else {
@@ -287,17 +287,17 @@ public class AsyncBridge extends EIPEndpoint {
             // an error
             final String correlationId = (String) t1.getProperty(responseCorrIdProperty);
             if (t1.getStatus() == ExchangeStatus.ERROR) {
-                MessageExchange t0 = (MessageExchange) store.load(correlationId + ".t0");
+                MessageExchange t0 = loadExchange(Leg.REQUEST.key(correlationId));
                 // t1 response may come after t0, so in case this happens, we need to discard t1
                 if (t0 != null) {
                     fail(t0, t1.getError());
                 }
             // a fault ?
             } else if (exchange.getStatus() == ExchangeStatus.ACTIVE) {
-                MessageExchange t0 = (MessageExchange) store.load(correlationId + ".t0");
+                MessageExchange t0 = loadExchange(Leg.REQUEST.key(correlationId));
                 // t1 response may come after t0, so in case this happens, we need to discard t1
                 if (t0 != null) {
-                    store.store(correlationId + ".t1", t1);
+                    storeExchange(Leg.FAULT.key(correlationId), t1);
                     MessageUtil.transferFaultToFault(t1, t0);
                     send(t0);
                 }
@@ -317,7 +317,7 @@ public class AsyncBridge extends EIPEndpoint {
     
     protected void onTimeout(String correlationId) {
         try {
-            MessageExchange t0 = (MessageExchange) store.load(correlationId + ".t0");
+            MessageExchange t0 = loadExchange(Leg.REQUEST.key(correlationId));
             if (t0 != null) {
                 fail(t0, new TimeoutException());
             }
@@ -333,4 +333,27 @@ public class AsyncBridge extends EIPEndpoint {
         return null;
     }
 
+    /**
+     * The exchanges correlated by the bridge, each pending under its own key.
+     */
+    private enum Leg {
+
+        /** The In-Out received, t0 */
+        REQUEST(".t0"),
+        /** The In-Only sent, t1, when it returned a fault */
+        FAULT(".t1"),
+        /** The In-Only received as the response, t2 */
+        RESPONSE(".t2");
+
+        private final String suffix;
+
+        private Leg(String suffix) {
+            this.suffix = suffix;
+        }
+
+        private String key(String correlationId) {
+            return correlationId + suffix;
+        }
+    }
+
 }
@@ -16,6 +16,9 @@
  */
 package org.apache.servicemix.eip.patterns;
 
+import java.util.concurrent.locks.Lock;
+
+import javax.jbi.management.DeploymentException;
 import javax.jbi.messaging.ExchangeStatus;
 import javax.jbi.messaging.InOnly;
 import javax.jbi.messaging.InOut;
@@ -32,15 +35,21 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
+import org.apache.servicemix.common.JbiConstants;
 import org.apache.servicemix.common.util.MessageUtil;
 import org.apache.servicemix.eip.EIPEndpoint;
+import org.apache.servicemix.eip.support.EnvelopeSource;
 import org.apache.servicemix.eip.support.ExchangeTarget;
 import org.apache.servicemix.jbi.jaxp.SourceTransformer;
+import org.apache.servicemix.store.Store;
 
 /**
  * Implementation of the 
  * <a href="http://www.enterpriseintegrationpatterns.com/DataEnricher.html">Content-Enricher</a> 
  * Pattern. 
+ * Unless the exchange is synchronous and transacted, this component is fully asynchronous:
+ * the incoming exchange is kept in the store while the enricher target and the target
+ * are invoked, so that no thread is blocked waiting for their responses.
  *  
  * @org.apache.xbean.XBean element="content-enricher"
  */
@@ -84,6 +93,18 @@ public class ContentEnricher extends EIPEndpoint {
      */
     private boolean copyAttachments = true;
 
+    /**
+     * The correlation property used by this component
+     */
+    private String correlation;
+
+    /**
+     * Should the enriched content be built as a DOM document ?
+     */
+    private boolean useDom;
+
+    private final SourceTransformer sourceTransformer = new SourceTransformer();
+
     /**
      * returns the QName of the resulting root node
      * @return QName of the resulting root node
@@ -170,34 +191,41 @@ public class ContentEnricher extends EIPEndpoint {
         this.copyAttachments = copyAttachments;
     }
 
-    protected void processAsync(MessageExchange exchange) throws Exception {
-        throw new IllegalStateException();
+    public boolean isUseDom() {
+        return useDom;
     }
 
-    protected void processSync(MessageExchange exchange) throws Exception {
-        throw new IllegalStateException();
+    /**
+     * If this is set to <code>true</code>, the request and the enricher result are parsed and copied into
+     * a DOM document.  The default value is <code>false</code>: the enriched content is a lazy source
+     * streaming both payloads into the resulting envelope when it is read.
+     *
+     * @param useDom
+     */
+    public void setUseDom(boolean useDom) {
+        this.useDom = useDom;
+    }
+
+    /* (non-Javadoc)
+     * @see org.apache.servicemix.eip.EIPEndpoint#validate()
+     */
+    public void validate() throws DeploymentException {
+        super.validate();
+        // Create correlation property
+        correlation = "ContentEnricher.Correlation." + getService() + "." + getEndpoint();
     }
 
-    public void process(MessageExchange exchange) throws Exception {
+    /* (non-Javadoc)
+     * @see org.apache.servicemix.eip.EIPEndpoint#processSync(javax.jbi.messaging.MessageExchange)
+     */
+    protected void processSync(MessageExchange exchange) throws Exception {
 
         if (!(exchange instanceof InOnly) && !(exchange instanceof RobustInOnly)) {
             fail(exchange, new UnsupportedOperationException("Use an InOnly or RobustInOnly MEP"));
-        }
-
-        // Skip done exchanges
-        if (exchange.getStatus() == ExchangeStatus.DONE) {
-            return;
-            // Handle error exchanges
-        } else if (exchange.getStatus() == ExchangeStatus.ERROR) {
             return;
         }
 
-        InOut enricherTargetME = getExchangeFactory().createInOutExchange();
-        enricherTarget.configureTarget(enricherTargetME, getContext());
-        
-        //ensure that both this class and the enricher target can read the message content
-        MessageUtil.enableContentRereadability(exchange.getMessage("in"));
-        MessageUtil.transferInToIn(exchange, enricherTargetME);
+        InOut enricherTargetME = createEnricherExchange(exchange);
 
         sendSync(enricherTargetME);
 
@@ -205,15 +233,134 @@ public class ContentEnricher extends EIPEndpoint {
             fail(exchange, enricherTargetME.getError());
             return;
         }
+        if (enricherTargetME.getFault() != null) {
+            done(enricherTargetME);
+            fail(exchange, new MessagingException("Enricher target returned a fault"));
+            return;
+        }
 
-        Document document = combineToDOMDocument(exchange.getMessage("in"), enricherTargetME.getMessage("out"));
+        MessageExchange outExchange = createTargetExchange(exchange, enricherTargetME);
 
         done(enricherTargetME);
 
+        sendSync(outExchange);
+        done(exchange);
+    }
+
+    /* (non-Javadoc)
+     * @see org.apache.servicemix.eip.EIPEndpoint#processAsync(javax.jbi.messaging.MessageExchange)
+     */
+    protected void processAsync(MessageExchange exchange) throws Exception {
+        if (exchange.getRole() == MessageExchange.Role.PROVIDER) {
+            // Skip done and error exchanges
+            if (exchange.getStatus() != ExchangeStatus.ACTIVE) {
+                return;
+            }
+            if (!(exchange instanceof InOnly) && !(exchange instanceof RobustInOnly)) {
+                fail(exchange, new UnsupportedOperationException("Use an InOnly or RobustInOnly MEP"));
+                return;
+            }
+            InOut enricherTargetME = createEnricherExchange(exchange);
+            if (store.hasFeature(Store.CLUSTERED)) {
+                exchange.setProperty(JbiConstants.STATELESS_PROVIDER, Boolean.TRUE);
+                enricherTargetME.setProperty(JbiConstants.STATELESS_CONSUMER, Boolean.TRUE);
+            }
+            // Set correlation and put exchange to store
+            enricherTargetME.setProperty(correlation, exchange.getExchangeId());
+            storeExchange(exchange.getExchangeId(), exchange);
+            try {
+                send(enricherTargetME);
+            } catch (Exception e) {
+                // Clear the store on error
+                loadExchange(exchange.getExchangeId());
+                throw e;
+            }
+        } else {
+            String id = (String) exchange.getProperty(correlation);
+            if (id == null) {
+                throw new IllegalStateException(correlation + " property not found");
+            }
+            Lock lock = lockManager.getLock(id);
+            lock.lock();
+            boolean removeLock = true;
+            try {
+                MessageExchange org = loadExchange(id);
+                if (org == null) {
+                    throw new IllegalStateException("Could not load original exchange with id " + id);
+                }
+                if (exchange.getStatus() == ExchangeStatus.ERROR) {
+                    // Reproduce errors from the enricher target or the target
+                    fail(org, exchange.getError());
+                } else if (exchange.getStatus() == ExchangeStatus.DONE) {
+                    // The enriched exchange has been accepted by the target
+                    done(org);
+                } else if (exchange.getFault() != null) {
+                    done(exchange);
+                    fail(org, new MessagingException("Enricher target returned a fault"));
+                } else {
+                    // The enricher target answered, send the enriched exchange to the target
+                    MessageExchange outExchange = createTargetExchange(org, (InOut) exchange);
+                    done(exchange);
+                    if (store.hasFeature(Store.CLUSTERED)) {
+                        outExchange.setProperty(JbiConstants.STATELESS_CONSUMER, Boolean.TRUE);
+                    }
+                    outExchange.setProperty(correlation, id);
+                    storeExchange(id, org);
+                    removeLock = false;
+                    try {
+                        send(outExchange);
+                    } catch (Exception e) {
+                        // Clear the store on error
+                        loadExchange(id);
+                        removeLock = true;
+                        throw e;
+                    }
+                }
+            } finally {
+                try {
+                    lock.unlock();
+                } catch (Exception ex) {
+                    logger.info("Caught exception while attempting to release lock", ex);
+                }
+                if (removeLock) {
+                    lockManager.removeLock(id);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the exchange sent to the enricher target with a copy of the
+     * incoming message.
+     */
+    private InOut createEnricherExchange(MessageExchange exchange) throws Exception {
+        InOut enricherTargetME = getExchangeFactory().createInOutExchange();
+        enricherTarget.configureTarget(enricherTargetME, getContext());
+
+        //ensure that both this class and the enricher target can read the message content
+        MessageUtil.enableContentRereadability(exchange.getMessage("in"));
+        MessageUtil.transferInToIn(exchange, enricherTargetME);
+        return enricherTargetME;
+    }
+
+    /**
+     * Creates the exchange sent to the target, combining the incoming
+     * message with the response of the enricher target.
+     */
+    private MessageExchange createTargetExchange(MessageExchange exchange, InOut enricherTargetME) throws Exception {
+        Source content;
+        if (useDom) {
+            content = new DOMSource(combineToDOMDocument(exchange.getMessage("in"), enricherTargetME.getMessage("out")));
+        } else {
+            // the result is only read once the enricher exchange is done
+            MessageUtil.enableContentRereadability(enricherTargetME.getMessage("out"));
+            content = combineToSource(exchange.getMessage("in"), enricherTargetME.getMessage("out"));
+        }
+
         MessageExchange outExchange = getExchangeFactory().createInOnlyExchange();
         NormalizedMessage out = outExchange.createMessage();
         target.configureTarget(outExchange, getContext());
-        out.setContent(new DOMSource(document));
+        out.setContent(content);
 
         outExchange.setMessage(out, "in");
 
@@ -221,9 +368,7 @@ public class ContentEnricher extends EIPEndpoint {
             copyPropertiesAndAttachments(exchange.getMessage("in"), outExchange.getMessage("in"));
             copyPropertiesAndAttachments(enricherTargetME.getMessage("out"), outExchange.getMessage("in"));
         }
-        
-        sendSync(outExchange);
-        done(exchange);
+        return outExchange;
     }
 
     /**
@@ -258,7 +403,7 @@ public class ContentEnricher extends EIPEndpoint {
         Node originalDocumentNode = getDOMNode(requestMessage.getContent());
         Node targetResultNode = getDOMNode(targetResultMessage.getContent());
 
-        Document document = new SourceTransformer().createDocument();
+        Document document = sourceTransformer.createDocument();
         Element enricherElement = createChildElement(enricherElementName, document);
         Element requestElement = createChildElement(requestElementName, document);
 
@@ -277,6 +422,17 @@ public class ContentEnricher extends EIPEndpoint {
 
     }
 
+    /**
+     * Combines two NormalizedMessages to one lazy Source producing the same
+     * content as {@link #combineToDOMDocument(NormalizedMessage, NormalizedMessage)}
+     * without parsing the payloads until the source is read.
+     */
+    private Source combineToSource(NormalizedMessage requestMessage, NormalizedMessage targetResultMessage) {
+        return new EnvelopeSource(sourceTransformer, enricherElementName,
+                                  new QName[] {requestElementName, resultElementName },
+                                  new Source[] {requestMessage.getContent(), targetResultMessage.getContent() });
+    }
+
     private Element createChildElement(QName name, Document document) {
         Element elem;
         if ("".equals(name.getNamespaceURI())) {
@@ -288,7 +444,6 @@ public class ContentEnricher extends EIPEndpoint {
     }
 
     private Node getDOMNode(Source source) throws Exception {
-        SourceTransformer sourceTransformer = new SourceTransformer();
         Node node = sourceTransformer.toDOMNode(source);
         if (node.getNodeType() == Node.DOCUMENT_NODE) {
             node = ((Document) node).getDocumentElement();
@@ -16,6 +16,8 @@
  */
 package org.apache.servicemix.eip.patterns;
 
+import java.util.concurrent.locks.Lock;
+
 import javax.jbi.management.DeploymentException;
 import javax.jbi.messaging.ExchangeStatus;
 import javax.jbi.messaging.Fault;
@@ -24,10 +26,12 @@ import javax.jbi.messaging.MessageExchange;
 import javax.jbi.messaging.NormalizedMessage;
 import javax.jbi.messaging.RobustInOnly;
 
+import org.apache.servicemix.common.JbiConstants;
 import org.apache.servicemix.common.util.MessageUtil;
 import org.apache.servicemix.eip.EIPEndpoint;
 import org.apache.servicemix.eip.support.ExchangeTarget;
 import org.apache.servicemix.eip.support.Predicate;
+import org.apache.servicemix.store.Store;
 
 /**
  * MessageFilter allows filtering incoming JBI exchanges.
@@ -52,7 +56,7 @@ public class MessageFilter extends EIPEndpoint {
     /**
      * The correlation property used by this component
      */
-    //private String correlation;
+    private String correlation;
     /**
      * Indicates if faults and errors from recipients should be sent
      * back to the consumer.  In such a case, only the first fault or
@@ -130,7 +134,7 @@ public class MessageFilter extends EIPEndpoint {
             throw new IllegalArgumentException("filter property should be set");
         }
         // Create correlation property
-        //correlation = "MessageFilter.Correlation." + getService() + "." + getEndpoint();
+        correlation = "MessageFilter.Correlation." + getService() + "." + getEndpoint();
     }
 
     /* (non-Javadoc)
@@ -169,10 +173,9 @@ public class MessageFilter extends EIPEndpoint {
     protected void processAsync(MessageExchange exchange) throws Exception {
         // If we need to report errors, the behavior is really different,
         // as we need to keep the incoming exchange in the store until
-        // all acks have been received
+        // the ack has been received
         if (reportErrors) {
-            // TODO: implement this
-            throw new UnsupportedOperationException("Not implemented");
+            processAsyncReportErrors(exchange);
         // We are in a simple fire-and-forget behaviour.
         // This implementation is really efficient as we do not use
         // the store at all.
@@ -199,4 +202,74 @@ public class MessageFilter extends EIPEndpoint {
         }
     }
 
+    /**
+     * Asynchronous processing reporting the target errors and faults: the incoming
+     * exchange is kept in the store until the exchange sent to the target is completed.
+     */
+    private void processAsyncReportErrors(MessageExchange exchange) throws Exception {
+        if (exchange.getRole() == MessageExchange.Role.PROVIDER) {
+            if (exchange.getStatus() != ExchangeStatus.ACTIVE) {
+                return;
+            } else if (!(exchange instanceof InOnly)
+                       && !(exchange instanceof RobustInOnly)) {
+                fail(exchange, new UnsupportedOperationException("Use an InOnly or RobustInOnly MEP"));
+            } else if (exchange.getFault() != null) {
+                done(exchange);
+            } else {
+                NormalizedMessage in = MessageUtil.copyIn(exchange);
+                MessageExchange me = getExchangeFactory().createExchange(exchange.getPattern());
+                target.configureTarget(me, getContext());
+                MessageUtil.transferToIn(in, me);
+                if (filter.matches(me)) {
+                    if (store.hasFeature(Store.CLUSTERED)) {
+                        exchange.setProperty(JbiConstants.STATELESS_PROVIDER, Boolean.TRUE);
+                        me.setProperty(JbiConstants.STATELESS_CONSUMER, Boolean.TRUE);
+                    }
+                    // Set correlation and put exchange to store
+                    me.setProperty(correlation, exchange.getExchangeId());
+                    storeExchange(exchange.getExchangeId(), exchange);
+                    try {
+                        send(me);
+                    } catch (Exception e) {
+                        // Clear the store on error
+                        loadExchange(exchange.getExchangeId());
+                        throw e;
+                    }
+                } else {
+                    done(exchange);
+                }
+            }
+        } else {
+            String id = (String) exchange.getProperty(correlation);
+            if (id == null) {
+                throw new IllegalStateException(correlation + " property not found");
+            }
+            Lock lock = lockManager.getLock(id);
+            lock.lock();
+            try {
+                MessageExchange org = loadExchange(id);
+                if (org == null) {
+                    throw new IllegalStateException("Could not load original exchange with id " + id);
+                }
+                if (exchange.getStatus() == ExchangeStatus.DONE) {
+                    done(org);
+                } else if (exchange.getStatus() == ExchangeStatus.ERROR) {
+                    fail(org, exchange.getError());
+                } else if (exchange.getFault() != null) {
+                    Fault fault = MessageUtil.copyFault(exchange);
+                    done(exchange);
+                    MessageUtil.transferToFault(fault, org);
+                    send(org);
+                }
+            } finally {
+                try {
+                    lock.unlock();
+                } catch (Exception ex) {
+                    logger.info("Caught exception while attempting to release lock", ex);
+                }
+                lockManager.removeLock(id);
+            }
+        }
+    }
+
 }
@@ -343,7 +343,7 @@ public class Pipeline extends EIPEndpoint {
                         + " but has no correlation set");
             }
             // Load the exchange
-            MessageExchange me = (MessageExchange) store.load(targetId != null ? targetId : transformerId);
+            MessageExchange me = loadExchange(targetId != null ? targetId : transformerId);
             done(me);
         // Errors must be sent back to the target or transformer
         } else if (exchange.getStatus() == ExchangeStatus.ERROR) {
@@ -354,7 +354,7 @@ public class Pipeline extends EIPEndpoint {
                         + " but has no correlation set");
             }
             // Load the exchange
-            MessageExchange me = (MessageExchange) store.load(targetId != null ? targetId : transformerId);
+            MessageExchange me = loadExchange(targetId != null ? targetId : transformerId);
             fail(me, exchange.getError());
         // This is a new exchange
         } else if (exchange.getProperty(correlationTransformer) == null) {
@@ -371,7 +371,7 @@ public class Pipeline extends EIPEndpoint {
             tme.setProperty(TRANSFORMER, Boolean.TRUE);
             tme.setProperty(CONSUMER_MEP, exchange.getPattern());
             // Put exchange to store
-            store.store(exchange.getExchangeId(), exchange);
+            storeExchange(exchange.getExchangeId(), exchange);
             // Send in to listener and target
             MessageUtil.transferInToIn(exchange, tme);
             send(tme);
@@ -393,7 +393,7 @@ public class Pipeline extends EIPEndpoint {
             throw new IllegalStateException("Received a DONE status from the transformer");
         // Errors must be sent back to the consumer
         } else if (exchange.getStatus() == ExchangeStatus.ERROR) {
-            MessageExchange me = (MessageExchange) store.load(consumerId);
+            MessageExchange me = loadExchange(consumerId);
             fail(me, exchange.getError());
         } else if (exchange.getFault() != null) {
             // Faults must be sent to faultsTarget / target
@@ -407,13 +407,13 @@ public class Pipeline extends EIPEndpoint {
                 (faultsTarget != null ? faultsTarget : target).configureTarget(me, getContext());
                 me.setProperty(correlationConsumer, consumerId);
                 me.setProperty(correlationTransformer, exchange.getExchangeId());
-                store.store(exchange.getExchangeId(), exchange);
+                storeExchange(exchange.getExchangeId(), exchange);
                 MessageUtil.transferToIn(exchange.getFault(), me);
                 copyPropertiesAndAttachments(exchange.getMessage("in"), me.getMessage("in"));
                 send(me);
             // Faults must be sent back to the consumer
             } else {
-                MessageExchange me = (MessageExchange) store.load(consumerId);
+                MessageExchange me = loadExchange(consumerId);
                 if (me instanceof InOnly) {
                     // Do not use the fault has it may contain streams
                     // So just transform it to a string and send an error
@@ -421,7 +421,7 @@ public class Pipeline extends EIPEndpoint {
                     fail(me, new FaultException(fault, null, null));
                     done(exchange);
                 } else {
-                    store.store(exchange.getExchangeId(), exchange);
+                    storeExchange(exchange.getExchangeId(), exchange);
                     MessageUtil.transferFaultToFault(exchange, me);
                     send(me);
                 }
@@ -437,15 +437,15 @@ public class Pipeline extends EIPEndpoint {
             target.configureTarget(me, getContext());
             me.setProperty(correlationConsumer, consumerId);
             me.setProperty(correlationTransformer, exchange.getExchangeId());
-            store.store(exchange.getExchangeId(), exchange);
+            storeExchange(exchange.getExchangeId(), exchange);
             MessageUtil.transferOutToIn(exchange, me);
             if (copyProperties || copyAttachments) {
-                MessageExchange cme = (MessageExchange) store.load(consumerId);
+                MessageExchange cme = loadExchange(consumerId);
                 if (cme != null) {
                     NormalizedMessage cmeInMsg = cme.getMessage("in");
                     NormalizedMessage meInMsg = me.getMessage("in");
                     copyPropertiesAndAttachments(cmeInMsg, meInMsg);
-                    store.store(consumerId, cme);
+                    storeExchange(consumerId, cme);
                 }
             }
             send(me);
@@ -470,27 +470,27 @@ public class Pipeline extends EIPEndpoint {
         // This should be the last message received
         if (exchange.getStatus() == ExchangeStatus.DONE) {
             // Need to ack the transformer
-            MessageExchange tme = (MessageExchange) store.load(transformerId);
+            MessageExchange tme = loadExchange(transformerId);
             done(tme);
             // Need to ack the consumer
-            MessageExchange cme = (MessageExchange) store.load(consumerId);
+            MessageExchange cme = loadExchange(consumerId);
             done(cme);
         // Errors should be sent back to the consumer
         } else if (exchange.getStatus() == ExchangeStatus.ERROR) {
             // Need to ack the transformer
-            MessageExchange tme = (MessageExchange) store.load(transformerId);
+            MessageExchange tme = loadExchange(transformerId);
             done(tme);
             // Send error to consumer
-            MessageExchange cme = (MessageExchange) store.load(consumerId);
+            MessageExchange cme = loadExchange(consumerId);
             fail(cme, exchange.getError());
         // If we have a robust-in-only MEP, we can receive a fault
         } else if (exchange.getFault() != null) {
             // Need to ack the transformer
-            MessageExchange tme = (MessageExchange) store.load(transformerId);
+            MessageExchange tme = loadExchange(transformerId);
             done(tme);
             // Send fault back to consumer
-            store.store(exchange.getExchangeId(), exchange);
-            MessageExchange cme = (MessageExchange) store.load(consumerId);
+            storeExchange(exchange.getExchangeId(), exchange);
+            MessageExchange cme = loadExchange(consumerId);
             cme.setProperty(correlationTarget, exchange.getExchangeId());
             MessageUtil.transferFaultToFault(exchange, cme);
             send(cme);
@@ -153,7 +153,7 @@ public class StaticRoutingSlip extends EIPEndpoint {
                 throw new IllegalStateException(correlation + " property not found");
             }
             // Ack last target hit
-            MessageExchange me = (MessageExchange) store.load(correlationId);
+            MessageExchange me = loadExchange(correlationId);
             done(me);
         } else if (exchange.getStatus() == ExchangeStatus.ERROR) {
             String correlationId = (String) exchange.getProperty(correlation);
@@ -161,7 +161,7 @@ public class StaticRoutingSlip extends EIPEndpoint {
                 throw new IllegalStateException(correlation + " property not found");
             }
             // Ack last target hit
-            MessageExchange me = (MessageExchange) store.load(correlationId);
+            MessageExchange me = loadExchange(correlationId);
             done(me);
         } else if (!(exchange instanceof InOut)) {
             throw new IllegalStateException("Use an InOut MEP");
@@ -170,7 +170,7 @@ public class StaticRoutingSlip extends EIPEndpoint {
             me.setProperty(correlation, exchange.getExchangeId());
             me.setProperty(index, new Integer(0));
             targets[0].configureTarget(me, getContext());
-            store.store(exchange.getExchangeId(), exchange);
+            storeExchange(exchange.getExchangeId(), exchange);
             MessageUtil.transferInToIn(exchange, me);
             send(me);
         }
@@ -191,36 +191,36 @@ public class StaticRoutingSlip extends EIPEndpoint {
             throw new IllegalStateException("Exchange status is " + ExchangeStatus.DONE);
         // ERROR are sent back to the consumer
         } else if (exchange.getStatus() == ExchangeStatus.ERROR) {
-            MessageExchange me = (MessageExchange) store.load(correlationId);
+            MessageExchange me = loadExchange(correlationId);
             fail(me, exchange.getError());
             // Ack the previous target
             if (previousId != null) {
-                me = (MessageExchange) store.load(previousId);
+                me = loadExchange(previousId);
                 done(me);
             }
         // Faults are sent back to the consumer
         } else if (exchange.getFault() != null) {
-            MessageExchange me = (MessageExchange) store.load(correlationId);
+            MessageExchange me = loadExchange(correlationId);
             me.setProperty(correlation, exchange.getExchangeId());
-            store.store(exchange.getExchangeId(), exchange);
+            storeExchange(exchange.getExchangeId(), exchange);
             MessageUtil.transferFaultToFault(exchange, me);
             send(me);
             // Ack the previous target
             if (previousId != null) {
-                me = (MessageExchange) store.load(previousId);
+                me = loadExchange(previousId);
                 done(me);
             }
         // Out message, give it to next target or back to consumer
         } else if (exchange.getMessage("out") != null) {
             // This is the answer from the last target
             if (prevIndex.intValue() == targets.length - 1) {
-                MessageExchange me = (MessageExchange) store.load(correlationId);
+                MessageExchange me = loadExchange(correlationId);
                 me.setProperty(correlation, exchange.getExchangeId());
-                store.store(exchange.getExchangeId(), exchange);
+                storeExchange(exchange.getExchangeId(), exchange);
                 MessageUtil.transferOutToOut(exchange, me);
                 send(me);
                 if (previousId != null) {
-                    me = (MessageExchange) store.load(previousId);
+                    me = loadExchange(previousId);
                     done(me);
                 }
             // We still have a target to hit
@@ -231,19 +231,19 @@ public class StaticRoutingSlip extends EIPEndpoint {
                 me.setProperty(index, curIndex);
                 me.setProperty(previous, exchange.getExchangeId());
                 targets[curIndex.intValue()].configureTarget(me, getContext());
-                store.store(exchange.getExchangeId(), exchange);
+                storeExchange(exchange.getExchangeId(), exchange);
                 MessageUtil.transferOutToIn(exchange, me);
                 try {
                     send(me);
                 } catch (RuntimeException re) {
                     // send delivery channel errors back to calling endpoint
                     if (correlationId != null) {
-                        me = (MessageExchange) store.load(correlationId);                      
+                        me = loadExchange(correlationId);                      
                     } 
                     fail(me, re);
                 } 
                 if (previousId != null) {
-                    me = (MessageExchange) store.load(previousId);
+                    me = loadExchange(previousId);
                     done(me);
                 }
             }
@@ -219,7 +219,7 @@ public class WireTap extends EIPEndpoint {
             exchange.setProperty(correlation, tme.getExchangeId());
             tme.setProperty(correlation, exchange.getExchangeId());
             // Put exchange to store
-            store.store(exchange.getExchangeId(), exchange);
+            storeExchange(exchange.getExchangeId(), exchange);
             // Send in to listener and target
             sendToListenerAndTarget(exchange, tme, inListener, "in", false);
         // Mimic the exchange on the other side and send to needed listener
@@ -233,7 +233,7 @@ public class WireTap extends EIPEndpoint {
                 }
                 throw new IllegalStateException(correlation + " property not found");
             }
-            MessageExchange org = (MessageExchange) store.load(id);
+            MessageExchange org = loadExchange(id);
             if (org == null) {
                 throw new IllegalStateException("Could not load original exchange with id " + id);
             }
@@ -245,11 +245,11 @@ public class WireTap extends EIPEndpoint {
                 fail(org, exchange.getError());
             // Reproduce faults to the other side and listeners
             } else if (exchange.getFault() != null) {
-                store.store(exchange.getExchangeId(), exchange);
+                storeExchange(exchange.getExchangeId(), exchange);
                 sendToListenerAndTarget(exchange, org, faultListener, "fault", isCopyProperties());
             // Reproduce answers to the other side
             } else if (exchange.getMessage("out") != null) {
-                store.store(exchange.getExchangeId(), exchange);
+                storeExchange(exchange.getExchangeId(), exchange);
                 sendToListenerAndTarget(exchange, org, outListener, "out", isCopyProperties());
             } else {
                 throw new IllegalStateException("Exchange status is " + ExchangeStatus.ACTIVE
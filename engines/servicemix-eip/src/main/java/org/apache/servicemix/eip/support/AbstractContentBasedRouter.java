@@ -127,7 +127,7 @@ public abstract class AbstractContentBasedRouter extends EIPEndpoint {
             tme.setProperty(correlation, exchange.getExchangeId());
             exchange.setProperty(correlation, tme.getExchangeId());
             // Put exchange to store
-            store.store(exchange.getExchangeId(), exchange);
+            storeExchange(exchange.getExchangeId(), exchange);
             // Now copy input to new exchange
             // We need to read the message once for finding routing target
             // so ensure we have a re-readable source
@@ -144,7 +144,7 @@ public abstract class AbstractContentBasedRouter extends EIPEndpoint {
                 send(tme);
             } catch (Exception e) {
                 // Clear the store on error
-                store.load(exchange.getExchangeId());
+                loadExchange(exchange.getExchangeId());
                 throw e;
             }
         // Mimic the exchange on the other side and send to needed listener
@@ -153,7 +153,7 @@ public abstract class AbstractContentBasedRouter extends EIPEndpoint {
             if (id == null) {
                 throw new IllegalStateException(correlation + " property not found");
             }
-            MessageExchange org = (MessageExchange) store.load(id);
+            MessageExchange org = loadExchange(id);
             if (org == null) {
                 throw new IllegalStateException("Could not load original exchange with id " + id);
             }
@@ -165,22 +165,22 @@ public abstract class AbstractContentBasedRouter extends EIPEndpoint {
                 fail(org, exchange.getError());
             // Reproduce faults to the other side and listeners
             } else if (exchange.getFault() != null) {
-                store.store(exchange.getExchangeId(), exchange);
+                storeExchange(exchange.getExchangeId(), exchange);
                 try {
                     MessageUtil.transferTo(exchange, org, "fault"); 
                     send(org);
                 } catch (Exception e) {
-                    store.load(exchange.getExchangeId());
+                    loadExchange(exchange.getExchangeId());
                     throw e;
                 }
             // Reproduce answers to the other side
             } else if (exchange.getMessage("out") != null) {
-                store.store(exchange.getExchangeId(), exchange);
+                storeExchange(exchange.getExchangeId(), exchange);
                 try {
                     MessageUtil.transferTo(exchange, org, "out"); 
                     send(org);
                 } catch (Exception e) {
-                    store.load(exchange.getExchangeId());
+                    loadExchange(exchange.getExchangeId());
                     throw e;
                 }
             } else {
@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.eip.support;
+
+import javax.xml.namespace.QName;
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.SAXSource;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+import org.apache.servicemix.jbi.jaxp.SourceTransformer;
+
+/**
+ * A lazy {@link Source} wrapping a list of payloads into an envelope:
+ * 
+ * <pre>
+ *   &lt;envelope&gt;
+ *     &lt;part1&gt;payload1&lt;/part1&gt;
+ *     &lt;part2&gt;payload2&lt;/part2&gt;
+ *   &lt;/envelope&gt;
+ * </pre>
+ * 
+ * Nothing is parsed until the source is read: the payloads are then streamed
+ * as SAX events into the consumer, without building any intermediate DOM.
+ * The source can be read several times if all the payloads can.
+ *
+ * @version $Revision$
+ */
+public class EnvelopeSource extends SAXSource {
+
+    public EnvelopeSource(SourceTransformer transformer, QName envelope, QName[] parts, Source[] payloads) {
+        super(new EnvelopeReader(transformer, envelope, parts, payloads), new InputSource());
+    }
+
+    /**
+     * An XMLReader generating the envelope events and piping the payload ones.
+     */
+    private static class EnvelopeReader extends XMLFilterImpl {
+
+        private static final Attributes NO_ATTRIBUTES = new AttributesImpl();
+
+        private final SourceTransformer transformer;
+        private final QName envelope;
+        private final QName[] parts;
+        private final Source[] payloads;
+
+        EnvelopeReader(SourceTransformer transformer, QName envelope, QName[] parts, Source[] payloads) {
+            this.transformer = transformer;
+            this.envelope = envelope;
+            this.parts = parts;
+            this.payloads = payloads;
+        }
+
+        public boolean getFeature(String name) throws SAXNotRecognizedException {
+            if ("http://xml.org/sax/features/namespaces".equals(name)) {
+                return true;
+            }
+            if ("http://xml.org/sax/features/namespace-prefixes".equals(name)) {
+                return false;
+            }
+            throw new SAXNotRecognizedException(name);
+        }
+
+        public void setFeature(String name, boolean value) throws SAXNotRecognizedException {
+            if (getFeature(name) != value) {
+                throw new SAXNotRecognizedException(name);
+            }
+        }
+
+        public Object getProperty(String name) throws SAXNotRecognizedException {
+            throw new SAXNotRecognizedException(name);
+        }
+
+        public void setProperty(String name, Object value) throws SAXNotRecognizedException {
+            throw new SAXNotRecognizedException(name);
+        }
+
+        public void parse(String systemId) throws SAXException {
+            parse(new InputSource(systemId));
+        }
+
+        public void parse(InputSource input) throws SAXException {
+            ContentHandler handler = getContentHandler();
+            if (handler == null) {
+                throw new SAXException("No ContentHandler set");
+            }
+            handler.startDocument();
+            startElement(handler, envelope);
+            for (int i = 0; i < parts.length; i++) {
+                startElement(handler, parts[i]);
+                try {
+                    transformer.toResult(payloads[i], new SAXResult(new FragmentHandler(handler)));
+                } catch (TransformerException e) {
+                    throw new SAXException(e);
+                }
+                endElement(handler, parts[i]);
+            }
+            endElement(handler, envelope);
+            handler.endDocument();
+        }
+
+        private static void startElement(ContentHandler handler, QName name) throws SAXException {
+            if (!"".equals(name.getNamespaceURI())) {
+                handler.startPrefixMapping(name.getPrefix(), name.getNamespaceURI());
+            }
+            handler.startElement(name.getNamespaceURI(), name.getLocalPart(), getQualifiedName(name), NO_ATTRIBUTES);
+        }
+
+        private static void endElement(ContentHandler handler, QName name) throws SAXException {
+            handler.endElement(name.getNamespaceURI(), name.getLocalPart(), getQualifiedName(name));
+            if (!"".equals(name.getNamespaceURI())) {
+                handler.endPrefixMapping(name.getPrefix());
+            }
+        }
+
+        private static String getQualifiedName(QName name) {
+            if ("".equals(name.getPrefix())) {
+                return name.getLocalPart();
+            }
+            return name.getPrefix() + ":" + name.getLocalPart();
+        }
+    }
+
+    /**
+     * Forwards the events of a payload, except the document boundaries.
+     */
+    private static class FragmentHandler extends XMLFilterImpl {
+
+        FragmentHandler(ContentHandler handler) {
+            setContentHandler(handler);
+        }
+
+        public void startDocument() {
+        }
+
+        public void endDocument() {
+        }
+    }
+
+}
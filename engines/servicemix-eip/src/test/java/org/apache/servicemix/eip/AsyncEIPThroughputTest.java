@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.eip;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+import javax.jbi.messaging.ExchangeStatus;
+import javax.jbi.messaging.InOnly;
+import javax.jbi.messaging.InOut;
+import javax.jbi.messaging.MessageExchange;
+import javax.jbi.messaging.MessagingException;
+import javax.jbi.messaging.NormalizedMessage;
+import javax.xml.namespace.QName;
+
+import junit.framework.AssertionFailedError;
+
+import org.apache.servicemix.MessageExchangeListener;
+import org.apache.servicemix.components.util.ComponentSupport;
+import org.apache.servicemix.eip.patterns.ContentEnricher;
+import org.apache.servicemix.eip.patterns.MessageFilter;
+import org.apache.servicemix.eip.support.XPathPredicate;
+import org.apache.servicemix.executors.impl.ExecutorFactoryImpl;
+import org.apache.servicemix.jbi.container.JBIContainer;
+
+/**
+ * Sends concurrent exchanges through the asynchronous ContentEnricher and MessageFilter
+ * with a thread pool much smaller than the number of exchanges and slow targets: as no
+ * thread is blocked waiting for a target, more exchanges are pending at the targets
+ * than there are threads.
+ */
+public class AsyncEIPThroughputTest extends AbstractEIPTest {
+
+    private static final int POOL_SIZE = 2;
+    private static final int EXCHANGES = 20;
+    private static final long DELAY = 250;
+
+    protected void configureThreadPool(JBIContainer container) {
+        ExecutorFactoryImpl factory = new ExecutorFactoryImpl();
+        factory.getDefaultConfig().setCorePoolSize(POOL_SIZE);
+        factory.getDefaultConfig().setMaximumPoolSize(POOL_SIZE);
+        factory.getDefaultConfig().setQueueSize(256);
+        container.setExecutorFactory(factory);
+    }
+
+    public void testContentEnricher() throws Exception {
+        ContentEnricher enricher = new ContentEnricher();
+        enricher.setEnricherTarget(createServiceExchangeTarget(new QName("enricherTarget")));
+        enricher.setTarget(createServiceExchangeTarget(new QName("target")));
+        configurePattern(enricher);
+        activateComponent(enricher, "enricher");
+        DelayedComponent enricherTarget = new DelayedComponent(DELAY);
+        activateComponent(enricherTarget, "enricherTarget");
+        DelayedComponent target = new DelayedComponent(DELAY);
+        activateComponent(target, "target");
+
+        sendConcurrently("enricher", "<hello/>");
+
+        // a blocking implementation holds a thread per pending exchange
+        enricherTarget.assertAnswered(EXCHANGES);
+        assertTrue("peak of " + enricherTarget.getMaxPending() + " pending exchanges",
+                   enricherTarget.getMaxPending() > POOL_SIZE);
+        target.assertAnswered(EXCHANGES);
+    }
+
+    public void testMessageFilter() throws Exception {
+        MessageFilter filter = new MessageFilter();
+        filter.setFilter(new XPathPredicate("/hello/@id = '1'"));
+        filter.setTarget(createServiceExchangeTarget(new QName("target")));
+        filter.setReportErrors(true);
+        configurePattern(filter);
+        activateComponent(filter, "filter");
+        DelayedComponent target = new DelayedComponent(DELAY);
+        activateComponent(target, "target");
+
+        sendConcurrently("filter", "<hello id='1'/>");
+
+        target.assertAnswered(EXCHANGES);
+        assertTrue("peak of " + target.getMaxPending() + " pending exchanges",
+                   target.getMaxPending() > POOL_SIZE);
+    }
+
+    private void sendConcurrently(String service, String content) throws Exception {
+        for (int i = 0; i < EXCHANGES; i++) {
+            InOnly me = client.createInOnlyExchange();
+            me.setService(new QName(service));
+            me.getInMessage().setContent(createSource(content));
+            client.send(me);
+        }
+        for (int i = 0; i < EXCHANGES; i++) {
+            MessageExchange me = client.receive(10000);
+            assertNotNull(me);
+            assertEquals(ExchangeStatus.DONE, me.getStatus());
+        }
+    }
+
+    /**
+     * A slow target which answers after a delay without holding a thread meanwhile,
+     * recording the peak number of exchanges waiting for their answer.
+     */
+    protected static class DelayedComponent extends ComponentSupport implements MessageExchangeListener {
+
+        private final Timer timer = new Timer(true);
+        private final long delay;
+        private int pending;
+        private int maxPending;
+        private int answered;
+        private MessagingException error;
+
+        public DelayedComponent(long delay) {
+            this.delay = delay;
+        }
+
+        public void onMessageExchange(final MessageExchange exchange) throws MessagingException {
+            if (exchange.getStatus() == ExchangeStatus.ACTIVE) {
+                synchronized (this) {
+                    maxPending = Math.max(maxPending, ++pending);
+                }
+                timer.schedule(new TimerTask() {
+                    public void run() {
+                        answered();
+                        try {
+                            if (exchange instanceof InOut) {
+                                NormalizedMessage out = exchange.createMessage();
+                                out.setContent(createSource("<halloMock/>"));
+                                exchange.setMessage(out, "out");
+                                send(exchange);
+                            } else {
+                                done(exchange);
+                            }
+                        } catch (MessagingException e) {
+                            failed(e);
+                        }
+                    }
+                }, delay);
+            }
+        }
+
+        private synchronized void answered() {
+            pending--;
+            answered++;
+        }
+
+        private synchronized void failed(MessagingException e) {
+            if (error == null) {
+                error = e;
+            }
+        }
+
+        public synchronized int getMaxPending() {
+            return maxPending;
+        }
+
+        public synchronized void assertAnswered(int count) {
+            if (error != null) {
+                AssertionFailedError failure = new AssertionFailedError("Could not answer an exchange: " + error);
+                failure.initCause(error);
+                throw failure;
+            }
+            assertEquals(count, answered);
+        }
+    }
+
+}
@@ -20,17 +20,25 @@ import javax.jbi.messaging.ExchangeStatus;
 import javax.jbi.messaging.InOnly;
 import javax.jbi.messaging.InOut;
 import javax.jbi.messaging.MessageExchange;
+import javax.jbi.messaging.MessagingException;
 import javax.jbi.messaging.NormalizedMessage;
 import javax.xml.namespace.QName;
+import javax.xml.transform.Source;
 import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXResult;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
 
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
+import org.apache.servicemix.MessageExchangeListener;
+import org.apache.servicemix.components.util.ComponentSupport;
 import org.apache.servicemix.components.util.TransformComponentSupport;
 import org.apache.servicemix.eip.patterns.ContentEnricher;
+import org.apache.servicemix.eip.support.EnvelopeSource;
 import org.apache.servicemix.jbi.jaxp.SourceTransformer;
 import org.apache.servicemix.jbi.util.DOMUtil;
 import org.apache.servicemix.tck.ReceiverComponent;
@@ -38,6 +46,8 @@ import org.apache.servicemix.tck.ReceiverComponent;
 public class ContentEnricherTest extends AbstractEIPTest {
 
     private static final Logger ROOT_LOGGER = Logger.getRootLogger();
+    private static final int PAYLOAD_SIZE = 2 * 1024 * 1024;
+    private static final int ITERATIONS = 2;
     protected ContentEnricher enricher;
 
     protected void setUp() throws Exception {
@@ -56,6 +66,25 @@ public class ContentEnricherTest extends AbstractEIPTest {
         sendAndAssertInOnly();
     }
     
+    public void testInOnlyEnricherTargetError() throws Exception {
+        activateComponent(new ReturnErrorComponent(), "enricherTarget");
+        ReceiverComponent rec = activateReceiver("target");
+
+        InOnly me = client.createInOnlyExchange();
+        me.setService(new QName("enricher"));
+        me.getInMessage().setContent(createSource("<hello/>"));
+        client.sendSync(me);
+
+        assertEquals(ExchangeStatus.ERROR, me.getStatus());
+        assertEquals(0, rec.getMessageList().getMessageCount());
+    }
+
+    public void testInOnlyUseDom() throws Exception {
+        enricher.setUseDom(true);
+        activateComponent(new ReturnMockComponent("<halloMock/>"), "enricherTarget");
+        sendAndAssertInOnly();
+    }
+
     public void testInOnlyEnricherTargetConsumerStreamSource() throws Exception {
         //disable debug level to avoid StreamSource conversion
         Level original = ROOT_LOGGER.getLevel();
@@ -95,8 +124,7 @@ public class ContentEnricherTest extends AbstractEIPTest {
 
         NormalizedMessage object = (NormalizedMessage) rec.getMessageList().getMessages().get(0);
 
-        DOMSource domSource = (DOMSource) object.getContent();
-        Document doc = (Document) domSource.getNode();
+        Document doc = new SourceTransformer().toDOMDocument(object);
         
         Element e = doc.getDocumentElement();
         assertEquals("enricher", e.getNodeName());
@@ -154,4 +182,76 @@ public class ContentEnricherTest extends AbstractEIPTest {
         assertEquals(propVal2, msg.getProperty(propName2));
         assertEquals(ReturnMockComponent.PROPERTY_VALUE, msg.getProperty(ReturnMockComponent.PROPERTY_NAME));
     }
+
+    public void testLargePayloadIsNotCopiedIntoDom() throws Exception {
+        StringBuilder builder = new StringBuilder("<order>");
+        int lines = 0;
+        while (builder.length() < PAYLOAD_SIZE) {
+            builder.append("<line><sku>sku-").append(lines++).append("</sku><qty>1</qty></line>");
+        }
+        String payload = builder.append("</order>").toString();
+        activateComponent(new ReturnMockComponent(payload), "enricherTarget");
+        ConsumingComponent target = new ConsumingComponent();
+        activateComponent(target, "target");
+
+        //disable debug level to avoid StreamSource conversion
+        Level original = ROOT_LOGGER.getLevel();
+        ROOT_LOGGER.setLevel(Level.INFO);
+        try {
+            enricher.setUseDom(true);
+            sendInOnly(payload, ITERATIONS);
+            assertEquals(DOMSource.class, target.contentClass);
+            assertEquals(2 * lines, target.lines);
+
+            enricher.setUseDom(false);
+            sendInOnly(payload, ITERATIONS);
+            assertEquals(EnvelopeSource.class, target.contentClass);
+            assertEquals(2 * lines, target.lines);
+        } finally {
+            ROOT_LOGGER.setLevel(original);
+        }
+    }
+
+    private void sendInOnly(String payload, int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            InOnly me = client.createInOnlyExchange();
+            me.setService(new QName("enricher"));
+            me.getInMessage().setContent(createSource(payload));
+            client.sendSync(me);
+            assertEquals(ExchangeStatus.DONE, me.getStatus());
+        }
+    }
+
+    /**
+     * A target reading the whole content without keeping it, recording the
+     * type of the last content and the number of line elements it held.
+     */
+    protected static class ConsumingComponent extends ComponentSupport implements MessageExchangeListener {
+
+        private final SourceTransformer transformer = new SourceTransformer();
+        private volatile Class contentClass;
+        private volatile int lines;
+
+        public void onMessageExchange(MessageExchange exchange) throws MessagingException {
+            if (exchange.getStatus() == ExchangeStatus.ACTIVE) {
+                try {
+                    Source content = getInMessage(exchange).getContent();
+                    final int[] count = new int[1];
+                    transformer.toResult(content, new SAXResult(new DefaultHandler() {
+                        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+                            if ("line".equals(localName) || "line".equals(qName)) {
+                                count[0]++;
+                            }
+                        }
+                    }));
+                    contentClass = content.getClass();
+                    lines = count[0];
+                } catch (Exception e) {
+                    fail(exchange, e);
+                    return;
+                }
+                done(exchange);
+            }
+        }
+    }
 }
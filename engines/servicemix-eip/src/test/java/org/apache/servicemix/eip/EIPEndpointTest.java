@@ -0,0 +1,244 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.eip;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jbi.messaging.ExchangeStatus;
+import javax.jbi.messaging.MessageExchange;
+import javax.jbi.messaging.MessagingException;
+import javax.jbi.messaging.MessageExchange.Role;
+import javax.xml.namespace.QName;
+
+import junit.framework.TestCase;
+
+import org.apache.servicemix.id.IdGenerator;
+import org.apache.servicemix.store.memory.MemoryStore;
+import org.apache.servicemix.tck.mock.MockMessageExchange;
+
+/**
+ * Tests the pending exchanges kept by {@link EIPEndpoint}, in its correlation table
+ * or in a configured store.
+ */
+public class EIPEndpointTest extends TestCase {
+
+    private static final int FLOWS = 1000;
+
+    private TestEndpoint endpoint;
+
+    protected void setUp() throws Exception {
+        endpoint = new TestEndpoint();
+        endpoint.setService(new QName("urn:test", "eip"));
+        endpoint.setEndpoint("endpoint");
+    }
+
+    protected void tearDown() throws Exception {
+        endpoint.stop();
+    }
+
+    public void testStoreAndLoadExchange() throws Exception {
+        endpoint.start();
+        MessageExchange exchange = createExchange("1", Role.PROVIDER);
+
+        endpoint.storeExchange("1", exchange);
+
+        // the default store is bypassed
+        assertNull(endpoint.getStore().load("1"));
+        assertSame(exchange, endpoint.loadExchange("1"));
+        assertNull(endpoint.loadExchange("1"));
+        assertNull(endpoint.loadExchange("2"));
+    }
+
+    public void testConfiguredStoreIsUsed() throws Exception {
+        MemoryStore store = new MemoryStore(new IdGenerator());
+        endpoint.setStore(store);
+        endpoint.start();
+        MessageExchange exchange = createExchange("1", Role.PROVIDER);
+
+        endpoint.storeExchange("1", exchange);
+
+        assertSame(exchange, store.load("1"));
+        assertNull(endpoint.loadExchange("1"));
+    }
+
+    public void testLoadingAnExchangeKeepsTheOtherExchangesOfItsFlow() throws Exception {
+        endpoint.start();
+        final MessageExchange request = createExchange("request", Role.PROVIDER);
+        final MessageExchange response = createExchange("response", Role.PROVIDER);
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        final CountDownLatch start = new CountDownLatch(1);
+
+        Thread requests = new Thread() {
+            public void run() {
+                try {
+                    start.await();
+                    for (int i = 0; i < FLOWS; i++) {
+                        endpoint.storeExchange(i + ".t0", request);
+                        if (endpoint.loadExchange(i + ".t0") != request) {
+                            throw new IllegalStateException("Request of flow " + i + " lost");
+                        }
+                    }
+                } catch (Throwable t) {
+                    addError(errors, t);
+                }
+            }
+        };
+        Thread responses = new Thread() {
+            public void run() {
+                try {
+                    start.await();
+                    for (int i = 0; i < FLOWS; i++) {
+                        endpoint.storeExchange(i + ".t2", response);
+                    }
+                } catch (Throwable t) {
+                    addError(errors, t);
+                }
+            }
+        };
+        requests.start();
+        responses.start();
+        start.countDown();
+        requests.join(10000);
+        responses.join(10000);
+
+        assertEquals(new ArrayList<Throwable>(), errors);
+        for (int i = 0; i < FLOWS; i++) {
+            assertSame(response, endpoint.loadExchange(i + ".t2"));
+            assertNull(endpoint.loadExchange(i + ".t0"));
+        }
+    }
+
+    public void testExchangeIsLoadedOnlyOnce() throws Exception {
+        endpoint.start();
+        final MessageExchange exchange = createExchange("1", Role.PROVIDER);
+        final AtomicInteger loaded = new AtomicInteger();
+        final List<Throwable> errors = new ArrayList<Throwable>();
+
+        for (int i = 0; i < FLOWS; i++) {
+            endpoint.storeExchange(Integer.toString(i), exchange);
+        }
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < FLOWS; i++) {
+                            if (endpoint.loadExchange(Integer.toString(i)) != null) {
+                                loaded.incrementAndGet();
+                            }
+                        }
+                    } catch (Throwable e) {
+                        addError(errors, e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        start.countDown();
+        for (int t = 0; t < threads.length; t++) {
+            threads[t].join(10000);
+        }
+
+        assertEquals(new ArrayList<Throwable>(), errors);
+        assertEquals(FLOWS, loaded.get());
+    }
+
+    public void testSweepClosesTimedOutExchanges() throws Exception {
+        endpoint.start();
+        MockMessageExchange request = createExchange("request", Role.PROVIDER);
+        MockMessageExchange response = createExchange("response", Role.CONSUMER);
+        MockMessageExchange done = createExchange("done", Role.PROVIDER);
+        done.setStatus(ExchangeStatus.DONE);
+        endpoint.storeExchange("request", request);
+        endpoint.storeExchange("response", response);
+        endpoint.storeExchange("done", done);
+        Thread.sleep(200);
+        MockMessageExchange recent = createExchange("recent", Role.PROVIDER);
+        endpoint.storeExchange("recent", recent);
+
+        endpoint.setCorrelationTimeout(100);
+        endpoint.sweepCorrelations();
+
+        assertEquals(2, endpoint.sent.size());
+        assertTrue(endpoint.sent.contains(request));
+        assertTrue(request.getError() instanceof TimeoutException);
+        assertTrue(endpoint.sent.contains(response));
+        assertEquals(ExchangeStatus.DONE, response.getStatus());
+        assertNull(endpoint.loadExchange("request"));
+        assertNull(endpoint.loadExchange("response"));
+        assertNull(endpoint.loadExchange("done"));
+        assertSame(recent, endpoint.loadExchange("recent"));
+    }
+
+    public void testSweeperIsScheduled() throws Exception {
+        endpoint.setCorrelationTimeout(100);
+        endpoint.start();
+        MockMessageExchange request = createExchange("request", Role.PROVIDER);
+        endpoint.storeExchange("request", request);
+
+        long limit = System.currentTimeMillis() + 5000;
+        while (endpoint.sent.isEmpty() && System.currentTimeMillis() < limit) {
+            Thread.sleep(50);
+        }
+
+        assertEquals(1, endpoint.sent.size());
+        assertTrue(request.getError() instanceof TimeoutException);
+        assertNull(endpoint.loadExchange("request"));
+    }
+
+    private static MockMessageExchange createExchange(String id, Role role) {
+        MockMessageExchange exchange = new MockMessageExchange();
+        exchange.setExchangeId(id);
+        exchange.setRole(role);
+        exchange.setStatus(ExchangeStatus.ACTIVE);
+        return exchange;
+    }
+
+    private static void addError(List<Throwable> errors, Throwable t) {
+        synchronized (errors) {
+            errors.add(t);
+        }
+    }
+
+    /**
+     * An endpoint recording the exchanges it sends instead of using a delivery channel.
+     */
+    private static class TestEndpoint extends EIPEndpoint {
+
+        private final List<MessageExchange> sent = new CopyOnWriteArrayList<MessageExchange>();
+
+        protected void processAsync(MessageExchange exchange) throws Exception {
+            throw new UnsupportedOperationException();
+        }
+
+        protected void processSync(MessageExchange exchange) throws Exception {
+            throw new UnsupportedOperationException();
+        }
+
+        protected void send(MessageExchange exchange) throws MessagingException {
+            sent.add(exchange);
+        }
+    }
+
+}
@@ -19,6 +19,7 @@ package org.apache.servicemix.eip;
 import javax.jbi.messaging.ExchangeStatus;
 import javax.jbi.messaging.InOnly;
 import javax.jbi.messaging.InOut;
+import javax.jbi.messaging.RobustInOnly;
 import javax.xml.namespace.QName;
 
 import org.apache.servicemix.eip.patterns.MessageFilter;
@@ -59,6 +60,30 @@ public class MessageFilterTest extends AbstractEIPTest {
         rec.getMessageList().assertMessagesReceived(1); 
     }
 
+    public void testInOnlyReportErrors() throws Exception {
+        messageFilter.setReportErrors(true);
+        activateComponent(new ReturnErrorComponent(), "target");
+
+        InOnly me = client.createInOnlyExchange();
+        me.setService(new QName("messageFilter"));
+        me.getInMessage().setContent(createSource("<hello id='1'><one/><two/><three/></hello>"));
+        client.sendSync(me);
+        assertEquals(ExchangeStatus.ERROR, me.getStatus());
+    }
+
+    public void testRobustInOnlyReportFault() throws Exception {
+        messageFilter.setReportErrors(true);
+        activateComponent(new ReturnFaultComponent(), "target");
+
+        RobustInOnly me = client.createRobustInOnlyExchange();
+        me.setService(new QName("messageFilter"));
+        me.getInMessage().setContent(createSource("<hello id='1'><one/><two/><three/></hello>"));
+        client.sendSync(me);
+        assertEquals(ExchangeStatus.ACTIVE, me.getStatus());
+        assertNotNull(me.getFault());
+        client.done(me);
+    }
+
     public void testInOut() throws Exception {
         InOut me = client.createInOutExchange();
         me.setService(new QName("messageFilter"));
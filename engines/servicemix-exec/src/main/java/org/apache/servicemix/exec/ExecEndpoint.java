@@ -16,6 +16,7 @@
  */
 package org.apache.servicemix.exec;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import javax.jbi.management.DeploymentException;
@@ -34,7 +35,7 @@ import org.apache.servicemix.exec.marshaler.DefaultExecMarshaler;
 import org.apache.servicemix.exec.marshaler.ExecMarshalerSupport;
 import org.apache.servicemix.exec.marshaler.ExecRequest;
 import org.apache.servicemix.exec.marshaler.ExecResponse;
-import org.apache.servicemix.exec.utils.ExecUtils;
+import org.apache.servicemix.exec.utils.ProcessExecutor;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.Resource;
 import org.w3c.dom.Document;
@@ -53,6 +54,9 @@ public class ExecEndpoint extends ProviderEndpoint {
 	private String command; // the command can be static (define in the descriptor) or provided in the incoming message
 	private Resource wsdl; // the abstract WSDL describing the endpoint behavior
 	private ExecMarshalerSupport marshaler = new DefaultExecMarshaler(); // the default exec marshaler
+	private long timeout; // the default execution timeout, 0 means no timeout
+	private int maxOutputSize = 1024 * 1024; // the maximum number of output bytes kept in memory
+	private boolean spillOutput; // spill the output exceeding maxOutputSize to a temporary file
 
 	public String getCommand() {
 		return command;
@@ -71,6 +75,62 @@ public class ExecEndpoint extends ProviderEndpoint {
 		this.command = command;
 	}
 
+	public long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * <p>
+	 * This attribute specifies the command execution timeout in milliseconds, if
+	 * no timeout is provided in the incoming message. When the timeout is reached,
+	 * the command process and its children are killed and the exchange fails.
+	 * </p>
+	 * <i>&nbsp;&nbsp;&nbsp;The default value is <code>0</code> (no timeout).
+	 * 
+	 * @param timeout
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	public int getMaxOutputSize() {
+		return maxOutputSize;
+	}
+
+	/**
+	 * <p>
+	 * This attribute specifies the maximum number of bytes of the command output
+	 * and error streams kept in memory. The overflow is discarded, unless
+	 * <code>spillOutput</code> is enabled, and the number of discarded bytes is
+	 * reported in the <code>outputDiscarded</code> and <code>errorDiscarded</code>
+	 * elements of the response. A negative value means unbounded.
+	 * </p>
+	 * <i>&nbsp;&nbsp;&nbsp;The default value is <code>1048576</code>.
+	 * 
+	 * @param maxOutputSize
+	 */
+	public void setMaxOutputSize(int maxOutputSize) {
+		this.maxOutputSize = maxOutputSize;
+	}
+
+	public boolean isSpillOutput() {
+		return spillOutput;
+	}
+
+	/**
+	 * <p>
+	 * This attribute specifies if the command output exceeding <code>maxOutputSize</code>
+	 * is spilled to a temporary file instead of being discarded. The default marshaler
+	 * then streams the whole output from the file into the out message content.
+	 * </p>
+	 * <i>&nbsp;&nbsp;&nbsp;The default value is <code>false</code>.
+	 * 
+	 * @param spillOutput
+	 */
+	public void setSpillOutput(boolean spillOutput) {
+		this.spillOutput = spillOutput;
+	}
+
 	public ExecMarshalerSupport getMarshaler() {
 		return marshaler;
 	}
@@ -213,19 +273,45 @@ public class ExecEndpoint extends ProviderEndpoint {
 			}
 
 			// execute the command
-			ExecResponse execResponse = ExecUtils.execute(execRequest);
+			ProcessExecutor executor = new ProcessExecutor();
+			executor.setTimeout(timeout);
+			executor.setMaxOutputSize(maxOutputSize);
+			if (spillOutput) {
+				executor.setSpillDirectory(new File(System.getProperty("java.io.tmpdir")));
+			}
+			ExecResponse execResponse = executor.execute(execRequest);
 
 			if (exchange instanceof InOut) {
 				// pushes the execution output in out message
 				NormalizedMessage out = exchange.createMessage();
 				// marshal into the out message
-				marshaler.marshal(execResponse, out);
+				try {
+					marshaler.marshal(execResponse, out);
+				} catch (Exception e) {
+					deleteOutputFile(execResponse);
+					throw e;
+				}
 				exchange.setMessage(out, "out");
 				// send the message exchange
 				send(exchange);
 			} else {
+				deleteOutputFile(execResponse);
 				done(exchange);
 			}
 		}
 	}
+
+	/**
+	 * <p>
+	 * Deletes the spilled output file of an execution response, if any.
+	 * </p>
+	 * 
+	 * @param execResponse
+	 *            the <code>ExecResponse</code>.
+	 */
+	private void deleteOutputFile(ExecResponse execResponse) {
+		if (execResponse.getOutputFile() != null) {
+			execResponse.getOutputFile().delete();
+		}
+	}
 }
@@ -16,11 +16,24 @@
  */
 package org.apache.servicemix.exec.marshaler;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.Charset;
+import java.util.Enumeration;
+import java.util.Vector;
+
 import javax.jbi.messaging.NormalizedMessage;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
 import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamSource;
 
 import org.apache.servicemix.jbi.jaxp.SourceTransformer;
 import org.slf4j.Logger;
@@ -31,6 +44,10 @@ import org.w3c.dom.Document;
  * <p>
  * Default exec marshaler that use JAXB to marshal and unmarshal exec objects.
  * </p>
+ * <p>
+ * When the execution output has been spilled to a file, the response is not built
+ * in memory: the output file is streamed into the out message content.
+ * </p>
  * 
  * @author jbonofre
  */
@@ -63,6 +80,13 @@ public class DefaultExecMarshaler implements ExecMarshalerSupport {
      */
     public void marshal(ExecResponse execResponse, NormalizedMessage out) throws Exception {
         
+        if (execResponse.getOutputFile() != null) {
+            // stream the spilled output into the out message content
+            logger.debug("Stream the output file {} into the out message content.", execResponse.getOutputFile());
+            out.setContent(new StreamSource(stream(execResponse)));
+            return;
+        }
+        
         // create a JAXB context for the exec response
         logger.debug("Create a JAXB context with ExecResponse class.");
         JAXBContext jaxbContext = JAXBContext.newInstance(ExecResponse.class);
@@ -82,4 +106,161 @@ public class DefaultExecMarshaler implements ExecMarshalerSupport {
         out.setContent(new DOMSource(document));
     }
     
+    /**
+     * <p>
+     * Creates an exec response document stream reading the output from the response
+     * output file. The output file is deleted when the stream is closed.
+     * </p>
+     * 
+     * @param execResponse the exec response.
+     * @return the exec response document stream.
+     */
+    protected InputStream stream(ExecResponse execResponse) throws IOException {
+        // the output is escaped byte per byte, which requires an ASCII compatible platform charset
+        String charset = Charset.defaultCharset().name();
+        StringBuffer head = new StringBuffer();
+        head.append("<?xml version=\"1.0\" encoding=\"").append(charset).append("\"?>");
+        head.append("<exec:execResponse xmlns:exec=\"http://servicemix.apache.org/exec\">");
+        head.append("<endTime>").append(execResponse.getEndTime()).append("</endTime>");
+        head.append("<errorData>").append(escape(execResponse.getErrorData())).append("</errorData>");
+        head.append("<errorDiscarded>").append(execResponse.getErrorDiscarded()).append("</errorDiscarded>");
+        head.append("<executionDuration>").append(execResponse.getExecutionDuration()).append("</executionDuration>");
+        head.append("<exitCode>").append(execResponse.getExitCode()).append("</exitCode>");
+        head.append("<outputData>");
+        StringBuffer tail = new StringBuffer();
+        tail.append("</outputData>");
+        tail.append("<outputDiscarded>").append(execResponse.getOutputDiscarded()).append("</outputDiscarded>");
+        tail.append("<startTime>").append(execResponse.getStartTime()).append("</startTime>");
+        tail.append("</exec:execResponse>");
+        
+        Vector<InputStream> streams = new Vector<InputStream>();
+        streams.add(new ByteArrayInputStream(head.toString().getBytes(charset)));
+        streams.add(new EscapingInputStream(new BufferedInputStream(new SpillFileInputStream(execResponse.getOutputFile()))));
+        streams.add(new ByteArrayInputStream(tail.toString().getBytes(charset)));
+        Enumeration<InputStream> enumeration = streams.elements();
+        return new SequenceInputStream(enumeration);
+    }
+    
+    private static String escape(CharSequence data) {
+        StringBuffer escaped = new StringBuffer(data.length());
+        for (int i = 0; i < data.length(); i++) {
+            char c = data.charAt(i);
+            if (c == '&') {
+                escaped.append("&amp;");
+            } else if (c == '<') {
+                escaped.append("&lt;");
+            } else if (c == '>') {
+                escaped.append("&gt;");
+            } else if (c >= 0x20 || c == '\t' || c == '\n' || c == '\r') {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+    
+    /**
+     * <p>
+     * Escapes the XML markup characters of a raw byte stream and drops the control
+     * characters that are not allowed in XML.
+     * </p>
+     */
+    private static class EscapingInputStream extends FilterInputStream {
+        
+        private static final byte[] AMP = { 'a', 'm', 'p', ';' };
+        private static final byte[] LT = { 'l', 't', ';' };
+        private static final byte[] GT = { 'g', 't', ';' };
+        
+        private byte[] pending;
+        private int index;
+        
+        EscapingInputStream(InputStream in) {
+            super(in);
+        }
+        
+        public int read() throws IOException {
+            while (true) {
+                if (pending != null) {
+                    int b = pending[index++];
+                    if (index == pending.length) {
+                        pending = null;
+                    }
+                    return b;
+                }
+                int b = in.read();
+                if (b == '&') {
+                    pending = AMP;
+                } else if (b == '<') {
+                    pending = LT;
+                } else if (b == '>') {
+                    pending = GT;
+                } else if (b < 0x20 && b != -1 && b != '\t' && b != '\n' && b != '\r') {
+                    continue;
+                } else {
+                    return b;
+                }
+                index = 0;
+                return '&';
+            }
+        }
+        
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int count = 0;
+            while (count < len) {
+                int c = read();
+                if (c == -1) {
+                    return count == 0 ? -1 : count;
+                }
+                b[off + count++] = (byte) c;
+                if (pending == null && in.available() == 0) {
+                    break;
+                }
+            }
+            return count;
+        }
+        
+        public long skip(long n) throws IOException {
+            long skipped = 0;
+            while (skipped < n && read() != -1) {
+                skipped++;
+            }
+            return skipped;
+        }
+        
+        public int available() throws IOException {
+            return pending != null ? pending.length - index : 0;
+        }
+        
+        public boolean markSupported() {
+            return false;
+        }
+        
+    }
+    
+    /**
+     * <p>
+     * Reads the spilled output file and deletes it when closed.
+     * </p>
+     */
+    private static class SpillFileInputStream extends FileInputStream {
+        
+        private final File file;
+        
+        SpillFileInputStream(File file) throws IOException {
+            super(file);
+            this.file = file;
+        }
+        
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                file.delete();
+            }
+        }
+        
+    }
+
 }
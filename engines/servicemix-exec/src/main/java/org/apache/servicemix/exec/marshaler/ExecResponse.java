@@ -16,8 +16,11 @@
  */
 package org.apache.servicemix.exec.marshaler;
 
+import java.io.File;
+
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlTransient;
 
 /**
  * <p>
@@ -36,6 +39,9 @@ public class ExecResponse {
     
     private StringBuffer outputData;
     private StringBuffer errorData;
+    private long outputDiscarded;
+    private long errorDiscarded;
+    private File outputFile;
     
     /**
      * <p>
@@ -143,5 +149,59 @@ public class ExecResponse {
     public void setErrorData(StringBuffer errorData) {
         this.errorData = errorData;
     }
+    
+    public long getOutputDiscarded() {
+        return this.outputDiscarded;
+    }
+    
+    /**
+     * <p>
+     * This attribute defines the number of bytes of the system command execution
+     * output discarded because the output exceeded the maximum size. When it is
+     * not 0, the output buffer is truncated.
+     * </p>
+     * 
+     * @param outputDiscarded the number of discarded output bytes.
+     */
+    @XmlElement
+    public void setOutputDiscarded(long outputDiscarded) {
+        this.outputDiscarded = outputDiscarded;
+    }
+    
+    public long getErrorDiscarded() {
+        return this.errorDiscarded;
+    }
+    
+    /**
+     * <p>
+     * This attribute defines the number of bytes of the system command execution
+     * error stream discarded because it exceeded the maximum size. When it is
+     * not 0, the error buffer is truncated.
+     * </p>
+     * 
+     * @param errorDiscarded the number of discarded error bytes.
+     */
+    @XmlElement
+    public void setErrorDiscarded(long errorDiscarded) {
+        this.errorDiscarded = errorDiscarded;
+    }
+    
+    @XmlTransient
+    public File getOutputFile() {
+        return this.outputFile;
+    }
+    
+    /**
+     * <p>
+     * This attribute defines the temporary file holding the whole system command
+     * execution output when it has been spilled to disk. In that case, the output
+     * buffer is empty. The file is deleted once the response has been streamed.
+     * </p>
+     * 
+     * @param outputFile the system command execution output file.
+     */
+    public void setOutputFile(File outputFile) {
+        this.outputFile = outputFile;
+    }
 
 }
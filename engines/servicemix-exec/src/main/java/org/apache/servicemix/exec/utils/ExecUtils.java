@@ -16,11 +16,6 @@
  */
 package org.apache.servicemix.exec.utils;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-
 import org.apache.servicemix.exec.marshaler.ExecRequest;
 import org.apache.servicemix.exec.marshaler.ExecResponse;
 import org.slf4j.Logger;
@@ -40,21 +35,44 @@ public class ExecUtils {
 	 * Executes a command and returns the output and error buffer and also the
 	 * return value.
 	 * </p>
+	 * <p>
+	 * The command is executed without timeout and with an unbounded output capture,
+	 * use a <code>ProcessExecutor</code> to bound the execution.
+	 * </p>
 	 * 
 	 * @param execRequest the exec request.
 	 * @return the execution response.
 	 * @throws ExecException in case of execution failure.
 	 */
 	public static ExecResponse execute(ExecRequest execRequest) throws ExecException {
+		return new ProcessExecutor().execute(execRequest);
+	}
 
-		ExecResponse execResponse = new ExecResponse();
-		
-		String exec = execRequest.getCommand();
+	/**
+	 * <p>
+	 * Builds the command line (command followed by the arguments) of an exec request.
+	 * </p>
+	 * 
+	 * @param execRequest the exec request.
+	 * @return the command line.
+	 */
+	public static String getCommandLine(ExecRequest execRequest) {
+		StringBuffer exec = new StringBuffer(execRequest.getCommand());
 		for (String argument:execRequest.getArguments()) {
-		    exec = exec + " " + argument;
+		    exec.append(' ').append(argument);
 		}
-		
-		logger.info("Execute command {}", exec);
+		return exec.toString();
+	}
+
+	/**
+	 * <p>
+	 * Wraps a command line into the shell of the current platform.
+	 * </p>
+	 * 
+	 * @param exec the command line.
+	 * @return the shell command.
+	 */
+	public static String[] getShellCommand(String exec) {
 		String[] shellCommand = null;
 		logger.debug("Define the shell.");
 		logger.debug("Get the OS name property.");
@@ -89,83 +107,6 @@ public class ExecUtils {
 				shellCommand = new String[] { "/bin/sh", "-c", exec };
 			}
 		}
-		try {
-			// remember the start time
-			execResponse.setStartTime(System.currentTimeMillis());
-			
-			// launch the system command
-			Process process = Runtime.getRuntime().exec(shellCommand);
-			
-			// get and start the error stream gobbler
-			StreamGobbler errorGobbler = new StreamGobbler(process.getErrorStream(), execResponse.getErrorData());
-			errorGobbler.start();
-
-			// get and start the output stream gobbler
-			StreamGobbler outputGobbler = new StreamGobbler(process.getInputStream(), execResponse.getOutputData());
-			outputGobbler.start();
-			
-			// wait the end of the process
-			int exitValue = process.waitFor();
-			
-			// remember the end time
-			execResponse.setEndTime(System.currentTimeMillis());
-			
-			// store the exit code
-			execResponse.setExitCode(exitValue);
-			
-			if (exitValue != 0) {
-				// an error occured
-				logger.error("Command {} execution failed with return code {}", exec, exitValue);
-			} else {
-				// command was successful
-				logger.debug("Command {} execution completed: {}", exec, execResponse.getOutputData().toString());
-			}
-		} catch (Exception exception) {
-			logger.error("Command {} execution failed.", exec, exception);
-			throw new ExecException("Command " + exec + " execution failed.", exception);
-		}
-
-		// return the exec response
-		return execResponse;
+		return shellCommand;
 	}
 }
-
-/**
- * <p>
- * Inner class to glob stream with a thread.
- * </p>
- * 
- * @author jbonofre
- */
-class StreamGobbler extends Thread {
-
-	private final Logger logger = LoggerFactory.getLogger(StreamGobbler.class);
-
-	InputStream in;
-	StringBuffer response;
-
-	StreamGobbler(InputStream in, StringBuffer response) {
-		this.in = in;
-		this.response = response;
-	}
-
-	/*
-	 * (non-Javadoc)
-	 * 
-	 * @see java.lang.Thread#run()
-	 */
-	public void run() {
-		try {
-			BufferedReader reader = new BufferedReader(
-					new InputStreamReader(in));
-			String row = null;
-			while ((row = reader.readLine()) != null) {
-				response.append(row);
-				response.append('\n');
-			}
-		} catch (IOException ioException) {
-			logger.warn("System command stream gobbler error : {}", ioException.getMessage());
-		}
-	}
-
-}
@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.exec.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * <p>
+ * Captures a process stream. Up to <code>maxSize</code> bytes are kept in memory,
+ * the overflow is either discarded or, if a spill directory is defined, the whole
+ * output is moved to a temporary file.
+ * </p>
+ */
+public class OutputCapture extends OutputStream {
+
+    private final int maxSize; // the maximum number of bytes kept in memory, negative for unbounded
+    private final File spillDirectory; // the temporary file directory, null to discard the overflow
+
+    private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private File file;
+    private OutputStream fileStream;
+    private long discarded;
+
+    /**
+     * <p>
+     * Creates an output capture.
+     * </p>
+     * 
+     * @param maxSize the maximum number of bytes kept in memory, negative for unbounded.
+     * @param spillDirectory the directory of the overflow temporary file, <code>null</code> to discard the overflow.
+     */
+    public OutputCapture(int maxSize, File spillDirectory) {
+        this.maxSize = maxSize;
+        this.spillDirectory = spillDirectory;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.io.OutputStream#write(int)
+     */
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.io.OutputStream#write(byte[], int, int)
+     */
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        if (fileStream != null) {
+            fileStream.write(b, off, len);
+            return;
+        }
+        int room = maxSize < 0 ? len : Math.min(len, maxSize - buffer.size());
+        if (room == len) {
+            buffer.write(b, off, len);
+        } else if (spillDirectory != null) {
+            // move what has been captured so far to the temporary file
+            file = File.createTempFile("servicemix-exec-", ".out", spillDirectory);
+            fileStream = new BufferedOutputStream(new FileOutputStream(file));
+            buffer.writeTo(fileStream);
+            buffer = new ByteArrayOutputStream(0);
+            fileStream.write(b, off, len);
+        } else {
+            buffer.write(b, off, room);
+            discarded += len - room;
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.io.OutputStream#close()
+     */
+    public synchronized void close() throws IOException {
+        if (fileStream != null) {
+            fileStream.close();
+        }
+    }
+
+    /**
+     * <p>
+     * Returns the temporary file holding the whole output if the output has been spilled.
+     * </p>
+     * 
+     * @return the temporary file or <code>null</code> if the output is in memory.
+     */
+    public synchronized File getFile() {
+        return file;
+    }
+
+    /**
+     * <p>
+     * Returns the number of bytes discarded because the output exceeded the maximum size.
+     * </p>
+     * 
+     * @return the number of discarded bytes.
+     */
+    public synchronized long getDiscarded() {
+        return discarded;
+    }
+
+    /**
+     * <p>
+     * Decodes the in memory output using the platform charset.
+     * </p>
+     * 
+     * @return the in memory output.
+     */
+    public synchronized String toString() {
+        return buffer.toString();
+    }
+
+    /**
+     * <p>
+     * Closes and deletes the temporary file, if any.
+     * </p>
+     */
+    public synchronized void dispose() {
+        try {
+            close();
+        } catch (IOException e) {
+            // ignore
+        }
+        if (file != null) {
+            file.delete();
+            file = null;
+        }
+    }
+
+}
@@ -0,0 +1,388 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.exec.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.servicemix.exec.marshaler.ExecRequest;
+import org.apache.servicemix.exec.marshaler.ExecResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Executes system commands using a <code>ProcessBuilder</code>.
+ * </p>
+ * <p>
+ * The output and error streams of the processes are pumped by a shared pool of
+ * gobbler threads. The execution can be bounded by a timeout, after which the
+ * process and its children are killed, and the captured output by a maximum size,
+ * the overflow being either discarded or spilled to a temporary file.
+ * </p>
+ */
+public class ProcessExecutor {
+
+    private final static Logger logger = LoggerFactory.getLogger(ProcessExecutor.class);
+
+    // how long to wait for the gobblers to drain the streams once the process is gone
+    private final static long DRAIN_TIMEOUT = 5000;
+
+    private final static ExecutorService GOBBLERS = Executors.newCachedThreadPool(new DaemonThreadFactory("servicemix-exec-gobbler"));
+    private final static ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("servicemix-exec-watchdog"));
+
+    private long timeout; // the execution timeout in milliseconds, 0 means no timeout
+    private int maxOutputSize = -1; // the maximum number of bytes captured per stream, negative means unbounded
+    private File spillDirectory; // the directory where the output overflow is spilled, null means the overflow is discarded
+
+    public long getTimeout() {
+        return this.timeout;
+    }
+
+    /**
+     * <p>
+     * This attribute defines the execution timeout in milliseconds. When the timeout
+     * is reached, the process and its children are killed and an <code>ExecException</code>
+     * is raised. A value of 0 (the default) means no timeout.
+     * </p>
+     * 
+     * @param timeout the execution timeout in milliseconds.
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    public int getMaxOutputSize() {
+        return this.maxOutputSize;
+    }
+
+    /**
+     * <p>
+     * This attribute defines the maximum number of bytes captured in memory for the
+     * output and error streams. A negative value (the default) means unbounded.
+     * </p>
+     * 
+     * @param maxOutputSize the maximum number of bytes captured per stream.
+     */
+    public void setMaxOutputSize(int maxOutputSize) {
+        this.maxOutputSize = maxOutputSize;
+    }
+
+    public File getSpillDirectory() {
+        return this.spillDirectory;
+    }
+
+    /**
+     * <p>
+     * This attribute defines the directory where the output is spilled when it exceeds
+     * <code>maxOutputSize</code>. The whole output is then available in the response
+     * output file. When <code>null</code> (the default), the overflow is discarded.
+     * The error stream is never spilled.
+     * </p>
+     * 
+     * @param spillDirectory the spill directory.
+     */
+    public void setSpillDirectory(File spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * <p>
+     * Executes a command and returns the output and error buffer and also the
+     * return value.
+     * </p>
+     * 
+     * @param execRequest the exec request.
+     * @return the execution response.
+     * @throws ExecException in case of execution failure or timeout.
+     */
+    public ExecResponse execute(ExecRequest execRequest) throws ExecException {
+        String exec = ExecUtils.getCommandLine(execRequest);
+        logger.info("Execute command {}", exec);
+
+        long timeout = execRequest.getTimeout() > 0 ? execRequest.getTimeout() : this.timeout;
+        OutputCapture output = new OutputCapture(maxOutputSize, spillDirectory);
+        OutputCapture error = new OutputCapture(maxOutputSize, null);
+        ExecResponse execResponse = new ExecResponse();
+        final AtomicBoolean timedOut = new AtomicBoolean();
+        Process process = null;
+        try {
+            // remember the start time
+            execResponse.setStartTime(System.currentTimeMillis());
+
+            // launch the system command
+            process = new ProcessBuilder(ExecUtils.getShellCommand(exec)).start();
+            process.getOutputStream().close();
+
+            // pump the output and error streams
+            Future<?> outputGobbler = GOBBLERS.submit(new StreamGobbler(process.getInputStream(), output));
+            Future<?> errorGobbler = GOBBLERS.submit(new StreamGobbler(process.getErrorStream(), error));
+
+            // arm the watchdog
+            ScheduledFuture<?> watchdog = null;
+            if (timeout > 0) {
+                final Process watched = process;
+                watchdog = WATCHDOG.schedule(new Runnable() {
+                    public void run() {
+                        timedOut.set(true);
+                        destroy(watched);
+                    }
+                }, timeout, TimeUnit.MILLISECONDS);
+            }
+
+            // wait the end of the process
+            int exitValue;
+            try {
+                exitValue = process.waitFor();
+            } finally {
+                if (watchdog != null) {
+                    watchdog.cancel(false);
+                }
+            }
+            drain(outputGobbler, process.getInputStream());
+            drain(errorGobbler, process.getErrorStream());
+            output.close();
+
+            // remember the end time
+            execResponse.setEndTime(System.currentTimeMillis());
+            execResponse.setExecutionDuration(execResponse.getEndTime() - execResponse.getStartTime());
+
+            if (timedOut.get()) {
+                throw new ExecException("Command " + exec + " timed out after " + timeout + " ms.");
+            }
+
+            // store the exit code and the captured streams
+            execResponse.setExitCode(exitValue);
+            execResponse.setOutputData(new StringBuffer(output.toString()));
+            execResponse.setOutputFile(output.getFile());
+            execResponse.setErrorData(new StringBuffer(error.toString()));
+            execResponse.setOutputDiscarded(output.getDiscarded());
+            execResponse.setErrorDiscarded(error.getDiscarded());
+            if (output.getDiscarded() > 0 || error.getDiscarded() > 0) {
+                logger.warn("Command {} output exceeded {} bytes, {} output and {} error bytes discarded",
+                        new Object[] { exec, maxOutputSize, output.getDiscarded(), error.getDiscarded() });
+            }
+
+            if (exitValue != 0) {
+                // an error occured
+                logger.error("Command {} execution failed with return code {}", exec, exitValue);
+            } else if (output.getFile() != null) {
+                // command was successful
+                logger.debug("Command {} execution completed, output spilled to {}", exec, output.getFile());
+            } else {
+                // command was successful
+                logger.debug("Command {} execution completed: {}", exec, execResponse.getOutputData());
+            }
+        } catch (ExecException exception) {
+            output.dispose();
+            logger.error(exception.getMessage());
+            throw exception;
+        } catch (Exception exception) {
+            output.dispose();
+            if (process != null) {
+                destroy(process);
+            }
+            logger.error("Command {} execution failed.", exec, exception);
+            throw new ExecException("Command " + exec + " execution failed.", exception);
+        }
+
+        // return the exec response
+        return execResponse;
+    }
+
+    /**
+     * <p>
+     * Waits for a gobbler to drain a stream of a terminated process. A stream can stay
+     * open if the process has left children behind, in which case it is closed.
+     * </p>
+     */
+    private void drain(Future<?> gobbler, InputStream in) throws Exception {
+        try {
+            gobbler.get(DRAIN_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            logger.warn("System command stream still open {} ms after the process end, closing it", DRAIN_TIMEOUT);
+            gobbler.cancel(true);
+            try {
+                in.close();
+            } catch (IOException ioException) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Kills a process and, on Unix platforms, all its descendants. The descendants are
+     * looked up first as they are re-parented once the process is gone.
+     * </p>
+     * 
+     * @param process the process to kill.
+     */
+    static void destroy(Process process) {
+        int pid = getPid(process);
+        if (pid > 0 && !System.getProperty("os.name").startsWith("Windows")) {
+            try {
+                List<String> command = new ArrayList<String>();
+                command.add("kill");
+                command.add("-9");
+                for (Integer child : getDescendants(pid)) {
+                    command.add(child.toString());
+                }
+                if (command.size() > 2) {
+                    new ProcessBuilder(command).redirectErrorStream(true).start().waitFor();
+                }
+            } catch (Exception e) {
+                logger.warn("Unable to kill the children of process {}: {}", pid, e.getMessage());
+            }
+        }
+        process.destroy();
+    }
+
+    /**
+     * <p>
+     * Returns the pid of a process, or -1 if it can't be determined on this JVM.
+     * </p>
+     */
+    private static int getPid(Process process) {
+        try {
+            Method method = Process.class.getMethod("pid");
+            return ((Number) method.invoke(process)).intValue();
+        } catch (Exception e) {
+            // not available before Java 9
+        }
+        try {
+            Field field = process.getClass().getDeclaredField("pid");
+            field.setAccessible(true);
+            return field.getInt(process);
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    /**
+     * <p>
+     * Returns the descendants of a process using <code>ps</code>.
+     * </p>
+     */
+    private static List<Integer> getDescendants(int pid) throws IOException, InterruptedException {
+        Process ps = new ProcessBuilder("ps", "-e", "-o", "pid=", "-o", "ppid=").start();
+        Map<Integer, List<Integer>> children = new HashMap<Integer, List<Integer>>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(ps.getInputStream()));
+        try {
+            String row = null;
+            while ((row = reader.readLine()) != null) {
+                String[] columns = row.trim().split("\\s+");
+                if (columns.length == 2) {
+                    Integer parent = Integer.valueOf(columns[1]);
+                    List<Integer> list = children.get(parent);
+                    if (list == null) {
+                        list = new ArrayList<Integer>();
+                        children.put(parent, list);
+                    }
+                    list.add(Integer.valueOf(columns[0]));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        ps.waitFor();
+        List<Integer> descendants = new ArrayList<Integer>();
+        LinkedList<Integer> pending = new LinkedList<Integer>();
+        pending.add(pid);
+        while (!pending.isEmpty()) {
+            List<Integer> list = children.get(pending.removeFirst());
+            if (list != null) {
+                descendants.addAll(list);
+                pending.addAll(list);
+            }
+        }
+        return descendants;
+    }
+
+    /**
+     * <p>
+     * Copies a process stream into an output capture.
+     * </p>
+     */
+    private static class StreamGobbler implements Runnable {
+
+        private final InputStream in;
+        private final OutputStream out;
+
+        StreamGobbler(InputStream in, OutputStream out) {
+            this.in = in;
+            this.out = out;
+        }
+
+        public void run() {
+            byte[] buffer = new byte[8192];
+            try {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            } catch (IOException ioException) {
+                logger.warn("System command stream gobbler error : {}", ioException.getMessage());
+            }
+        }
+
+    }
+
+    /**
+     * <p>
+     * Creates named daemon threads, so that the shared pools don't prevent the JVM shutdown.
+     * </p>
+     */
+    private static class DaemonThreadFactory implements ThreadFactory {
+
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        DaemonThreadFactory(String name) {
+            this.name = name;
+        }
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    }
+
+}
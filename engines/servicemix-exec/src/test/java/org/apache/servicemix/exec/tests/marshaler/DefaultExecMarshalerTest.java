@@ -16,6 +16,8 @@
  */
 package org.apache.servicemix.exec.tests.marshaler;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.jbi.messaging.MessageExchange;
@@ -33,6 +35,7 @@ import org.apache.servicemix.jbi.helper.MessageExchangePattern;
 import org.apache.servicemix.jbi.jaxp.SourceTransformer;
 import org.apache.servicemix.jbi.jaxp.StringSource;
 import org.apache.servicemix.jbi.messaging.MessageExchangeFactoryImpl;
+import org.w3c.dom.Element;
 
 /**
  * <p>
@@ -115,5 +118,46 @@ public class DefaultExecMarshalerTest extends TestCase {
         assertEquals(content, "<?xml version=\"1.0\" encoding=\"UTF-8\"?><ns2:execResponse xmlns:ns2=\"http://servicemix.apache.org/exec\"><endTime>1000000</endTime><errorData/><executionDuration>1000000</executionDuration><exitCode>0</exitCode><outputData/><startTime>1000000</startTime></ns2:execResponse>");
     }
     
+    /**
+     * <p>
+     * Test the marshalling of a ExecResponse with a spilled output file.
+     * </p>
+     * 
+     * @throws Exception if the marshalling fails.
+     */
+    public void testStreamingMarshalling() throws Exception {
+        // spill an output containing markup into a file
+        File outputFile = File.createTempFile("servicemix-exec-", ".out");
+        FileOutputStream stream = new FileOutputStream(outputFile);
+        stream.write("<a>b & c</a>\n".getBytes("US-ASCII"));
+        stream.close();
+        
+        // construct an ExecResponse
+        ExecResponse execResponse = new ExecResponse();
+        execResponse.setExitCode(0);
+        execResponse.setStartTime(1000000);
+        execResponse.setEndTime(1000000);
+        execResponse.setExecutionDuration(1000000);
+        execResponse.setErrorData(new StringBuffer("TEST"));
+        execResponse.setErrorDiscarded(10);
+        execResponse.setOutputFile(outputFile);
+        
+        // create an exchange/normalized message
+        MessageExchange exchange = this.factory.createExchange(MessageExchangePattern.IN_ONLY);
+        NormalizedMessage message = exchange.createMessage();
+        
+        // marshal the exec response
+        marshaler.marshal(execResponse, message);
+        
+        // the output file is read and deleted when the content is consumed
+        SourceTransformer transformer = new SourceTransformer();
+        Element response = transformer.toDOMDocument(message).getDocumentElement();
+        String outputData = response.getElementsByTagName("outputData").item(0).getTextContent();
+        
+        assertEquals("<a>b & c</a>\n", outputData);
+        assertEquals("10", response.getElementsByTagName("errorDiscarded").item(0).getTextContent());
+        assertFalse(outputFile.exists());
+    }
+    
 
 }
@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.exec.tests.utils;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.apache.servicemix.exec.marshaler.ExecRequest;
+import org.apache.servicemix.exec.marshaler.ExecResponse;
+import org.apache.servicemix.exec.utils.ExecException;
+import org.apache.servicemix.exec.utils.ProcessExecutor;
+
+/**
+ * <p>
+ * Unit tests on the process executor, using local shell commands.
+ * </p>
+ */
+public class ProcessExecutorTest extends TestCase {
+    
+    private ProcessExecutor executor;
+    
+    /*
+     * (non-Javadoc)
+     * @see junit.framework.TestCase#setUp()
+     */
+    public void setUp() throws Exception {
+        this.executor = new ProcessExecutor();
+    }
+    
+    private boolean isUnix() {
+        return !System.getProperty("os.name").startsWith("Windows");
+    }
+    
+    private ExecRequest createRequest(String command) {
+        ExecRequest execRequest = new ExecRequest();
+        execRequest.setCommand(command);
+        return execRequest;
+    }
+    
+    /**
+     * <p>
+     * Test the capture of the output, error and exit code.
+     * </p>
+     * 
+     * @throws Exception if the execution fails.
+     */
+    public void testExecution() throws Exception {
+        if (!isUnix()) {
+            return;
+        }
+        ExecResponse execResponse = executor.execute(createRequest("echo out; echo err 1>&2; exit 3"));
+        
+        assertEquals(3, execResponse.getExitCode());
+        assertEquals("out\n", execResponse.getOutputData().toString());
+        assertEquals("err\n", execResponse.getErrorData().toString());
+        assertNull(execResponse.getOutputFile());
+    }
+    
+    /**
+     * <p>
+     * Test that a command running longer than the timeout is killed, including its children.
+     * </p>
+     * 
+     * @throws Exception if the execution fails.
+     */
+    public void testTimeout() throws Exception {
+        if (!isUnix()) {
+            return;
+        }
+        ExecRequest execRequest = createRequest("sleep 30 & sleep 30; echo done");
+        execRequest.setTimeout(500);
+        long start = System.currentTimeMillis();
+        try {
+            executor.execute(execRequest);
+            fail("The command should have timed out.");
+        } catch (ExecException e) {
+            // expected
+        }
+        // the background child holds the output stream open until it is killed
+        assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+    
+    /**
+     * <p>
+     * Test that the output exceeding the maximum size is discarded.
+     * </p>
+     * 
+     * @throws Exception if the execution fails.
+     */
+    public void testOutputCap() throws Exception {
+        if (!isUnix()) {
+            return;
+        }
+        executor.setMaxOutputSize(1000);
+        ExecResponse execResponse = executor.execute(createRequest("head -c 100000 /dev/zero | tr '\\0' a"));
+        
+        assertEquals(0, execResponse.getExitCode());
+        assertEquals(1000, execResponse.getOutputData().length());
+        assertEquals(99000, execResponse.getOutputDiscarded());
+        assertEquals(0, execResponse.getErrorDiscarded());
+        assertNull(execResponse.getOutputFile());
+    }
+    
+    /**
+     * <p>
+     * Test that the output exceeding the maximum size is spilled to a temporary file.
+     * </p>
+     * 
+     * @throws Exception if the execution fails.
+     */
+    public void testOutputSpill() throws Exception {
+        if (!isUnix()) {
+            return;
+        }
+        executor.setMaxOutputSize(1000);
+        executor.setSpillDirectory(new File(System.getProperty("java.io.tmpdir")));
+        ExecResponse execResponse = executor.execute(createRequest("head -c 100000 /dev/zero | tr '\\0' a"));
+        
+        File outputFile = execResponse.getOutputFile();
+        try {
+            assertNotNull(outputFile);
+            assertEquals(100000, outputFile.length());
+            assertEquals(0, execResponse.getOutputData().length());
+            assertEquals(0, execResponse.getOutputDiscarded());
+        } finally {
+            if (outputFile != null) {
+                outputFile.delete();
+            }
+        }
+    }
+
+}
@@ -28,7 +28,6 @@ import com.opensymphony.workflow.InvalidRoleException;
 import com.opensymphony.workflow.Workflow;
 import com.opensymphony.workflow.WorkflowException;
 import com.opensymphony.workflow.basic.BasicWorkflow;
-import com.opensymphony.workflow.config.DefaultConfiguration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -102,15 +101,14 @@ public class OSWorkflow implements Runnable {
     }
 
     /**
-     * initializes the workflow and a default config
+     * initializes the workflow with the configuration of the endpoint
      * 
      * @return the unique workflow id
      */
     private long createWorkflow() throws InvalidRoleException,
             InvalidInputException, WorkflowException {
         this.osWorkflowInstance = new BasicWorkflow(this.caller);
-        DefaultConfiguration config = new DefaultConfiguration();
-        this.osWorkflowInstance.setConfiguration(config);
+        this.osWorkflowInstance.setConfiguration(this.endpoint.getConfiguration());
         long wfId = this.osWorkflowInstance.initialize(this.osWorkflowName, this.action, this.map);
         return wfId;
     }
@@ -16,6 +16,11 @@
  */
 package org.apache.servicemix.osworkflow;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
 import java.util.HashMap;
 
 import javax.jbi.messaging.ExchangeStatus;
@@ -34,6 +39,10 @@ import org.apache.servicemix.common.EndpointSupport;
 import org.apache.servicemix.jbi.jaxp.SourceTransformer;
 import org.apache.servicemix.executors.Executor;
 
+import com.opensymphony.workflow.FactoryException;
+import com.opensymphony.workflow.config.Configuration;
+import com.opensymphony.workflow.config.DefaultConfiguration;
+
 /**
  * @org.apache.xbean.XBean element="endpoint"
  * 
@@ -51,6 +60,18 @@ public class OSWorkflowEndpoint extends ProviderEndpoint {
 
     private Executor executor;
 
+    private volatile Configuration configuration;
+
+    private URL configurationUrl;
+
+    private volatile boolean ownConfiguration;
+
+    private long configurationLastModified;
+
+    private long configurationCheckPeriod = 1000;
+
+    private volatile long nextConfigurationCheck;
+
     private SourceTransformer sourceTransformer = new SourceTransformer();
 
     public void start() throws Exception {
@@ -61,9 +82,129 @@ public class OSWorkflowEndpoint extends ProviderEndpoint {
 
     public void stop() throws Exception {
         executor.shutdown();
+        synchronized (this) {
+            if (ownConfiguration) {
+                configuration = null;
+            }
+        }
         super.stop();
     }
 
+    /**
+     * Returns the workflow configuration shared by all the workflows started by
+     * this endpoint, so that the workflow descriptors are parsed only once.
+     * Unless a configuration has been set on the endpoint, it is loaded from
+     * the configuration url and loaded again when that file is modified.  The
+     * modification time is checked at most once per configuration check period.
+     *
+     * @return the workflow configuration
+     * @throws FactoryException if the configuration can not be loaded
+     */
+    public Configuration getConfiguration() throws FactoryException {
+        Configuration current = configuration;
+        if (current != null && (!ownConfiguration || System.currentTimeMillis() < nextConfigurationCheck)) {
+            return current;
+        }
+        // the configuration url is read without holding the endpoint lock
+        long lastModified = getLastModified(configurationUrl);
+        synchronized (this) {
+            if (configuration == null || (ownConfiguration && lastModified != configurationLastModified)) {
+                DefaultConfiguration config = new DefaultConfiguration();
+                config.load(configurationUrl);
+                configuration = config;
+                configurationLastModified = lastModified;
+                ownConfiguration = true;
+            }
+            nextConfigurationCheck = System.currentTimeMillis() + configurationCheckPeriod;
+            return configuration;
+        }
+    }
+
+    /**
+     * The OSWorkflow configuration to use for all the workflows started by
+     * this endpoint.  If not set, a configuration is loaded from the
+     * configuration url.
+     *
+     * @param configuration
+     *            the configuration to set
+     */
+    public synchronized void setConfiguration(Configuration configuration) {
+        this.configuration = configuration;
+        this.ownConfiguration = false;
+    }
+
+    /**
+     * @return the configurationUrl
+     */
+    public URL getConfigurationUrl() {
+        return this.configurationUrl;
+    }
+
+    /**
+     * The location of the OSWorkflow configuration file.  If not set, the
+     * default osworkflow.xml is looked up on the classpath.
+     *
+     * @param configurationUrl
+     *            the configurationUrl to set
+     */
+    public void setConfigurationUrl(URL configurationUrl) {
+        this.configurationUrl = configurationUrl;
+    }
+
+    /**
+     * @return the configurationCheckPeriod
+     */
+    public long getConfigurationCheckPeriod() {
+        return this.configurationCheckPeriod;
+    }
+
+    /**
+     * The minimum time in milliseconds between two checks of the modification
+     * time of the configuration url.  Defaults to 1000.
+     *
+     * @param configurationCheckPeriod
+     *            the configurationCheckPeriod to set
+     */
+    public void setConfigurationCheckPeriod(long configurationCheckPeriod) {
+        this.configurationCheckPeriod = configurationCheckPeriod;
+    }
+
+    /**
+     * Returns the modification time of the resource at the given url, or 0 if
+     * it is unknown.  The modification time of an entry of a jar is the one of
+     * the jar file.
+     */
+    static long getLastModified(URL url) {
+        if (url == null) {
+            return 0;
+        }
+        try {
+            if ("file".equals(url.getProtocol())) {
+                return new File(url.toURI()).lastModified();
+            }
+            if ("jar".equals(url.getProtocol())) {
+                String path = url.getPath();
+                int separator = path.indexOf("!/");
+                if (separator > 0) {
+                    return getLastModified(new URL(path.substring(0, separator)));
+                }
+            }
+            URLConnection connection = url.openConnection();
+            try {
+                return connection.getLastModified();
+            } finally {
+                connection.getInputStream().close();
+            }
+        } catch (URISyntaxException e) {
+            logger.debug("Unable to get the modification time of " + url, e);
+        } catch (IllegalArgumentException e) {
+            logger.debug("Unable to get the modification time of " + url, e);
+        } catch (IOException e) {
+            logger.debug("Unable to get the modification time of " + url, e);
+        }
+        return 0;
+    }
+
     /*
      * (non-Javadoc)
      * 
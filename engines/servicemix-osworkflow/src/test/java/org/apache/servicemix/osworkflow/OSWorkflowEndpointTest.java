@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.osworkflow;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import junit.framework.TestCase;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.util.FileCopyUtils;
+
+import com.opensymphony.workflow.config.Configuration;
+
+/**
+ * Test cases for the workflow configuration shared by an {@link OSWorkflowEndpoint}
+ */
+public class OSWorkflowEndpointTest extends TestCase {
+
+    private File dir;
+    private File file;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        // the directory name has to be encoded in urls
+        dir = new File("target/osworkflow test%dir");
+        dir.mkdirs();
+        file = new File(dir, "osworkflow.xml");
+        FileCopyUtils.copy(new ClassPathResource("osworkflow.xml").getInputStream(), new FileOutputStream(file));
+    }
+
+    protected void tearDown() throws Exception {
+        new File(dir, "osworkflow.jar").delete();
+        file.delete();
+        dir.delete();
+        super.tearDown();
+    }
+
+    public void testConfigurationSharedByWorkflows() throws Exception {
+        final OSWorkflowEndpoint endpoint = new OSWorkflowEndpoint();
+        endpoint.setConfigurationUrl(file.toURI().toURL());
+
+        Configuration configuration = endpoint.getConfiguration();
+        assertSame(configuration, endpoint.getConfiguration());
+        // the workflow descriptors are parsed once
+        assertSame(configuration.getWorkflow("exampleflow"), configuration.getWorkflow("exampleflow"));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Configuration>> results = new ArrayList<Future<Configuration>>();
+            for (int i = 0; i < 20; i++) {
+                results.add(executor.submit(new Callable<Configuration>() {
+                    public Configuration call() throws Exception {
+                        return endpoint.getConfiguration();
+                    }
+                }));
+            }
+            for (Future<Configuration> result : results) {
+                assertSame(configuration, result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // each endpoint has its own configuration
+        OSWorkflowEndpoint other = new OSWorkflowEndpoint();
+        other.setConfigurationUrl(file.toURI().toURL());
+        assertNotSame(configuration, other.getConfiguration());
+    }
+
+    public void testConfigurationReloadedWhenModified() throws Exception {
+        OSWorkflowEndpoint endpoint = new OSWorkflowEndpoint();
+        endpoint.setConfigurationUrl(file.toURI().toURL());
+        endpoint.setConfigurationCheckPeriod(0);
+
+        Configuration configuration = endpoint.getConfiguration();
+        assertSame(configuration, endpoint.getConfiguration());
+
+        file.setLastModified(file.lastModified() + 10000);
+
+        Configuration reloaded = endpoint.getConfiguration();
+        assertNotSame(configuration, reloaded);
+        assertNotNull(reloaded.getWorkflow("exampleflow"));
+        assertSame(reloaded, endpoint.getConfiguration());
+    }
+
+    public void testModificationCheckedOncePerPeriod() throws Exception {
+        OSWorkflowEndpoint endpoint = new OSWorkflowEndpoint();
+        endpoint.setConfigurationUrl(file.toURI().toURL());
+        endpoint.setConfigurationCheckPeriod(60000);
+
+        Configuration configuration = endpoint.getConfiguration();
+        file.setLastModified(file.lastModified() + 10000);
+
+        assertSame(configuration, endpoint.getConfiguration());
+    }
+
+    public void testInjectedConfigurationNotReloaded() throws Exception {
+        OSWorkflowEndpoint endpoint = new OSWorkflowEndpoint();
+        endpoint.setConfigurationUrl(file.toURI().toURL());
+        endpoint.setConfigurationCheckPeriod(0);
+        Configuration configuration = new OSWorkflowEndpoint().getConfiguration();
+        endpoint.setConfiguration(configuration);
+
+        file.setLastModified(file.lastModified() + 10000);
+
+        assertSame(configuration, endpoint.getConfiguration());
+    }
+
+    public void testLastModifiedOfEncodedFileUrl() throws Exception {
+        URL url = file.toURI().toURL();
+        assertTrue(url.toString().indexOf("%25") > 0);
+
+        assertEquals(file.lastModified(), OSWorkflowEndpoint.getLastModified(url));
+    }
+
+    public void testLastModifiedOfJarUrl() throws Exception {
+        File jar = new File(dir, "osworkflow.jar");
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+        try {
+            out.putNextEntry(new ZipEntry("osworkflow.xml"));
+            out.write(FileCopyUtils.copyToByteArray(new ClassPathResource("osworkflow.xml").getInputStream()));
+            out.closeEntry();
+        } finally {
+            out.close();
+        }
+        URL url = new URL("jar:" + jar.toURI().toURL() + "!/osworkflow.xml");
+
+        assertEquals(jar.lastModified(), OSWorkflowEndpoint.getLastModified(url));
+
+        OSWorkflowEndpoint endpoint = new OSWorkflowEndpoint();
+        endpoint.setConfigurationUrl(url);
+        assertNotNull(endpoint.getConfiguration().getWorkflow("exampleflow"));
+    }
+
+}
@@ -16,9 +16,19 @@
  */
 package org.apache.servicemix.pdf;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.jbi.management.DeploymentException;
 import javax.jbi.messaging.ExchangeStatus;
@@ -38,6 +48,7 @@ import org.apache.servicemix.pdf.marshaler.PdfComposerRequest;
 import org.apache.servicemix.soap.util.DomUtil;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.Resource;
+import org.springframework.util.FileCopyUtils;
 
 import com.lowagie.text.pdf.AcroFields;
 import com.lowagie.text.pdf.PdfReader;
@@ -60,6 +71,9 @@ public class PdfComposerEndpoint extends ProviderEndpoint {
     private String outputDir = null; // in case of InOnly exchange, write file to the output directory
     private Resource wsdl; // the abstract WSDL describing the endpoint behavior
     private PdfComposerMarshalerSupport marshaler = new JaxbPdfComposerMarshaler();
+    private int memoryThreshold = 1024 * 1024; // above this size, the resulting PDF is buffered in a temporary file
+    private Map<String, CachedTemplate> templates = new ConcurrentHashMap<String, CachedTemplate>(); // template content by path
+    private Map<String, BufferOutputStream> buffers = new ConcurrentHashMap<String, BufferOutputStream>(); // documents sent in out messages, by exchange id
     
     public String getTemplate() {
         return this.template;
@@ -145,6 +159,23 @@ public class PdfComposerEndpoint extends ProviderEndpoint {
         this.marshaler = marshaler;
     }
     
+    public int getMemoryThreshold() {
+        return this.memoryThreshold;
+    }
+    
+    /**
+     * <p>
+     * This attribute specifies the size (in bytes) above which a resulting PDF sent in the out message
+     * is buffered in a temporary file instead of in memory.
+     * </p>
+     * <i>&nbsp;&nbsp;&nbsp;The default value is <code>1048576</code>.
+     * 
+     * @param memoryThreshold the maximum size of a PDF kept in memory.
+     */
+    public void setMemoryThreshold(int memoryThreshold) {
+        this.memoryThreshold = memoryThreshold;
+    }
+    
     /*
      * (non-Javadoc)
      * @see org.apache.servicemix.common.endpoints.AbstractEndpoint#validate()
@@ -189,13 +220,21 @@ public class PdfComposerEndpoint extends ProviderEndpoint {
         // is sent by this component)
         if (exchange.getStatus() == ExchangeStatus.DONE) {
             // exchange is finished
+            release(exchange.getExchangeId());
             return;
         } else if (exchange.getStatus() == ExchangeStatus.ERROR) {
             // exchange has been aborted with an exception
+            release(exchange.getExchangeId());
             return;
         } else {
             // exchange is active
-            handleProviderExchange(exchange);
+            try {
+                handleProviderExchange(exchange);
+            } catch (Exception e) {
+                // the exchange will be sent back in error, it does not come back to us
+                release(exchange.getExchangeId());
+                throw e;
+            }
         }
     }
     
@@ -242,14 +281,17 @@ public class PdfComposerEndpoint extends ProviderEndpoint {
         }
         
         // load PDF template
-        PdfReader templateReader = new PdfReader(templateToUse);
+        PdfReader templateReader = new PdfReader(getTemplateContent(templateToUse));
         
         // create a stamper to populate the target document
         PdfStamper stamper;
-        PipedInputStream stream = new PipedInputStream();
+        BufferOutputStream buffer = null;
         if (exchange instanceof InOut) {
-            // when we have an InOut, we use a pipe
-            stamper = new PdfStamper(templateReader, new PipedOutputStream(stream));
+            // when we have an InOut, we buffer the document to send it in the out message
+            buffer = new BufferOutputStream(memoryThreshold);
+            // keep the buffer until the exchange completes, to delete its temporary file
+            buffers.put(exchange.getExchangeId(), buffer);
+            stamper = new PdfStamper(templateReader, buffer);
         } else {
             // when we have an InOnly, we directly write a file in the output directory
             FileOutputStream fileStream = new FileOutputStream(outputDir + "/test.pdf");
@@ -270,8 +312,8 @@ public class PdfComposerEndpoint extends ProviderEndpoint {
         if (exchange instanceof InOut) {
             // create "out" message
             NormalizedMessage out = exchange.createMessage();
-            // set the "out" message content with the piped stream
-            out.setContent(new StreamSource(stream));
+            // set the "out" message content with the buffered document
+            out.setContent(new StreamSource(buffer.getInputStream()));
         
             // set the "out" message of the exchange
             exchange.setMessage(out, "out");
@@ -284,5 +326,179 @@ public class PdfComposerEndpoint extends ProviderEndpoint {
         // send back the exchange
         send(exchange);
     }
+    
+    /**
+     * <p>
+     * Releases the document buffered for an exchange, deleting its temporary file if any.
+     * </p>
+     * 
+     * @param exchangeId the exchange id.
+     */
+    protected void release(String exchangeId) {
+        BufferOutputStream buffer = buffers.remove(exchangeId);
+        if (buffer != null) {
+            buffer.dispose();
+        }
+    }
+    
+    /*
+     * (non-Javadoc)
+     * @see org.apache.servicemix.common.endpoints.AbstractEndpoint#stop()
+     */
+    @Override
+    public synchronized void stop() throws Exception {
+        try {
+            super.stop();
+        } finally {
+            // the exchanges still pending will not complete anymore
+            for (String exchangeId : buffers.keySet()) {
+                release(exchangeId);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Gets the content of a PDF template. As with <code>PdfReader</code>, the path is looked up
+     * as a file, then as a URL, then as a classpath resource. The content is read once and kept
+     * in memory; a template file is read again when it is modified.
+     * </p>
+     * 
+     * @param path the template path.
+     * @return the template content.
+     * @throws IOException
+     */
+    protected byte[] getTemplateContent(String path) throws IOException {
+        CachedTemplate cached = templates.get(path);
+        File file = new File(path);
+        if (file.isFile()) {
+            long lastModified = file.lastModified();
+            if (cached == null || cached.lastModified != lastModified) {
+                cached = new CachedTemplate(lastModified, FileCopyUtils.copyToByteArray(file));
+                templates.put(path, cached);
+            }
+        } else if (cached == null || cached.lastModified != CachedTemplate.NOT_A_FILE) {
+            // URLs and classpath resources are not expected to change
+            cached = new CachedTemplate(CachedTemplate.NOT_A_FILE, FileCopyUtils.copyToByteArray(openTemplate(path)));
+            templates.put(path, cached);
+        }
+        return cached.content;
+    }
+    
+    /**
+     * <p>
+     * Opens a template which is not a file, as a URL or else as a classpath resource.
+     * </p>
+     * 
+     * @param path the template path.
+     * @return the template stream.
+     * @throws IOException if the template can't be found.
+     */
+    private InputStream openTemplate(String path) throws IOException {
+        URL url;
+        try {
+            url = new URL(path);
+        } catch (MalformedURLException e) {
+            Resource resource = new ClassPathResource(path);
+            if (!resource.exists()) {
+                throw new FileNotFoundException(path + " not found as file, URL or resource.");
+            }
+            return resource.getInputStream();
+        }
+        return url.openStream();
+    }
+    
+    /**
+     * <p>
+     * The content of a template file at a given modification time, or of a URL or
+     * classpath template.
+     * </p>
+     */
+    private static class CachedTemplate {
+        
+        static final long NOT_A_FILE = -1;
+        
+        private final long lastModified;
+        private final byte[] content;
+        
+        CachedTemplate(long lastModified, byte[] content) {
+            this.lastModified = lastModified;
+            this.content = content;
+        }
+    }
+    
+    /**
+     * <p>
+     * An output stream keeping the data in memory up to a threshold, and in a temporary
+     * file beyond. The data is read back by {@link #getInputStream()}; the temporary
+     * file is deleted when that stream is closed, or at the latest by {@link #dispose()}.
+     * </p>
+     */
+    static class BufferOutputStream extends OutputStream {
+        
+        private final int threshold;
+        private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        private File file;
+        private OutputStream current = memory;
+        
+        BufferOutputStream(int threshold) {
+            this.threshold = threshold;
+        }
+        
+        public void write(int b) throws IOException {
+            switchToFileIfNeeded(1);
+            current.write(b);
+        }
+        
+        public void write(byte[] b, int off, int len) throws IOException {
+            switchToFileIfNeeded(len);
+            current.write(b, off, len);
+        }
+        
+        public void flush() throws IOException {
+            current.flush();
+        }
+        
+        public void close() throws IOException {
+            current.close();
+        }
+        
+        private void switchToFileIfNeeded(int len) throws IOException {
+            if (memory != null && memory.size() + len > threshold) {
+                file = File.createTempFile("servicemix-pdf", ".pdf");
+                current = new FileOutputStream(file);
+                memory.writeTo(current);
+                memory = null;
+            }
+        }
+        
+        InputStream getInputStream() throws IOException {
+            if (memory != null) {
+                return new ByteArrayInputStream(memory.toByteArray());
+            }
+            return new FileInputStream(file) {
+                public void close() throws IOException {
+                    super.close();
+                    file.delete();
+                }
+            };
+        }
+        
+        File getFile() {
+            return file;
+        }
+        
+        void dispose() {
+            try {
+                current.close();
+            } catch (IOException e) {
+                // nothing more can be done with the buffer
+            }
+            memory = null;
+            if (file != null) {
+                file.delete();
+            }
+        }
+    }
 
 }
@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.pdf;
+
+import java.io.File;
+import java.io.InputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * <p>
+ * Test the buffering of the composed documents.
+ * </p>
+ */
+public class BufferOutputStreamTest extends TestCase {
+
+    public void testInMemory() throws Exception {
+        PdfComposerEndpoint.BufferOutputStream buffer = new PdfComposerEndpoint.BufferOutputStream(16);
+        buffer.write(new byte[10], 0, 10);
+        buffer.close();
+        assertNull(buffer.getFile());
+        assertEquals(10, count(buffer.getInputStream()));
+        buffer.dispose();
+    }
+
+    public void testTemporaryFileDeletedWhenRead() throws Exception {
+        PdfComposerEndpoint.BufferOutputStream buffer = new PdfComposerEndpoint.BufferOutputStream(16);
+        buffer.write(new byte[10], 0, 10);
+        buffer.write(new byte[10], 0, 10);
+        buffer.close();
+        File file = buffer.getFile();
+        assertNotNull(file);
+        assertTrue(file.exists());
+        assertEquals(20, count(buffer.getInputStream()));
+        assertFalse(file.exists());
+    }
+
+    public void testTemporaryFileDeletedWhenDisposed() throws Exception {
+        PdfComposerEndpoint.BufferOutputStream buffer = new PdfComposerEndpoint.BufferOutputStream(16);
+        buffer.write(new byte[32], 0, 32);
+        File file = buffer.getFile();
+        assertTrue(file.exists());
+        // the out message content is never read, or the stamping failed
+        buffer.dispose();
+        assertFalse(file.exists());
+    }
+
+    private static int count(InputStream is) throws Exception {
+        try {
+            int count = 0;
+            while (is.read() >= 0) {
+                count++;
+            }
+            return count;
+        } finally {
+            is.close();
+        }
+    }
+
+}
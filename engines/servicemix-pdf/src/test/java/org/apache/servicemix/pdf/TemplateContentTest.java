@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.pdf;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.springframework.util.FileCopyUtils;
+
+import com.lowagie.text.Document;
+import com.lowagie.text.Paragraph;
+import com.lowagie.text.Rectangle;
+import com.lowagie.text.pdf.PdfReader;
+import com.lowagie.text.pdf.PdfWriter;
+import com.lowagie.text.pdf.TextField;
+
+/**
+ * <p>
+ * Test the lookup and the caching of the PDF templates.
+ * </p>
+ */
+public class TemplateContentTest extends TestCase {
+
+    private File dir;
+    private File template;
+    private ClassLoader contextClassLoader;
+    private PdfComposerEndpoint endpoint;
+
+    /*
+     * (non-Javadoc)
+     * @see junit.framework.TestCase#setUp()
+     */
+    protected void setUp() throws Exception {
+        dir = File.createTempFile("servicemix-pdf", "");
+        dir.delete();
+        new File(dir, "templates").mkdirs();
+        template = new File(dir, "templates/form.pdf");
+        createForm(template, "name");
+        // make the templates directory available as classpath resources
+        contextClassLoader = Thread.currentThread().getContextClassLoader();
+        Thread.currentThread().setContextClassLoader(
+                new URLClassLoader(new URL[] {dir.toURI().toURL()}, contextClassLoader));
+        endpoint = new PdfComposerEndpoint();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see junit.framework.TestCase#tearDown()
+     */
+    protected void tearDown() throws Exception {
+        Thread.currentThread().setContextClassLoader(contextClassLoader);
+        new File(dir, "templates/form.pdf").delete();
+        new File(dir, "templates").delete();
+        dir.delete();
+    }
+
+    public void testClasspathTemplate() throws Exception {
+        byte[] content = endpoint.getTemplateContent("./templates/form.pdf");
+
+        assertTrue(Arrays.equals(FileCopyUtils.copyToByteArray(template), content));
+        assertTrue(new PdfReader(content).getAcroFields().getFields().containsKey("name"));
+        // the resource is read once
+        assertSame(content, endpoint.getTemplateContent("./templates/form.pdf"));
+    }
+
+    public void testUrlTemplate() throws Exception {
+        String url = template.toURI().toURL().toString();
+        byte[] content = endpoint.getTemplateContent(url);
+
+        assertTrue(new PdfReader(content).getAcroFields().getFields().containsKey("name"));
+        assertSame(content, endpoint.getTemplateContent(url));
+    }
+
+    public void testFileTemplateReadAgainWhenModified() throws Exception {
+        String path = template.getAbsolutePath();
+        byte[] content = endpoint.getTemplateContent(path);
+        assertSame(content, endpoint.getTemplateContent(path));
+
+        createForm(template, "address");
+        template.setLastModified(template.lastModified() + 10000);
+
+        content = endpoint.getTemplateContent(path);
+        assertTrue(new PdfReader(content).getAcroFields().getFields().containsKey("address"));
+    }
+
+    public void testMissingTemplate() throws Exception {
+        try {
+            endpoint.getTemplateContent("./templates/missing.pdf");
+            fail("The template does not exist");
+        } catch (FileNotFoundException e) {
+            // expected
+        }
+    }
+
+    private static void createForm(File file, String field) throws Exception {
+        Document document = new Document();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            PdfWriter writer = PdfWriter.getInstance(document, out);
+            document.open();
+            document.add(new Paragraph("Template"));
+            writer.addAnnotation(new TextField(writer, new Rectangle(100, 700, 300, 720), field).getTextField());
+            document.close();
+        } finally {
+            out.close();
+        }
+    }
+
+}
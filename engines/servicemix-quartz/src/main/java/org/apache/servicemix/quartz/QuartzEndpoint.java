@@ -20,6 +20,10 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.jbi.management.DeploymentException;
 import javax.jbi.messaging.ExchangeStatus;
@@ -48,11 +52,42 @@ import org.springframework.scheduling.quartz.JobDetailAwareTrigger;
  */
 public class QuartzEndpoint extends ConsumerEndpoint {
 
+    /**
+     * Overlapping fires are dropped.
+     */
+    public static final String OVERLAP_SKIP = "skip";
+
+    /**
+     * Overlapping fires are folded into a single fire sent as soon as an exchange completes.
+     */
+    public static final String OVERLAP_COALESCE = "coalesce";
+
+    /**
+     * Overlapping fires are queued, up to <code>maxQueuedFires</code>, and sent as exchanges complete.
+     */
+    public static final String OVERLAP_QUEUE = "queue";
+
+    /**
+     * The in message property holding the number of fires folded into a coalesced fire.
+     */
+    public static final String MISSED_FIRES = "org.apache.servicemix.quartz.MissedFires";
+
     private Trigger trigger;
     private List<Trigger> triggers;
     private Map<String, Calendar> calendars;
     private JobDetail jobDetail;
     private QuartzMarshaler marshaler = new DefaultQuartzMarshaler();
+    private int maxInFlight;
+    private String overlapPolicy = OVERLAP_SKIP;
+    private int maxQueuedFires = 10;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger missedFires = new AtomicInteger();
+    private final Queue<JobExecutionContext> queuedFires = new ConcurrentLinkedQueue<JobExecutionContext>();
+    private final AtomicInteger queuedCount = new AtomicInteger();
+    private volatile JobExecutionContext lastMissedFire;
+    private final AtomicLong skippedFires = new AtomicLong();
+    private final AtomicLong coalescedFires = new AtomicLong();
     
     /**
      * @return the triggers
@@ -131,6 +166,82 @@ public class QuartzEndpoint extends ConsumerEndpoint {
         this.marshaler = marshaler;
     }
     
+    /**
+     * @return the maximum number of in-flight exchanges
+     */
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * The maximum number of exchanges sent by this endpoint that may be in-flight (not yet
+     * DONE or ERROR) at the same time. Fires occurring while the limit is reached are handled
+     * according to the <code>overlapPolicy</code>. Defaults to 0, meaning no limit.
+     *
+     * @param maxInFlight the maximum number of in-flight exchanges
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * @return the overlap policy
+     */
+    public String getOverlapPolicy() {
+        return overlapPolicy;
+    }
+
+    /**
+     * How to handle a fire occurring while <code>maxInFlight</code> exchanges are in-flight:
+     * <code>skip</code> (the default) drops the fire, <code>coalesce</code> folds all the
+     * missed fires into a single one sent when an exchange completes, carrying the number
+     * of missed fires in the {@link #MISSED_FIRES} property, and <code>queue</code> keeps
+     * up to <code>maxQueuedFires</code> fires to send them as exchanges complete.
+     *
+     * @param overlapPolicy the overlap policy
+     */
+    public void setOverlapPolicy(String overlapPolicy) {
+        this.overlapPolicy = overlapPolicy;
+    }
+
+    /**
+     * @return the maximum number of queued fires
+     */
+    public int getMaxQueuedFires() {
+        return maxQueuedFires;
+    }
+
+    /**
+     * The maximum number of fires kept when the <code>queue</code> overlap policy is used.
+     * Fires occurring when the queue is full are skipped. Defaults to 10.
+     *
+     * @param maxQueuedFires the maximum number of queued fires
+     */
+    public void setMaxQueuedFires(int maxQueuedFires) {
+        this.maxQueuedFires = maxQueuedFires;
+    }
+
+    /**
+     * @return the number of exchanges sent and not yet completed
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return the number of fires dropped because too many exchanges were in-flight
+     */
+    public long getSkippedFires() {
+        return skippedFires.get();
+    }
+
+    /**
+     * @return the number of overlapping fires handled by the <code>coalesce</code> policy
+     */
+    public long getCoalescedFires() {
+        return coalescedFires.get();
+    }
+
     @Override
     public String getLocationURI() {
         return null;
@@ -140,24 +251,117 @@ public class QuartzEndpoint extends ConsumerEndpoint {
         if (exchange.getStatus() == ExchangeStatus.ACTIVE) {
             throw new IllegalStateException("Unexpected ACTIVE exchange: " + exchange);
         }
+        // the exchange is DONE or ERROR, release its slot and send the pending fires
+        inFlight.decrementAndGet();
+        if (maxInFlight > 0) {
+            sendPendingFires();
+        }
     }
 
     public void onJobExecute(JobExecutionContext context) throws JobExecutionException {
+        if (maxInFlight <= 0) {
+            inFlight.incrementAndGet();
+            fire(context, 0);
+        } else if (acquire()) {
+            // a regular fire also carries the fires coalesced so far
+            fire(context, OVERLAP_COALESCE.equals(overlapPolicy) ? missedFires.getAndSet(0) : 0);
+        } else if (OVERLAP_COALESCE.equals(overlapPolicy)) {
+            logger.debug("Coalescing Quartz Job fire, {} exchanges in-flight", inFlight.get());
+            lastMissedFire = context;
+            missedFires.incrementAndGet();
+            coalescedFires.incrementAndGet();
+            // an exchange may have completed in the meantime
+            sendPendingFires();
+        } else if (OVERLAP_QUEUE.equals(overlapPolicy) && queuedCount.incrementAndGet() <= maxQueuedFires) {
+            logger.debug("Queueing Quartz Job fire, {} exchanges in-flight", inFlight.get());
+            queuedFires.add(context);
+            // an exchange may have completed in the meantime
+            sendPendingFires();
+        } else {
+            if (OVERLAP_QUEUE.equals(overlapPolicy)) {
+                queuedCount.decrementAndGet();
+            }
+            logger.debug("Skipping Quartz Job fire, {} exchanges in-flight", inFlight.get());
+            skippedFires.incrementAndGet();
+        }
+    }
+
+    /**
+     * Sends the coalesced or queued fires while in-flight slots are available.
+     */
+    protected void sendPendingFires() throws JobExecutionException {
+        while (acquire()) {
+            JobExecutionContext context = null;
+            int missed = 0;
+            if (OVERLAP_COALESCE.equals(overlapPolicy)) {
+                missed = missedFires.getAndSet(0);
+                if (missed > 0) {
+                    context = lastMissedFire;
+                    // the fire itself is sent, only the others are missed
+                    missed--;
+                }
+            } else if (OVERLAP_QUEUE.equals(overlapPolicy)) {
+                context = queuedFires.poll();
+                if (context != null) {
+                    queuedCount.decrementAndGet();
+                }
+            }
+            if (context == null) {
+                inFlight.decrementAndGet();
+                return;
+            }
+            fire(context, missed);
+        }
+    }
+
+    /**
+     * Reserves an in-flight slot.
+     *
+     * @return true if a slot has been reserved
+     */
+    private boolean acquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= maxInFlight) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Sends the exchange of a fire, its in-flight slot being already reserved.
+     */
+    private void fire(JobExecutionContext context, int missed) throws JobExecutionException {
         logger.debug("Firing Quartz Job with context: {}", context);
         try {
             InOnly exchange = getExchangeFactory().createInOnlyExchange();
             NormalizedMessage message = exchange.createMessage();
             getMarshaler().populateNormalizedMessage(message, context);
+            if (missed > 0) {
+                message.setProperty(MISSED_FIRES, Integer.valueOf(missed));
+            }
             exchange.setInMessage(message);
             configureExchangeTarget(exchange);
             send(exchange);
         } catch (MessagingException e) {
+            inFlight.decrementAndGet();
             throw new JobExecutionException(e);
+        } catch (RuntimeException e) {
+            inFlight.decrementAndGet();
+            throw e;
         }
     }
     
     public void validate() throws DeploymentException {
         super.validate();
+        if (!OVERLAP_SKIP.equals(overlapPolicy) && !OVERLAP_COALESCE.equals(overlapPolicy)
+                && !OVERLAP_QUEUE.equals(overlapPolicy)) {
+            throw new DeploymentException("overlapPolicy must be one of " + OVERLAP_SKIP + ", "
+                    + OVERLAP_COALESCE + " or " + OVERLAP_QUEUE);
+        }
         if (trigger instanceof JobDetailAwareTrigger) {
             JobDetail jb = ((JobDetailAwareTrigger) trigger).getJobDetail();
             if (jobDetail != null && jb != null && jobDetail != jb) {
@@ -225,6 +429,10 @@ public class QuartzEndpoint extends ConsumerEndpoint {
             scheduler.unscheduleJob(trg.getName(), trg.getGroup());
         }
         scheduler.deleteJob(getJobDetail().getName(), getJobDetail().getGroup());
+        queuedFires.clear();
+        queuedCount.set(0);
+        missedFires.set(0);
+        lastMissedFire = null;
         for (Map.Entry<String, Calendar> e : getCalendars().entrySet()) {
             scheduler.deleteCalendar(e.getKey());
         }
@@ -0,0 +1,216 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.quartz;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import javax.jbi.messaging.MessageExchange;
+import javax.jbi.messaging.MessagingException;
+import javax.jbi.messaging.NormalizedMessage;
+import javax.xml.namespace.QName;
+
+import junit.framework.TestCase;
+
+import org.apache.servicemix.MessageExchangeListener;
+import org.apache.servicemix.components.util.ComponentSupport;
+import org.apache.servicemix.jbi.container.JBIContainer;
+import org.apache.servicemix.quartz.support.ServiceMixJob;
+import org.quartz.JobDetail;
+import org.quartz.JobExecutionContext;
+import org.quartz.SimpleTrigger;
+import org.quartz.spi.TriggerFiredBundle;
+
+/**
+ * Test cases for the overlap policies of {@link QuartzEndpoint}.  The fires are
+ * driven directly through {@link QuartzEndpoint#onJobExecute(JobExecutionContext)}
+ * while the receiver holds the first exchange.
+ */
+public class QuartzOverlapTest extends TestCase {
+
+    private static final String FIRE = "fire";
+    private static final long TIMEOUT = 10000;
+
+    private JBIContainer jbi;
+    private QuartzEndpoint endpoint;
+    private HeldReceiverComponent receiver;
+
+    protected void setUp() throws Exception {
+        jbi = new JBIContainer();
+        jbi.setEmbedded(true);
+        jbi.init();
+
+        endpoint = new QuartzEndpoint();
+        endpoint.setService(new QName("quartz"));
+        endpoint.setEndpoint("endpoint");
+        endpoint.setTargetService(new QName("heldReceiver"));
+        endpoint.setMaxInFlight(1);
+
+        receiver = new HeldReceiverComponent(new QName("heldReceiver"), "endpoint");
+    }
+
+    protected void tearDown() throws Exception {
+        receiver.release();
+        jbi.shutDown();
+    }
+
+    public void testSkip() throws Exception {
+        endpoint.setOverlapPolicy(QuartzEndpoint.OVERLAP_SKIP);
+        start();
+
+        fire(1, 5);
+        assertEquals(4, endpoint.getSkippedFires());
+        assertEquals(0, endpoint.getCoalescedFires());
+        assertEquals(1, endpoint.getInFlight());
+
+        receiver.release();
+        waitForCompletion(1);
+
+        assertEquals(Arrays.asList(1), receiver.getFires());
+        assertEquals(Arrays.asList(0), receiver.getMissedFires());
+        assertEquals(4, endpoint.getSkippedFires());
+    }
+
+    public void testCoalesce() throws Exception {
+        endpoint.setOverlapPolicy(QuartzEndpoint.OVERLAP_COALESCE);
+        start();
+
+        fire(1, 5);
+        assertEquals(4, endpoint.getCoalescedFires());
+        assertEquals(0, endpoint.getSkippedFires());
+        assertEquals(1, endpoint.getInFlight());
+
+        receiver.release();
+        waitForCompletion(2);
+
+        // the last missed fire is sent, carrying the number of the other missed fires
+        assertEquals(Arrays.asList(1, 5), receiver.getFires());
+        assertEquals(Arrays.asList(0, 3), receiver.getMissedFires());
+    }
+
+    public void testQueue() throws Exception {
+        endpoint.setOverlapPolicy(QuartzEndpoint.OVERLAP_QUEUE);
+        endpoint.setMaxQueuedFires(2);
+        start();
+
+        fire(1, 5);
+        // the queue is full after two fires, the other fires are skipped
+        assertEquals(2, endpoint.getSkippedFires());
+        assertEquals(0, endpoint.getCoalescedFires());
+        assertEquals(1, endpoint.getInFlight());
+
+        receiver.release();
+        waitForCompletion(3);
+
+        // the queued fires are sent in order once the first exchange is done
+        assertEquals(Arrays.asList(1, 2, 3), receiver.getFires());
+        assertEquals(Arrays.asList(0, 0, 0), receiver.getMissedFires());
+        assertEquals(2, endpoint.getSkippedFires());
+    }
+
+    private void start() throws Exception {
+        QuartzComponent quartz = new QuartzComponent();
+        quartz.setEndpoints(new QuartzEndpoint[] {endpoint });
+        jbi.activateComponent(quartz, "servicemix-quartz");
+        jbi.activateComponent(receiver, "heldReceiver");
+        jbi.start();
+    }
+
+    /*
+     * Executes the job for the given fires, as the scheduler would
+     */
+    private void fire(int first, int last) throws Exception {
+        for (int i = first; i <= last; i++) {
+            JobDetail detail = new JobDetail("job" + i, null, ServiceMixJob.class);
+            detail.getJobDataMap().put(FIRE, Integer.valueOf(i));
+            SimpleTrigger trigger = new SimpleTrigger("trigger" + i, null);
+            endpoint.onJobExecute(new JobExecutionContext(null,
+                    new TriggerFiredBundle(detail, trigger, null, false, new Date(), new Date(), null, null),
+                    new ServiceMixJob()));
+        }
+    }
+
+    /*
+     * Waits until the receiver has completed the given number of exchanges and the endpoint
+     * has received them back
+     */
+    private void waitForCompletion(int exchanges) throws Exception {
+        assertTrue(receiver.awaitCompleted(exchanges, TIMEOUT));
+        long limit = System.currentTimeMillis() + TIMEOUT;
+        while (endpoint.getInFlight() > 0 && System.currentTimeMillis() < limit) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, endpoint.getInFlight());
+    }
+
+    /**
+     * A receiver holding the exchanges until it is released, which records the fire
+     * and the missed fires count carried by each message.
+     */
+    public static class HeldReceiverComponent extends ComponentSupport implements MessageExchangeListener {
+
+        private final CountDownLatch released = new CountDownLatch(1);
+        private final List<Integer> fires = new CopyOnWriteArrayList<Integer>();
+        private final List<Integer> missedFires = new CopyOnWriteArrayList<Integer>();
+        private int completed;
+
+        public HeldReceiverComponent(QName service, String endpoint) {
+            super(service, endpoint);
+        }
+
+        public void onMessageExchange(MessageExchange exchange) throws MessagingException {
+            NormalizedMessage in = getInMessage(exchange);
+            Integer missed = (Integer) in.getProperty(QuartzEndpoint.MISSED_FIRES);
+            fires.add((Integer) in.getProperty(FIRE));
+            missedFires.add(missed != null ? missed : Integer.valueOf(0));
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                throw new MessagingException(e);
+            }
+            done(exchange);
+            synchronized (this) {
+                completed++;
+                notifyAll();
+            }
+        }
+
+        public void release() {
+            released.countDown();
+        }
+
+        public synchronized boolean awaitCompleted(int exchanges, long timeout) throws InterruptedException {
+            long limit = System.currentTimeMillis() + timeout;
+            while (completed < exchanges && System.currentTimeMillis() < limit) {
+                wait(Math.max(1, limit - System.currentTimeMillis()));
+            }
+            return completed >= exchanges;
+        }
+
+        public List<Integer> getFires() {
+            return fires;
+        }
+
+        public List<Integer> getMissedFires() {
+            return missedFires;
+        }
+    }
+
+}
@@ -19,8 +19,17 @@ package org.apache.servicemix.scripting;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Logger;
 
 import javax.activation.DataHandler;
@@ -71,6 +80,9 @@ public class ScriptingEndpoint extends ProviderEndpoint implements ScriptingEndp
     public static final String KEY_SERVICENAME = "servicename";
     public static final String KEY_USER_BINDINGS = "bindings";
     public static final String LANGUAGE_AUTODETECT = "autodetect";
+    public static final int DEFAULT_SCRIPT_CACHE_SIZE = 64;
+
+    private static final String ENGINE_THREADING = "THREADING";
 
     private final org.slf4j.Logger logger = LoggerFactory.getLogger(ScriptingEndpoint.class);
 
@@ -79,13 +91,15 @@ public class ScriptingEndpoint extends ProviderEndpoint implements ScriptingEndp
     private boolean copyProperties;
     private boolean copyAttachments;
     private ScriptEngine engine;
+    private volatile Queue<Worker> workers;
+    private Map<String, CompiledScript> sharedScripts;
+    private int scriptCacheSize = DEFAULT_SCRIPT_CACHE_SIZE;
     private String language = LANGUAGE_AUTODETECT;
     private String logResourceBundle;
     private ScriptEngineManager manager;
     private ScriptingMarshalerSupport marshaler = new DefaultScriptingMarshaler();
     private Resource script;
     private Logger scriptLogger;
-    private CompiledScript compiledScript;
 
     private QName targetInterface;
     private QName targetOperation;
@@ -225,16 +239,10 @@ public class ScriptingEndpoint extends ProviderEndpoint implements ScriptingEndp
                 NormalizedMessage outMsg = null;
                 NormalizedMessage inMsg = exchange.getMessage("in");
 
-                Bindings scriptBindings = engine.createBindings();
-                scriptBindings.put(KEY_CONTEXT, getContext());
+                Worker worker = borrowWorker();
+                Bindings scriptBindings = worker.bindings;
                 scriptBindings.put(KEY_IN_EXCHANGE, exchange);
                 scriptBindings.put(KEY_IN_MSG, inMsg);
-                scriptBindings.put(KEY_ENDPOINT, this);
-                scriptBindings.put(KEY_CHANNEL, getChannel());
-                scriptBindings.put(KEY_ENDPOINTNAME, getEndpoint());
-                scriptBindings.put(KEY_SERVICENAME, getService());
-                scriptBindings.put(KEY_INTERFACENAME, getInterfaceName());
-                scriptBindings.put(KEY_LOGGER, getScriptLogger());
 
                 if (exchange instanceof InOnly || exchange instanceof RobustInOnly) {
                     outExchange = getExchangeFactory().createInOnlyExchange();
@@ -254,57 +262,63 @@ public class ScriptingEndpoint extends ProviderEndpoint implements ScriptingEndp
                     scriptBindings.put(KEY_OUT_EXCHANGE, exchange);
                     scriptBindings.put(KEY_OUT_MSG, outMsg);
                 }
-                
-                try {
-                    scriptBindings.put(KEY_SCRIPT, getScript().getFile().getAbsolutePath());
-                } catch (IOException ioex) {
-                    scriptBindings.put(KEY_SCRIPT, getScript());
-                }
 
-                scriptBindings.put(KEY_USER_BINDINGS, bindings);
-                scriptBindings.put(KEY_COMPONENT_NAMESPACE, scriptBindings);
-
-                // call back method for custom marshaler to inject it's own beans
-                this.marshaler.registerUserBeans(this, exchange, scriptBindings);
-
-                // get the input stream to the script code from the marshaler
-                InputStream is = null;
                 try {
-                    is = this.marshaler.getScriptCode(this, exchange);
-                } catch (IOException ioex) {
-                    logger.error("Unable to load script in marshaler: {}", this.marshaler.getClass().getName(), ioex);
-                }
-                // if the marshaler does not return a valid input stream, use the script property to load it
-                if (is != null) {
+                    // call back method for custom marshaler to inject it's own beans
+                    this.marshaler.registerUserBeans(this, exchange, scriptBindings);
+
+                    // get the input stream to the script code from the marshaler
+                    InputStream is = null;
                     try {
-                        // execute the script
-                        this.engine.eval(new InputStreamReader(is), scriptBindings);
-                    } catch (ScriptException ex) {
-                        logger.error("Error executing the script: " + ex.getFileName() + " at line: "
-                                     + ex.getLineNumber() + " and column: " + ex.getColumnNumber(), ex);
-                        throw ex;
+                        is = this.marshaler.getScriptCode(this, exchange);
+                    } catch (IOException ioex) {
+                        logger.error("Unable to load script in marshaler: {}", this.marshaler.getClass().getName(), ioex);
                     }
-                } else {
-                    try {
-                        // use the compiled script interfaces if possible
-                        if (compiledScript == null && engine instanceof Compilable) {
-                            compiledScript = ((Compilable) engine).compile(new InputStreamReader(this.script.getInputStream()));
+                    // if the marshaler does not return a valid input stream, use the script property to load it
+                    if (is != null) {
+                        try {
+                            // execute the script, compiling it only once for a given code
+                            String code = readScript(is);
+                            CompiledScript compiled = compile(worker, code);
+                            if (compiled != null) {
+                                compiled.eval(scriptBindings);
+                            } else {
+                                worker.engine.eval(code, scriptBindings);
+                            }
+                        } catch (IOException ioex) {
+                            logger.error("Unable to read script in marshaler: {}", this.marshaler.getClass().getName(), ioex);
+                            throw new MessagingException("Unable to read the script provided by the marshaler");
+                        } catch (ScriptException ex) {
+                            logger.error("Error executing the script: " + ex.getFileName() + " at line: "
+                                         + ex.getLineNumber() + " and column: " + ex.getColumnNumber(), ex);
+                            throw ex;
                         }
-                        if (compiledScript != null) {
-                            // execute the script
-                            compiledScript.eval(scriptBindings);
-                        } else {
-                            // execute the script
-                            engine.eval(new InputStreamReader(this.script.getInputStream()), scriptBindings);
+                    } else {
+                        try {
+                            // use the compiled script interfaces if possible
+                            if (worker.compiledScript == null && worker.engine instanceof Compilable) {
+                                worker.compiledScript = compile(worker, readScript(this.script.getInputStream()));
+                            }
+                            if (worker.compiledScript != null) {
+                                // execute the script
+                                worker.compiledScript.eval(scriptBindings);
+                            } else {
+                                // execute the script
+                                worker.engine.eval(new InputStreamReader(this.script.getInputStream()), scriptBindings);
+                            }
+                        } catch (IOException ioex) {
+                            logger.error("Unable to load the script {}", script.getFilename(), ioex);
+                            throw new MessagingException("Unable to load the script " + script.getFilename());
+                        } catch (ScriptException ex) {
+                            logger.error("Error executing the script: " + ex.getFileName() + " at line: "
+                                         + ex.getLineNumber() + " and column: " + ex.getColumnNumber(), ex);
+                            throw ex;
                         }
-                    } catch (IOException ioex) {
-                        logger.error("Unable to load the script {}", script.getFilename(), ioex);
-                        throw new MessagingException("Unable to load the script " + script.getFilename());
-                    } catch (ScriptException ex) {
-                        logger.error("Error executing the script: " + ex.getFileName() + " at line: "
-                                     + ex.getLineNumber() + " and column: " + ex.getColumnNumber(), ex);
-                        throw ex;
                     }
+                } finally {
+                    // only keep the endpoint wide variables for the next exchange using this worker
+                    scriptBindings.keySet().retainAll(worker.endpointKeys);
+                    releaseWorker(worker);
                 }
 
                 if (!isDisableOutput()) {
@@ -432,6 +446,24 @@ public class ScriptingEndpoint extends ProviderEndpoint implements ScriptingEndp
         this.scriptLogger = scriptLogger;
     }
 
+    /**
+     * @return the scriptCacheSize
+     */
+    public int getScriptCacheSize() {
+        return this.scriptCacheSize;
+    }
+
+    /**
+     * The maximum number of compiled scripts kept for each script engine.  Scripts provided by the
+     * marshaler are compiled once and looked up by the hash of their code.
+     * Defaults to <code>64</code>.
+     *
+     * @param scriptCacheSize the scriptCacheSize to set
+     */
+    public void setScriptCacheSize(int scriptCacheSize) {
+        this.scriptCacheSize = scriptCacheSize;
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -447,21 +479,17 @@ public class ScriptingEndpoint extends ProviderEndpoint implements ScriptingEndp
                 throw new IllegalArgumentException("Property script must be set");
             } else {
                 // initialize the script engine
-                if (this.language.equalsIgnoreCase(LANGUAGE_AUTODETECT)) {
-                    // detect language by file extension
-                    this.engine = this.manager.getEngineByExtension(getExtension(script.getFilename()));
-                    if (this.engine == null) {
-                        throw new RuntimeException("There is no script engine registered for extension "
-                                                   + getExtension(script.getFilename()));
-                    }
-                } else {
-                    // use predefined language from xbean
-                    this.engine = this.manager.getEngineByName(this.language);
-                    if (this.engine == null) {
-                        throw new RuntimeException("There is no script engine for language " + this.language);
-                    }
-                }
+                this.engine = createEngine();
+            }
+
+            // engines that do not declare any threading support must not be shared between threads,
+            // so every concurrent exchange borrows a worker with its own engine and compiled scripts
+            if (this.engine.getFactory().getParameter(ENGINE_THREADING) != null) {
+                this.sharedScripts = Collections.synchronizedMap(new ScriptCache(scriptCacheSize));
+            } else {
+                this.sharedScripts = null;
             }
+            this.workers = new ConcurrentLinkedQueue<Worker>();
 
             // do custom startup logic
             marshaler.onStartup(this);
@@ -482,11 +510,196 @@ public class ScriptingEndpoint extends ProviderEndpoint implements ScriptingEndp
             marshaler.onShutdown(this);
         } catch (Exception ex) {
             throw new JBIException(ex);
+        } finally {
+            // release the engines so that they do not outlive the endpoint
+            Queue<Worker> idle = this.workers;
+            this.workers = null;
+            if (idle != null) {
+                idle.clear();
+            }
+            this.sharedScripts = null;
         }
 
         super.stop();
     }
 
+    /**
+     * Creates a new script engine for the configured language
+     *
+     * @return the script engine
+     */
+    protected ScriptEngine createEngine() {
+        ScriptEngine answer;
+        if (this.language.equalsIgnoreCase(LANGUAGE_AUTODETECT)) {
+            // detect language by file extension
+            answer = this.manager.getEngineByExtension(getExtension(script.getFilename()));
+            if (answer == null) {
+                throw new RuntimeException("There is no script engine registered for extension "
+                                           + getExtension(script.getFilename()));
+            }
+        } else {
+            // use predefined language from xbean
+            answer = this.manager.getEngineByName(this.language);
+            if (answer == null) {
+                throw new RuntimeException("There is no script engine for language " + this.language);
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * borrows an idle worker with its script engine, bindings and compiled scripts,
+     * or creates a new one if they are all in use
+     *
+     * @return the worker
+     * @throws MessagingException
+     */
+    private Worker borrowWorker() throws MessagingException {
+        Queue<Worker> idle = workers;
+        if (idle == null) {
+            throw new MessagingException("Endpoint " + getKey() + " is not started");
+        }
+        Worker worker = idle.poll();
+        if (worker == null) {
+            if (sharedScripts != null) {
+                worker = new Worker(engine, sharedScripts);
+            } else {
+                worker = new Worker(createEngine(), new ScriptCache(scriptCacheSize));
+            }
+
+            // the variables that do not depend on the exchange are only set once
+            Bindings scriptBindings = worker.bindings;
+            scriptBindings.put(KEY_CONTEXT, getContext());
+            scriptBindings.put(KEY_ENDPOINT, this);
+            scriptBindings.put(KEY_CHANNEL, getChannel());
+            scriptBindings.put(KEY_ENDPOINTNAME, getEndpoint());
+            scriptBindings.put(KEY_SERVICENAME, getService());
+            scriptBindings.put(KEY_INTERFACENAME, getInterfaceName());
+            scriptBindings.put(KEY_LOGGER, getScriptLogger());
+            try {
+                scriptBindings.put(KEY_SCRIPT, getScript().getFile().getAbsolutePath());
+            } catch (IOException ioex) {
+                scriptBindings.put(KEY_SCRIPT, getScript());
+            }
+            scriptBindings.put(KEY_USER_BINDINGS, bindings);
+            scriptBindings.put(KEY_COMPONENT_NAMESPACE, scriptBindings);
+            worker.endpointKeys.addAll(scriptBindings.keySet());
+        }
+        return worker;
+    }
+
+    /**
+     * gives a worker back to the endpoint once the script has been executed,
+     * unless the endpoint has been stopped in the meantime
+     *
+     * @param worker the worker
+     */
+    private void releaseWorker(Worker worker) {
+        Queue<Worker> idle = workers;
+        if (idle != null) {
+            idle.offer(worker);
+        }
+    }
+
+    /**
+     * compiles the given script code, reusing a previous compilation of the same code
+     *
+     * @param worker the worker the script is compiled for
+     * @param code the script code
+     * @return the compiled script or <code>null</code> if the engine can not compile scripts
+     * @throws ScriptException
+     */
+    private CompiledScript compile(Worker worker, String code) throws ScriptException {
+        if (!(worker.engine instanceof Compilable)) {
+            return null;
+        }
+        String key = digest(code);
+        CompiledScript compiled = worker.scripts.get(key);
+        if (compiled == null) {
+            compiled = ((Compilable) worker.engine).compile(code);
+            worker.scripts.put(key, compiled);
+        }
+        return compiled;
+    }
+
+    /**
+     * reads the script code and closes the stream
+     *
+     * @param is the stream to read the script from
+     * @return the script code
+     * @throws IOException
+     */
+    private static String readScript(InputStream is) throws IOException {
+        try {
+            Reader reader = new InputStreamReader(is);
+            StringBuilder code = new StringBuilder();
+            char[] buffer = new char[4096];
+            int len;
+            while ((len = reader.read(buffer)) >= 0) {
+                code.append(buffer, 0, len);
+            }
+            return code.toString();
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * computes the hash used as the key for the compiled scripts
+     *
+     * @param code the script code
+     * @return the hex encoded hash of the code
+     */
+    private static String digest(String code) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(code.getBytes("UTF-8"));
+            StringBuilder key = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                key.append(Character.forDigit((b >> 4) & 0xF, 16));
+                key.append(Character.forDigit(b & 0xF, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The script engine, bindings and compiled scripts used by a single exchange at a time
+     */
+    private static final class Worker {
+        private final ScriptEngine engine;
+        private final Bindings bindings;
+        private final Map<String, CompiledScript> scripts;
+        private final Set<String> endpointKeys = new HashSet<String>();
+        private CompiledScript compiledScript;
+
+        private Worker(ScriptEngine engine, Map<String, CompiledScript> scripts) {
+            this.engine = engine;
+            this.bindings = engine.createBindings();
+            this.scripts = scripts;
+        }
+    }
+
+    /**
+     * A bounded cache of compiled scripts, evicting the least recently used ones
+     */
+    private static final class ScriptCache extends LinkedHashMap<String, CompiledScript> {
+        private final int maxSize;
+
+        private ScriptCache(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CompiledScript> eldest) {
+            return size() > maxSize;
+        }
+    }
+
     //
     // utility
     //
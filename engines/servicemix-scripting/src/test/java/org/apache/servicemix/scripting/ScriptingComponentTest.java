@@ -149,6 +149,29 @@ public class ScriptingComponentTest extends SpringTestSupport {
         client.done(me);
     }
     
+    public void testJavaScriptInOutRepeated() throws Exception {
+        DefaultServiceMixClient client = new DefaultServiceMixClient(jbi);
+        // the engine, bindings and compiled script are reused for the following exchanges
+        for (int i = 0; i < 5; i++) {
+            InOut me = client.createInOutExchange();
+            me.setService(new QName("urn:test", "js-jsr223"));
+            me.getInMessage().setContent(new StringSource("<hello>jsr-223 " + i + "</hello>"));
+            client.sendSync(me);
+            if (me.getStatus() == ExchangeStatus.ERROR) {
+                if (me.getError() != null) {
+                    throw me.getError();
+                } else {
+                    fail("Received ERROR status");
+                }
+            } else if (me.getFault() != null) {
+                fail("Received fault: " + new SourceTransformer().toString(me.getFault().getContent()));
+            }
+            assertNotNull("The out message was null...", me.getOutMessage());
+            assertNotNull("The out message content was null...", me.getOutMessage().getContent());
+            client.done(me);
+        }
+    }
+
     public void testJavaScriptInOnly() throws Exception {
         DefaultServiceMixClient client = new DefaultServiceMixClient(jbi);
         Receiver receiver = (Receiver) getBean("receiver");
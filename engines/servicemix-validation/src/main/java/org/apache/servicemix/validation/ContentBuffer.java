@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.validation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * An output stream keeping the data in memory up to a threshold, and in a
+ * temporary file beyond.  The data can be read back any number of times with
+ * {@link #getInputStream()}; the temporary file is deleted by {@link #dispose()}.
+ */
+public class ContentBuffer extends OutputStream {
+
+    private final int threshold;
+
+    private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+
+    private File file;
+
+    private OutputStream current = memory;
+
+    public ContentBuffer(int threshold) {
+        this.threshold = threshold;
+    }
+
+    public void write(int b) throws IOException {
+        switchToFileIfNeeded(1);
+        current.write(b);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        switchToFileIfNeeded(len);
+        current.write(b, off, len);
+    }
+
+    public void flush() throws IOException {
+        current.flush();
+    }
+
+    public void close() throws IOException {
+        current.close();
+    }
+
+    private void switchToFileIfNeeded(int len) throws IOException {
+        if (memory != null && memory.size() + len > threshold) {
+            file = File.createTempFile("servicemix-validation", ".xml");
+            current = new FileOutputStream(file);
+            memory.writeTo(current);
+            memory = null;
+        }
+    }
+
+    /**
+     * Wraps a stream so that all the data read from it is also written to this buffer.
+     *
+     * @param in the stream to copy
+     * @return the stream to read instead of <code>in</code>
+     */
+    public InputStream copyOf(InputStream in) {
+        return new FilterInputStream(in) {
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    write(b);
+                }
+                return b;
+            }
+
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) {
+                    write(b, off, n);
+                }
+                return n;
+            }
+
+            public long skip(long n) throws IOException {
+                // skipped data must be copied as well
+                long skipped = 0;
+                while (skipped < n && read() >= 0) {
+                    skipped++;
+                }
+                return skipped;
+            }
+
+            public boolean markSupported() {
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return a new stream reading the data written so far
+     * @throws IOException
+     */
+    public InputStream getInputStream() throws IOException {
+        current.flush();
+        if (memory != null) {
+            return new ByteArrayInputStream(memory.toByteArray());
+        }
+        return new FileInputStream(file);
+    }
+
+    /**
+     * @return the temporary file, or <code>null</code> if the data is kept in memory
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Releases the buffer, deleting its temporary file if any.
+     */
+    public void dispose() {
+        try {
+            current.close();
+        } catch (IOException e) {
+            // nothing more can be done with the buffer
+        }
+        if (file != null) {
+            file.delete();
+        }
+    }
+
+}
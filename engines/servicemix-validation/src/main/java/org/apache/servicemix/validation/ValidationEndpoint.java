@@ -16,9 +16,16 @@
  */
 package org.apache.servicemix.validation;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.jbi.JBIException;
+import javax.jbi.messaging.ExchangeStatus;
 import javax.jbi.messaging.Fault;
 import javax.jbi.messaging.MessageExchange;
 import javax.jbi.messaging.MessagingException;
@@ -28,6 +35,8 @@ import javax.xml.transform.Source;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.dom.DOMResult;
 import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
@@ -43,6 +52,7 @@ import org.apache.servicemix.validation.handler.MessageAwareErrorHandler;
 import org.apache.servicemix.validation.handler.MessageAwareErrorHandlerFactory;
 import org.springframework.core.io.Resource;
 
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
 /**
@@ -88,6 +98,16 @@ public class ValidationEndpoint extends ProviderEndpoint implements
 
     private SourceTransformer sourceTransformer = new SourceTransformer();
 
+    private boolean streaming;
+
+    private int memoryThreshold = 1024 * 1024;
+
+    // validators are not thread-safe, so each one is used by a single exchange at a time
+    private final Queue<Validator> validators = new ConcurrentLinkedQueue<Validator>();
+
+    // contents forwarded in streaming mode, by exchange id
+    private final Map<String, ContentBuffer> buffers = new ConcurrentHashMap<String, ContentBuffer>();
+
     /*
      * (non-Javadoc)
      * 
@@ -124,6 +144,9 @@ public class ValidationEndpoint extends ProviderEndpoint implements
         } catch (SAXException e) {
             throw new JBIException("Failed to load schema: " + e, e);
         }
+
+        // the schema may have changed since the endpoint was stopped
+        validators.clear();
     }
 
     /*
@@ -133,7 +156,47 @@ public class ValidationEndpoint extends ProviderEndpoint implements
      */
     @Override
     public void stop() throws Exception {
-        super.stop();
+        try {
+            super.stop();
+        } finally {
+            validators.clear();
+            // the exchanges still pending will not complete anymore
+            for (String exchangeId : buffers.keySet()) {
+                release(exchangeId);
+            }
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.apache.servicemix.common.endpoints.ProviderEndpoint#process(javax.jbi.messaging.MessageExchange)
+     */
+    @Override
+    public void process(MessageExchange exchange) throws Exception {
+        if (exchange.getStatus() != ExchangeStatus.ACTIVE) {
+            // the content forwarded in the out message is not needed anymore
+            release(exchange.getExchangeId());
+        }
+        try {
+            super.process(exchange);
+        } catch (Exception e) {
+            // the exchange will be sent back in error, it does not come back to us
+            release(exchange.getExchangeId());
+            throw e;
+        }
+    }
+
+    /**
+     * Releases the content buffered for an exchange, deleting its temporary file if any.
+     * 
+     * @param exchangeId
+     */
+    protected void release(String exchangeId) {
+        ContentBuffer buffer = buffers.remove(exchangeId);
+        if (buffer != null) {
+            buffer.dispose();
+        }
     }
 
     /*
@@ -147,7 +210,12 @@ public class ValidationEndpoint extends ProviderEndpoint implements
         throws Exception {
         NormalizedMessage out = exchange.createMessage();
         Fault fault = exchange.createFault();
-        this.startValidation(exchange, in, out, fault);
+        try {
+            this.startValidation(exchange, in, out, fault);
+        } finally {
+            // the out message is not sent
+            release(exchange.getExchangeId());
+        }
 
         if (fault.getContent() != null) {
             throw new RuntimeException(sourceTransformer.contentToString(fault));
@@ -182,34 +250,37 @@ public class ValidationEndpoint extends ProviderEndpoint implements
      */
     public void startValidation(MessageExchange exchange, NormalizedMessage in,
             NormalizedMessage out, Fault fault) throws Exception {
-        Validator validator = schema.newValidator();
-        
-        if (noNamespaceSchemaResource != null) {
-            logger.info("Enabling validation for noNamespace-XML documents.");
-            validator.setFeature("http://xml.org/sax/features/validation", true);
-            validator.setFeature("http://apache.org/xml/features/validation/schema", true);
-            validator.setProperty("http://apache.org/xml/properties/schema/external-noNamespaceSchemaLocation", noNamespaceSchemaResource.getURL().toExternalForm());
-        }
+        Validator validator = getValidator();
         
         // create a new errorHandler and set it on the validator
         MessageAwareErrorHandler errorHandler = errorHandlerFactory
                 .createMessageAwareErrorHandler();
         validator.setErrorHandler(errorHandler);
-        DOMResult result = new DOMResult();
+        DOMResult result = null;
+        Source validated = null;
+        ContentBuffer buffer = null;
 
         fault.setContent(null);
 
         try {
-            // Only DOMSource and SAXSource are allowed for validating
-            // See
-            // http://java.sun.com/j2se/1.5.0/docs/api/javax/xml/validation/
-            // Validator.html#validate(javax.xml.transform.Source,%20javax.xml.transform.Result)
-            // As we expect a DOMResult as output, we must ensure that the input
-            // is a DOMSource
-            DOMSource src = sourceTransformer.toDOMSource(in.getContent());
-
-            // call the validation method
-            doValidation(validator, src, result);
+            if (streaming) {
+                // validate the content as it is read and keep the original
+                // bytes in a buffer to forward them if the validation succeeds
+                buffer = new ContentBuffer(memoryThreshold);
+                validated = doStreamingValidation(validator, in.getContent(), buffer);
+            } else {
+                // Only DOMSource and SAXSource are allowed for validating
+                // See
+                // http://java.sun.com/j2se/1.5.0/docs/api/javax/xml/validation/
+                // Validator.html#validate(javax.xml.transform.Source,%20javax.xml.transform.Result)
+                // As we expect a DOMResult as output, we must ensure that the input
+                // is a DOMSource
+                DOMSource src = sourceTransformer.toDOMSource(in.getContent());
+                result = new DOMResult();
+
+                // call the validation method
+                doValidation(validator, src, result);
+            }
 
             // check if there were errors while validating
             if (errorHandler.hasErrors()) {
@@ -273,6 +344,11 @@ public class ValidationEndpoint extends ProviderEndpoint implements
                 } else {
                     MessageUtil.transfer(fault, out);
                 }
+            } else if (streaming) {
+                out.setContent(validated);
+                // keep the buffer until the exchange completes
+                buffers.put(exchange.getExchangeId(), buffer);
+                buffer = null;
             } else {
                 // Retrieve the ouput of the validation
                 // as it may have been changed by the validator
@@ -287,6 +363,11 @@ public class ValidationEndpoint extends ProviderEndpoint implements
             throw new MessagingException(e);
         } catch (TransformerException e) {
             throw new MessagingException(e);
+        } finally {
+            if (buffer != null) {
+                buffer.dispose();
+            }
+            releaseValidator(validator);
         }
     }
 
@@ -304,6 +385,112 @@ public class ValidationEndpoint extends ProviderEndpoint implements
         validator.validate(src, result);
     }
 
+    /**
+     * does the validation in streaming mode, without building a DOM tree
+     * for the message content: the content is validated while it is copied
+     * into the given buffer, which only keeps it in memory up to the memory
+     * threshold
+     * 
+     * @param validator
+     * @param content
+     * @param buffer
+     * @return the source to forward if the validation succeeds
+     * @throws SAXException
+     * @throws IOException
+     * @throws TransformerException
+     */
+    protected Source doStreamingValidation(Validator validator, Source content, ContentBuffer buffer)
+        throws SAXException, IOException, TransformerException {
+        if (content instanceof DOMSource) {
+            // already parsed, validate in place and forward it unchanged
+            validator.validate(content);
+            return content;
+        }
+        InputStream in = null;
+        if (content instanceof StreamSource) {
+            in = ((StreamSource) content).getInputStream();
+        }
+        if (in != null) {
+            InputStream copy = buffer.copyOf(in);
+            try {
+                validator.validate(new SAXSource(createInputSource(copy, content.getSystemId())));
+                // copy what the parser did not need to read
+                byte[] data = new byte[4096];
+                while (copy.read(data) >= 0) {
+                    // keep copying
+                }
+            } finally {
+                copy.close();
+            }
+            buffer.close();
+        } else {
+            // the content can only be read once, so write it before validating it
+            sourceTransformer.toResult(content, new StreamResult(buffer));
+            buffer.close();
+            InputStream data = buffer.getInputStream();
+            try {
+                validator.validate(new SAXSource(createInputSource(data, content.getSystemId())));
+            } finally {
+                data.close();
+            }
+        }
+        return new StreamSource(buffer.getInputStream(), content.getSystemId());
+    }
+
+    private InputSource createInputSource(InputStream in, String systemId) {
+        // the parser closes its input, which is read again afterwards
+        InputSource input = new InputSource(new FilterInputStream(in) {
+            public void close() {
+            }
+        });
+        input.setSystemId(systemId);
+        return input;
+    }
+
+    /**
+     * Takes a validator from the pool, creating it if none is available.
+     * 
+     * @return the validator
+     * @throws SAXException
+     * @throws IOException
+     */
+    protected Validator getValidator() throws SAXException, IOException {
+        Validator validator = validators.poll();
+        if (validator == null) {
+            validator = createValidator();
+        }
+        return validator;
+    }
+
+    /**
+     * Returns a validator to the pool once the validation is done.
+     * 
+     * @param validator
+     */
+    protected void releaseValidator(Validator validator) {
+        validator.setErrorHandler(null);
+        validators.offer(validator);
+    }
+
+    /**
+     * Creates a new validator for the configured schema.
+     * 
+     * @return the validator
+     * @throws SAXException
+     * @throws IOException
+     */
+    protected Validator createValidator() throws SAXException, IOException {
+        Validator validator = schema.newValidator();
+        
+        if (noNamespaceSchemaResource != null) {
+            logger.info("Enabling validation for noNamespace-XML documents.");
+            validator.setFeature("http://xml.org/sax/features/validation", true);
+            validator.setFeature("http://apache.org/xml/features/validation/schema", true);
+            validator.setProperty("http://apache.org/xml/properties/schema/external-noNamespaceSchemaLocation", noNamespaceSchemaResource.getURL().toExternalForm());
+        }
+        return validator;
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -429,6 +616,38 @@ public class ValidationEndpoint extends ProviderEndpoint implements
         this.noNamespaceSchemaResource = schemaResource;
     }
 
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Validate the message content while it is being read instead of building a DOM
+     * tree for it.  When the validation succeeds, the original content is forwarded
+     * unchanged rather than the output of the validator: it is buffered in memory up
+     * to <code>memoryThreshold</code> and in a temporary file beyond.  Defaults to
+     * <code>false</code>.
+     *
+     * @param streaming
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    public int getMemoryThreshold() {
+        return memoryThreshold;
+    }
+
+    /**
+     * Set the size, in bytes, up to which the content validated in streaming mode
+     * is kept in memory.  Larger contents are buffered in a temporary file, deleted
+     * once the exchange completes.  Defaults to 1 MB.
+     *
+     * @param memoryThreshold
+     */
+    public void setMemoryThreshold(int memoryThreshold) {
+        this.memoryThreshold = memoryThreshold;
+    }
+
     public MessageAwareErrorHandlerFactory getErrorHandlerFactory() {
         return errorHandlerFactory;
     }
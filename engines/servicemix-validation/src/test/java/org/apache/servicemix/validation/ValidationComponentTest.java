@@ -19,11 +19,13 @@ package org.apache.servicemix.validation;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 
 import javax.activation.FileDataSource;
 import javax.jbi.messaging.ExchangeStatus;
 import javax.jbi.messaging.InOut;
 import javax.xml.namespace.QName;
+import javax.xml.transform.stream.StreamSource;
 
 import org.apache.servicemix.client.DefaultServiceMixClient;
 import org.apache.servicemix.jbi.jaxp.SourceTransformer;
@@ -159,6 +161,49 @@ public class ValidationComponentTest extends SpringTestSupport {
         client.done(me);
     }
     
+    public void testValidationOKStreaming() throws Exception {
+        DefaultServiceMixClient client = new DefaultServiceMixClient(jbi);
+        InOut me = client.createInOutExchange();
+        me.setService(new QName("urn:test", "service4"));
+        
+        String content = getFileContent(VALID_FILE);
+        
+        me.getInMessage().setContent(new StringSource(content));
+        client.sendSync(me);
+        if (me.getStatus() == ExchangeStatus.ERROR) {
+            if (me.getError() != null) {
+                throw me.getError();
+            } else {
+                fail("Received ERROR status");
+            }
+        } else if (me.getFault() != null) {
+            fail("Received fault: " + new SourceTransformer().toString(me.getFault().getContent()));
+        }
+        // the original content is forwarded as is
+        assertTrue(me.getOutMessage().getContent() instanceof StreamSource);
+        InputStream out = ((StreamSource) me.getOutMessage().getContent()).getInputStream();
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        FileUtil.copyInputStream(out, data);
+        out.close();
+        assertEquals(content, data.toString());
+        client.done(me);
+    }
+    
+    public void testValidationNotOKStreaming() throws Exception {
+        DefaultServiceMixClient client = new DefaultServiceMixClient(jbi);
+        InOut me = client.createInOutExchange();
+        me.setService(new QName("urn:test", "service4"));
+        
+        String content = getFileContent(INVALID_FILE);
+        
+        me.getInMessage().setContent(new StringSource(content));
+        client.sendSync(me);
+        
+        assertNotNull(me.getFault());
+        logger.info(new SourceTransformer().toString(me.getFault().getContent()));
+        client.done(me);
+    }
+    
     /**
      * reads the file contents to string
      * 
@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.servicemix.validation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Validator;
+
+import junit.framework.TestCase;
+
+import org.apache.servicemix.jbi.util.FileUtil;
+import org.springframework.core.io.ClassPathResource;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+public class ValidationEndpointTest extends TestCase {
+
+    private static final String VALID_FILE = "target/test-classes/requestValid.xml";
+    private static final String INVALID_FILE = "target/test-classes/requestInvalid.xml";
+
+    private CountingEndpoint endpoint;
+
+    protected void setUp() throws Exception {
+        endpoint = new CountingEndpoint();
+        endpoint.setSchemaResource(new ClassPathResource("schema.xsd"));
+        endpoint.start();
+    }
+
+    protected void tearDown() throws Exception {
+        endpoint.stop();
+    }
+
+    public void testValidatorsPooledAndClearedOnStop() throws Exception {
+        Validator validator = endpoint.getValidator();
+        endpoint.releaseValidator(validator);
+        assertSame(validator, endpoint.getValidator());
+        // a validator in use is not shared
+        Validator other = endpoint.getValidator();
+        assertNotSame(validator, other);
+        endpoint.releaseValidator(validator);
+        endpoint.releaseValidator(other);
+        assertEquals(2, endpoint.created);
+
+        endpoint.stop();
+        endpoint.start();
+
+        assertNotSame(validator, endpoint.getValidator());
+        assertEquals(3, endpoint.created);
+    }
+
+    public void testStreamingValidationSpillsToFile() throws Exception {
+        ContentBuffer buffer = new ContentBuffer(64);
+        try {
+            Source validated = endpoint.doStreamingValidation(endpoint.getValidator(),
+                    new StreamSource(new FileInputStream(VALID_FILE)), buffer);
+
+            File file = buffer.getFile();
+            assertNotNull(file);
+            assertTrue(file.exists());
+            assertEquals(read(new FileInputStream(VALID_FILE)),
+                         read(((StreamSource) validated).getInputStream()));
+        } finally {
+            buffer.dispose();
+        }
+        assertFalse(buffer.getFile().exists());
+    }
+
+    public void testStreamingValidationKeepsSmallContentInMemory() throws Exception {
+        ContentBuffer buffer = new ContentBuffer(1024 * 1024);
+        Source validated = endpoint.doStreamingValidation(endpoint.getValidator(),
+                new StreamSource(new FileInputStream(VALID_FILE)), buffer);
+
+        assertNull(buffer.getFile());
+        assertEquals(read(new FileInputStream(VALID_FILE)),
+                     read(((StreamSource) validated).getInputStream()));
+    }
+
+    public void testStreamingValidationOfInvalidContent() throws Exception {
+        ContentBuffer buffer = new ContentBuffer(64);
+        try {
+            endpoint.doStreamingValidation(endpoint.getValidator(),
+                    new StreamSource(new FileInputStream(INVALID_FILE)), buffer);
+            fail("The content is not valid");
+        } catch (SAXException e) {
+            // expected
+        } finally {
+            buffer.dispose();
+        }
+        assertTrue(buffer.getFile() == null || !buffer.getFile().exists());
+    }
+
+    public void testStreamingValidationOfSaxSource() throws Exception {
+        ContentBuffer buffer = new ContentBuffer(64);
+        try {
+            Source validated = endpoint.doStreamingValidation(endpoint.getValidator(),
+                    new SAXSource(new InputSource(new FileInputStream(VALID_FILE))), buffer);
+
+            assertTrue(read(((StreamSource) validated).getInputStream()).contains("<purchaseOrder"));
+        } finally {
+            buffer.dispose();
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        try {
+            FileUtil.copyInputStream(in, data);
+        } finally {
+            in.close();
+        }
+        return data.toString("UTF-8");
+    }
+
+    private static class CountingEndpoint extends ValidationEndpoint {
+
+        private int created;
+
+        protected Validator createValidator() throws SAXException, IOException {
+            created++;
+            return super.createValidator();
+        }
+    }
+
+}